@@ -5,15 +5,14 @@ import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -30,6 +29,10 @@ public class AIReplyGenerator {
     
     private static final String TAG = "AIReplyGenerator";
     
+    // 对话接口的生成参数
+    private static final int MAX_TOKENS = 100;
+    private static final double TEMPERATURE = 0.7;
+    
     // AI模型类型
     public enum AIModel {
         OPENAI,      // OpenAI GPT系列
@@ -54,10 +57,19 @@ public class AIReplyGenerator {
     // 对话管理器，用于获取角色设定
     private ConversationManager conversationManager;
     
+    // 讯飞星火连接池，首次使用时创建
+    private XunfeiSparkProvider xunfeiProvider;
+    
+    // 智谱AI令牌缓存，首次使用时创建
+    private ZhipuTokenCache zhipuTokenCache;
+    
+    // 模型调用指标，按模型区分
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    
     /**
      * 模型配置类
      */
-    private static class ModelConfig {
+    public static class ModelConfig {
         // OpenAI配置
         String openaiApiKey = "your_openai_api_key"; // 替换为实际的API密钥
         String openaiModel = "gpt-3.5-turbo";
@@ -68,17 +80,38 @@ public class AIReplyGenerator {
         String baiduSecretKey = "your_baidu_secret_key"; // 替换为实际的密钥
         String baiduApiUrl = "https://aip.baidubce.com/rpc/2.0/ai_custom/v1/wenxinworkshop/chat/completions";
         
+        // 讯飞星火配置
+        String xunfeiAppId = "your_xunfei_app_id"; // 替换为实际的APPID
+        String xunfeiApiKey = "your_xunfei_api_key"; // 替换为实际的API密钥
+        String xunfeiApiSecret = "your_xunfei_api_secret"; // 替换为实际的密钥
+        String xunfeiApiUrl = "wss://spark-api.xf-yun.com/v3.5/chat";
+        String xunfeiDomain = "generalv3.5";
+        int xunfeiPoolSize = 2;
+        
+        // 智谱AI配置
+        String zhipuApiKey = "your_zhipu_api_id.your_zhipu_api_secret"; // 替换为实际的API密钥
+        String zhipuModel = "glm-4";
+        String zhipuApiUrl = "https://open.bigmodel.cn/api/paas/v4/chat/completions";
+        
         // 其他模型配置...
     }
     
     /**
-     * 构造函数
+     * 构造函数，使用单独的对话管理器
      */
     public AIReplyGenerator(Context context) {
+        this(context, new ConversationManager(context));
+    }
+    
+    /**
+     * 构造函数
+     * @param conversationManager 共享的对话管理器，用于读取角色设定
+     */
+    public AIReplyGenerator(Context context, ConversationManager conversationManager) {
         this.context = context;
         this.modelConfig = new ModelConfig();
         this.executorService = Executors.newSingleThreadExecutor();
-        this.conversationManager = new ConversationManager(context);
+        this.conversationManager = conversationManager;
     }
     
     /**
@@ -87,19 +120,40 @@ public class AIReplyGenerator {
      * @param history 对话历史
      * @return AI回复内容
      */
-    public String generateReply(String userName, List<ConversationManager.Message> history) {
+    public String generateReply(String userName, List<ChatMessage> history) {
+        return generateReply(userName, history, null);
+    }
+    
+    /**
+     * 生成AI回复，并记录构建提示和模型调用的耗时
+     * @param userName 用户名
+     * @param history 对话历史
+     * @param trace 处理链路，可以为null
+     * @return AI回复内容
+     */
+    public String generateReply(String userName, List<ChatMessage> history, MessageTrace trace) {
+        AIModel model = currentModel;
+        long providerStart = 0;
         try {
             // 1. 获取角色设定
+            if (trace != null) {
+                trace.begin(MessageTrace.Stage.PROMPT);
+            }
             String roleSetting = conversationManager.getRoleSetting(userName);
             
             // 2. 构建对话上下文
-            String prompt = buildPrompt(roleSetting, history);
+            String prompt = PromptBuilder.buildPrompt(roleSetting, history);
+            if (trace != null) {
+                trace.end(MessageTrace.Stage.PROMPT);
+                trace.begin(MessageTrace.Stage.PROVIDER);
+            }
             
             // 3. 根据当前模型生成回复
+            providerStart = System.nanoTime();
             String reply;
-            switch (currentModel) {
+            switch (model) {
                 case OPENAI:
-                    reply = generateOpenAIReply(prompt);
+                    reply = generateOpenAIReply(prompt, null);
                     break;
                 case BAIDU_WENXIN:
                     reply = generateBaiduWenxinReply(prompt);
@@ -108,7 +162,7 @@ public class AIReplyGenerator {
                     reply = generateXunfeiReply(prompt);
                     break;
                 case ZHIPU:
-                    reply = generateZhipuReply(prompt);
+                    reply = generateZhipuReply(prompt, null);
                     break;
                 case LOCAL:
                     reply = generateLocalReply(prompt);
@@ -117,116 +171,134 @@ public class AIReplyGenerator {
                     reply = generateDefaultReply();
                     break;
             }
+            if (trace != null) {
+                trace.end(MessageTrace.Stage.PROVIDER);
+            }
+            recordProviderCall(model, providerStart, reply != null && !reply.isEmpty());
             
             Log.d(TAG, "AI回复生成成功 - 用户: " + userName + ", 回复: " + reply);
             return reply;
             
         } catch (Exception e) {
             Log.e(TAG, "生成AI回复异常: " + e.getMessage(), e);
+            if (providerStart != 0) {
+                recordProviderCall(model, providerStart, false);
+            }
             return generateDefaultReply();
         }
     }
     
     /**
-     * 构建对话提示
-     * @param roleSetting 角色设定
+     * 记录一次模型调用的次数、失败次数和耗时
+     * @param success 是否得到非空回复
+     */
+    private void recordProviderCall(AIModel model, long startNanos, boolean success) {
+        String label = model.name().toLowerCase(Locale.ROOT);
+        metrics.counter("momo_provider_requests_total", "模型调用次数", "model", label).inc();
+        if (!success) {
+            metrics.counter("momo_provider_errors_total", "模型调用失败或返回空回复的次数", "model", label).inc();
+        }
+        metrics.histogram("momo_provider_latency_seconds", "模型调用耗时", MetricsRegistry.MICROS_BUCKETS,
+                MetricsRegistry.MICROS_TO_SECONDS, "model", label).record((System.nanoTime() - startNanos) / 1000);
+    }
+    
+    /**
+     * 流式生成AI回复
+     * 支持流式输出的模型逐段回调，其余模型生成完成后一次性回调
+     * @param userName 用户名
      * @param history 对话历史
-     * @return 构建好的提示
+     * @param listener 流式监听器
      */
-    private String buildPrompt(String roleSetting, List<ConversationManager.Message> history) {
-        StringBuilder prompt = new StringBuilder();
-        
-        // 添加角色设定
-        prompt.append(roleSetting).append("\n\n");
-        
-        // 添加对话历史
-        for (ConversationManager.Message message : history) {
-            String role = message.sender.equals("self") ? "助手" : "用户";
-            prompt.append(role).append(": ").append(message.content).append("\n");
+    public void generateReplyStream(String userName, List<ChatMessage> history,
+                                    ReplyStreamListener listener) {
+        try {
+            String roleSetting = conversationManager.getRoleSetting(userName);
+            String prompt = PromptBuilder.buildPrompt(roleSetting, history);
+            
+            switch (currentModel) {
+                case OPENAI:
+                    generateOpenAIReply(prompt, listener);
+                    break;
+                case XUNFEI:
+                    getXunfeiProvider().generate(PromptBuilder.buildChatMessages(prompt), listener);
+                    break;
+                case ZHIPU:
+                    generateZhipuReply(prompt, listener);
+                    break;
+                default:
+                    String reply = generateReply(userName, history);
+                    listener.onToken(reply);
+                    listener.onComplete(reply);
+                    break;
+            }
+            
+        } catch (Exception e) {
+            Log.e(TAG, "流式生成AI回复异常: " + e.getMessage(), e);
+            listener.onError(e);
         }
-        
-        // 添加当前请求
-        prompt.append("助手: ");
-        
-        return prompt.toString();
     }
     
     /**
      * 生成OpenAI回复
      * @param prompt 提示
+     * @param listener 流式监听器，为null时使用非流式请求
      * @return 回复内容
      * @throws IOException IO异常
      * @throws JSONException JSON异常
      */
-    private String generateOpenAIReply(String prompt) throws IOException, JSONException {
-        URL url = new URL(modelConfig.openaiApiUrl);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        
-        // 设置请求头
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("Authorization", "Bearer " + modelConfig.openaiApiKey);
-        connection.setDoOutput(true);
+    private String generateOpenAIReply(String prompt, ReplyStreamListener listener)
+            throws IOException, JSONException {
+        return requestChatCompletion(modelConfig.openaiApiUrl, "Bearer " + modelConfig.openaiApiKey,
+                modelConfig.openaiModel, prompt, listener);
+    }
+    
+    /**
+     * 调用OpenAI兼容的 chat/completions 接口
+     * @param apiUrl 接口地址
+     * @param authorization Authorization请求头
+     * @param model 模型名称
+     * @param prompt 提示
+     * @param listener 流式监听器，为null时使用非流式请求
+     * @return 回复内容
+     * @throws IOException IO异常
+     * @throws JSONException JSON异常
+     */
+    private String requestChatCompletion(String apiUrl, String authorization, String model,
+                                         String prompt, ReplyStreamListener listener)
+            throws IOException, JSONException {
+        Map<String, String> headers = Collections.singletonMap("Authorization", authorization);
         
         // 构建请求体
-        JSONObject requestBody = new JSONObject();
-        requestBody.put("model", modelConfig.openaiModel);
+        JSONArray messages = PromptBuilder.buildChatMessages(prompt);
         
-        JSONArray messages = new JSONArray();
-        
-        // 添加系统角色
-        JSONObject systemMessage = new JSONObject();
-        systemMessage.put("role", "system");
-        systemMessage.put("content", prompt.substring(0, prompt.indexOf("\n\n")));
-        messages.put(systemMessage);
-        
-        // 添加对话历史
-        String[] lines = prompt.substring(prompt.indexOf("\n\n") + 2).split("\n");
-        for (String line : lines) {
-            if (line.contains(": ")) {
-                String[] parts = line.split(": ", 2);
-                if (parts.length == 2) {
-                    String role = parts[0].equals("用户") ? "user" : "assistant";
-                    String content = parts[1];
-                    
-                    JSONObject message = new JSONObject();
-                    message.put("role", role);
-                    message.put("content", content);
-                    messages.put(message);
-                }
-            }
-        }
-        
-        requestBody.put("messages", messages);
-        requestBody.put("max_tokens", 100);
-        requestBody.put("temperature", 0.7);
-        
-        // 发送请求
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = requestBody.toString().getBytes("utf-8");
-            os.write(input, 0, input.length);
+        if (listener == null) {
+            String response = HttpTransport.getInstance().postJson(apiUrl, headers,
+                    ChatCompletionCodec.encodeRequest(model, messages, MAX_TOKENS, TEMPERATURE, false));
+            
+            // 解析响应
+            String reply = ChatCompletionCodec.decodeReply(response);
+            return reply != null ? reply : generateDefaultReply();
         }
         
-        // 读取响应
-        StringBuilder response = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(
-                new InputStreamReader(connection.getInputStream(), "utf-8"))) {
-            String responseLine;
-            while ((responseLine = br.readLine()) != null) {
-                response.append(responseLine.trim());
+        // 流式请求，逐段回调增量内容
+        StringBuilder reply = new StringBuilder();
+        HttpTransport.getInstance().postJsonStream(apiUrl, headers,
+                ChatCompletionCodec.encodeRequest(model, messages, MAX_TOKENS, TEMPERATURE, true), data -> {
+            try {
+                String token = ChatCompletionCodec.decodeStreamToken(data);
+                if (!token.isEmpty()) {
+                    reply.append(token);
+                    listener.onToken(token);
+                }
+                return true;
+            } catch (JSONException e) {
+                throw new IOException("解析流式响应失败: " + data, e);
             }
-        }
-        
-        // 解析响应
-        JSONObject responseJson = new JSONObject(response.toString());
-        JSONArray choices = responseJson.getJSONArray("choices");
-        if (choices.length() > 0) {
-            JSONObject choice = choices.getJSONObject(0);
-            JSONObject message = choice.getJSONObject("message");
-            return message.getString("content").trim();
-        }
+        });
         
-        return generateDefaultReply();
+        String fullReply = reply.toString().trim();
+        listener.onComplete(fullReply);
+        return fullReply;
     }
     
     /**
@@ -244,22 +316,64 @@ public class AIReplyGenerator {
      * 生成讯飞星火回复
      * @param prompt 提示
      * @return 回复内容
+     * @throws IOException IO异常
+     * @throws JSONException JSON异常
      */
-    private String generateXunfeiReply(String prompt) {
-        // 实现讯飞星火API调用
-        // 这里是示例实现，需要替换为实际API调用
-        return "讯飞星火：" + prompt.substring(prompt.lastIndexOf("用户: ") + 4);
+    private String generateXunfeiReply(String prompt) throws IOException, JSONException {
+        String reply = getXunfeiProvider().generate(PromptBuilder.buildChatMessages(prompt), null);
+        return reply.isEmpty() ? generateDefaultReply() : reply;
+    }
+    
+    /**
+     * 获取讯飞星火连接池，首次调用时创建
+     */
+    private synchronized XunfeiSparkProvider getXunfeiProvider() {
+        if (xunfeiProvider == null) {
+            XunfeiSparkProvider.Config config = new XunfeiSparkProvider.Config();
+            config.appId = modelConfig.xunfeiAppId;
+            config.apiKey = modelConfig.xunfeiApiKey;
+            config.apiSecret = modelConfig.xunfeiApiSecret;
+            config.apiUrl = modelConfig.xunfeiApiUrl;
+            config.domain = modelConfig.xunfeiDomain;
+            config.poolSize = modelConfig.xunfeiPoolSize;
+            xunfeiProvider = new XunfeiSparkProvider(config);
+        }
+        return xunfeiProvider;
     }
     
     /**
      * 生成智谱AI回复
      * @param prompt 提示
+     * @param listener 流式监听器，为null时使用非流式请求
      * @return 回复内容
+     * @throws IOException IO异常
+     * @throws JSONException JSON异常
      */
-    private String generateZhipuReply(String prompt) {
-        // 实现智谱AI API调用
-        // 这里是示例实现，需要替换为实际API调用
-        return "智谱AI：" + prompt.substring(prompt.lastIndexOf("用户: ") + 4);
+    private String generateZhipuReply(String prompt, ReplyStreamListener listener)
+            throws IOException, JSONException {
+        ZhipuTokenCache tokenCache = getZhipuTokenCache();
+        try {
+            return requestChatCompletion(modelConfig.zhipuApiUrl, "Bearer " + tokenCache.getToken(),
+                    modelConfig.zhipuModel, prompt, listener);
+        } catch (HttpTransport.HttpStatusException e) {
+            if (e.statusCode != 401) {
+                throw e;
+            }
+            // 令牌被拒绝时重新签名再试一次
+            tokenCache.invalidate();
+            return requestChatCompletion(modelConfig.zhipuApiUrl, "Bearer " + tokenCache.getToken(),
+                    modelConfig.zhipuModel, prompt, listener);
+        }
+    }
+    
+    /**
+     * 获取智谱AI令牌缓存，首次调用时创建
+     */
+    private synchronized ZhipuTokenCache getZhipuTokenCache() {
+        if (zhipuTokenCache == null) {
+            zhipuTokenCache = new ZhipuTokenCache(modelConfig.zhipuApiKey);
+        }
+        return zhipuTokenCache;
     }
     
     /**
@@ -274,10 +388,13 @@ public class AIReplyGenerator {
     }
     
     /**
-     * 生成默认回复
+     * 生成默认回复，模型调用失败或没有返回内容时代替模型回复
      * @return 默认回复
      */
     private String generateDefaultReply() {
+        metrics.counter("momo_provider_fallbacks_total", "使用默认回复代替模型回复的次数",
+                "model", currentModel.name().toLowerCase(Locale.ROOT)).inc();
+        
         // 默认回复列表，随机选择一个
         String[] defaultReplies = {
             "你好呀，我现在有点忙，稍后再和你聊哦~",
@@ -296,12 +413,70 @@ public class AIReplyGenerator {
         return defaultReplies[randomIndex];
     }
     
+    /**
+     * 当前模型的接口地址，没有网络接口的模型返回null
+     */
+    private synchronized String getProviderUrl() {
+        switch (currentModel) {
+            case OPENAI:
+                return modelConfig.openaiApiUrl;
+            case XUNFEI:
+                return modelConfig.xunfeiApiUrl;
+            case ZHIPU:
+                return modelConfig.zhipuApiUrl;
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * 解析当前模型接口的域名，服务启动时在后台调用
+     * @return 解析到的地址数，没有网络接口或解析失败时为0
+     */
+    public int resolveProviderHost() {
+        String url = getProviderUrl();
+        if (url == null) {
+            return 0;
+        }
+        try {
+            return InetAddress.getAllByName(URI.create(url).getHost()).length;
+        } catch (Exception e) {
+            Log.e(TAG, "解析模型接口域名失败: " + e.getMessage(), e);
+            return 0;
+        }
+    }
+    
+    /**
+     * 预先建立到当前模型接口的连接，服务启动时在后台调用
+     * HTTP接口完成TCP和TLS握手后留在连接池中；讯飞星火提前建立会话
+     */
+    public void preconnectProvider() {
+        if (currentModel == AIModel.XUNFEI) {
+            getXunfeiProvider().warmUp();
+            return;
+        }
+        String url = getProviderUrl();
+        if (url == null) {
+            return;
+        }
+        try {
+            int code = HttpTransport.getInstance().preconnect(url);
+            Log.d(TAG, "模型接口预连接完成 - 状态码: " + code);
+        } catch (IOException e) {
+            Log.e(TAG, "模型接口预连接失败: " + e.getMessage(), e);
+        }
+    }
+    
     /**
      * 设置当前使用的AI模型
      * @param model AI模型类型
      */
     public void setAIModel(AIModel model) {
         this.currentModel = model;
+        if (model == AIModel.XUNFEI) {
+            // 提前建立星火会话，首条消息无需等待握手
+            getXunfeiProvider().warmUp();
+        }
         Log.d(TAG, "AI模型已切换为: " + model.name());
     }
     
@@ -317,8 +492,14 @@ public class AIReplyGenerator {
      * 设置模型配置
      * @param config 模型配置
      */
-    public void setModelConfig(ModelConfig config) {
+    public synchronized void setModelConfig(ModelConfig config) {
         this.modelConfig = config;
+        // 配置变化后重新建立连接池和令牌缓存
+        if (xunfeiProvider != null) {
+            xunfeiProvider.close();
+            xunfeiProvider = null;
+        }
+        zhipuTokenCache = null;
     }
     
     /**
@@ -336,5 +517,11 @@ public class AIReplyGenerator {
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdown();
         }
+        synchronized (this) {
+            if (xunfeiProvider != null) {
+                xunfeiProvider.close();
+                xunfeiProvider = null;
+            }
+        }
     }
 }
@@ -0,0 +1,80 @@
+package com.momoautoreply;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 把 AccessibilityNodeInfo 包装为 UiNode，供 ChatScreenParser 和事件录制读取
+ * 每次读取都直接访问无障碍节点，不做缓存。
+ */
+public class AccessibilityUiNode implements UiNode {
+
+    private final AccessibilityNodeInfo node;
+    private final Rect bounds = new Rect();
+
+    public AccessibilityUiNode(AccessibilityNodeInfo node) {
+        this.node = node;
+    }
+
+    /**
+     * 被包装的无障碍节点
+     */
+    public AccessibilityNodeInfo getNode() {
+        return node;
+    }
+
+    @Override
+    public String getViewId() {
+        return node.getViewIdResourceName();
+    }
+
+    @Override
+    public CharSequence getText() {
+        return node.getText();
+    }
+
+    @Override
+    public void getBounds(int[] out) {
+        node.getBoundsInScreen(bounds);
+        out[0] = bounds.left;
+        out[1] = bounds.top;
+        out[2] = bounds.right;
+        out[3] = bounds.bottom;
+    }
+
+    @Override
+    public UiNode getParent() {
+        return wrap(node.getParent());
+    }
+
+    @Override
+    public int getChildCount() {
+        return node.getChildCount();
+    }
+
+    @Override
+    public UiNode getChild(int index) {
+        return wrap(node.getChild(index));
+    }
+
+    @Override
+    public List<UiNode> findByViewId(String viewId) {
+        List<AccessibilityNodeInfo> found = node.findAccessibilityNodeInfosByViewId(viewId);
+        if (found == null || found.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<UiNode> result = new ArrayList<>(found.size());
+        for (AccessibilityNodeInfo info : found) {
+            result.add(wrap(info));
+        }
+        return result;
+    }
+
+    private static AccessibilityUiNode wrap(AccessibilityNodeInfo info) {
+        return info != null ? new AccessibilityUiNode(info) : null;
+    }
+}
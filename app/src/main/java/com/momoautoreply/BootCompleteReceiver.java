@@ -15,6 +15,8 @@ import android.util.Log;
 public class BootCompleteReceiver extends BroadcastReceiver {
     
     private static final String TAG = "BootCompleteReceiver";
+    // goAsync 之后广播最多保持约10秒，保留任务在此之前结束
+    private static final long RETENTION_BUDGET_MS = 8000;
     
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -53,15 +55,37 @@ public class BootCompleteReceiver extends BroadcastReceiver {
             sendNotification(context);
         }
         
-        // 示例：清理过期的对话历史
-        ConversationManager conversationManager = new ConversationManager(context);
-        // 清理超过7天未活跃的对话（7天 = 7 * 24 * 60 * 60 * 1000毫秒）
-        conversationManager.cleanupInactiveConversations(7 * 24 * 60 * 60 * 1000);
-        conversationManager.close();
+        // 清理过期的对话历史，放到后台线程，避免积压较多时主线程ANR
+        runRetentionAsync(context);
         
         Log.d(TAG, "设备启动完成处理完毕");
     }
     
+    /**
+     * 在后台线程执行一次有时间预算的保留任务，未完成的部分由服务的定期任务继续
+     * @param context 上下文
+     */
+    private void runRetentionAsync(Context context) {
+        final PendingResult pendingResult = goAsync();
+        final Context appContext = context.getApplicationContext();
+        
+        new Thread(() -> {
+            ConversationManager conversationManager = new ConversationManager(appContext);
+            try {
+                // 默认策略：清理超过7天未活跃的对话，每个对话保留最近500条
+                RetentionEngine engine = new RetentionEngine(conversationManager, new RetentionEngine.Policy());
+                RetentionEngine.Result result = engine.run(RETENTION_BUDGET_MS);
+                Log.d(TAG, "开机清理完成 - 删除行数: " + result.getDeletedRows() +
+                        ", 回收空间: " + result.reclaimedBytes / 1024 + "KB");
+            } catch (Exception e) {
+                Log.e(TAG, "开机清理异常: " + e.getMessage(), e);
+            } finally {
+                conversationManager.close();
+                pendingResult.finish();
+            }
+        }, "boot-retention").start();
+    }
+    
     /**
      * 检查无障碍服务是否已开启
      * @param context 上下文
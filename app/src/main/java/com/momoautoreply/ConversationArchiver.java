@@ -0,0 +1,119 @@
+package com.momoautoreply;
+
+import android.util.Log;
+
+/**
+ * 冷对话归档
+ * 功能：
+ * 1. 把长时间未活跃对话的消息压缩成段，移出消息表
+ * 2. 统计每次运行归档的消息数和压缩比
+ *
+ * 消息按时间顺序切成段，每段最多若干条、若干字节，格式见 MessageSegmentCodec。
+ * 段存放在独立的归档表中，并记录段内的ID范围、时间范围和消息数作为索引。
+ * 归档后的对话在读取历史或收到新消息时由 ConversationManager 自动整段恢复，调用方无感知。
+ * 每个对话一个短事务，每次运行有时间预算，用完后下次运行继续。
+ */
+public class ConversationArchiver {
+
+    private static final String TAG = "ConversationArchiver";
+
+    // 每批查找的冷对话数
+    private static final int SCAN_SIZE = 32;
+    // 两个对话之间让出数据库锁的时间
+    private static final long SLICE_PAUSE_MS = 5;
+
+    /**
+     * 归档策略
+     */
+    public static class Policy {
+        // 超过该时间未活跃的对话被归档
+        public long coldAfterMs = 24L * 60 * 60 * 1000;
+        // 每段最多的消息数
+        public int maxSegmentMessages = 256;
+        // 每段最多的未压缩字节数
+        public int maxSegmentBytes = 64 * 1024;
+    }
+
+    /**
+     * 一次运行的结果
+     */
+    public static class Result {
+        public int archivedConversations;
+        public int archivedMessages;
+        public int segments;
+        public long rawBytes;
+        public long compressedBytes;
+        public long elapsedMs;
+        // 是否在时间预算内完成了全部工作
+        public boolean complete;
+
+        /**
+         * 压缩比（未压缩字节数 / 压缩后字节数），没有归档时为0
+         */
+        public double getCompressionRatio() {
+            return compressedBytes == 0 ? 0 : (double) rawBytes / compressedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "归档对话: " + archivedConversations +
+                    ", 归档消息: " + archivedMessages +
+                    ", 段数: " + segments +
+                    ", 压缩: " + rawBytes / 1024 + "KB -> " + compressedBytes / 1024 + "KB" +
+                    String.format(" (%.2fx)", getCompressionRatio()) +
+                    ", 耗时: " + elapsedMs + "ms" +
+                    (complete ? "" : "（未完成，下次继续）");
+        }
+    }
+
+    private final ConversationManager conversationManager;
+    private final Policy policy;
+
+    public ConversationArchiver(ConversationManager conversationManager, Policy policy) {
+        this.conversationManager = conversationManager;
+        this.policy = policy;
+    }
+
+    /**
+     * 执行一次归档任务，不要在主线程调用
+     * @param budgetMs 时间预算（毫秒）
+     * @return 运行结果
+     */
+    public synchronized Result run(long budgetMs) {
+        Result result = new Result();
+        long start = System.currentTimeMillis();
+        long deadline = System.nanoTime() + budgetMs * 1000000;
+        long cutoffTime = start - policy.coldAfterMs;
+
+        try {
+            while (true) {
+                long[] conversationIds = conversationManager.findColdConversations(cutoffTime, SCAN_SIZE);
+                if (conversationIds.length == 0) {
+                    result.complete = true;
+                    break;
+                }
+                boolean exhausted = false;
+                for (long conversationId : conversationIds) {
+                    if (System.nanoTime() - deadline >= 0) {
+                        exhausted = true;
+                        break;
+                    }
+                    conversationManager.archiveConversation(conversationId, cutoffTime,
+                            policy.maxSegmentMessages, policy.maxSegmentBytes, result);
+                    Thread.sleep(SLICE_PAUSE_MS);
+                }
+                if (exhausted) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.e(TAG, "归档对话异常: " + e.getMessage(), e);
+        }
+
+        result.elapsedMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "归档任务完成 - " + result);
+        return result;
+    }
+}
@@ -0,0 +1,154 @@
+package com.momoautoreply;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 对话导出
+ * 功能：
+ * 1. 把所有对话和消息按JSONL格式（每行一个JSON对象）流式写出
+ * 2. 包括已归档的消息，导出不会恢复归档
+ * 3. 统计导出条数和吞吐量
+ *
+ * 每个对话先写一行对话信息，再按时间顺序写它的消息：
+ * {"type":"conversation","user_name":...,"last_active":...,"role_setting":...,"message_count":...}
+ * {"type":"message","user_name":...,"id":...,"sender":"self|other","content":...,"timestamp":...}
+ * 对话逐个读取，消息按页（keyset分页）或按归档段读取，内存占用与数据库大小无关。
+ * 导出期间可以正常收发消息，之后写入的消息可能不在导出结果中。
+ */
+public class ConversationExporter {
+
+    private static final String TAG = "ConversationExporter";
+
+    // 每次从数据库读取的消息数
+    private static final int PAGE_SIZE = 500;
+    // 输出缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 每导出这么多条消息输出一次进度
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    static final String TYPE_CONVERSATION = "conversation";
+    static final String TYPE_MESSAGE = "message";
+
+    /**
+     * 导出结果
+     */
+    public static class Result {
+        public int conversations;
+        public long messages;
+        public long elapsedMs;
+
+        /**
+         * 吞吐量（条/秒）
+         */
+        public double getMessagesPerSecond() {
+            return elapsedMs == 0 ? messages * 1000.0 : messages * 1000.0 / elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return "对话: " + conversations +
+                    ", 消息: " + messages +
+                    ", 耗时: " + elapsedMs + "ms" +
+                    String.format(", 吞吐量: %.0f条/秒", getMessagesPerSecond());
+        }
+    }
+
+    private final ConversationManager conversationManager;
+
+    public ConversationExporter(ConversationManager conversationManager) {
+        this.conversationManager = conversationManager;
+    }
+
+    /**
+     * 导出全部对话，不要在主线程调用
+     * @param out 输出流，导出后刷新但不关闭
+     * @return 导出结果
+     * @throws IOException 写出失败
+     */
+    public Result export(OutputStream out) throws IOException {
+        Result result = new Result();
+        long start = System.currentTimeMillis();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+
+        try (ConversationManager.ConversationSummaryIterator conversations =
+                     conversationManager.openConversationSummaries()) {
+            while (conversations.hasNext()) {
+                ConversationManager.ConversationSummary summary = conversations.next();
+                writeLine(writer, new JSONObject()
+                        .put("type", TYPE_CONVERSATION)
+                        .put("user_name", summary.userName)
+                        .put("last_active", summary.lastActive)
+                        .put("role_setting", summary.roleSetting)
+                        .put("message_count", summary.messageCount));
+                result.conversations++;
+
+                long conversationId = Long.parseLong(summary.id);
+                // 1. 归档段中的消息早于消息表中的消息
+                for (long segmentId : conversationManager.findArchivedSegments(conversationId)) {
+                    try {
+                        writeMessages(writer, summary.userName, conversationManager.readArchivedSegment(segmentId),
+                                result, start);
+                    } catch (IOException e) {
+                        Log.e(TAG, "归档段损坏，跳过 - 用户: " + summary.userName + ", 段ID: " + segmentId, e);
+                    }
+                }
+
+                // 2. 消息表中的消息，按 (时间, ID) 分页
+                long afterTimestamp = Long.MIN_VALUE;
+                long afterId = Long.MIN_VALUE;
+                while (true) {
+                    List<ChatMessage> page = conversationManager.readMessagePage(
+                            conversationId, afterTimestamp, afterId, PAGE_SIZE);
+                    writeMessages(writer, summary.userName, page, result, start);
+                    if (page.size() < PAGE_SIZE) {
+                        break;
+                    }
+                    ChatMessage last = page.get(page.size() - 1);
+                    afterTimestamp = last.timestamp;
+                    afterId = Long.parseLong(last.id);
+                }
+            }
+        } catch (JSONException e) {
+            throw new IOException("生成JSON失败", e);
+        }
+        writer.flush();
+
+        result.elapsedMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "导出完成 - " + result);
+        return result;
+    }
+
+    private void writeMessages(Writer writer, String userName, List<ChatMessage> messages,
+                               Result result, long start) throws IOException, JSONException {
+        for (ChatMessage message : messages) {
+            writeLine(writer, new JSONObject()
+                    .put("type", TYPE_MESSAGE)
+                    .put("user_name", userName)
+                    .put("id", Long.parseLong(message.id))
+                    .put("sender", message.sender)
+                    .put("content", message.content)
+                    .put("timestamp", message.timestamp));
+            result.messages++;
+            if (result.messages % PROGRESS_INTERVAL == 0) {
+                result.elapsedMs = System.currentTimeMillis() - start;
+                Log.d(TAG, "导出进度 - " + result);
+            }
+        }
+    }
+
+    private static void writeLine(Writer writer, JSONObject line) throws IOException {
+        writer.write(line.toString());
+        writer.write('\n');
+    }
+}
@@ -0,0 +1,186 @@
+package com.momoautoreply;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对话导入
+ * 功能：
+ * 1. 流式读取 ConversationExporter 导出的JSONL文件
+ * 2. 按批写入数据库，每批一个事务
+ * 3. 每批提交时在同一事务内记录断点，中断后从断点继续
+ * 4. 统计导入条数和吞吐量
+ *
+ * 断点是已提交的行数，按导入任务名保存，同一文件续传时必须使用相同的任务名。
+ * 导入完成后断点被删除，再次导入同一文件会重复写入消息。
+ * 消息在本机重新分配ID，导出文件中的ID只用于参考。格式错误的行跳过并计数。
+ */
+public class ConversationImporter {
+
+    private static final String TAG = "ConversationImporter";
+
+    // 每个事务导入的条目数
+    private static final int BATCH_SIZE = 500;
+    // 输入缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 每导入这么多条消息输出一次进度
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    /**
+     * 导入的一行：对话条目的 content 为null，timestamp 为对话的最后活跃时间
+     */
+    static class Entry {
+        final String userName;
+        final String roleSetting;
+        final boolean isSelf;
+        final String content;
+        final long timestamp;
+
+        Entry(String userName, String roleSetting, boolean isSelf, String content, long timestamp) {
+            this.userName = userName;
+            this.roleSetting = roleSetting;
+            this.isSelf = isSelf;
+            this.content = content;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * 导入结果
+     */
+    public static class Result {
+        // 断点续传时跳过的行数
+        public long resumedFromLine;
+        public long messages;
+        public int batches;
+        public int malformedLines;
+        public long elapsedMs;
+        public boolean complete;
+
+        /**
+         * 吞吐量（条/秒）
+         */
+        public double getMessagesPerSecond() {
+            return elapsedMs == 0 ? messages * 1000.0 : messages * 1000.0 / elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return "消息: " + messages +
+                    ", 批次: " + batches +
+                    (resumedFromLine > 0 ? ", 从第" + resumedFromLine + "行继续" : "") +
+                    (malformedLines > 0 ? ", 格式错误: " + malformedLines + "行" : "") +
+                    ", 耗时: " + elapsedMs + "ms" +
+                    String.format(", 吞吐量: %.0f条/秒", getMessagesPerSecond()) +
+                    (complete ? "" : "（未完成，可从断点继续）");
+        }
+    }
+
+    private final ConversationManager conversationManager;
+
+    public ConversationImporter(ConversationManager conversationManager) {
+        this.conversationManager = conversationManager;
+    }
+
+    /**
+     * 导入JSONL数据，不要在主线程调用
+     * @param in 输入流，由调用方关闭
+     * @param importName 导入任务名，用于保存和查找断点
+     * @return 导入结果，读取失败或线程被中断时 complete 为false，已提交的批次保留
+     */
+    public Result importFrom(InputStream in, String importName) {
+        Result result = new Result();
+        long start = System.currentTimeMillis();
+        long checkpoint = conversationManager.readImportCheckpoint(importName);
+        result.resumedFromLine = checkpoint;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        long lineNumber = 0;
+        long nextProgress = PROGRESS_INTERVAL;
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                // 已提交的行只读不解析
+                if (lineNumber <= checkpoint || line.isEmpty()) {
+                    continue;
+                }
+
+                Entry entry = parse(line);
+                if (entry == null) {
+                    result.malformedLines++;
+                    continue;
+                }
+                batch.add(entry);
+
+                if (batch.size() >= BATCH_SIZE) {
+                    commit(batch, importName, lineNumber, result);
+                    if (result.messages >= nextProgress) {
+                        nextProgress = result.messages + PROGRESS_INTERVAL;
+                        result.elapsedMs = System.currentTimeMillis() - start;
+                        Log.d(TAG, "导入进度 - " + result);
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                }
+            }
+            if (line == null) {
+                if (!batch.isEmpty()) {
+                    commit(batch, importName, lineNumber, result);
+                }
+                conversationManager.clearImportCheckpoint(importName);
+                result.complete = true;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "导入异常，可从断点继续 - 行: " + lineNumber + ", " + e.getMessage(), e);
+        }
+
+        result.elapsedMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "导入结束 - " + result);
+        return result;
+    }
+
+    private void commit(List<Entry> batch, String importName, long lineNumber, Result result) {
+        result.messages += conversationManager.importBatch(batch, importName, lineNumber);
+        result.batches++;
+        batch.clear();
+    }
+
+    /**
+     * 解析一行
+     * @return 条目，格式错误或未知类型时返回null
+     */
+    private static Entry parse(String line) {
+        try {
+            JSONObject json = new JSONObject(line);
+            String type = json.getString("type");
+            String userName = json.getString("user_name");
+            if (ConversationExporter.TYPE_CONVERSATION.equals(type)) {
+                return new Entry(userName, json.optString("role_setting", null), false, null,
+                        json.getLong("last_active"));
+            }
+            if (ConversationExporter.TYPE_MESSAGE.equals(type)) {
+                return new Entry(userName, null, "self".equals(json.getString("sender")),
+                        json.getString("content"), json.getLong("timestamp"));
+            }
+            Log.w(TAG, "未知的行类型: " + type);
+            return null;
+        } catch (JSONException e) {
+            Log.w(TAG, "格式错误的行: " + e.getMessage());
+            return null;
+        }
+    }
+}
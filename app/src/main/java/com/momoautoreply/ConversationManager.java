@@ -3,13 +3,32 @@ package com.momoautoreply;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 
 /**
  * 对话管理器
@@ -19,14 +38,35 @@ import java.util.UUID;
  * 3. 支持查询和删除对话历史
  * 4. 支持清理旧对话
  * 5. 支持角色设定管理
+ *
+ * 数据库连接在首次使用时打开并一直保持到 close()，开启WAL，
+ * 高频SQL（插入消息、更新活跃时间、查找对话ID）预编译后复用。
+ * 消息写入交给 MessageWriteQueue 的写线程按批在一个事务中提交。
+ * 活跃对话的最近消息窗口缓存在 ConversationCache 中，读取历史时优先命中缓存。
+ *
+ * 数据库版本2使用整数主键和整数发送方编码，消息表上建 (conversation_id, timestamp) 复合索引。
+ * 从版本1升级时 onUpgrade 只迁移对话表，消息由后台线程从新到旧分块迁移，
+ * 迁移完成前较早的消息暂时查不到。
+ *
+ * 版本3增加消息全文索引（优先FTS5，不支持时用FTS4），分词见 MessageSearchIndex。
+ * 新消息在写入时同步建索引，删除消息由触发器同步删除索引，
+ * 升级前已有的消息由后台线程在迁移完成后分块补建索引。
+ *
+ * 版本4增加冷对话归档：ConversationArchiver 把长时间未活跃对话的消息压缩成段存入归档表，
+ * 消息表只保留活跃对话。读取历史、分页或写入新消息时，归档的对话先在写锁内整段恢复。
+ * 归档中的消息不在全文索引中，恢复时重新建索引。
+ *
+ * 并发模型：所有写操作（批量写入、角色设定、删除、保留任务、迁移）由同一把写锁串行化，
+ * 读操作不加锁，借助WAL在独立的只读连接上并发执行，不会被慢写入阻塞。
+ * 内存中的缓存按用户分段加锁。写锁的等待时间按方法记录在直方图中。
  */
 public class ConversationManager {
     
     private static final String TAG = "ConversationManager";
     
     // 数据库相关常量
-    private static final String DB_NAME = "momo_conversations.db";
-    private static final int DB_VERSION = 1;
+    static final String DB_NAME = "momo_conversations.db";
+    private static final int DB_VERSION = 4;
     
     // 对话表常量
     private static final String TABLE_CONVERSATIONS = "conversations";
@@ -34,6 +74,8 @@ public class ConversationManager {
     private static final String COLUMN_CONV_USER_NAME = "user_name";
     private static final String COLUMN_CONV_LAST_ACTIVE = "last_active";
     private static final String COLUMN_CONV_ROLE_SETTING = "role_setting";
+    // 已归档的消息数，0表示没有归档
+    private static final String COLUMN_CONV_ARCHIVED = "archived_messages";
     
     // 消息表常量
     private static final String TABLE_MESSAGES = "messages";
@@ -43,47 +85,189 @@ public class ConversationManager {
     private static final String COLUMN_MSG_CONTENT = "content";
     private static final String COLUMN_MSG_TIMESTAMP = "timestamp";
     
+    // 发送方编码
+    private static final int SENDER_OTHER = 0;
+    private static final int SENDER_SELF = 1;
+    
+    // 全文索引表，rowid 与消息ID相同
+    private static final String TABLE_MESSAGES_FTS = "messages_fts";
+    // 键值元数据表
+    private static final String TABLE_METADATA = "metadata";
+    // 尚未建全文索引的消息ID上界（不含），0表示已全部建好
+    private static final String KEY_SEARCH_BACKFILL_BELOW = "search_backfill_below";
+    // 导入断点键的前缀，后接导入任务名，值为已提交的行数
+    private static final String KEY_IMPORT_CHECKPOINT_PREFIX = "import_checkpoint:";
+    // 归档段表，每段是一个对话中按时间连续的一组消息
+    private static final String TABLE_SEGMENTS = "message_segments";
+    private static final String COLUMN_SEG_ID = "id";
+    private static final String COLUMN_SEG_CONV_ID = "conversation_id";
+    private static final String COLUMN_SEG_MIN_MSG_ID = "min_message_id";
+    private static final String COLUMN_SEG_MAX_MSG_ID = "max_message_id";
+    private static final String COLUMN_SEG_FIRST_TIMESTAMP = "first_timestamp";
+    private static final String COLUMN_SEG_LAST_TIMESTAMP = "last_timestamp";
+    private static final String COLUMN_SEG_MESSAGE_COUNT = "message_count";
+    private static final String COLUMN_SEG_RAW_BYTES = "raw_bytes";
+    private static final String COLUMN_SEG_DATA = "data";
+    // 搜索结果摘要长度
+    private static final int SEARCH_SNIPPET_CHARS = 40;
+    
+    // 版本1遗留表，迁移完成后删除
+    private static final String TABLE_CONVERSATIONS_V1 = "conversations_v1";
+    private static final String TABLE_MESSAGES_V1 = "messages_v1";
+    private static final String TABLE_CONV_ID_MAP = "conversation_id_map";
+    // 后台迁移、补建索引时每个事务处理的消息数，以及两个事务之间让出数据库的时间
+    private static final int BACKGROUND_CHUNK_SIZE = 500;
+    private static final long BACKGROUND_PAUSE_MS = 20;
+    // 不允许后台任务时（发热或电量低）每次重新检查的间隔
+    private static final long BACKGROUND_DEFERRED_PAUSE_MS = 30 * 1000;
+    
+    // PRAGMA auto_vacuum 的增量模式取值
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    // 未开启增量回收时，空闲页超过总页数的该比例才做完整VACUUM
+    private static final double FULL_VACUUM_FREE_RATIO = 0.1;
+    
+    // 对话历史窗口大小，生成回复时只使用最近的这些消息
+    public static final int HISTORY_WINDOW_SIZE = 50;
+    // 最近消息缓存上限
+    private static final int CACHE_MAX_CONVERSATIONS = 256;
+    private static final long CACHE_MAX_BYTES = 4 * 1024 * 1024;
+    
     // 默认角色设定
     private static final String DEFAULT_ROLE_SETTING = "你是一个友好、亲切、自然的聊天助手，擅长和人轻松愉快地交流。请使用简洁明了的语言回复，避免过于复杂的表达。";
     
     // 数据库助手
     private DatabaseHelper dbHelper;
+    // 长期持有的数据库连接
+    private volatile SQLiteDatabase database;
+    private final Object openLock = new Object();
+    // 写锁，所有写操作串行执行；预编译语句只在持有写锁时使用
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // 各方法等待写锁的耗时（微秒）
+    private final Map<String, Histogram> writeLockWaits = new ConcurrentHashMap<>();
+    // 指标注册表，registerMetrics 之后新出现的写锁统计也会注册
+    private volatile MetricsRegistry metrics;
+    // 预编译语句
+    private SQLiteStatement insertMessageStatement;
+    private SQLiteStatement touchConversationStatement;
+    private SQLiteStatement findConversationIdStatement;
+    private SQLiteStatement insertSearchStatement;
+    // 下一个消息ID，入队时分配，缓存和数据库中的ID一致
+    private volatile AtomicLong messageIdSequence;
+    // 有归档段的对话ID，只在写锁内修改
+    private final Set<Long> archivedConversations = ConcurrentHashMap.newKeySet();
+    // 后台迁移和补建索引线程
+    private Thread backgroundUpgradeThread;
+    private volatile boolean closing;
+    // 是否允许后台迁移和补建索引继续执行，由服务按电量和温度设置
+    private volatile BooleanSupplier backgroundGate = () -> true;
+    // 消息写入队列
+    private MessageWriteQueue writeQueue;
+    // 活跃对话缓存
+    private ConversationCache historyCache;
     // 上下文
     private Context context;
     
     /**
-     * 消息数据类
+     * 对话数据类
      */
-    public static class Message {
+    public static class Conversation {
         public String id;
-        public String sender;
-        public String content;
-        public long timestamp;
+        public String userName;
+        public long lastActive;
+        public String roleSetting;
+        public List<ChatMessage> messages;
         
-        public Message(String id, String sender, String content, long timestamp) {
+        public Conversation(String id, String userName, long lastActive, String roleSetting) {
             this.id = id;
-            this.sender = sender;
-            this.content = content;
-            this.timestamp = timestamp;
+            this.userName = userName;
+            this.lastActive = lastActive;
+            this.roleSetting = roleSetting;
+            this.messages = new ArrayList<>();
         }
     }
     
     /**
-     * 对话数据类
+     * 对话摘要数据类，不包含消息列表
      */
-    public static class Conversation {
+    public static class ConversationSummary {
         public String id;
         public String userName;
         public long lastActive;
         public String roleSetting;
-        public List<Message> messages;
+        // 消息数，包括已归档的消息
+        public int messageCount;
+        // 最后一条消息，对话没有消息或已归档时为null
+        public ChatMessage lastMessage;
         
-        public Conversation(String id, String userName, long lastActive, String roleSetting) {
+        public ConversationSummary(String id, String userName, long lastActive, String roleSetting,
+                                   int messageCount, ChatMessage lastMessage) {
             this.id = id;
             this.userName = userName;
             this.lastActive = lastActive;
             this.roleSetting = roleSetting;
-            this.messages = new ArrayList<>();
+            this.messageCount = messageCount;
+            this.lastMessage = lastMessage;
+        }
+    }
+    
+    /**
+     * 消息搜索结果
+     */
+    public static class SearchResult {
+        public String conversationId;
+        public String userName;
+        public ChatMessage message;
+        // 包含关键词的原文片段，关键词用【】标出
+        public String snippet;
+        
+        public SearchResult(String conversationId, String userName, ChatMessage message, String snippet) {
+            this.conversationId = conversationId;
+            this.userName = userName;
+            this.message = message;
+            this.snippet = snippet;
+        }
+    }
+    
+    /**
+     * 基于游标的对话摘要迭代器，逐行读取，用完必须 close()
+     */
+    public static class ConversationSummaryIterator implements Iterator<ConversationSummary>, Closeable {
+        private final Cursor cursor;
+        private boolean hasNext;
+        
+        ConversationSummaryIterator(Cursor cursor) {
+            this.cursor = cursor;
+            this.hasNext = cursor != null && cursor.moveToFirst();
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+        
+        @Override
+        public ConversationSummary next() {
+            if (!hasNext) {
+                throw new NoSuchElementException();
+            }
+            
+            ChatMessage lastMessage = null;
+            if (!cursor.isNull(5)) {
+                lastMessage = new ChatMessage(cursor.getString(5), senderName(cursor.getInt(6)),
+                        cursor.getString(7), cursor.getLong(8));
+            }
+            ConversationSummary summary = new ConversationSummary(cursor.getString(0), cursor.getString(1),
+                    cursor.getLong(2), cursor.getString(3), cursor.getInt(4), lastMessage);
+            
+            hasNext = cursor.moveToNext();
+            return summary;
+        }
+        
+        @Override
+        public void close() {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
     }
     
@@ -93,111 +277,304 @@ public class ConversationManager {
     public ConversationManager(Context context) {
         this.context = context;
         this.dbHelper = new DatabaseHelper(context);
+        this.writeQueue = new MessageWriteQueue(this::commitMessageBatch);
+        this.historyCache = new ConversationCache(CACHE_MAX_CONVERSATIONS, CACHE_MAX_BYTES, HISTORY_WINDOW_SIZE);
+    }
+    
+    /**
+     * 打开数据库，服务启动时在后台调用，之后的读写不再等待打开
+     * 其他方法在数据库未打开时也会自动打开
+     */
+    public void open() {
+        getDatabase();
+    }
+    
+    /**
+     * 把最近活跃的对话加载到活跃对话缓存
+     * @param limit 最多加载的对话数
+     * @return 加载的对话数
+     */
+    public int warmUpCache(int limit) {
+        List<String> userNames = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = getDatabase().rawQuery("SELECT " + COLUMN_CONV_USER_NAME + " FROM " + TABLE_CONVERSATIONS +
+                    " ORDER BY " + COLUMN_CONV_LAST_ACTIVE + " DESC LIMIT " + limit, null);
+            while (cursor.moveToNext()) {
+                userNames.add(cursor.getString(0));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "查询最近活跃对话异常: " + e.getMessage(), e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        
+        for (String userName : userNames) {
+            getConversationHistory(userName);
+        }
+        return userNames.size();
+    }
+    
+    /**
+     * 取快照中每个对话的缓存序号，必须在检查快照与数据库是否一致之前调用
+     * 检查之后才有的写入会推进序号，restoreHotState 据此放弃这些对话
+     * @param conversations 快照中的缓存条目
+     * @return 与 conversations 一一对应的序号
+     */
+    public long[] loadHotStateStamps(List<ConversationCache.CachedConversation> conversations) {
+        long[] stamps = new long[conversations.size()];
+        for (int i = 0; i < stamps.length; i++) {
+            stamps[i] = historyCache.loadStamp(conversations.get(i).userName);
+        }
+        return stamps;
+    }
+    
+    /**
+     * 从热状态快照恢复活跃对话缓存，已缓存的对话不覆盖
+     * 调用方需先用 loadHotStateStamps 取序号，再确认快照与数据库一致（见 getNextMessageId 和 getConversationCount）
+     * @param conversations 快照中的缓存条目
+     * @param stamps loadHotStateStamps 返回的序号
+     * @return 恢复的对话数
+     */
+    public int restoreHotState(List<ConversationCache.CachedConversation> conversations, long[] stamps) {
+        int restored = 0;
+        for (int i = 0; i < conversations.size(); i++) {
+            if (historyCache.restore(conversations.get(i), stamps[i])) {
+                restored++;
+            }
+        }
+        return restored;
+    }
+    
+    /**
+     * 下一个要分配的消息ID，首次调用时会打开数据库
+     * 每条新消息都会推进该值，用作热状态快照的数据库状态标记
+     */
+    public long getNextMessageId() {
+        return messageSequence().get();
+    }
+    
+    /**
+     * 对话数，删除对话会改变该值，与 getNextMessageId 一起用作热状态快照的数据库状态标记
+     * @return 对话数，查询失败时返回-1
+     */
+    public long getConversationCount() {
+        try {
+            return DatabaseUtils.queryNumEntries(getDatabase(), TABLE_CONVERSATIONS);
+        } catch (Exception e) {
+            Log.e(TAG, "查询对话数异常: " + e.getMessage(), e);
+            return -1;
+        }
     }
     
     /**
      * 添加消息到对话历史
+     * 消息先进入写入队列，由写线程批量落盘，写入前的读操作也能看到这条消息
      * @param userName 用户名
      * @param content 消息内容
      * @param isSelf 是否是自己发送的消息
+     * @return 消息落盘后完成的Future
      */
-    public synchronized void addMessage(String userName, String content, boolean isSelf) {
-        SQLiteDatabase db = null;
+    public Future<Boolean> addMessage(String userName, String content, boolean isSelf) {
+        long messageId;
         try {
-            db = dbHelper.getWritableDatabase();
-            
-            // 1. 查找或创建对话
-            String conversationId = findOrCreateConversation(db, userName);
-            if (conversationId == null) {
-                Log.e(TAG, "无法创建对话");
-                return;
-            }
-            
-            // 2. 插入消息
-            ContentValues msgValues = new ContentValues();
-            msgValues.put(COLUMN_MSG_ID, UUID.randomUUID().toString());
-            msgValues.put(COLUMN_MSG_CONV_ID, conversationId);
-            msgValues.put(COLUMN_MSG_SENDER, isSelf ? "self" : "other");
-            msgValues.put(COLUMN_MSG_CONTENT, content);
-            msgValues.put(COLUMN_MSG_TIMESTAMP, System.currentTimeMillis());
-            
-            long msgResult = db.insert(TABLE_MESSAGES, null, msgValues);
-            if (msgResult == -1) {
-                Log.e(TAG, "插入消息失败");
-                return;
-            }
-            
-            // 3. 更新对话的最后活跃时间
-            ContentValues convValues = new ContentValues();
-            convValues.put(COLUMN_CONV_LAST_ACTIVE, System.currentTimeMillis());
-            
-            String whereClause = COLUMN_CONV_ID + " = ?";
-            String[] whereArgs = {conversationId};
-            int convResult = db.update(TABLE_CONVERSATIONS, convValues, whereClause, whereArgs);
-            if (convResult == 0) {
-                Log.e(TAG, "更新对话最后活跃时间失败");
-            }
-            
-            Log.d(TAG, "消息添加成功 - 用户: " + userName + ", 内容: " + content);
-            
+            messageId = nextMessageId();
         } catch (Exception e) {
-            Log.e(TAG, "添加消息异常: " + e.getMessage(), e);
+            Log.e(TAG, "分配消息ID异常: " + e.getMessage(), e);
+            CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        
+        MessageWriteQueue.PendingWrite write;
+        // 入队和更新缓存必须在该用户的缓存锁内一起完成，见 ConversationCache
+        Lock cacheLock = historyCache.getLock(userName);
+        cacheLock.lock();
+        try {
+            write = writeQueue.submit(messageId, userName, content, isSelf);
+            historyCache.append(userName, new ChatMessage(String.valueOf(write.id), senderName(isSelf),
+                    content, write.timestamp));
         } finally {
-            if (db != null) {
-                db.close();
+            cacheLock.unlock();
+        }
+        
+        // 写入失败时缓存中的这条消息不会落盘，丢弃该用户的缓存
+        write.getFuture().whenComplete((result, error) -> {
+            if (error != null) {
+                historyCache.invalidate(userName);
+            }
+        });
+        return write.getFuture();
+    }
+    
+    /**
+     * 在一个事务内写入一批消息，由写线程调用
+     * @param batch 待写入消息
+     */
+    private void commitMessageBatch(List<MessageWriteQueue.PendingWrite> batch) {
+        SQLiteDatabase db = getDatabase();
+        Map<String, String> conversationIds = new HashMap<>();
+        // 本批中从归档恢复的对话
+        List<Long> restoredIds = new ArrayList<>();
+        
+        // 分词放在锁外完成
+        String[] searchTexts = new String[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            searchTexts[i] = MessageSearchIndex.tokenize(batch.get(i).content);
+        }
+        
+        lockWriter("commitMessageBatch");
+        try {
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    MessageWriteQueue.PendingWrite write = batch.get(i);
+                    // 1. 查找或创建对话，同一批内的同一用户只查一次
+                    String conversationId = conversationIds.get(write.userName);
+                    if (conversationId == null) {
+                        conversationId = findOrCreateConversation(db, write.userName);
+                        if (conversationId == null) {
+                            throw new IllegalStateException("无法创建对话: " + write.userName);
+                        }
+                        // 归档的对话收到新消息，先恢复为活跃对话
+                        if (restoreConversation(db, Long.parseLong(conversationId))) {
+                            restoredIds.add(Long.parseLong(conversationId));
+                        }
+                        conversationIds.put(write.userName, conversationId);
+                    }
+                    
+                    // 2. 插入消息
+                    insertMessageStatement.bindLong(1, write.id);
+                    insertMessageStatement.bindLong(2, Long.parseLong(conversationId));
+                    insertMessageStatement.bindLong(3, write.isSelf ? SENDER_SELF : SENDER_OTHER);
+                    insertMessageStatement.bindString(4, write.content);
+                    insertMessageStatement.bindLong(5, write.timestamp);
+                    if (insertMessageStatement.executeInsert() == -1) {
+                        throw new IllegalStateException("插入消息失败");
+                    }
+                    insertSearchStatement.bindLong(1, write.id);
+                    insertSearchStatement.bindString(2, searchTexts[i]);
+                    insertSearchStatement.executeInsert();
+                    
+                    // 3. 更新对话的最后活跃时间
+                    touchConversationStatement.bindLong(1, write.timestamp);
+                    touchConversationStatement.bindLong(2, Long.parseLong(conversationId));
+                    if (touchConversationStatement.executeUpdateDelete() == 0) {
+                        Log.e(TAG, "更新对话最后活跃时间失败");
+                    }
+                }
+                
+                db.setTransactionSuccessful();
+                restoredIds.clear();
+            } finally {
+                db.endTransaction();
+                // 整批回滚时归档段也随之恢复，对话仍是归档状态
+                archivedConversations.addAll(restoredIds);
             }
+        } finally {
+            writeLock.unlock();
         }
+        
+        Log.d(TAG, "批量写入消息成功 - 条数: " + batch.size());
     }
     
     /**
      * 获取用户的对话历史
+     * 只返回最近 HISTORY_WINDOW_SIZE 条消息，活跃用户直接从缓存返回
      * @param userName 用户名
-     * @return 对话历史消息列表
+     * @return 对话历史消息列表，按时间升序
      */
-    public synchronized List<Message> getConversationHistory(String userName) {
-        List<Message> messages = new ArrayList<>();
-        SQLiteDatabase db = null;
+    public List<ChatMessage> getConversationHistory(String userName) {
+        List<ChatMessage> cached = historyCache.getWindow(userName);
+        if (cached != null) {
+            return cached;
+        }
+        
+        long stamp = historyCache.loadStamp(userName);
+        List<ChatMessage> messages = new ArrayList<>();
+        String conversationId = loadRecentMessages(userName, messages);
+        if (conversationId != null) {
+            historyCache.putWindow(userName, conversationId, messages, stamp);
+        }
+        return messages;
+    }
+    
+    /**
+     * 从数据库加载最近的消息，并追加尚未落盘的消息
+     * 不加写锁：先取写入队列中的消息再查数据库，刚提交的消息可能两边都有，按ID去重
+     * @param userName 用户名
+     * @param messages 输出的消息列表
+     * @return 对话ID，对话不存在或加载失败时返回null
+     */
+    private String loadRecentMessages(String userName, List<ChatMessage> messages) {
         Cursor cursor = null;
+        List<MessageWriteQueue.PendingWrite> pending = writeQueue.getPending(userName);
         
         try {
-            db = dbHelper.getReadableDatabase();
+            SQLiteDatabase db = getDatabase();
             
             // 1. 查找对话
             String conversationId = findConversationId(db, userName);
             if (conversationId == null) {
-                return messages;
+                appendPendingMessages(pending, messages);
+                return null;
             }
+            restoreIfArchived(conversationId);
             
-            // 2. 查询消息
-            String query = "SELECT * FROM " + TABLE_MESSAGES + " WHERE " + 
-                          COLUMN_MSG_CONV_ID + " = ? ORDER BY " + COLUMN_MSG_TIMESTAMP + " ASC";
+            // 2. 倒序查询最近的消息
+            String query = "SELECT " + COLUMN_MSG_ID + ", " + COLUMN_MSG_SENDER + ", " + COLUMN_MSG_CONTENT + ", " +
+                          COLUMN_MSG_TIMESTAMP + " FROM " + TABLE_MESSAGES + " WHERE " + 
+                          COLUMN_MSG_CONV_ID + " = ? ORDER BY " + COLUMN_MSG_TIMESTAMP + " DESC LIMIT " +
+                          HISTORY_WINDOW_SIZE;
             String[] selectionArgs = {conversationId};
             
             cursor = db.rawQuery(query, selectionArgs);
             
             // 3. 处理结果
             while (cursor != null && cursor.moveToNext()) {
-                String id = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MSG_ID));
-                String sender = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MSG_SENDER));
-                String content = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MSG_CONTENT));
-                long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_MSG_TIMESTAMP));
-                
-                Message message = new Message(id, sender, content, timestamp);
-                messages.add(message);
+                messages.add(new ChatMessage(cursor.getString(0), senderName(cursor.getInt(1)),
+                        cursor.getString(2), cursor.getLong(3)));
+            }
+            Collections.reverse(messages);
+            
+            // 4. 追加尚未落盘的消息，只保留最近的窗口
+            appendPendingMessages(pending, messages);
+            if (messages.size() > HISTORY_WINDOW_SIZE) {
+                messages.subList(0, messages.size() - HISTORY_WINDOW_SIZE).clear();
             }
+            return conversationId;
             
         } catch (Exception e) {
             Log.e(TAG, "获取对话历史异常: " + e.getMessage(), e);
+            return null;
         } finally {
             if (cursor != null) {
                 cursor.close();
             }
-            if (db != null) {
-                db.close();
+        }
+    }
+    
+    /**
+     * 把写入队列中的消息追加到列表末尾，跳过数据库中已经查到的消息
+     * @param pending 写入队列中的消息
+     * @param messages 消息列表
+     */
+    private void appendPendingMessages(List<MessageWriteQueue.PendingWrite> pending, List<ChatMessage> messages) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Set<String> loadedIds = new HashSet<>();
+        for (ChatMessage message : messages) {
+            loadedIds.add(message.id);
+        }
+        for (MessageWriteQueue.PendingWrite write : pending) {
+            String id = String.valueOf(write.id);
+            if (!loadedIds.contains(id)) {
+                messages.add(new ChatMessage(id, senderName(write.isSelf), write.content, write.timestamp));
             }
         }
-        
-        return messages;
     }
     
     /**
@@ -205,13 +582,19 @@ public class ConversationManager {
      * @param userName 用户名
      * @return 角色设定
      */
-    public synchronized String getRoleSetting(String userName) {
+    public String getRoleSetting(String userName) {
+        String cached = historyCache.getRoleSetting(userName);
+        if (cached != null) {
+            return cached;
+        }
+        
         SQLiteDatabase db = null;
         Cursor cursor = null;
         String roleSetting = DEFAULT_ROLE_SETTING;
+        long stamp = historyCache.loadStamp(userName);
         
         try {
-            db = dbHelper.getReadableDatabase();
+            db = getDatabase();
             
             // 查询对话的角色设定
             String query = "SELECT " + COLUMN_CONV_ROLE_SETTING + " FROM " + TABLE_CONVERSATIONS + " WHERE " + 
@@ -222,6 +605,10 @@ public class ConversationManager {
             
             if (cursor != null && cursor.moveToFirst()) {
                 roleSetting = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CONV_ROLE_SETTING));
+                // 只缓存已有对话的设定，对话不存在时返回的默认设定不缓存
+                if (roleSetting != null) {
+                    historyCache.putRoleSetting(userName, roleSetting, stamp);
+                }
             }
             
         } catch (Exception e) {
@@ -230,9 +617,6 @@ public class ConversationManager {
             if (cursor != null) {
                 cursor.close();
             }
-            if (db != null) {
-                db.close();
-            }
         }
         
         return roleSetting;
@@ -243,11 +627,12 @@ public class ConversationManager {
      * @param userName 用户名
      * @param roleSetting 角色设定
      */
-    public synchronized void setRoleSetting(String userName, String roleSetting) {
+    public void setRoleSetting(String userName, String roleSetting) {
         SQLiteDatabase db = null;
         
+        lockWriter("setRoleSetting");
         try {
-            db = dbHelper.getWritableDatabase();
+            db = getDatabase();
             
             // 查找或创建对话
             String conversationId = findOrCreateConversation(db, userName);
@@ -264,6 +649,7 @@ public class ConversationManager {
             
             int result = db.update(TABLE_CONVERSATIONS, values, whereClause, whereArgs);
             if (result > 0) {
+                historyCache.updateRoleSetting(userName, roleSetting);
                 Log.d(TAG, "角色设定更新成功 - 用户: " + userName + ", 设定: " + roleSetting);
             } else {
                 Log.e(TAG, "角色设定更新失败");
@@ -272,9 +658,7 @@ public class ConversationManager {
         } catch (Exception e) {
             Log.e(TAG, "设置角色设定异常: " + e.getMessage(), e);
         } finally {
-            if (db != null) {
-                db.close();
-            }
+            writeLock.unlock();
         }
     }
     
@@ -282,11 +666,12 @@ public class ConversationManager {
      * 删除用户的对话历史
      * @param userName 用户名
      */
-    public synchronized void deleteConversation(String userName) {
+    public void deleteConversation(String userName) {
         SQLiteDatabase db = null;
         
+        lockWriter("deleteConversation");
         try {
-            db = dbHelper.getWritableDatabase();
+            db = getDatabase();
             db.beginTransaction();
             
             // 1. 查找对话
@@ -299,6 +684,7 @@ public class ConversationManager {
             String msgWhereClause = COLUMN_MSG_CONV_ID + " = ?";
             String[] msgWhereArgs = {conversationId};
             int msgResult = db.delete(TABLE_MESSAGES, msgWhereClause, msgWhereArgs);
+            db.delete(TABLE_SEGMENTS, COLUMN_SEG_CONV_ID + " = ?", msgWhereArgs);
             
             // 3. 删除对话
             String convWhereClause = COLUMN_CONV_ID + " = ?";
@@ -306,214 +692,1325 @@ public class ConversationManager {
             int convResult = db.delete(TABLE_CONVERSATIONS, convWhereClause, convWhereArgs);
             
             db.setTransactionSuccessful();
+            archivedConversations.remove(Long.parseLong(conversationId));
+            historyCache.invalidate(userName);
             
             Log.d(TAG, "对话删除成功 - 用户: " + userName + ", 删除消息数: " + msgResult + ", 删除对话数: " + convResult);
             
         } catch (Exception e) {
             Log.e(TAG, "删除对话异常: " + e.getMessage(), e);
         } finally {
-            if (db != null) {
+            // beginTransaction 失败时没有事务可结束，endTransaction 会抛异常
+            if (db != null && db.inTransaction()) {
                 db.endTransaction();
-                db.close();
             }
+            writeLock.unlock();
         }
     }
     
     /**
      * 清理长时间未活跃的对话
+     * 按批删除，每批一个短事务，批与批之间不占用数据库；不要在主线程调用
      * @param maxInactiveTime 最大不活跃时间（毫秒）
+     * @return 清理结果
      */
-    public synchronized void cleanupInactiveConversations(long maxInactiveTime) {
-        SQLiteDatabase db = null;
-        
+    public RetentionEngine.Result cleanupInactiveConversations(long maxInactiveTime) {
+        RetentionEngine.Policy policy = new RetentionEngine.Policy();
+        policy.maxInactiveMs = maxInactiveTime;
+        policy.maxMessagesPerConversation = 0;
+        policy.vacuum = false;
+        return new RetentionEngine(this, policy).run(Long.MAX_VALUE);
+    }
+    
+    /**
+     * 删除一批过期对话的消息，供 RetentionEngine 调用
+     * 先在同一事务里读出本批的消息ID和所属用户，按ID删除后只让这些用户的缓存失效
+     * @param cutoffTime 最后活跃时间早于该时间的对话视为过期
+     * @param limit 本批最多删除的条数
+     * @return 删除的条数
+     */
+    int deleteExpiredMessages(long cutoffTime, int limit) {
+        SQLiteDatabase db = getDatabase();
+        lockWriter("deleteExpiredMessages");
         try {
-            db = dbHelper.getWritableDatabase();
-            long currentTime = System.currentTimeMillis();
-            long cutoffTime = currentTime - maxInactiveTime;
-            
-            // 查找不活跃的对话
-            String query = "SELECT " + COLUMN_CONV_ID + " FROM " + TABLE_CONVERSATIONS + " WHERE " + 
-                          COLUMN_CONV_LAST_ACTIVE + " < ?";
-            String[] selectionArgs = {String.valueOf(cutoffTime)};
-            
-            Cursor cursor = db.rawQuery(query, selectionArgs);
-            List<String> inactiveConvIds = new ArrayList<>();
-            
-            while (cursor != null && cursor.moveToNext()) {
-                String convId = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CONV_ID));
-                inactiveConvIds.add(convId);
-            }
-            
-            if (cursor != null) {
-                cursor.close();
-            }
-            
-            // 删除不活跃的对话和消息
-            for (String convId : inactiveConvIds) {
-                db.beginTransaction();
-                
-                // 删除消息
-                String msgWhereClause = COLUMN_MSG_CONV_ID + " = ?";
-                String[] msgWhereArgs = {convId};
-                db.delete(TABLE_MESSAGES, msgWhereClause, msgWhereArgs);
-                
-                // 删除对话
-                String convWhereClause = COLUMN_CONV_ID + " = ?";
-                String[] convWhereArgs = {convId};
-                db.delete(TABLE_CONVERSATIONS, convWhereClause, convWhereArgs);
+            db.beginTransaction();
+            try {
+                long[] messageIds;
+                Set<String> userNames = new HashSet<>();
+                Cursor cursor = db.rawQuery("SELECT m." + COLUMN_MSG_ID + ", c." + COLUMN_CONV_USER_NAME + " FROM " +
+                        TABLE_CONVERSATIONS + " c JOIN " + TABLE_MESSAGES + " m ON m." + COLUMN_MSG_CONV_ID + " = c." +
+                        COLUMN_CONV_ID + " WHERE c." + COLUMN_CONV_LAST_ACTIVE + " < ? LIMIT ?",
+                        new String[]{String.valueOf(cutoffTime), String.valueOf(limit)});
+                try {
+                    messageIds = new long[cursor.getCount()];
+                    for (int i = 0; cursor.moveToNext(); i++) {
+                        messageIds[i] = cursor.getLong(0);
+                        userNames.add(cursor.getString(1));
+                    }
+                } finally {
+                    cursor.close();
+                }
                 
+                int deleted = 0;
+                SQLiteStatement statement = db.compileStatement(
+                        "DELETE FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_MSG_ID + " = ?");
+                try {
+                    for (long messageId : messageIds) {
+                        statement.bindLong(1, messageId);
+                        deleted += statement.executeUpdateDelete();
+                    }
+                } finally {
+                    statement.close();
+                }
                 db.setTransactionSuccessful();
+                
+                // 缓存的窗口里有刚删掉的消息，必须在写线程再次提交前清掉
+                for (String userName : userNames) {
+                    historyCache.invalidate(userName);
+                }
+                return deleted;
+            } finally {
                 db.endTransaction();
             }
-            
-            Log.d(TAG, "清理不活跃对话成功 - 清理对话数: " + inactiveConvIds.size());
-            
-        } catch (Exception e) {
-            Log.e(TAG, "清理不活跃对话异常: " + e.getMessage(), e);
         } finally {
-            if (db != null) {
-                db.close();
-            }
+            writeLock.unlock();
         }
     }
     
     /**
-     * 获取所有对话列表
-     * @return 对话列表
+     * 删除消息已经删空的过期对话，供 RetentionEngine 调用
+     * @param cutoffTime 最后活跃时间早于该时间的对话视为过期
+     * @return 删除的对话数
      */
-    public synchronized List<Conversation> getAllConversations() {
-        List<Conversation> conversations = new ArrayList<>();
-        SQLiteDatabase db = null;
-        Cursor convCursor = null;
+    int deleteExpiredConversations(long cutoffTime) {
+        SQLiteDatabase db = getDatabase();
+        String condition = COLUMN_CONV_LAST_ACTIVE + " < ? AND NOT EXISTS (SELECT 1 FROM " + TABLE_MESSAGES +
+                          " m WHERE m." + COLUMN_MSG_CONV_ID + " = " + TABLE_CONVERSATIONS + "." + COLUMN_CONV_ID + ")";
+        String[] args = {String.valueOf(cutoffTime)};
         
+        lockWriter("deleteExpiredConversations");
         try {
-            db = dbHelper.getReadableDatabase();
-            
-            // 查询所有对话
-            String convQuery = "SELECT * FROM " + TABLE_CONVERSATIONS + " ORDER BY " + 
-                              COLUMN_CONV_LAST_ACTIVE + " DESC";
-            
-            convCursor = db.rawQuery(convQuery, null);
-            
-            while (convCursor != null && convCursor.moveToNext()) {
-                String convId = convCursor.getString(convCursor.getColumnIndexOrThrow(COLUMN_CONV_ID));
-                String userName = convCursor.getString(convCursor.getColumnIndexOrThrow(COLUMN_CONV_USER_NAME));
-                long lastActive = convCursor.getLong(convCursor.getColumnIndexOrThrow(COLUMN_CONV_LAST_ACTIVE));
-                String roleSetting = convCursor.getString(convCursor.getColumnIndexOrThrow(COLUMN_CONV_ROLE_SETTING));
-                
-                Conversation conversation = new Conversation(convId, userName, lastActive, roleSetting);
-                
-                // 查询对话的消息
-                String msgQuery = "SELECT * FROM " + TABLE_MESSAGES + " WHERE " + 
-                                 COLUMN_MSG_CONV_ID + " = ? ORDER BY " + COLUMN_MSG_TIMESTAMP + " ASC";
-                String[] msgSelectionArgs = {convId};
-                
-                Cursor msgCursor = db.rawQuery(msgQuery, msgSelectionArgs);
-                
-                while (msgCursor != null && msgCursor.moveToNext()) {
-                    String msgId = msgCursor.getString(msgCursor.getColumnIndexOrThrow(COLUMN_MSG_ID));
-                    String sender = msgCursor.getString(msgCursor.getColumnIndexOrThrow(COLUMN_MSG_SENDER));
-                    String content = msgCursor.getString(msgCursor.getColumnIndexOrThrow(COLUMN_MSG_CONTENT));
-                    long timestamp = msgCursor.getLong(msgCursor.getColumnIndexOrThrow(COLUMN_MSG_TIMESTAMP));
-                    
-                    Message message = new Message(msgId, sender, content, timestamp);
-                    conversation.messages.add(message);
+            db.beginTransaction();
+            try {
+                List<String> userNames = new ArrayList<>();
+                List<Long> archivedIds = new ArrayList<>();
+                Cursor cursor = db.rawQuery("SELECT " + COLUMN_CONV_USER_NAME + ", " + COLUMN_CONV_ID + ", " +
+                                            COLUMN_CONV_ARCHIVED + " FROM " + TABLE_CONVERSATIONS +
+                                            " WHERE " + condition, args);
+                try {
+                    while (cursor.moveToNext()) {
+                        userNames.add(cursor.getString(0));
+                        if (cursor.getLong(2) > 0) {
+                            archivedIds.add(cursor.getLong(1));
+                        }
+                    }
+                } finally {
+                    cursor.close();
                 }
                 
-                if (msgCursor != null) {
-                    msgCursor.close();
+                // 归档的对话在消息表中没有消息，连同归档段一起删除
+                for (Long conversationId : archivedIds) {
+                    db.delete(TABLE_SEGMENTS, COLUMN_SEG_CONV_ID + " = ?", new String[]{String.valueOf(conversationId)});
                 }
+                int deleted = db.delete(TABLE_CONVERSATIONS, condition, args);
+                db.setTransactionSuccessful();
+                archivedConversations.removeAll(archivedIds);
                 
-                conversations.add(conversation);
+                // 缓存的对话ID已失效，必须在写线程再次提交前清掉
+                for (String userName : userNames) {
+                    historyCache.invalidate(userName);
+                }
+                return deleted;
+            } finally {
+                db.endTransaction();
             }
-            
-        } catch (Exception e) {
-            Log.e(TAG, "获取所有对话异常: " + e.getMessage(), e);
         } finally {
-            if (convCursor != null) {
-                convCursor.close();
-            }
-            if (db != null) {
-                db.close();
-            }
+            writeLock.unlock();
         }
-        
-        return conversations;
     }
     
     /**
-     * 查找或创建对话
-     * @param db 数据库
-     * @param userName 用户名
+     * 查找消息数超过上限的对话，按ID升序，供 RetentionEngine 分段扫描
+     * @param afterId 只查找ID大于该值的对话
+     * @param maxMessages 每个对话的消息上限
+     * @param limit 最多返回的对话数
      * @return 对话ID
      */
-    private String findOrCreateConversation(SQLiteDatabase db, String userName) {
-        String conversationId = findConversationId(db, userName);
-        
-        if (conversationId == null) {
-            // 创建对话
-            ContentValues values = new ContentValues();
-            conversationId = UUID.randomUUID().toString();
-            values.put(COLUMN_CONV_ID, conversationId);
-            values.put(COLUMN_CONV_USER_NAME, userName);
-            values.put(COLUMN_CONV_LAST_ACTIVE, System.currentTimeMillis());
-            values.put(COLUMN_CONV_ROLE_SETTING, DEFAULT_ROLE_SETTING);
-            
-            long result = db.insert(TABLE_CONVERSATIONS, null, values);
-            if (result == -1) {
-                Log.e(TAG, "创建对话失败");
-                return null;
+    long[] findConversationsOverCap(long afterId, int maxMessages, int limit) {
+        // 第 maxMessages+1 新的消息存在即超出上限，借助复合索引不必计数
+        Cursor cursor = getDatabase().rawQuery(
+                "SELECT c." + COLUMN_CONV_ID + " FROM " + TABLE_CONVERSATIONS + " c WHERE c." + COLUMN_CONV_ID +
+                " > ? AND (SELECT m." + COLUMN_MSG_ID + " FROM " + TABLE_MESSAGES + " m WHERE m." +
+                COLUMN_MSG_CONV_ID + " = c." + COLUMN_CONV_ID + " ORDER BY m." + COLUMN_MSG_TIMESTAMP +
+                " DESC LIMIT 1 OFFSET ?) IS NOT NULL ORDER BY c." + COLUMN_CONV_ID + " LIMIT ?",
+                new String[]{String.valueOf(afterId), String.valueOf(maxMessages), String.valueOf(limit)});
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
             }
-            
-            Log.d(TAG, "对话创建成功 - 用户: " + userName + ", 对话ID: " + conversationId);
+            return ids;
+        } finally {
+            cursor.close();
         }
-        
-        return conversationId;
     }
     
     /**
-     * 查找对话ID
-     * @param db 数据库
-     * @param userName 用户名
-     * @return 对话ID，找不到返回null
+     * 删除一个对话中超出上限的最旧消息，供 RetentionEngine 调用
+     * @param conversationId 对话ID
+     * @param maxMessages 保留的最近消息数
+     * @param limit 本批最多删除的条数
+     * @return 删除的条数
      */
-    private String findConversationId(SQLiteDatabase db, String userName) {
-        String conversationId = null;
-        Cursor cursor = null;
-        
+    int trimConversation(long conversationId, int maxMessages, int limit) {
+        SQLiteDatabase db = getDatabase();
+        lockWriter("trimConversation");
         try {
-            String query = "SELECT " + COLUMN_CONV_ID + " FROM " + TABLE_CONVERSATIONS + " WHERE " + 
-                          COLUMN_CONV_USER_NAME + " = ?";
-            String[] selectionArgs = {userName};
-            
-            cursor = db.rawQuery(query, selectionArgs);
-            
-            if (cursor != null && cursor.moveToFirst()) {
-                conversationId = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CONV_ID));
+            SQLiteStatement statement = db.compileStatement(
+                    "DELETE FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_MSG_ID + " IN (SELECT " + COLUMN_MSG_ID +
+                    " FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_MSG_CONV_ID + " = ? ORDER BY " +
+                    COLUMN_MSG_TIMESTAMP + " DESC LIMIT ? OFFSET ?)");
+            try {
+                statement.bindLong(1, conversationId);
+                statement.bindLong(2, limit);
+                statement.bindLong(3, maxMessages);
+                int deleted = statement.executeUpdateDelete();
+                // 上限小于历史窗口时，该用户缓存的窗口里可能有刚删掉的消息
+                if (deleted > 0 && maxMessages < HISTORY_WINDOW_SIZE) {
+                    String userName = findUserName(db, conversationId);
+                    if (userName != null) {
+                        historyCache.invalidate(userName);
+                    }
+                }
+                return deleted;
+            } finally {
+                statement.close();
             }
-            
-        } catch (Exception e) {
-            Log.e(TAG, "查找对话ID异常: " + e.getMessage(), e);
         } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
+            writeLock.unlock();
         }
-        
-        return conversationId;
     }
     
     /**
-     * 关闭数据库连接
+     * 按对话ID查找用户名
+     * @return 用户名，对话不存在时返回null
      */
-    public void close() {
-        if (dbHelper != null) {
-            dbHelper.close();
+    private static String findUserName(SQLiteDatabase db, long conversationId) {
+        try {
+            return DatabaseUtils.stringForQuery(db, "SELECT " + COLUMN_CONV_USER_NAME + " FROM " +
+                    TABLE_CONVERSATIONS + " WHERE " + COLUMN_CONV_ID + " = ?",
+                    new String[]{String.valueOf(conversationId)});
+        } catch (SQLiteDoneException e) {
+            return null;
         }
     }
     
     /**
-     * 数据库助手类
+     * 增量回收数据库空闲页，供 RetentionEngine 调用，每次最多回收 maxPages 页
+     * 版本2之前创建的数据库尚未开启增量回收，这里不处理，见 vacuumToIncremental
+     * @param maxPages 最多回收的页数
+     * @return 回收的字节数
+     */
+    long reclaimFreePages(int maxPages) {
+        lockWriter("reclaimFreePages");
+        try {
+            SQLiteDatabase db = getDatabase();
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+                return 0;
+            }
+            long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+            long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            if (freePages == 0) {
+                return 0;
+            }
+            
+            // 每前进一步回收一页，必须把游标读到底
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // 没有结果列
+                }
+            } finally {
+                cursor.close();
+            }
+            return (freePages - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null)) * pageSize;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * 对尚未开启增量回收的旧库做一次完整VACUUM，之后 reclaimFreePages 即可增量回收
+     * 完整VACUUM重写整个数据库文件，期间一直持有写锁，只应在充电且空闲时调用，见 RetentionEngine
+     * @return 回收的字节数，已是增量模式或空闲页不多时返回0
+     */
+    long vacuumToIncremental() {
+        lockWriter("vacuumToIncremental");
+        try {
+            SQLiteDatabase db = getDatabase();
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+                return 0;
+            }
+            long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+            if (DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) < pageCount * FULL_VACUUM_FREE_RATIO) {
+                return 0;
+            }
+            long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+            db.execSQL("VACUUM");
+            long vacuumedPageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+            Log.d(TAG, "完整VACUUM完成 - 页数: " + pageCount + " -> " + vacuumedPageCount);
+            return (pageCount - vacuumedPageCount) * pageSize;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * 查找消息表中仍有消息的冷对话，最久未活跃的在前，供 ConversationArchiver 调用
+     * @param cutoffTime 最后活跃时间早于该时间的对话视为冷对话
+     * @param limit 最多返回的对话数
+     * @return 对话ID
+     */
+    long[] findColdConversations(long cutoffTime, int limit) {
+        Cursor cursor = getDatabase().rawQuery(
+                "SELECT c." + COLUMN_CONV_ID + " FROM " + TABLE_CONVERSATIONS + " c WHERE c." +
+                COLUMN_CONV_LAST_ACTIVE + " < ? AND EXISTS (SELECT 1 FROM " + TABLE_MESSAGES + " m WHERE m." +
+                COLUMN_MSG_CONV_ID + " = c." + COLUMN_CONV_ID + ") ORDER BY c." + COLUMN_CONV_LAST_ACTIVE + " LIMIT ?",
+                new String[]{String.valueOf(cutoffTime), String.valueOf(limit)});
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * 把一个冷对话的全部消息压缩成段写入归档表，并从消息表删除，供 ConversationArchiver 调用
+     * 已有归档段的对话（例如迁移中又搬进了旧消息）追加新段
+     * @param conversationId 对话ID
+     * @param cutoffTime 加锁后再次确认对话仍早于该时间未活跃
+     * @param maxSegmentMessages 每段最多的消息数
+     * @param maxSegmentBytes 每段最多的未压缩字节数
+     * @param result 累加归档统计
+     * @return 是否归档
+     */
+    boolean archiveConversation(long conversationId, long cutoffTime, int maxSegmentMessages, int maxSegmentBytes,
+                                ConversationArchiver.Result result) throws IOException {
+        SQLiteDatabase db = getDatabase();
+        String[] args = {String.valueOf(conversationId)};
+        
+        lockWriter("archiveConversation");
+        try {
+            db.beginTransaction();
+            try {
+                // 查找之后对话可能收到了新消息或被删除
+                if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE_CONVERSATIONS + " WHERE " +
+                        COLUMN_CONV_ID + " = ? AND " + COLUMN_CONV_LAST_ACTIVE + " < ?",
+                        new String[]{args[0], String.valueOf(cutoffTime)}) == 0) {
+                    return false;
+                }
+                
+                // 1. 按时间顺序切段压缩
+                int archived = 0;
+                int segments = 0;
+                long rawBytes = 0;
+                long compressedBytes = 0;
+                MessageSegmentCodec.Builder builder = new MessageSegmentCodec.Builder();
+                Cursor cursor = db.rawQuery("SELECT " + COLUMN_MSG_ID + ", " + COLUMN_MSG_SENDER + ", " +
+                        COLUMN_MSG_CONTENT + ", " + COLUMN_MSG_TIMESTAMP + " FROM " + TABLE_MESSAGES + " WHERE " +
+                        COLUMN_MSG_CONV_ID + " = ? ORDER BY " + COLUMN_MSG_TIMESTAMP + ", " + COLUMN_MSG_ID, args);
+                try {
+                    while (cursor.moveToNext()) {
+                        builder.add(new MessageSegmentCodec.Record(cursor.getLong(0), cursor.getInt(1),
+                                cursor.getLong(3), cursor.getString(2)));
+                        archived++;
+                        if (builder.getCount() >= maxSegmentMessages || builder.getRawBytes() >= maxSegmentBytes) {
+                            rawBytes += builder.getRawBytes();
+                            compressedBytes += insertSegment(db, conversationId, builder);
+                            segments++;
+                            builder = new MessageSegmentCodec.Builder();
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if (builder.getCount() > 0) {
+                    rawBytes += builder.getRawBytes();
+                    compressedBytes += insertSegment(db, conversationId, builder);
+                    segments++;
+                }
+                if (archived == 0) {
+                    return false;
+                }
+                
+                // 2. 删除消息（触发器同步删除全文索引），记录归档数
+                db.delete(TABLE_MESSAGES, COLUMN_MSG_CONV_ID + " = ?", args);
+                db.execSQL("UPDATE " + TABLE_CONVERSATIONS + " SET " + COLUMN_CONV_ARCHIVED + " = " +
+                           COLUMN_CONV_ARCHIVED + " + ? WHERE " + COLUMN_CONV_ID + " = ?",
+                           new Object[]{archived, conversationId});
+                
+                db.setTransactionSuccessful();
+                archivedConversations.add(conversationId);
+                
+                result.archivedConversations++;
+                result.archivedMessages += archived;
+                result.segments += segments;
+                result.rawBytes += rawBytes;
+                result.compressedBytes += compressedBytes;
+                return true;
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * 压缩并写入一段
+     * @return 压缩后的字节数
+     */
+    private static int insertSegment(SQLiteDatabase db, long conversationId, MessageSegmentCodec.Builder builder) {
+        byte[] data = builder.compress();
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_SEG_CONV_ID, conversationId);
+        values.put(COLUMN_SEG_MIN_MSG_ID, builder.getMinId());
+        values.put(COLUMN_SEG_MAX_MSG_ID, builder.getMaxId());
+        values.put(COLUMN_SEG_FIRST_TIMESTAMP, builder.getFirstTimestamp());
+        values.put(COLUMN_SEG_LAST_TIMESTAMP, builder.getLastTimestamp());
+        values.put(COLUMN_SEG_MESSAGE_COUNT, builder.getCount());
+        values.put(COLUMN_SEG_RAW_BYTES, builder.getRawBytes());
+        values.put(COLUMN_SEG_DATA, data);
+        if (db.insert(TABLE_SEGMENTS, null, values) == -1) {
+            throw new IllegalStateException("写入归档段失败");
+        }
+        return data.length;
+    }
+    
+    /**
+     * 读操作访问到归档的对话时，在写锁内恢复
+     * @param conversationId 对话ID
+     */
+    private void restoreIfArchived(String conversationId) {
+        long id = Long.parseLong(conversationId);
+        if (!archivedConversations.contains(id)) {
+            return;
+        }
+        lockWriter("restoreConversation");
+        try {
+            restoreConversation(getDatabase(), id);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * 把归档段中的消息写回消息表并重建全文索引，调用方必须持有写锁
+     * 无法解码的段保留在归档表中并记录错误，不影响其余的段和后续写入
+     * @param db 数据库
+     * @param conversationId 对话ID
+     * @return 本次是否完成恢复
+     */
+    private boolean restoreConversation(SQLiteDatabase db, long conversationId) {
+        if (!archivedConversations.contains(conversationId)) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        // 低于该ID的消息由后台补建索引，这里不重复建
+        long backfillBelow = readMetadata(db, KEY_SEARCH_BACKFILL_BELOW);
+        int restored = 0;
+        int remaining = 0;
+        
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_SEG_ID + ", " + COLUMN_SEG_RAW_BYTES + ", " +
+                    COLUMN_SEG_MESSAGE_COUNT + ", " + COLUMN_SEG_DATA + " FROM " + TABLE_SEGMENTS + " WHERE " +
+                    COLUMN_SEG_CONV_ID + " = ? ORDER BY " + COLUMN_SEG_FIRST_TIMESTAMP,
+                    new String[]{String.valueOf(conversationId)});
+            SQLiteStatement deleteSegment = db.compileStatement(
+                    "DELETE FROM " + TABLE_SEGMENTS + " WHERE " + COLUMN_SEG_ID + " = ?");
+            try {
+                while (cursor.moveToNext()) {
+                    List<MessageSegmentCodec.Record> records;
+                    try {
+                        records = MessageSegmentCodec.decode(cursor.getBlob(3), cursor.getInt(1));
+                    } catch (IOException e) {
+                        Log.e(TAG, "归档段损坏 - 对话ID: " + conversationId + ", 段ID: " + cursor.getLong(0) +
+                                ", " + e.getMessage(), e);
+                        remaining += cursor.getInt(2);
+                        continue;
+                    }
+                    
+                    for (MessageSegmentCodec.Record record : records) {
+                        insertMessageStatement.bindLong(1, record.id);
+                        insertMessageStatement.bindLong(2, conversationId);
+                        insertMessageStatement.bindLong(3, record.sender);
+                        insertMessageStatement.bindString(4, record.content);
+                        insertMessageStatement.bindLong(5, record.timestamp);
+                        insertMessageStatement.executeInsert();
+                        if (record.id >= backfillBelow) {
+                            insertSearchStatement.bindLong(1, record.id);
+                            insertSearchStatement.bindString(2, MessageSearchIndex.tokenize(record.content));
+                            insertSearchStatement.executeInsert();
+                        }
+                    }
+                    restored += records.size();
+                    deleteSegment.bindLong(1, cursor.getLong(0));
+                    deleteSegment.executeUpdateDelete();
+                }
+            } finally {
+                deleteSegment.close();
+                cursor.close();
+            }
+            
+            db.execSQL("UPDATE " + TABLE_CONVERSATIONS + " SET " + COLUMN_CONV_ARCHIVED + " = ? WHERE " +
+                       COLUMN_CONV_ID + " = ?", new Object[]{remaining, conversationId});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (remaining == 0) {
+            archivedConversations.remove(conversationId);
+        }
+        
+        Log.d(TAG, "对话已从归档恢复 - 对话ID: " + conversationId + ", 消息数: " + restored + ", 耗时: " +
+                (System.currentTimeMillis() - start) + "ms");
+        return remaining == 0;
+    }
+    
+    /**
+     * 按 (时间, ID) 升序读取一页消息，供 ConversationExporter 分页导出，不包括已归档的消息
+     * @param conversationId 对话ID
+     * @param afterTimestamp 上一页最后一条消息的时间戳，第一页传 Long.MIN_VALUE
+     * @param afterId 上一页最后一条消息的ID，第一页传 Long.MIN_VALUE
+     * @param limit 每页条数
+     * @return 消息列表
+     */
+    List<ChatMessage> readMessagePage(long conversationId, long afterTimestamp, long afterId, int limit) {
+        List<ChatMessage> messages = new ArrayList<>(limit);
+        Cursor cursor = getDatabase().rawQuery(
+                "SELECT " + COLUMN_MSG_ID + ", " + COLUMN_MSG_SENDER + ", " + COLUMN_MSG_CONTENT + ", " +
+                COLUMN_MSG_TIMESTAMP + " FROM " + TABLE_MESSAGES + " WHERE " + COLUMN_MSG_CONV_ID + " = ? AND (" +
+                COLUMN_MSG_TIMESTAMP + " > ? OR (" + COLUMN_MSG_TIMESTAMP + " = ? AND " + COLUMN_MSG_ID +
+                " > ?)) ORDER BY " + COLUMN_MSG_TIMESTAMP + ", " + COLUMN_MSG_ID + " LIMIT ?",
+                new String[]{String.valueOf(conversationId), String.valueOf(afterTimestamp),
+                        String.valueOf(afterTimestamp), String.valueOf(afterId), String.valueOf(limit)});
+        try {
+            while (cursor.moveToNext()) {
+                messages.add(new ChatMessage(cursor.getString(0), senderName(cursor.getInt(1)),
+                        cursor.getString(2), cursor.getLong(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return messages;
+    }
+    
+    /**
+     * 对话的归档段ID，按时间顺序
+     * @param conversationId 对话ID
+     * @return 段ID
+     */
+    long[] findArchivedSegments(long conversationId) {
+        if (!archivedConversations.contains(conversationId)) {
+            return new long[0];
+        }
+        Cursor cursor = getDatabase().rawQuery("SELECT " + COLUMN_SEG_ID + " FROM " + TABLE_SEGMENTS + " WHERE " +
+                COLUMN_SEG_CONV_ID + " = ? ORDER BY " + COLUMN_SEG_FIRST_TIMESTAMP,
+                new String[]{String.valueOf(conversationId)});
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * 解码一个归档段，不恢复到消息表
+     * @param segmentId 段ID
+     * @return 段内消息，段已被恢复或删除时为空
+     * @throws IOException 段数据损坏
+     */
+    List<ChatMessage> readArchivedSegment(long segmentId) throws IOException {
+        List<ChatMessage> messages = new ArrayList<>();
+        Cursor cursor = getDatabase().rawQuery("SELECT " + COLUMN_SEG_RAW_BYTES + ", " + COLUMN_SEG_DATA + " FROM " +
+                TABLE_SEGMENTS + " WHERE " + COLUMN_SEG_ID + " = ?", new String[]{String.valueOf(segmentId)});
+        try {
+            if (cursor.moveToFirst()) {
+                for (MessageSegmentCodec.Record record : MessageSegmentCodec.decode(cursor.getBlob(1), cursor.getInt(0))) {
+                    messages.add(new ChatMessage(String.valueOf(record.id), senderName(record.sender),
+                            record.content, record.timestamp));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return messages;
+    }
+    
+    /**
+     * 导入的断点（已提交的行数），没有断点时为0
+     * @param importName 导入任务名
+     */
+    long readImportCheckpoint(String importName) {
+        return readMetadata(getDatabase(), KEY_IMPORT_CHECKPOINT_PREFIX + importName);
+    }
+    
+    /**
+     * 导入完成后删除断点
+     * @param importName 导入任务名
+     */
+    void clearImportCheckpoint(String importName) {
+        lockWriter("clearImportCheckpoint");
+        try {
+            getDatabase().delete(TABLE_METADATA, "key = ?", new String[]{KEY_IMPORT_CHECKPOINT_PREFIX + importName});
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * 在一个事务内导入一批对话和消息，并记录断点，供 ConversationImporter 调用
+     * 消息重新分配ID并同步建全文索引；导入到归档对话前先恢复该对话
+     * @param entries 本批条目
+     * @param importName 导入任务名
+     * @param checkpoint 本批提交后的断点（已处理的行数）
+     * @return 导入的消息数
+     */
+    int importBatch(List<ConversationImporter.Entry> entries, String importName, long checkpoint) {
+        SQLiteDatabase db = getDatabase();
+        // 分词放在锁外完成
+        String[] searchTexts = new String[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            ConversationImporter.Entry entry = entries.get(i);
+            if (entry.content != null) {
+                searchTexts[i] = MessageSearchIndex.tokenize(entry.content);
+            }
+        }
+        
+        // 每个用户的对话ID、本批最新的活跃时间、是否由本批新建
+        Map<String, Long> conversationIds = new HashMap<>();
+        Map<String, Long> lastActive = new HashMap<>();
+        Set<String> created = new HashSet<>();
+        List<Long> restoredIds = new ArrayList<>();
+        int imported = 0;
+        
+        lockWriter("importBatch");
+        try {
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < entries.size(); i++) {
+                    ConversationImporter.Entry entry = entries.get(i);
+                    Long conversationId = conversationIds.get(entry.userName);
+                    if (conversationId == null) {
+                        if (findConversationId(db, entry.userName) == null) {
+                            created.add(entry.userName);
+                        }
+                        String id = findOrCreateConversation(db, entry.userName);
+                        if (id == null) {
+                            throw new IllegalStateException("无法创建对话: " + entry.userName);
+                        }
+                        conversationId = Long.parseLong(id);
+                        if (restoreConversation(db, conversationId)) {
+                            restoredIds.add(conversationId);
+                        }
+                        conversationIds.put(entry.userName, conversationId);
+                    }
+                    
+                    Long previous = lastActive.get(entry.userName);
+                    lastActive.put(entry.userName, previous == null ? entry.timestamp : Math.max(previous, entry.timestamp));
+                    
+                    if (entry.content == null) {
+                        // 对话条目：只更新角色设定
+                        if (entry.roleSetting != null) {
+                            ContentValues values = new ContentValues();
+                            values.put(COLUMN_CONV_ROLE_SETTING, entry.roleSetting);
+                            db.update(TABLE_CONVERSATIONS, values, COLUMN_CONV_ID + " = ?",
+                                    new String[]{String.valueOf(conversationId)});
+                        }
+                        continue;
+                    }
+                    
+                    long messageId = nextMessageId();
+                    insertMessageStatement.bindLong(1, messageId);
+                    insertMessageStatement.bindLong(2, conversationId);
+                    insertMessageStatement.bindLong(3, entry.isSelf ? SENDER_SELF : SENDER_OTHER);
+                    insertMessageStatement.bindString(4, entry.content);
+                    insertMessageStatement.bindLong(5, entry.timestamp);
+                    if (insertMessageStatement.executeInsert() == -1) {
+                        throw new IllegalStateException("插入消息失败");
+                    }
+                    insertSearchStatement.bindLong(1, messageId);
+                    insertSearchStatement.bindString(2, searchTexts[i]);
+                    insertSearchStatement.executeInsert();
+                    imported++;
+                }
+                
+                // 新建的对话沿用导出时的活跃时间，已有的对话只前进不后退
+                for (Map.Entry<String, Long> active : lastActive.entrySet()) {
+                    String assignment = created.contains(active.getKey()) ? "?" : "MAX(" + COLUMN_CONV_LAST_ACTIVE + ", ?)";
+                    db.execSQL("UPDATE " + TABLE_CONVERSATIONS + " SET " + COLUMN_CONV_LAST_ACTIVE + " = " + assignment +
+                               " WHERE " + COLUMN_CONV_ID + " = ?",
+                               new Object[]{active.getValue(), conversationIds.get(active.getKey())});
+                }
+                writeMetadata(db, KEY_IMPORT_CHECKPOINT_PREFIX + importName, checkpoint);
+                
+                db.setTransactionSuccessful();
+                restoredIds.clear();
+            } finally {
+                db.endTransaction();
+                archivedConversations.addAll(restoredIds);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        
+        // 导入的消息可能落在缓存的窗口内
+        for (String userName : conversationIds.keySet()) {
+            historyCache.invalidate(userName);
+        }
+        return imported;
+    }
+    
+    /**
+     * 按 (时间, ID) 倒序分页获取消息（keyset分页），同一毫秒内的多条消息也不会在翻页时丢失或重复
+     * 复合索引 (conversation_id, timestamp) 隐含rowid即消息ID，排序不需要额外的临时B树
+     * @param userName 用户名
+     * @param limit 每页条数
+     * @param beforeTimestamp 上一页第一条消息的时间戳，取最新一页时传 Long.MAX_VALUE
+     * @param beforeId 上一页第一条消息的ID，取最新一页时传 Long.MAX_VALUE
+     * @return 消息列表，按时间升序；下一页用第一条消息的时间戳和ID作为 beforeTimestamp、beforeId
+     */
+    public List<ChatMessage> getRecentMessages(String userName, int limit, long beforeTimestamp, long beforeId) {
+        List<ChatMessage> messages = new ArrayList<>();
+        Cursor cursor = null;
+        
+        try {
+            SQLiteDatabase db = getDatabase();
+            
+            String conversationId = findConversationId(db, userName);
+            if (conversationId == null) {
+                return messages;
+            }
+            restoreIfArchived(conversationId);
+            
+            String query = "SELECT " + COLUMN_MSG_ID + ", " + COLUMN_MSG_SENDER + ", " + COLUMN_MSG_CONTENT + ", " +
+                          COLUMN_MSG_TIMESTAMP + " FROM " + TABLE_MESSAGES + " WHERE " +
+                          COLUMN_MSG_CONV_ID + " = ? AND (" + COLUMN_MSG_TIMESTAMP + " < ? OR (" +
+                          COLUMN_MSG_TIMESTAMP + " = ? AND " + COLUMN_MSG_ID + " < ?)) ORDER BY " +
+                          COLUMN_MSG_TIMESTAMP + " DESC, " + COLUMN_MSG_ID + " DESC LIMIT ?";
+            String[] selectionArgs = {conversationId, String.valueOf(beforeTimestamp),
+                    String.valueOf(beforeTimestamp), String.valueOf(beforeId), String.valueOf(limit)};
+            
+            cursor = db.rawQuery(query, selectionArgs);
+            while (cursor != null && cursor.moveToNext()) {
+                messages.add(new ChatMessage(cursor.getString(0), senderName(cursor.getInt(1)),
+                        cursor.getString(2), cursor.getLong(3)));
+            }
+            Collections.reverse(messages);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "分页获取消息异常: " + e.getMessage(), e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        
+        return messages;
+    }
+    
+    /**
+     * 打开对话摘要迭代器，按最后活跃时间倒序
+     * 消息数和最后一条消息由同一条SQL算出，不会逐个对话再查询
+     * @return 迭代器，用完必须 close()
+     */
+    public ConversationSummaryIterator openConversationSummaries() {
+        String query = "SELECT c." + COLUMN_CONV_ID + ", c." + COLUMN_CONV_USER_NAME + ", c." +
+                      COLUMN_CONV_LAST_ACTIVE + ", c." + COLUMN_CONV_ROLE_SETTING + ", " +
+                      "(SELECT COUNT(*) FROM " + TABLE_MESSAGES + " m WHERE m." + COLUMN_MSG_CONV_ID +
+                      " = c." + COLUMN_CONV_ID + ") + c." + COLUMN_CONV_ARCHIVED + ", " +
+                      "lm." + COLUMN_MSG_ID + ", lm." + COLUMN_MSG_SENDER + ", lm." + COLUMN_MSG_CONTENT + ", lm." +
+                      COLUMN_MSG_TIMESTAMP +
+                      " FROM " + TABLE_CONVERSATIONS + " c LEFT JOIN " + TABLE_MESSAGES + " lm ON lm.rowid = " +
+                      "(SELECT m2.rowid FROM " + TABLE_MESSAGES + " m2 WHERE m2." + COLUMN_MSG_CONV_ID +
+                      " = c." + COLUMN_CONV_ID + " ORDER BY m2." + COLUMN_MSG_TIMESTAMP + " DESC LIMIT 1)" +
+                      " ORDER BY c." + COLUMN_CONV_LAST_ACTIVE + " DESC";
+        
+        try {
+            return new ConversationSummaryIterator(getDatabase().rawQuery(query, null));
+        } catch (Exception e) {
+            Log.e(TAG, "查询对话摘要异常: " + e.getMessage(), e);
+            return new ConversationSummaryIterator(null);
+        }
+    }
+    
+    /**
+     * 按内容搜索消息，结果按时间从新到旧排列，不包括已归档的消息
+     * @param query 关键词，空白分隔的多个关键词需同时出现
+     * @param limit 最多返回的条数
+     * @return 搜索结果，包含高亮片段
+     */
+    public List<SearchResult> searchMessages(String query, int limit) {
+        List<SearchResult> results = new ArrayList<>();
+        String match = MessageSearchIndex.buildMatchQuery(query);
+        if (match == null) {
+            return results;
+        }
+        Cursor cursor = null;
+        
+        try {
+            // 先在全文索引中按rowid倒序取前limit条，再回表取原文和对话
+            String sql = "SELECT m." + COLUMN_MSG_ID + ", m." + COLUMN_MSG_SENDER + ", m." + COLUMN_MSG_CONTENT +
+                        ", m." + COLUMN_MSG_TIMESTAMP + ", c." + COLUMN_CONV_ID + ", c." + COLUMN_CONV_USER_NAME +
+                        " FROM (SELECT rowid AS hit_id FROM " + TABLE_MESSAGES_FTS + " WHERE " + TABLE_MESSAGES_FTS +
+                        " MATCH ? ORDER BY rowid DESC LIMIT ?) hits" +
+                        " JOIN " + TABLE_MESSAGES + " m ON m." + COLUMN_MSG_ID + " = hits.hit_id" +
+                        " JOIN " + TABLE_CONVERSATIONS + " c ON c." + COLUMN_CONV_ID + " = m." + COLUMN_MSG_CONV_ID +
+                        " ORDER BY hits.hit_id DESC";
+            cursor = getDatabase().rawQuery(sql, new String[]{match, String.valueOf(limit)});
+            
+            while (cursor != null && cursor.moveToNext()) {
+                ChatMessage message = new ChatMessage(cursor.getString(0), senderName(cursor.getInt(1)),
+                        cursor.getString(2), cursor.getLong(3));
+                results.add(new SearchResult(cursor.getString(4), cursor.getString(5), message,
+                        MessageSearchIndex.snippet(message.content, query, SEARCH_SNIPPET_CHARS)));
+            }
+            
+        } catch (Exception e) {
+            Log.e(TAG, "搜索消息异常: " + e.getMessage(), e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * 获取所有对话列表
+     * 会把全部消息读入内存，数据量大时请改用 openConversationSummaries 和 getRecentMessages，
+     * 导出数据请用 ConversationExporter；
+     * 不包括已归档的消息，也不会触发恢复
+     * @return 对话列表
+     */
+    @Deprecated
+    public List<Conversation> getAllConversations() {
+        List<Conversation> conversations = new ArrayList<>();
+        Cursor cursor = null;
+        
+        try {
+            SQLiteDatabase db = getDatabase();
+            
+            // 一次查询取出所有对话及其消息，按对话分组、组内按时间升序
+            String query = "SELECT c." + COLUMN_CONV_ID + ", c." + COLUMN_CONV_USER_NAME + ", c." +
+                          COLUMN_CONV_LAST_ACTIVE + ", c." + COLUMN_CONV_ROLE_SETTING + ", m." +
+                          COLUMN_MSG_ID + ", m." + COLUMN_MSG_SENDER + ", m." + COLUMN_MSG_CONTENT + ", m." +
+                          COLUMN_MSG_TIMESTAMP +
+                          " FROM " + TABLE_CONVERSATIONS + " c LEFT JOIN " + TABLE_MESSAGES + " m ON m." +
+                          COLUMN_MSG_CONV_ID + " = c." + COLUMN_CONV_ID +
+                          " ORDER BY c." + COLUMN_CONV_LAST_ACTIVE + " DESC, c." + COLUMN_CONV_ID + ", m." +
+                          COLUMN_MSG_TIMESTAMP + " ASC";
+            
+            cursor = db.rawQuery(query, null);
+            
+            Conversation conversation = null;
+            while (cursor != null && cursor.moveToNext()) {
+                String convId = cursor.getString(0);
+                if (conversation == null || !conversation.id.equals(convId)) {
+                    conversation = new Conversation(convId, cursor.getString(1), cursor.getLong(2),
+                            cursor.getString(3));
+                    conversations.add(conversation);
+                }
+                
+                if (!cursor.isNull(4)) {
+                    conversation.messages.add(new ChatMessage(cursor.getString(4), senderName(cursor.getInt(5)),
+                            cursor.getString(6), cursor.getLong(7)));
+                }
+            }
+            
+        } catch (Exception e) {
+            Log.e(TAG, "获取所有对话异常: " + e.getMessage(), e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        
+        return conversations;
+    }
+    
+    /**
+     * 查找或创建对话
+     * @param db 数据库
+     * @param userName 用户名
+     * @return 对话ID
+     */
+    private String findOrCreateConversation(SQLiteDatabase db, String userName) {
+        String conversationId = findConversationId(db, userName);
+        
+        if (conversationId == null) {
+            // 创建对话，ID由SQLite分配
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_CONV_USER_NAME, userName);
+            values.put(COLUMN_CONV_LAST_ACTIVE, System.currentTimeMillis());
+            values.put(COLUMN_CONV_ROLE_SETTING, DEFAULT_ROLE_SETTING);
+            
+            long result = db.insert(TABLE_CONVERSATIONS, null, values);
+            if (result == -1) {
+                Log.e(TAG, "创建对话失败");
+                return null;
+            }
+            conversationId = String.valueOf(result);
+            
+            Log.d(TAG, "对话创建成功 - 用户: " + userName + ", 对话ID: " + conversationId);
+        }
+        
+        return conversationId;
+    }
+    
+    /**
+     * 查找对话ID
+     * @param db 数据库
+     * @param userName 用户名
+     * @return 对话ID，找不到返回null
+     */
+    private String findConversationId(SQLiteDatabase db, String userName) {
+        String cachedId = historyCache.getConversationId(userName);
+        if (cachedId != null) {
+            return cachedId;
+        }
+        
+        // 查询期间对话被删除时，putConversationId 会根据序号放弃缓存
+        long stamp = historyCache.loadStamp(userName);
+        try {
+            long id;
+            if (writeLock.isHeldByCurrentThread()) {
+                // 预编译语句的参数绑定不是线程安全的，只在写锁内使用
+                findConversationIdStatement.bindString(1, userName);
+                id = findConversationIdStatement.simpleQueryForLong();
+            } else {
+                id = DatabaseUtils.longForQuery(db, "SELECT " + COLUMN_CONV_ID + " FROM " + TABLE_CONVERSATIONS +
+                        " WHERE " + COLUMN_CONV_USER_NAME + " = ?", new String[]{userName});
+            }
+            String conversationId = String.valueOf(id);
+            historyCache.putConversationId(userName, conversationId, stamp);
+            return conversationId;
+        } catch (SQLiteDoneException e) {
+            // 没有匹配的对话
+            return null;
+        } catch (Exception e) {
+            Log.e(TAG, "查找对话ID异常: " + e.getMessage(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * 获取长期持有的数据库连接，首次调用时打开并预编译语句
+     * @return 数据库
+     */
+    private SQLiteDatabase getDatabase() {
+        SQLiteDatabase db = database;
+        if (db != null && db.isOpen()) {
+            return db;
+        }
+        
+        synchronized (openLock) {
+            if (database == null || !database.isOpen()) {
+                // close() 之后不再重新打开，避免关闭时仍在运行的后台任务留下一个没人关闭的连接
+                if (closing) {
+                    throw new IllegalStateException("数据库已关闭");
+                }
+                db = dbHelper.getWritableDatabase();
+                
+                insertMessageStatement = db.compileStatement(
+                        "INSERT INTO " + TABLE_MESSAGES + " (" +
+                        COLUMN_MSG_ID + ", " + COLUMN_MSG_CONV_ID + ", " + COLUMN_MSG_SENDER + ", " +
+                        COLUMN_MSG_CONTENT + ", " + COLUMN_MSG_TIMESTAMP + ") VALUES (?, ?, ?, ?, ?)");
+                touchConversationStatement = db.compileStatement(
+                        "UPDATE " + TABLE_CONVERSATIONS + " SET " + COLUMN_CONV_LAST_ACTIVE + " = ? WHERE " +
+                        COLUMN_CONV_ID + " = ?");
+                findConversationIdStatement = db.compileStatement(
+                        "SELECT " + COLUMN_CONV_ID + " FROM " + TABLE_CONVERSATIONS + " WHERE " +
+                        COLUMN_CONV_USER_NAME + " = ?");
+                insertSearchStatement = db.compileStatement(
+                        "INSERT INTO " + TABLE_MESSAGES_FTS + " (rowid, " + COLUMN_MSG_CONTENT + ") VALUES (?, ?)");
+                
+                // 归档段中的消息恢复时沿用原ID，新ID必须大于它们
+                long maxMessageId = DatabaseUtils.longForQuery(db,
+                        "SELECT MAX(IFNULL((SELECT MAX(" + COLUMN_MSG_ID + ") FROM " + TABLE_MESSAGES + "), 0), " +
+                        "IFNULL((SELECT MAX(" + COLUMN_SEG_MAX_MSG_ID + ") FROM " + TABLE_SEGMENTS + "), 0))", null);
+                boolean migrating = hasLegacyMessages(db);
+                if (migrating) {
+                    // 迁移时沿用旧表的rowid作为消息ID，新消息从旧表最大rowid之后编号
+                    maxMessageId = Math.max(maxMessageId, DatabaseUtils.longForQuery(db,
+                            "SELECT IFNULL(MAX(rowid), 0) FROM " + TABLE_MESSAGES_V1, null));
+                }
+                messageIdSequence = new AtomicLong(maxMessageId + 1);
+                
+                archivedConversations.clear();
+                Cursor archived = db.rawQuery("SELECT " + COLUMN_CONV_ID + " FROM " + TABLE_CONVERSATIONS +
+                        " WHERE " + COLUMN_CONV_ARCHIVED + " > 0", null);
+                try {
+                    while (archived.moveToNext()) {
+                        archivedConversations.add(archived.getLong(0));
+                    }
+                } finally {
+                    archived.close();
+                }
+                
+                // 其他线程看到连接时，语句和ID序列都已就绪
+                database = db;
+                if (migrating || readMetadata(db, KEY_SEARCH_BACKFILL_BELOW) > 0) {
+                    startBackgroundUpgrade(migrating);
+                }
+            }
+            return database;
+        }
+    }
+    
+    /**
+     * 分配消息ID，首次调用时会打开数据库
+     */
+    private long nextMessageId() {
+        return messageSequence().getAndIncrement();
+    }
+    
+    private AtomicLong messageSequence() {
+        AtomicLong sequence = messageIdSequence;
+        if (sequence == null) {
+            getDatabase();
+            sequence = messageIdSequence;
+        }
+        return sequence;
+    }
+    
+    private static String senderName(boolean isSelf) {
+        return isSelf ? "self" : "other";
+    }
+    
+    private static String senderName(int senderCode) {
+        return senderName(senderCode == SENDER_SELF);
+    }
+    
+    private static boolean hasLegacyMessages(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{TABLE_MESSAGES_V1}) > 0;
+    }
+    
+    /**
+     * 在后台线程完成升级遗留的工作：先迁移版本1的消息，再补建全文索引
+     * 每个事务只处理一块，块之间让出写锁给读写请求
+     * @param migrating 是否有版本1的消息需要迁移
+     */
+    private void startBackgroundUpgrade(boolean migrating) {
+        if (backgroundUpgradeThread != null && backgroundUpgradeThread.isAlive()) {
+            return;
+        }
+        backgroundUpgradeThread = new Thread(() -> {
+            try {
+                if (migrating) {
+                    long start = System.currentTimeMillis();
+                    long migrated = runInChunks("migrateLegacyChunk", this::migrateLegacyChunk);
+                    if (migrated < 0) {
+                        return;
+                    }
+                    // 迁移期间加载的窗口可能缺少较早的消息
+                    historyCache.clear();
+                    Log.d(TAG, "消息迁移完成 - 条数: " + migrated + ", 耗时: " +
+                            (System.currentTimeMillis() - start) + "ms");
+                }
+                
+                long start = System.currentTimeMillis();
+                long indexed = runInChunks("indexSearchBacklogChunk", this::indexSearchBacklogChunk);
+                if (indexed > 0) {
+                    Log.d(TAG, "全文索引补建完成 - 条数: " + indexed + ", 耗时: " +
+                            (System.currentTimeMillis() - start) + "ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // 已处理的部分都在各自事务里提交了，下次打开数据库时从剩余部分继续
+                Log.e(TAG, "后台升级异常: " + e.getMessage(), e);
+            }
+        }, "db-upgrade");
+        backgroundUpgradeThread.setDaemon(true);
+        backgroundUpgradeThread.start();
+    }
+    
+    /**
+     * 后台分块任务，在写锁内执行一块
+     */
+    private interface ChunkTask {
+        /**
+         * @return 本块处理的条数，全部完成时返回-1
+         */
+        int runChunk(SQLiteDatabase db);
+    }
+    
+    /**
+     * 反复执行分块任务直到完成
+     * @param method 写锁等待统计用的方法名
+     * @param task 分块任务
+     * @return 处理的总条数，关闭数据库导致中断时返回-1
+     */
+    private long runInChunks(String method, ChunkTask task) throws InterruptedException {
+        long total = 0;
+        while (!closing) {
+            if (!backgroundGate.getAsBoolean()) {
+                Thread.sleep(BACKGROUND_DEFERRED_PAUSE_MS);
+                continue;
+            }
+            int processed;
+            lockWriter(method);
+            try {
+                if (closing) {
+                    break;
+                }
+                processed = task.runChunk(getDatabase());
+            } finally {
+                writeLock.unlock();
+            }
+            if (processed < 0) {
+                return total;
+            }
+            total += processed;
+            Thread.sleep(BACKGROUND_PAUSE_MS);
+        }
+        return -1;
+    }
+    
+    /**
+     * 为一块尚未建索引的消息补建全文索引，按ID从新到旧
+     * @param db 数据库
+     * @return 本次建索引的条数，全部完成时返回-1
+     */
+    private int indexSearchBacklogChunk(SQLiteDatabase db) {
+        long below = readMetadata(db, KEY_SEARCH_BACKFILL_BELOW);
+        if (below <= 0) {
+            return -1;
+        }
+        
+        db.beginTransaction();
+        try {
+            int indexed = 0;
+            long lowestId = 0;
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_MSG_ID + ", " + COLUMN_MSG_CONTENT + " FROM " +
+                    TABLE_MESSAGES + " WHERE " + COLUMN_MSG_ID + " < ? ORDER BY " + COLUMN_MSG_ID + " DESC LIMIT " +
+                    BACKGROUND_CHUNK_SIZE, new String[]{String.valueOf(below)});
+            try {
+                while (cursor.moveToNext()) {
+                    lowestId = cursor.getLong(0);
+                    insertSearchStatement.bindLong(1, lowestId);
+                    insertSearchStatement.bindString(2, MessageSearchIndex.tokenize(cursor.getString(1)));
+                    insertSearchStatement.executeInsert();
+                    indexed++;
+                }
+            } finally {
+                cursor.close();
+            }
+            
+            writeMetadata(db, KEY_SEARCH_BACKFILL_BELOW, indexed < BACKGROUND_CHUNK_SIZE ? 0 : lowestId);
+            db.setTransactionSuccessful();
+            return indexed;
+        } finally {
+            db.endTransaction();
+        }
+    }
+    
+    private static long readMetadata(SQLiteDatabase db, String key) {
+        return DatabaseUtils.longForQuery(db, "SELECT IFNULL((SELECT value FROM " + TABLE_METADATA +
+                " WHERE key = ?), 0)", new String[]{key});
+    }
+    
+    private static void writeMetadata(SQLiteDatabase db, String key, long value) {
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE_METADATA + " (key, value) VALUES (?, ?)",
+                new Object[]{key, value});
+    }
+    
+    /**
+     * 把旧表中rowid最大的一块消息搬到新表并从旧表删除，按rowid从新到旧迁移
+     * @param db 数据库
+     * @return 本次迁移的条数，全部迁移完毕并删除旧表时返回-1
+     */
+    private int migrateLegacyChunk(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            // 本块的最小rowid，剩余不足一块时为0，即全部搬完
+            long lowRowId = DatabaseUtils.longForQuery(db,
+                    "SELECT IFNULL((SELECT rowid FROM " + TABLE_MESSAGES_V1 + " ORDER BY rowid DESC LIMIT 1 OFFSET " +
+                    (BACKGROUND_CHUNK_SIZE - 1) + "), 0)", null);
+            
+            // 找不到对话的孤立消息、以及对话已被保留任务删除的消息直接丢弃
+            db.execSQL("INSERT INTO " + TABLE_MESSAGES + " (" + COLUMN_MSG_ID + ", " + COLUMN_MSG_CONV_ID + ", " +
+                       COLUMN_MSG_SENDER + ", " + COLUMN_MSG_CONTENT + ", " + COLUMN_MSG_TIMESTAMP + ") " +
+                       "SELECT v.rowid, m.id, CASE v.sender WHEN 'self' THEN " + SENDER_SELF + " ELSE " +
+                       SENDER_OTHER + " END, v.content, v.timestamp FROM " + TABLE_MESSAGES_V1 + " v JOIN " +
+                       TABLE_CONV_ID_MAP + " m ON m.legacy_id = v.conversation_id JOIN " + TABLE_CONVERSATIONS +
+                       " c ON c." + COLUMN_CONV_ID + " = m.id WHERE v.rowid >= ?",
+                       new Object[]{lowRowId});
+            SQLiteStatement delete = db.compileStatement(
+                    "DELETE FROM " + TABLE_MESSAGES_V1 + " WHERE rowid >= ?");
+            int moved;
+            try {
+                delete.bindLong(1, lowRowId);
+                moved = delete.executeUpdateDelete();
+            } finally {
+                delete.close();
+            }
+            
+            boolean finished = lowRowId == 0;
+            if (finished) {
+                db.execSQL("DROP TABLE " + TABLE_MESSAGES_V1);
+                db.execSQL("DROP TABLE " + TABLE_CONVERSATIONS_V1);
+                db.execSQL("DROP TABLE " + TABLE_CONV_ID_MAP);
+            }
+            
+            db.setTransactionSuccessful();
+            return finished ? -1 : moved;
+        } finally {
+            db.endTransaction();
+        }
+    }
+    
+    /**
+     * 设置后台迁移和补建索引是否可以继续，不允许时暂停在两块之间，直到再次允许
+     * @param gate 每块开始前调用
+     */
+    public void setBackgroundGate(BooleanSupplier gate) {
+        backgroundGate = gate;
+    }
+    
+    /**
+     * 活跃对话缓存，用于查询命中率和常驻内存
+     */
+    public ConversationCache getHistoryCache() {
+        return historyCache;
+    }
+    
+    /**
+     * 消息写入批大小直方图（条）
+     */
+    public Histogram getWriteBatchSizeHistogram() {
+        return writeQueue.getBatchSizeHistogram();
+    }
+    
+    /**
+     * 消息批量提交耗时直方图（微秒）
+     */
+    public Histogram getWriteCommitLatencyHistogram() {
+        return writeQueue.getCommitLatencyHistogram();
+    }
+    
+    /**
+     * 各方法等待写锁的耗时直方图（微秒），键为方法名
+     * 读操作不经过写锁，分段缓存锁的等待见 getHistoryCache().getLockWaitHistogram()
+     */
+    public Map<String, Histogram> getWriteLockWaitHistograms() {
+        return Collections.unmodifiableMap(writeLockWaits);
+    }
+    
+    /**
+     * 注册数据库写入、写锁和活跃对话缓存的指标
+     * 由使用方调用一次，构造函数中不注册，避免同一进程中的多个实例互相覆盖
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        metrics = registry;
+        registry.registerHistogram("momo_db_write_batch_size", "每次批量提交的消息数",
+                writeQueue.getBatchSizeHistogram(), MetricsRegistry.COUNT_BUCKETS, 1);
+        registry.registerHistogram("momo_db_write_commit_seconds", "消息批量提交耗时",
+                writeQueue.getCommitLatencyHistogram(), MetricsRegistry.MICROS_BUCKETS,
+                MetricsRegistry.MICROS_TO_SECONDS);
+        registry.gauge("momo_db_write_queue_depth", "等待写入数据库的消息数", writeQueue::getQueueDepth);
+        for (Map.Entry<String, Histogram> entry : writeLockWaits.entrySet()) {
+            registerLockWait(registry, entry.getKey(), entry.getValue());
+        }
+        
+        registry.counter("momo_history_cache_hits_total", "活跃对话缓存命中次数", historyCache::getHitCount);
+        registry.counter("momo_history_cache_misses_total", "活跃对话缓存未命中次数", historyCache::getMissCount);
+        registry.counter("momo_history_cache_evictions_total", "活跃对话缓存淘汰次数",
+                historyCache::getEvictionCount);
+        registry.gauge("momo_history_cache_entries", "活跃对话缓存中的对话数", historyCache::size);
+        registry.gauge("momo_history_cache_resident_bytes", "活跃对话缓存占用的内存（估算）",
+                historyCache::getResidentBytes);
+        registry.registerHistogram("momo_history_cache_lock_wait_seconds", "等待活跃对话缓存分段锁的耗时",
+                historyCache.getLockWaitHistogram(), MetricsRegistry.MICROS_BUCKETS,
+                MetricsRegistry.MICROS_TO_SECONDS);
+        registry.gauge("momo_archived_conversations", "有归档消息段的对话数", archivedConversations::size);
+    }
+    
+    /**
+     * 关闭数据库连接，先等待写入队列中的消息落盘
+     */
+    public void close() {
+        closing = true;
+        writeQueue.close(5000);
+        closeDatabase();
+    }
+    
+    private void closeDatabase() {
+        synchronized (openLock) {
+            lockWriter("closeDatabase");
+            try {
+                if (insertMessageStatement != null) {
+                    insertMessageStatement.close();
+                    touchConversationStatement.close();
+                    findConversationIdStatement.close();
+                    insertSearchStatement.close();
+                    insertMessageStatement = null;
+                    touchConversationStatement = null;
+                    findConversationIdStatement = null;
+                    insertSearchStatement = null;
+                }
+                database = null;
+                messageIdSequence = null;
+                if (dbHelper != null) {
+                    dbHelper.close();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * 获取写锁并记录等待时间，调用方必须紧接着进入 try，在 finally 中 writeLock.unlock()
+     * 直方图在加锁前取得，加锁之后只做不会失败的计数，不会在持有锁时抛出异常
+     * @param method 调用方法名，用于区分等待时间统计
+     */
+    private void lockWriter(String method) {
+        Histogram waits = writeLockWaits.computeIfAbsent(method, this::newLockWaitHistogram);
+        long start = System.nanoTime();
+        writeLock.lock();
+        waits.record((System.nanoTime() - start) / 1000);
+    }
+    
+    private Histogram newLockWaitHistogram(String method) {
+        Histogram histogram = new Histogram();
+        MetricsRegistry registry = metrics;
+        if (registry != null) {
+            registerLockWait(registry, method, histogram);
+        }
+        return histogram;
+    }
+    
+    private static void registerLockWait(MetricsRegistry registry, String method, Histogram histogram) {
+        registry.registerHistogram("momo_db_write_lock_wait_seconds", "等待数据库写锁的耗时", histogram,
+                MetricsRegistry.MICROS_BUCKETS, MetricsRegistry.MICROS_TO_SECONDS, "method", method);
+    }
+    
+    /**
+     * 数据库助手类
      */
     private class DatabaseHelper extends SQLiteOpenHelper {
         
@@ -521,11 +2018,47 @@ public class ConversationManager {
             super(context, DB_NAME, null, DB_VERSION);
         }
         
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            // 只对新建的数据库立即生效，旧库在第一次完整VACUUM后生效
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            // WAL模式下读写互不阻塞，提交时也不必每次重写整个回滚日志
+            db.enableWriteAheadLogging();
+        }
+        
         @Override
         public void onCreate(SQLiteDatabase db) {
-            // 创建对话表
+            createSchema(db);
+            createSearchIndex(db);
+            createArchive(db);
+            Log.d(TAG, "数据库创建成功");
+        }
+        
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            Log.d(TAG, "数据库升级 - 旧版本: " + oldVersion + ", 新版本: " + newVersion);
+            
+            if (oldVersion < 2) {
+                upgradeToVersion2(db);
+            }
+            if (oldVersion < 3) {
+                upgradeToVersion3(db);
+            }
+            if (oldVersion < 4) {
+                createArchive(db);
+                Log.d(TAG, "归档表已创建");
+            }
+        }
+        
+        /**
+         * 版本2的表结构：整数主键，发送方存为整数编码
+         * 复合索引同时服务"某对话最近N条"、按时间分页和计数，并且隐含rowid，
+         * 查最后一条消息时不必回表
+         */
+        private void createSchema(SQLiteDatabase db) {
+            // 创建对话表，user_name 的唯一约束自带索引
             String createConvTable = "CREATE TABLE " + TABLE_CONVERSATIONS + " (" +
-                                    COLUMN_CONV_ID + " TEXT PRIMARY KEY, " +
+                                    COLUMN_CONV_ID + " INTEGER PRIMARY KEY, " +
                                     COLUMN_CONV_USER_NAME + " TEXT UNIQUE NOT NULL, " +
                                     COLUMN_CONV_LAST_ACTIVE + " INTEGER NOT NULL, " +
                                     COLUMN_CONV_ROLE_SETTING + " TEXT NOT NULL" +
@@ -534,9 +2067,9 @@ public class ConversationManager {
             
             // 创建消息表
             String createMsgTable = "CREATE TABLE " + TABLE_MESSAGES + " (" +
-                                   COLUMN_MSG_ID + " TEXT PRIMARY KEY, " +
-                                   COLUMN_MSG_CONV_ID + " TEXT NOT NULL, " +
-                                   COLUMN_MSG_SENDER + " TEXT NOT NULL, " +
+                                   COLUMN_MSG_ID + " INTEGER PRIMARY KEY, " +
+                                   COLUMN_MSG_CONV_ID + " INTEGER NOT NULL, " +
+                                   COLUMN_MSG_SENDER + " INTEGER NOT NULL, " +
                                    COLUMN_MSG_CONTENT + " TEXT NOT NULL, " +
                                    COLUMN_MSG_TIMESTAMP + " INTEGER NOT NULL, " +
                                    "FOREIGN KEY (" + COLUMN_MSG_CONV_ID + ") REFERENCES " + TABLE_CONVERSATIONS + "(" + COLUMN_CONV_ID + ") ON DELETE CASCADE" +
@@ -544,22 +2077,104 @@ public class ConversationManager {
             db.execSQL(createMsgTable);
             
             // 创建索引
-            db.execSQL("CREATE INDEX idx_conversations_user_name ON " + TABLE_CONVERSATIONS + "(" + COLUMN_CONV_USER_NAME + ");");
-            db.execSQL("CREATE INDEX idx_messages_conversation_id ON " + TABLE_MESSAGES + "(" + COLUMN_MSG_CONV_ID + ");");
-            db.execSQL("CREATE INDEX idx_messages_timestamp ON " + TABLE_MESSAGES + "(" + COLUMN_MSG_TIMESTAMP + ");");
+            db.execSQL("CREATE INDEX idx_messages_conv_ts ON " + TABLE_MESSAGES + "(" + COLUMN_MSG_CONV_ID + ", " + COLUMN_MSG_TIMESTAMP + ");");
+        }
+        
+        /**
+         * 从版本1升级：旧表改名保留，对话表当场迁移并记录新旧ID映射，
+         * 消息留给 startBackgroundUpgrade 在后台分块搬运，升级本身只需毫秒级
+         */
+        private void upgradeToVersion2(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + TABLE_CONVERSATIONS + " RENAME TO " + TABLE_CONVERSATIONS_V1);
+            db.execSQL("ALTER TABLE " + TABLE_MESSAGES + " RENAME TO " + TABLE_MESSAGES_V1);
+            // 迁移只按rowid扫描旧消息表，旧索引只会拖慢逐块删除
+            db.execSQL("DROP INDEX IF EXISTS idx_messages_conversation_id");
+            db.execSQL("DROP INDEX IF EXISTS idx_messages_timestamp");
+            db.execSQL("DROP INDEX IF EXISTS idx_conversations_user_name");
             
-            Log.d(TAG, "数据库创建成功");
+            createSchema(db);
+            
+            db.execSQL("INSERT INTO " + TABLE_CONVERSATIONS + " (" + COLUMN_CONV_USER_NAME + ", " +
+                       COLUMN_CONV_LAST_ACTIVE + ", " + COLUMN_CONV_ROLE_SETTING + ") SELECT " +
+                       COLUMN_CONV_USER_NAME + ", " + COLUMN_CONV_LAST_ACTIVE + ", " + COLUMN_CONV_ROLE_SETTING +
+                       " FROM " + TABLE_CONVERSATIONS_V1 + " ORDER BY " + COLUMN_CONV_LAST_ACTIVE);
+            db.execSQL("CREATE TABLE " + TABLE_CONV_ID_MAP + " (legacy_id TEXT PRIMARY KEY, id INTEGER NOT NULL) WITHOUT ROWID");
+            db.execSQL("INSERT INTO " + TABLE_CONV_ID_MAP + " (legacy_id, id) SELECT v." + COLUMN_CONV_ID + ", c." +
+                       COLUMN_CONV_ID + " FROM " + TABLE_CONVERSATIONS_V1 + " v JOIN " + TABLE_CONVERSATIONS +
+                       " c ON c." + COLUMN_CONV_USER_NAME + " = v." + COLUMN_CONV_USER_NAME);
+            
+            Log.d(TAG, "对话表已升级到版本2，消息将在后台迁移");
         }
         
-        @Override
-        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            // 数据库升级逻辑
-            Log.d(TAG, "数据库升级 - 旧版本: " + oldVersion + ", 新版本: " + newVersion);
+        /**
+         * 创建全文索引表、同步删除的触发器和元数据表
+         * 分词在应用层完成，索引表保存分词后的文本，因此不能用外部内容表，也不能用触发器同步插入
+         */
+        private void createSearchIndex(SQLiteDatabase db) {
+            String module = isFts5Available() ? "fts5" : "fts4";
+            db.execSQL("CREATE VIRTUAL TABLE " + TABLE_MESSAGES_FTS + " USING " + module + "(" + COLUMN_MSG_CONTENT + ")");
+            db.execSQL("CREATE TRIGGER messages_fts_delete AFTER DELETE ON " + TABLE_MESSAGES + " BEGIN " +
+                       "DELETE FROM " + TABLE_MESSAGES_FTS + " WHERE rowid = old." + COLUMN_MSG_ID + "; END");
+            db.execSQL("CREATE TABLE " + TABLE_METADATA + " (key TEXT PRIMARY KEY, value INTEGER NOT NULL) WITHOUT ROWID");
+        }
+        
+        /**
+         * 在临时的内存数据库中试建FTS5表
+         * 不能在 onCreate 的事务里试：缺少模块时失败的建表语句仍会在本连接的表结构中留下表名，
+         * 之后再建同名的FTS4表会报表已存在
+         */
+        private boolean isFts5Available() {
+            SQLiteDatabase probe = SQLiteDatabase.create(null);
+            try {
+                probe.execSQL("CREATE VIRTUAL TABLE fts5_probe USING fts5(" + COLUMN_MSG_CONTENT + ")");
+                return true;
+            } catch (SQLiteException e) {
+                Log.w(TAG, "FTS5不可用，改用FTS4: " + e.getMessage());
+                return false;
+            } finally {
+                probe.close();
+            }
+        }
+        
+        /**
+         * 从版本2升级：建全文索引表，已有消息（含尚未迁移的版本1消息）留给后台补建
+         */
+        private void upgradeToVersion3(SQLiteDatabase db) {
+            createSearchIndex(db);
             
-            // 简单的升级逻辑，实际项目中需要更复杂的处理
-            if (oldVersion < 2) {
-                // 版本2的升级逻辑
+            long maxMessageId = DatabaseUtils.longForQuery(db,
+                    "SELECT IFNULL(MAX(" + COLUMN_MSG_ID + "), 0) FROM " + TABLE_MESSAGES, null);
+            if (hasLegacyMessages(db)) {
+                maxMessageId = Math.max(maxMessageId, DatabaseUtils.longForQuery(db,
+                        "SELECT IFNULL(MAX(rowid), 0) FROM " + TABLE_MESSAGES_V1, null));
             }
+            // 此后写入的消息ID都大于该值，写入时已同步建索引
+            writeMetadata(db, KEY_SEARCH_BACKFILL_BELOW, maxMessageId + 1);
+            
+            Log.d(TAG, "全文索引表已创建，已有消息将在后台建索引");
+        }
+        
+        /**
+         * 版本4：对话表增加归档消息数，创建归档段表
+         * 段按 (对话ID, 首条时间) 建索引，恢复时按时间顺序读出
+         */
+        private void createArchive(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE " + TABLE_CONVERSATIONS + " ADD COLUMN " + COLUMN_CONV_ARCHIVED +
+                       " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("CREATE TABLE " + TABLE_SEGMENTS + " (" +
+                       COLUMN_SEG_ID + " INTEGER PRIMARY KEY, " +
+                       COLUMN_SEG_CONV_ID + " INTEGER NOT NULL, " +
+                       COLUMN_SEG_MIN_MSG_ID + " INTEGER NOT NULL, " +
+                       COLUMN_SEG_MAX_MSG_ID + " INTEGER NOT NULL, " +
+                       COLUMN_SEG_FIRST_TIMESTAMP + " INTEGER NOT NULL, " +
+                       COLUMN_SEG_LAST_TIMESTAMP + " INTEGER NOT NULL, " +
+                       COLUMN_SEG_MESSAGE_COUNT + " INTEGER NOT NULL, " +
+                       COLUMN_SEG_RAW_BYTES + " INTEGER NOT NULL, " +
+                       COLUMN_SEG_DATA + " BLOB NOT NULL, " +
+                       "FOREIGN KEY (" + COLUMN_SEG_CONV_ID + ") REFERENCES " + TABLE_CONVERSATIONS + "(" + COLUMN_CONV_ID + ") ON DELETE CASCADE" +
+                       ");");
+            db.execSQL("CREATE INDEX idx_segments_conv_ts ON " + TABLE_SEGMENTS + "(" + COLUMN_SEG_CONV_ID + ", " +
+                       COLUMN_SEG_FIRST_TIMESTAMP + ");");
         }
     }
 }
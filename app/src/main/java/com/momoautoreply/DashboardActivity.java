@@ -0,0 +1,371 @@
+package com.momoautoreply;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Button;
+import android.widget.CompoundButton;
+import android.widget.Switch;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 性能面板
+ * 功能：
+ * 1. 显示回复耗时分位数、事件与处理的比例、队列深度、模型调用失败率、缓存命中率、数据库写入耗时和启动耗时
+ * 2. 导出最近的消息处理链路
+ * 3. 开关本机指标接口和无障碍事件录制
+ *
+ * 数据直接读取进程内的 MetricsRegistry 和 TraceRecorder，与无障碍服务在同一进程中。
+ * 界面可见时每2秒刷新一次；“最近”的数据相对约30~60秒前的基线计算，
+ * 基线和直方图副本预先分配、轮换使用，每次刷新只生成一个显示用的字符串。
+ */
+public class DashboardActivity extends AppCompatActivity {
+
+    private static final String TAG = "DashboardActivity";
+
+    private static final long REFRESH_INTERVAL_MS = 2000;
+    // 基线轮换间隔，“最近”的统计范围在一到两个间隔之间
+    private static final long BASELINE_INTERVAL_MS = 30000;
+
+    private static final AIReplyGenerator.AIModel[] MODELS = AIReplyGenerator.AIModel.values();
+
+    // 启动阶段的显示名称，与 MomoAccessibilityService.STARTUP_STAGES 一一对应
+    private static final String[] STARTUP_STAGE_LABELS = {"关键组件", "快照加载", "打开数据库", "缓存预热", "域名解析", "预连接"};
+
+    /**
+     * 某一时刻的计数和直方图副本
+     */
+    private static class Sample {
+        long timeMillis;
+        long events;
+        long received;
+        long processed;
+        long sent;
+        long cacheHits;
+        long cacheMisses;
+        final long[] providerRequests = new long[MODELS.length];
+        final long[] providerErrors = new long[MODELS.length];
+        final Histogram.Snapshot latency = new Histogram.Snapshot();
+        final Histogram.Snapshot commit = new Histogram.Snapshot();
+    }
+
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private final TraceRecorder traceRecorder = TraceRecorder.getInstance();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final StringBuilder text = new StringBuilder(2048);
+
+    // 当前、较新和较旧的采样，轮换使用
+    private Sample current = new Sample();
+    private Sample newerBaseline = new Sample();
+    private Sample olderBaseline = new Sample();
+
+    private TextView textViewMetrics;
+
+    private final Runnable refreshTask = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_dashboard);
+        setTitle(R.string.title_dashboard);
+
+        textViewMetrics = findViewById(R.id.textView_metrics);
+        Button btnDumpTraces = findViewById(R.id.btn_dump_traces);
+        Switch switchMetricsHttp = findViewById(R.id.switch_metrics_http);
+        Switch switchEventTrace = findViewById(R.id.switch_event_trace);
+        Switch switchInboxScan = findViewById(R.id.switch_inbox_scan);
+
+        btnDumpTraces.setOnClickListener(v -> dumpTraces());
+
+        // 本机指标接口、事件录制和消息列表巡检开关，服务下次连接时生效
+        SharedPreferences prefs = getSharedPreferences(MetricsHttpServer.PREFS_NAME, MODE_PRIVATE);
+        bindRestartSwitch(switchMetricsHttp, prefs, MetricsHttpServer.KEY_HTTP_ENABLED);
+        bindRestartSwitch(switchEventTrace, prefs, MomoAccessibilityService.KEY_EVENT_TRACE_ENABLED);
+        bindRestartSwitch(switchInboxScan, prefs, MomoAccessibilityService.KEY_INBOX_SCAN_ENABLED);
+    }
+
+    private void bindRestartSwitch(Switch view, SharedPreferences prefs, String key) {
+        view.setChecked(prefs.getBoolean(key, false));
+        view.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                prefs.edit().putBoolean(key, isChecked).apply();
+                Toast.makeText(DashboardActivity.this, R.string.msg_metrics_http_restart, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // 重新打开时以当前数据作为基线，“最近”从此刻开始统计
+        capture(olderBaseline);
+        capture(newerBaseline);
+        handler.post(refreshTask);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refreshTask);
+    }
+
+    /**
+     * 采集当前数据并刷新显示
+     */
+    private void refresh() {
+        capture(current);
+        if (current.timeMillis - newerBaseline.timeMillis >= BASELINE_INTERVAL_MS) {
+            // 较旧的基线淘汰，当前采样成为较新的基线
+            Sample recycled = olderBaseline;
+            olderBaseline = newerBaseline;
+            newerBaseline = current;
+            current = recycled;
+            capture(current);
+        }
+        render(current, olderBaseline);
+        textViewMetrics.setText(text);
+    }
+
+    private void capture(Sample sample) {
+        sample.timeMillis = SystemClock.elapsedRealtime();
+        sample.events = metrics.getCounterValue("momo_accessibility_events_total");
+        sample.received = metrics.getCounterValue("momo_messages_received_total");
+        sample.processed = metrics.getCounterTotal("momo_messages_processed_total");
+        sample.sent = metrics.getCounterValue("momo_messages_processed_total", "outcome", "sent");
+        sample.cacheHits = metrics.getCounterValue("momo_history_cache_hits_total");
+        sample.cacheMisses = metrics.getCounterValue("momo_history_cache_misses_total");
+        for (int i = 0; i < MODELS.length; i++) {
+            String model = MODELS[i].name().toLowerCase(Locale.ROOT);
+            sample.providerRequests[i] = metrics.getCounterValue("momo_provider_requests_total", "model", model);
+            sample.providerErrors[i] = metrics.getCounterValue("momo_provider_errors_total", "model", model);
+        }
+        sample.latency.capture(traceRecorder.getTotalHistogram());
+        Histogram commit = metrics.getHistogram("momo_db_write_commit_seconds");
+        if (commit != null) {
+            sample.commit.capture(commit);
+        } else {
+            sample.commit.clear();
+        }
+    }
+
+    /**
+     * 生成显示内容，写入 text
+     * @param now 当前采样
+     * @param base 基线采样
+     */
+    private void render(Sample now, Sample base) {
+        double seconds = Math.max(1, now.timeMillis - base.timeMillis) / 1000.0;
+        text.setLength(0);
+
+        text.append("最近 ").append((long) seconds).append(" 秒\n\n");
+
+        text.append("回复耗时（收到事件到处理结束）\n");
+        text.append("  消息数 ").append(now.latency.getCountSince(base.latency)).append('\n');
+        appendPercentiles(now.latency, base.latency);
+
+        text.append("\n处理速度\n");
+        text.append("  事件 ");
+        appendDecimal((now.events - base.events) / seconds);
+        text.append("/秒  收到 ");
+        appendDecimal((now.received - base.received) / seconds);
+        text.append("/秒  处理完成 ");
+        appendDecimal((now.processed - base.processed) / seconds);
+        text.append("/秒\n  事件/处理完成 ");
+        long processed = now.processed - base.processed;
+        if (processed > 0) {
+            appendDecimal((double) (now.events - base.events) / processed);
+        } else {
+            text.append('-');
+        }
+        text.append("  已发送 ").append(now.sent - base.sent).append(" / ").append(processed).append('\n');
+
+        text.append("\n队列\n");
+        text.append("  待处理消息 ");
+        appendGauge("momo_reply_queue_depth");
+        text.append("  处理中 ");
+        appendGauge("momo_reply_active_workers");
+        text.append("  待写入数据库 ");
+        appendGauge("momo_db_write_queue_depth");
+        text.append('\n');
+
+        text.append("\n模型调用\n");
+        boolean anyProvider = false;
+        for (int i = 0; i < MODELS.length; i++) {
+            long requests = now.providerRequests[i] - base.providerRequests[i];
+            if (requests == 0) {
+                continue;
+            }
+            long errors = now.providerErrors[i] - base.providerErrors[i];
+            text.append("  ").append(MODELS[i].name()).append("  请求 ").append(requests)
+                    .append("  失败 ").append(errors).append(" (");
+            appendDecimal(errors * 100.0 / requests);
+            text.append("%)\n");
+            anyProvider = true;
+        }
+        if (!anyProvider) {
+            text.append("  无调用\n");
+        }
+
+        text.append("\n活跃对话缓存\n  命中率 ");
+        appendRatio(now.cacheHits - base.cacheHits, now.cacheMisses - base.cacheMisses);
+        text.append("  累计 ");
+        appendRatio(now.cacheHits, now.cacheMisses);
+        text.append("\n  对话数 ");
+        appendGauge("momo_history_cache_entries");
+        text.append("  内存 ");
+        double residentBytes = metrics.getGaugeValue("momo_history_cache_resident_bytes");
+        if (Double.isNaN(residentBytes)) {
+            text.append('-');
+        } else {
+            appendDecimal(residentBytes / 1024);
+            text.append("KB");
+        }
+        text.append('\n');
+
+        text.append("\n数据库批量提交耗时\n");
+        text.append("  提交次数 ").append(now.commit.getCountSince(base.commit)).append('\n');
+        appendPercentiles(now.commit, base.commit);
+
+        text.append("\n本次启动\n ");
+        for (int i = 0; i < STARTUP_STAGE_LABELS.length; i++) {
+            text.append(' ').append(STARTUP_STAGE_LABELS[i]).append(' ');
+            appendSeconds(metrics.getGaugeValue("momo_startup_stage_seconds", "stage",
+                    MomoAccessibilityService.STARTUP_STAGES[i]));
+        }
+        text.append("\n  首次回复 ");
+        appendSeconds(metrics.getGaugeValue("momo_startup_first_reply_seconds"));
+        text.append('\n');
+
+        text.append("\n节流档位 ");
+        String level = "-";
+        for (ThroughputGovernor.Level candidate : ThroughputGovernor.Level.values()) {
+            if (metrics.getGaugeValue("momo_governor_state", "level",
+                    candidate.name().toLowerCase(Locale.ROOT)) == 1) {
+                level = candidate.name();
+            }
+        }
+        text.append(level).append("\n  电量 ");
+        appendGauge("momo_governor_battery_percent");
+        text.append(metrics.getGaugeValue("momo_governor_charging") == 1 ? "% 充电中" : "%");
+        text.append("  温度状态 ");
+        appendGauge("momo_governor_thermal_status");
+        text.append("  线程 ");
+        appendGauge("momo_governor_workers");
+        text.append("  后台任务 ")
+                .append(metrics.getGaugeValue("momo_governor_background_allowed") == 1 ? "允许" : "暂停")
+                .append('\n');
+
+        if (!Double.isNaN(metrics.getGaugeValue("momo_inbox_pending_chats"))) {
+            text.append("\n消息列表巡检\n  每分钟 ");
+            appendGauge("momo_inbox_served_per_minute");
+            text.append("  等待中 ");
+            appendGauge("momo_inbox_pending_chats");
+            text.append("  最久等待 ");
+            appendSeconds(metrics.getGaugeValue("momo_inbox_oldest_wait_seconds"));
+            text.append('\n');
+        }
+
+        text.append("\n累计处理链路 ").append(traceRecorder.getCompletedCount()).append('\n');
+    }
+
+    private void appendPercentiles(Histogram.Snapshot now, Histogram.Snapshot base) {
+        text.append("  p50 ");
+        appendMillis(now.getPercentileSince(base, 0.50));
+        text.append("  p95 ");
+        appendMillis(now.getPercentileSince(base, 0.95));
+        text.append("  p99 ");
+        appendMillis(now.getPercentileSince(base, 0.99));
+        text.append('\n');
+    }
+
+    private void appendGauge(String name) {
+        double value = metrics.getGaugeValue(name);
+        if (Double.isNaN(value)) {
+            text.append('-');
+        } else {
+            text.append((long) value);
+        }
+    }
+
+    private void appendRatio(long hits, long misses) {
+        long total = hits + misses;
+        if (total == 0) {
+            text.append('-');
+            return;
+        }
+        appendDecimal(hits * 100.0 / total);
+        text.append('%');
+    }
+
+    /**
+     * 秒按毫秒显示，没有数据时显示 -
+     */
+    private void appendSeconds(double seconds) {
+        if (Double.isNaN(seconds)) {
+            text.append('-');
+        } else {
+            appendMillis((long) (seconds * 1e6));
+        }
+    }
+
+    /**
+     * 微秒按毫秒显示，保留一位小数
+     */
+    private void appendMillis(long micros) {
+        text.append(micros / 1000).append('.').append(micros / 100 % 10).append("ms");
+    }
+
+    /**
+     * 保留一位小数，不经过 String.format
+     */
+    private void appendDecimal(double value) {
+        long tenths = Math.round(value * 10);
+        text.append(tenths / 10).append('.').append(Math.abs(tenths % 10));
+    }
+
+    /**
+     * 在后台线程导出最近的处理链路，文件位于应用的外部文件目录
+     */
+    private void dumpTraces() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        String name = "traces-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".tsv";
+        File file = new File(dir, name);
+        new Thread(() -> {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                int count = traceRecorder.writeRecentTraces(out);
+                Log.d(TAG, "导出处理链路 - 条数: " + count + ", 文件: " + file);
+                runOnUiThread(() -> Toast.makeText(this,
+                        getString(R.string.msg_traces_dumped, count, file.getPath()), Toast.LENGTH_LONG).show());
+            } catch (IOException e) {
+                Log.e(TAG, "导出处理链路失败: " + e.getMessage(), e);
+                runOnUiThread(() -> Toast.makeText(this, R.string.msg_traces_dump_failed, Toast.LENGTH_SHORT).show());
+            }
+        }, "trace-dump").start();
+    }
+}
@@ -0,0 +1,298 @@
+package com.momoautoreply;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 收到消息的持久化日志
+ * 功能：
+ * 1. 处理消息之前先记录收到的消息，回复发送后再记录完成
+ * 2. 服务被系统杀死后，重新连接时取出尚未回复的消息重新处理
+ * 3. 压缩日志，只保留未完成的记录
+ *
+ * 日志文件通过内存映射追加写入，不经过数据库事务，也不每次同步磁盘，单次追加只需微秒级。
+ * 写入映射内存的数据在进程被杀死后仍由系统写回文件，但断电或系统崩溃时可能丢失最后几条。
+ *
+ * 记录格式（大端）：[int 记录体长度][int 记录体CRC32][记录体]
+ * 记录体：[byte 类型][long 序号]，收到消息的记录后接 [long 时间戳][int 长度][用户名][int 长度][消息内容]。
+ * 打开时从头扫描，遇到长度为0、越界或CRC不符的记录即视为日志末尾（最后一次写入不完整）。
+ */
+public class InboundJournal implements Closeable {
+
+    private static final String TAG = "InboundJournal";
+
+    private static final byte TYPE_RECEIVED = 1;
+    private static final byte TYPE_COMPLETED = 2;
+
+    // 记录头：长度 + CRC
+    static final int HEADER_BYTES = 8;
+    // 日志文件的初始大小，空间不足时压缩并按需扩大
+    static final int INITIAL_CAPACITY = 256 * 1024;
+
+    /**
+     * 尚未完成的消息
+     */
+    public static class Entry {
+        public final long seq;
+        public final long timestamp;
+        public final String userName;
+        public final String message;
+
+        Entry(long seq, long timestamp, String userName, String message) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.userName = userName;
+            this.message = message;
+        }
+    }
+
+    private final File file;
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    // 下一条记录的写入位置
+    private int writePosition;
+    private long nextSeq = 1;
+    // 未完成的消息，按序号排列
+    private final Map<Long, Entry> pending = new LinkedHashMap<>();
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * 打开日志，文件不存在时创建，存在时恢复未完成的消息
+     * @param file 日志文件
+     * @throws IOException 无法打开或映射文件
+     */
+    public InboundJournal(File file) throws IOException {
+        this.file = file;
+        map(Math.max(INITIAL_CAPACITY, (int) Math.min(file.length(), Integer.MAX_VALUE)));
+        recover();
+    }
+
+    /**
+     * 记录收到的消息
+     * @return 序号，完成后用于 appendCompleted
+     */
+    public synchronized long appendReceived(String userName, String message) throws IOException {
+        long seq = nextSeq++;
+        Entry entry = new Entry(seq, System.currentTimeMillis(), userName, message);
+        append(encodeReceived(entry));
+        pending.put(seq, entry);
+        return seq;
+    }
+
+    /**
+     * 记录消息已处理完成（回复已发送）
+     * @param seq appendReceived 返回的序号
+     */
+    public synchronized void appendCompleted(long seq) throws IOException {
+        if (pending.remove(seq) == null) {
+            return;
+        }
+        ByteBuffer body = ByteBuffer.allocate(1 + 8);
+        body.put(TYPE_COMPLETED).putLong(seq);
+        append(body.array());
+    }
+
+    /**
+     * 未完成的消息，按收到的顺序
+     * @param maxAgeMs 只返回该时间内收到的消息
+     */
+    public synchronized List<Entry> getPending(long maxAgeMs) {
+        long cutoff = System.currentTimeMillis() - maxAgeMs;
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : pending.values()) {
+            if (entry.timestamp >= cutoff) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 压缩日志：丢弃已完成和超过 maxAgeMs 的记录，只保留未完成的消息
+     * @param maxAgeMs 未完成消息的最长保留时间
+     */
+    public synchronized void compact(long maxAgeMs) throws IOException {
+        long cutoff = System.currentTimeMillis() - maxAgeMs;
+        int dropped = 0;
+        Iterator<Entry> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().timestamp < cutoff) {
+                iterator.remove();
+                dropped++;
+            }
+        }
+        int before = writePosition;
+        rewrite(0);
+        Log.d(TAG, "日志压缩完成 - " + before + " -> " + writePosition + " 字节, 未完成: " + pending.size() +
+                ", 丢弃过期: " + dropped);
+    }
+
+    /**
+     * 当前日志占用的字节数
+     */
+    public synchronized int size() {
+        return writePosition;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (randomAccessFile != null) {
+            buffer.force();
+            randomAccessFile.close();
+            randomAccessFile = null;
+            buffer = null;
+        }
+    }
+
+    private void append(byte[] body) throws IOException {
+        if (buffer == null) {
+            throw new IOException("日志已关闭");
+        }
+        if (writePosition + HEADER_BYTES + body.length > buffer.capacity()) {
+            // 空间不足：只保留未完成的消息重写，仍不够时扩大文件
+            rewrite(HEADER_BYTES + body.length);
+        }
+        crc.reset();
+        crc.update(body, 0, body.length);
+        buffer.position(writePosition);
+        buffer.putInt(body.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(body);
+        writePosition += HEADER_BYTES + body.length;
+    }
+
+    private byte[] encodeReceived(Entry entry) {
+        byte[] user = entry.userName.getBytes(StandardCharsets.UTF_8);
+        byte[] message = entry.message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 8 + 4 + user.length + 4 + message.length);
+        body.put(TYPE_RECEIVED).putLong(entry.seq).putLong(entry.timestamp);
+        body.putInt(user.length).put(user);
+        body.putInt(message.length).put(message);
+        return body.array();
+    }
+
+    /**
+     * 从头扫描日志，重建未完成的消息并定位写入位置
+     */
+    private void recover() {
+        int position = 0;
+        int records = 0;
+        while (position + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > buffer.capacity()) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.position(position + HEADER_BYTES);
+            buffer.get(body);
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                Log.w(TAG, "日志记录校验失败，截断于 " + position);
+                break;
+            }
+
+            ByteBuffer record = ByteBuffer.wrap(body);
+            byte type = record.get();
+            long seq = record.getLong();
+            if (type == TYPE_RECEIVED) {
+                long timestamp = record.getLong();
+                String userName = readString(record);
+                String message = readString(record);
+                pending.put(seq, new Entry(seq, timestamp, userName, message));
+            } else if (type == TYPE_COMPLETED) {
+                pending.remove(seq);
+            }
+            nextSeq = Math.max(nextSeq, seq + 1);
+            position += HEADER_BYTES + length;
+            records++;
+        }
+        writePosition = position;
+        // 截断处之后的残留字节全部清零：只清一个记录头时，之后追加的记录若恰好与损坏的记录等长，
+        // 下次打开会接着读到损坏记录后面仍然完整的旧记录。只写非零字节，干净的页不会被弄脏
+        for (int i = position; i < buffer.capacity(); i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        Log.d(TAG, "日志恢复完成 - 记录: " + records + ", 未完成: " + pending.size() + ", 大小: " + position + " 字节");
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 把未完成的消息写入新文件并替换旧日志，新文件至少留出 reserve 字节的空闲
+     */
+    private void rewrite(int reserve) throws IOException {
+        if (buffer == null) {
+            throw new IOException("日志已关闭");
+        }
+        List<byte[]> bodies = new ArrayList<>(pending.size());
+        int live = 0;
+        for (Entry entry : pending.values()) {
+            byte[] body = encodeReceived(entry);
+            bodies.add(body);
+            live += HEADER_BYTES + body.length;
+        }
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < (live + reserve) * 2) {
+            capacity *= 2;
+        }
+
+        // 写入临时文件后改名，压缩中途被杀死不会损坏原日志
+        File tmp = new File(file.getPath() + ".tmp");
+        tmp.delete();
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            MappedByteBuffer target = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            for (byte[] body : bodies) {
+                crc.reset();
+                crc.update(body, 0, body.length);
+                target.putInt(body.length);
+                target.putInt((int) crc.getValue());
+                target.put(body);
+            }
+            target.force();
+        }
+        // 先改名再释放旧映射：改名失败时旧映射和旧文件都还在，日志照常追加
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("替换日志文件失败: " + file);
+        }
+        // 旧映射指向已被替换的文件，其中未完成的记录都已写入新文件，不必再同步
+        RandomAccessFile replaced = randomAccessFile;
+        randomAccessFile = null;
+        buffer = null;
+        replaced.close();
+        map(capacity);
+        writePosition = live;
+    }
+
+    private void map(int capacity) throws IOException {
+        RandomAccessFile opened = new RandomAccessFile(file, "rw");
+        try {
+            buffer = opened.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        randomAccessFile = opened;
+    }
+}
@@ -26,6 +26,7 @@ public class MainActivity extends AppCompatActivity {
     private Button btnEnableAccessibility;
     private Button btnCheckServiceStatus;
     private Button btnSettings;
+    private Button btnDashboard;
     private Button btnExit;
 
     @Override
@@ -61,6 +62,7 @@ public class MainActivity extends AppCompatActivity {
         btnEnableAccessibility = findViewById(R.id.btn_enable_accessibility);
         btnCheckServiceStatus = findViewById(R.id.btn_check_service_status);
         btnSettings = findViewById(R.id.btn_settings);
+        btnDashboard = findViewById(R.id.btn_dashboard);
         btnExit = findViewById(R.id.btn_exit);
     }
 
@@ -92,6 +94,14 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        // 性能面板按钮
+        btnDashboard.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                startActivity(new Intent(MainActivity.this, DashboardActivity.class));
+            }
+        });
+
         // 退出按钮
         btnExit.setOnClickListener(new View.OnClickListener() {
             @Override
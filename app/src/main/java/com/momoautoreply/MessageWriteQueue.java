@@ -0,0 +1,276 @@
+package com.momoautoreply;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息写入队列（组提交）
+ * 功能：
+ * 1. 调用方提交消息后立即返回Future，不再等待磁盘同步
+ * 2. 专用写线程把排队的消息攒成批，在一个事务里提交
+ * 3. 批次大小受条数和等待时间双重限制
+ * 4. 记录批大小和提交耗时直方图
+ *
+ * 尚未提交完成的消息可以通过 getPending 查到，保证读操作能看到刚写入的内容。
+ * 消息在提交事务结束、Future完成之后才从 getPending 中移除，这段时间里
+ * 同一条消息可能同时出现在数据库和 getPending 中，读方按消息ID去重。
+ * 未完成的消息按用户分组保存，写线程按提交顺序提交，完成的消息总在各组的队首，
+ * 读取和移除都不需要扫描其他用户的消息。
+ */
+public class MessageWriteQueue {
+
+    private static final String TAG = "MessageWriteQueue";
+
+    private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    private static final long DEFAULT_MAX_DELAY_MS = 2;
+
+    /**
+     * 待写入的消息
+     */
+    public static class PendingWrite {
+        public final long id;
+        public final String userName;
+        public final String content;
+        public final boolean isSelf;
+        public final long timestamp;
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        PendingWrite(long id, String userName, String content, boolean isSelf, long timestamp) {
+            this.id = id;
+            this.userName = userName;
+            this.content = content;
+            this.isSelf = isSelf;
+            this.timestamp = timestamp;
+        }
+
+        /**
+         * 落盘后完成的Future，写入失败时异常完成
+         */
+        public CompletableFuture<Boolean> getFuture() {
+            return future;
+        }
+    }
+
+    /**
+     * 批量提交者，负责在一个事务内写入整批消息
+     */
+    public interface BatchCommitter {
+        void commitBatch(List<PendingWrite> batch) throws Exception;
+    }
+
+    // 关闭队列的哨兵
+    private static final PendingWrite POISON = new PendingWrite(0, "", "", false, 0);
+
+    private final BatchCommitter committer;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    // 用户名 -> 已提交到队列、尚未写入数据库的消息，按提交顺序排列，没有时移除该用户
+    private final ConcurrentHashMap<String, ConcurrentLinkedDeque<PendingWrite>> inFlight =
+            new ConcurrentHashMap<>();
+    // 检查 closed 和入队在同一把锁内，关闭之后不会再有消息进入队列
+    private final Object submitLock = new Object();
+    private final Thread writerThread;
+
+    private final Histogram batchSizeHistogram = new Histogram();
+    private final Histogram commitLatencyHistogram = new Histogram();
+
+    private volatile boolean closed;
+
+    public MessageWriteQueue(BatchCommitter committer) {
+        this(committer, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * 构造函数
+     * @param committer 批量提交者
+     * @param maxBatchSize 每批最大条数
+     * @param maxDelayMs 攒批最长等待时间（毫秒）
+     */
+    public MessageWriteQueue(BatchCommitter committer, int maxBatchSize, long maxDelayMs) {
+        this.committer = committer;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.writerThread = new Thread(this::runWriter, "message-writer");
+        // 忘记 close() 的实例不能阻止进程退出；正常关闭时 close() 会等待写线程把队列写完
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * 提交一条消息
+     * @param id 调用方预先分配的消息ID，落盘时原样写入
+     * @return 待写入消息，已记录时间戳，通过 getFuture 等待落盘
+     */
+    public PendingWrite submit(long id, String userName, String content, boolean isSelf) {
+        PendingWrite write = new PendingWrite(id, userName, content, isSelf, System.currentTimeMillis());
+        synchronized (submitLock) {
+            if (!closed) {
+                inFlight.compute(userName, (user, writes) -> {
+                    if (writes == null) {
+                        writes = new ConcurrentLinkedDeque<>();
+                    }
+                    writes.addLast(write);
+                    return writes;
+                });
+                queue.add(write);
+                return write;
+            }
+        }
+        write.future.completeExceptionally(new IllegalStateException("写入队列已关闭"));
+        return write;
+    }
+
+    /**
+     * 获取某个用户尚未确认落盘的消息，按提交顺序排列
+     * 结果可能包含刚提交、数据库里已经能查到的消息，调用方需按ID去重
+     * @param userName 用户名
+     * @return 待写入消息
+     */
+    public List<PendingWrite> getPending(String userName) {
+        ConcurrentLinkedDeque<PendingWrite> writes = inFlight.get(userName);
+        if (writes == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(writes);
+    }
+
+    /**
+     * 当前排队中的消息数
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * 批大小直方图（条）
+     */
+    public Histogram getBatchSizeHistogram() {
+        return batchSizeHistogram;
+    }
+
+    /**
+     * 提交耗时直方图（微秒）
+     */
+    public Histogram getCommitLatencyHistogram() {
+        return commitLatencyHistogram;
+    }
+
+    private void runWriter() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        boolean stopping = false;
+
+        while (!stopping) {
+            try {
+                PendingWrite first = queue.take();
+                if (first == POISON) {
+                    break;
+                }
+                batch.add(first);
+
+                // 在条数和时间上限内继续攒批
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0
+                            ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == POISON) {
+                        stopping = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+
+        // 关闭前把剩余的消息写完
+        queue.drainTo(batch);
+        batch.remove(POISON);
+        if (!batch.isEmpty()) {
+            commit(batch);
+        }
+    }
+
+    private void commit(List<PendingWrite> batch) {
+        long start = System.nanoTime();
+        Exception failure = null;
+        try {
+            committer.commitBatch(batch);
+        } catch (Exception e) {
+            failure = e;
+            Log.e(TAG, "批量写入消息失败: " + e.getMessage(), e);
+        }
+        commitLatencyHistogram.record((System.nanoTime() - start) / 1000);
+        batchSizeHistogram.record(batch.size());
+
+        for (PendingWrite write : batch) {
+            removeInFlight(write);
+            if (failure == null) {
+                write.future.complete(true);
+            } else {
+                write.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * 从用户的未完成消息中移除，同一用户的消息按提交顺序完成，通常就是队首
+     */
+    private void removeInFlight(PendingWrite write) {
+        inFlight.computeIfPresent(write.userName, (user, writes) -> {
+            if (writes.peekFirst() == write) {
+                writes.pollFirst();
+            } else {
+                writes.remove(write);
+            }
+            return writes.isEmpty() ? null : writes;
+        });
+    }
+
+    /**
+     * 停止写线程，等待已排队的消息写完
+     * @param timeoutMs 最长等待时间
+     */
+    public void close(long timeoutMs) {
+        synchronized (submitLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(POISON);
+        }
+        try {
+            writerThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // 写线程在超时内没有写完时，仍在排队的消息不会再被写入
+        List<PendingWrite> dropped = new ArrayList<>();
+        queue.drainTo(dropped);
+        dropped.remove(POISON);
+        for (PendingWrite write : dropped) {
+            removeInFlight(write);
+            write.future.completeExceptionally(new IllegalStateException("写入队列已关闭"));
+        }
+    }
+}
@@ -2,17 +2,33 @@ package com.momoautoreply;
 
 import android.accessibilityservice.AccessibilityService;
 import android.accessibilityservice.AccessibilityServiceInfo;
+import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 陌陌消息自动回复无障碍服务
@@ -23,15 +39,58 @@ import java.util.concurrent.Executors;
  * 4. 生成AI回复
  * 5. 自动发送回复
  * 6. 管理多用户对话历史
+ * 7. 收到的消息先写入 InboundJournal，服务被杀死后重新连接时补发未完成的回复
+ * 8. 每条消息的各处理阶段耗时记录在 TraceRecorder 中
+ * 9. 处理计数、队列深度和各阶段耗时注册到 MetricsRegistry，可选通过本机接口按Prometheus格式采集
+ * 10. 可选把收到的事件和当时的界面节点树录制到 EventTrace 文件，用于在JVM上离线回放
+ * 11. 分阶段启动：连接时只创建关键组件，打开数据库、预热缓存、解析域名和预连接模型接口在后台并行执行，
+ *     处理线程在使用数据库和模型接口前等待对应的阶段完成；记录各阶段耗时和启动到首次回复的时间
+ * 12. 定期和断开时把已处理消息过滤记录和活跃对话缓存写入 HotStateSnapshot，重新连接时直接恢复，
+ *     快照之后数据库有变化时改为从数据库预热
+ * 13. 按电量、充电状态和温度由 ThroughputGovernor 选择档位，调整事件合并窗口、处理线程数、
+ *     回复间隔，以及是否运行数据保留、归档和补建索引等后台任务
+ * 14. 可选开启消息列表巡检（InboxScanner）：在消息列表界面按未读数、等待时间和联系人优先级依次点开
+ *     有未读消息的会话，回复完成或超过时间预算后返回列表
  */
 public class MomoAccessibilityService extends AccessibilityService {
     
     private static final String TAG = "MomoAccessibilityService";
     private static final String MOMO_PACKAGE_NAME = "com.immomo.momo";
     
-    // 陌陌聊天相关控件ID（需根据实际版本调整）
-    private static final String MOMO_MESSAGE_TEXT_ID = "com.immomo.momo:id/message_text";
-    private static final String MOMO_CHAT_TITLE_ID = "com.immomo.momo:id/chat_title";
+    // 保留任务：启动后延迟执行，之后定期执行，每次有时间预算
+    private static final long RETENTION_INITIAL_DELAY_MINUTES = 5;
+    private static final long RETENTION_INTERVAL_MINUTES = 60;
+    private static final long RETENTION_BUDGET_MS = 2000;
+    private static final long ARCHIVE_BUDGET_MS = 2000;
+    
+    // 收到消息日志：文件名，以及重新连接时补处理的最长时间范围，更早的消息不再回复
+    private static final String JOURNAL_FILE_NAME = "inbound.journal";
+    private static final long REPLAY_MAX_AGE_MS = 30 * 60 * 1000;
+    
+    // 事件录制：开关保存在性能面板的设置中，录制文件写入应用的外部文件目录
+    public static final String KEY_EVENT_TRACE_ENABLED = "event_trace_enabled";
+    private static final int EVENT_TRACE_BUFFER_BYTES = 64 * 1024;
+    
+    // 消息列表巡检：开关保存在性能面板的设置中；单个会话的时间预算和超时检查间隔
+    public static final String KEY_INBOX_SCAN_ENABLED = "inbox_scan_enabled";
+    private static final long INBOX_CHAT_BUDGET_MS = 60 * 1000;
+    private static final long INBOX_TICK_INTERVAL_MS = 1000;
+    
+    // 分阶段启动：后台启动线程数、预热的最近活跃对话数，以及处理线程等待各阶段完成的最长时间
+    private static final int STARTUP_THREADS = 2;
+    private static final int WARM_UP_CONVERSATIONS = 20;
+    private static final long STORAGE_READY_TIMEOUT_MS = 10000;
+    private static final long PROVIDER_READY_TIMEOUT_MS = 3000;
+    static final String[] STARTUP_STAGES = {"critical", "hot_state", "storage", "cache_warmup", "dns", "preconnect"};
+    
+    // 热状态快照：文件名、定期写入间隔，以及可以恢复的最长时间，更早的快照直接丢弃
+    private static final String HOT_STATE_FILE_NAME = "hot_state.snap";
+    private static final long HOT_STATE_INTERVAL_MINUTES = 5;
+    private static final long HOT_STATE_MAX_AGE_MS = 24 * 60 * 60 * 1000;
+    // 销毁时主线程等待最后一次快照写完的最长时间
+    private static final long HOT_STATE_FLUSH_TIMEOUT_MS = 500;
+    
+    // 陌陌聊天相关控件ID（需根据实际版本调整），消息和标题的ID在 ChatScreenParser 中
     private static final String MOMO_INPUT_ID = "com.immomo.momo:id/chat_input";
     private static final String MOMO_SEND_BUTTON_ID = "com.immomo.momo:id/send_button";
     private static final String MOMO_USER_AVATAR_ID = "com.immomo.momo:id/user_avatar";
@@ -40,24 +99,592 @@ public class MomoAccessibilityService extends AccessibilityService {
     private ConversationManager conversationManager;
     // AI回复生成器
     private AIReplyGenerator aiReplyGenerator;
+    // 处理消息的线程数
+    private static final int REPLY_THREADS = 5;
+    
     // 线程池，用于异步处理消息和生成回复
-    private ExecutorService executorService;
+    private ThreadPoolExecutor executorService;
+    // 后台维护任务（数据保留、冷对话归档、空间回收）
+    private ScheduledExecutorService maintenanceExecutor;
+    private RetentionEngine retentionEngine;
+    private ConversationArchiver conversationArchiver;
     // 当前处理的消息缓存，避免重复处理
-    private Map<String, String> lastMessageCache;
+    private RecentMessageFilter lastMessageCache;
+    // 聊天界面新消息识别
+    private ChatEventDetector chatEventDetector;
+    // 收到消息日志，打开失败时为null，不影响消息处理
+    private InboundJournal inboundJournal;
+    // 处理链路记录
+    private final TraceRecorder traceRecorder = TraceRecorder.getInstance();
+    // 指标
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private final MetricsRegistry.Counter eventCounter = metrics.counter(
+            "momo_accessibility_events_total", "收到的陌陌无障碍事件数");
+    private final MetricsRegistry.Counter receivedCounter = metrics.counter(
+            "momo_messages_received_total", "收到的对方消息数，包括重新连接时补处理的消息");
+    // 本机指标接口，未开启时为null
+    private MetricsHttpServer metricsHttpServer;
+    // 事件录制，未开启时为null
+    private EventTrace.Writer eventTraceWriter;
+    
+    // 分阶段启动
+    private ExecutorService startupExecutor;
+    private final CountDownLatch storageReady = new CountDownLatch(1);
+    private final CountDownLatch providerReady = new CountDownLatch(1);
+    private long connectedNanos;
+    // 各启动阶段的耗时（纳秒），未完成的阶段没有记录
+    private final Map<String, Long> startupStageNanos = new ConcurrentHashMap<>();
+    // 连接到首次成功回复的时间（纳秒），尚未回复时为0
+    private final AtomicLong firstReplyNanos = new AtomicLong();
+    
+    // 连接时读取的热状态快照，数据库打开后恢复到缓存，没有可用快照时为null
+    private volatile HotStateSnapshot hotState;
+    // 最近一次读取或写入的快照大小（字节）和读取耗时（纳秒）
+    private volatile long hotStateBytes;
+    private volatile long hotStateLoadNanos;
+    
+    // 按电量和温度调节处理速度，档位变化时调整线程数和事件合并窗口
+    private final ThroughputGovernor governor = new ThroughputGovernor(this::onGovernorLevelChanged);
+    private PowerStateMonitor powerStateMonitor;
+    
+    // 消息列表巡检，未开启时为null；界面操作和超时检查在主线程执行
+    private InboxScanner inboxScanner;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable inboxTick = new Runnable() {
+        @Override
+        public void run() {
+            inboxScanner.tick(System.currentTimeMillis());
+            mainHandler.postDelayed(this, INBOX_TICK_INTERVAL_MS);
+        }
+    };
+    private final Histogram replyWaitHistogram = metrics.histogram("momo_governor_reply_wait_seconds",
+            "按档位的回复间隔排队等待的时间", MetricsRegistry.MICROS_BUCKETS, MetricsRegistry.MICROS_TO_SECONDS);
     
     @Override
     protected void onServiceConnected() {
         super.onServiceConnected();
+        connectedNanos = System.nanoTime();
         Log.d(TAG, "陌陌无障碍服务已连接");
         
-        // 初始化组件
+        // 阶段1：关键组件，只创建对象，不访问数据库和网络
+        // 对话管理器由服务和回复生成器共用，数据库在后台打开
         conversationManager = new ConversationManager(this);
-        aiReplyGenerator = new AIReplyGenerator(this);
-        executorService = Executors.newFixedThreadPool(5);
-        lastMessageCache = new HashMap<>();
+        aiReplyGenerator = new AIReplyGenerator(this, conversationManager);
+        executorService = new ThreadPoolExecutor(REPLY_THREADS, REPLY_THREADS,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        lastMessageCache = new RecentMessageFilter();
+        loadHotState();
+        chatEventDetector = new ChatEventDetector(lastMessageCache, traceRecorder, this::onMessageReceived);
+        registerMetrics();
+        startMetricsServer();
+        startEventTrace();
+        startInboxScanner();
+        
+        // 打开收到消息日志，补处理上次未完成的消息，处理线程会等待数据库打开
+        try {
+            inboundJournal = new InboundJournal(new File(getFilesDir(), JOURNAL_FILE_NAME));
+            replayInboundJournal();
+        } catch (IOException e) {
+            Log.e(TAG, "打开收到消息日志失败: " + e.getMessage(), e);
+        }
+        
+        // 阶段2：打开数据库并预热缓存，同时解析模型接口域名并预连接；压缩收到消息日志
+        startupExecutor = Executors.newFixedThreadPool(STARTUP_THREADS, r -> new Thread(r, "startup"));
+        startupExecutor.execute(this::warmUpStorage);
+        startupExecutor.execute(this::warmUpProvider);
+        if (inboundJournal != null) {
+            startupExecutor.execute(this::compactInboundJournal);
+        }
+        startupExecutor.shutdown();
         
-        // 配置服务信息
+        // 定期执行数据保留和归档任务
+        retentionEngine = new RetentionEngine(conversationManager, new RetentionEngine.Policy());
+        // 旧库的完整VACUUM会长时间阻塞写入，只在充电时做
+        retentionEngine.setFullVacuumGate(governor::isCharging);
+        conversationArchiver = new ConversationArchiver(conversationManager, new ConversationArchiver.Policy());
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "retention");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        maintenanceExecutor.scheduleWithFixedDelay(this::runRetention,
+                RETENTION_INITIAL_DELAY_MINUTES, RETENTION_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        maintenanceExecutor.scheduleWithFixedDelay(this::writeHotState,
+                HOT_STATE_INTERVAL_MINUTES, HOT_STATE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        
+        // 配置服务信息，之后开始监听电量和温度，档位变化时更新服务信息
         configureServiceInfo();
+        conversationManager.setBackgroundGate(governor::isBackgroundAllowed);
+        powerStateMonitor = new PowerStateMonitor(this, governor);
+        powerStateMonitor.start();
+        recordStartupStage("critical", connectedNanos);
+    }
+    
+    /**
+     * 后台启动任务：打开数据库，从热状态快照恢复缓存，通知等待的处理线程；
+     * 没有可用的快照时再从数据库加载最近活跃对话到缓存
+     */
+    private void warmUpStorage() {
+        long start = System.nanoTime();
+        boolean restored = false;
+        try {
+            conversationManager.open();
+            recordStartupStage("storage", start);
+            // 处理线程还在等待，恢复期间不会有新消息改变数据库状态
+            start = System.nanoTime();
+            restored = restoreHotState();
+        } catch (Exception e) {
+            Log.e(TAG, "打开数据库异常: " + e.getMessage(), e);
+        } finally {
+            storageReady.countDown();
+        }
+        if (restored) {
+            recordStartupStage("cache_warmup", start);
+            return;
+        }
+        
+        start = System.nanoTime();
+        int warmed = conversationManager.warmUpCache(WARM_UP_CONVERSATIONS);
+        recordStartupStage("cache_warmup", start);
+        Log.d(TAG, "对话缓存预热完成 - 对话数: " + warmed);
+    }
+    
+    /**
+     * 读取热状态快照并立即恢复已处理消息过滤记录，缓存在数据库打开后恢复
+     * 在连接时调用，过滤记录与数据库无关，快照过旧时才丢弃
+     */
+    private void loadHotState() {
+        long start = System.nanoTime();
+        File file = new File(getFilesDir(), HOT_STATE_FILE_NAME);
+        try {
+            if (!file.exists()) {
+                countHotStateLoad("missing");
+                return;
+            }
+            HotStateSnapshot snapshot = HotStateSnapshot.read(file);
+            hotStateBytes = file.length();
+            long age = System.currentTimeMillis() - snapshot.createdAtMillis;
+            if (age < 0 || age > HOT_STATE_MAX_AGE_MS) {
+                Log.d(TAG, "热状态快照过旧，不恢复 - 写入于: " + age / 1000 + "秒前");
+                countHotStateLoad("expired");
+                return;
+            }
+            int users = lastMessageCache.restore(snapshot.recentMessages);
+            hotState = snapshot;
+            Log.d(TAG, "热状态快照已读取 - 大小: " + hotStateBytes + "字节, 过滤记录: " + users +
+                    ", 缓存对话: " + snapshot.conversations.size());
+        } catch (IOException e) {
+            Log.e(TAG, "读取热状态快照失败: " + e.getMessage(), e);
+            countHotStateLoad("error");
+        } finally {
+            hotStateLoadNanos = System.nanoTime() - start;
+            recordStartupStage("hot_state", start);
+        }
+    }
+    
+    /**
+     * 数据库打开后把快照中的对话恢复到缓存
+     * 快照之后数据库有新消息或删除了对话时，快照中的窗口可能已经过期，放弃恢复
+     * @return 是否已恢复，返回false时需要从数据库预热
+     */
+    private boolean restoreHotState() {
+        HotStateSnapshot snapshot = hotState;
+        if (snapshot == null) {
+            return false;
+        }
+        hotState = null;
+        // 先取缓存序号再检查数据库状态：检查之后才写入的对话在恢复时会被跳过
+        long[] stamps = conversationManager.loadHotStateStamps(snapshot.conversations);
+        long nextMessageId = conversationManager.getNextMessageId();
+        long conversationCount = conversationManager.getConversationCount();
+        if (snapshot.nextMessageId != nextMessageId || snapshot.conversationCount != conversationCount) {
+            Log.d(TAG, "热状态快照与数据库不一致，从数据库预热 - 快照消息ID: " + snapshot.nextMessageId +
+                    ", 数据库: " + nextMessageId + ", 快照对话数: " + snapshot.conversationCount +
+                    ", 数据库: " + conversationCount);
+            countHotStateLoad("stale");
+            return false;
+        }
+        int restored = conversationManager.restoreHotState(snapshot.conversations, stamps);
+        countHotStateLoad("restored");
+        Log.d(TAG, "热状态快照已恢复 - 对话数: " + restored);
+        return true;
+    }
+    
+    private void countHotStateLoad(String result) {
+        metrics.counter("momo_hot_state_loads_total", "连接时读取热状态快照的次数，按结果区分",
+                "result", result).inc();
+    }
+    
+    /**
+     * 写入热状态快照，由维护线程定期调用；中断和销毁时经 flushHotState 在后台线程调用，不在主线程写文件
+     * 先取数据库状态标记再复制缓存：复制期间的新消息只会让快照被判为过期，不会漏掉消息
+     */
+    private synchronized void writeHotState() {
+        // 数据库打开和快照恢复完成前缓存是空的，不能覆盖上次的快照
+        if (conversationManager == null || storageReady.getCount() > 0) {
+            return;
+        }
+        try {
+            long nextMessageId = conversationManager.getNextMessageId();
+            long conversationCount = conversationManager.getConversationCount();
+            if (conversationCount < 0) {
+                return;
+            }
+            HotStateSnapshot snapshot = new HotStateSnapshot(System.currentTimeMillis(),
+                    nextMessageId, conversationCount, lastMessageCache.snapshot(),
+                    conversationManager.getHistoryCache().snapshot());
+            hotStateBytes = snapshot.write(new File(getFilesDir(), HOT_STATE_FILE_NAME));
+            Log.d(TAG, "热状态快照已写入 - 大小: " + hotStateBytes + "字节, 缓存对话: " +
+                    snapshot.conversations.size());
+        } catch (Exception e) {
+            // 异常不能抛出，否则定期任务会被取消
+            Log.e(TAG, "写入热状态快照失败: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 在后台线程写入热状态快照，主线程最多等待 waitMs
+     * 服务运行中（中断时）交给维护线程，不等待；销毁时维护线程已停止，用一个临时线程写，
+     * 超时后不再等待，之后关闭数据库会让仍在运行的写入失败，下次连接从数据库预热
+     * @param waitMs 最长等待时间，0表示不等待
+     */
+    private void flushHotState(long waitMs) {
+        ScheduledExecutorService executor = maintenanceExecutor;
+        if (waitMs <= 0 && executor != null && !executor.isShutdown()) {
+            try {
+                executor.execute(this::writeHotState);
+                return;
+            } catch (RejectedExecutionException e) {
+                // 维护线程刚刚停止，改用临时线程
+            }
+        }
+        Thread thread = new Thread(this::writeHotState, "hot-state-flush");
+        thread.start();
+        if (waitMs <= 0) {
+            return;
+        }
+        try {
+            thread.join(waitMs);
+            if (thread.isAlive()) {
+                Log.w(TAG, "等待热状态快照写入超时，不再等待");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * 后台启动任务：解析当前模型接口的域名并预先建立连接
+     */
+    private void warmUpProvider() {
+        try {
+            long start = System.nanoTime();
+            int addresses = aiReplyGenerator.resolveProviderHost();
+            recordStartupStage("dns", start);
+            Log.d(TAG, "模型接口域名解析完成 - 地址数: " + addresses);
+            
+            start = System.nanoTime();
+            aiReplyGenerator.preconnectProvider();
+            recordStartupStage("preconnect", start);
+        } finally {
+            providerReady.countDown();
+        }
+    }
+    
+    private void recordStartupStage(String stage, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        startupStageNanos.put(stage, nanos);
+        Log.d(TAG, "启动阶段完成 - " + stage + ": " + nanos / 1000000 + "ms");
+    }
+    
+    /**
+     * 等待启动阶段完成，超时后继续处理，由后续操作自行等待或失败
+     * @return 是否在超时前完成
+     */
+    private boolean awaitStartup(CountDownLatch ready, long timeoutMs, String name) throws InterruptedException {
+        if (ready.getCount() == 0) {
+            return true;
+        }
+        boolean done = ready.await(timeoutMs, TimeUnit.MILLISECONDS);
+        if (!done) {
+            Log.e(TAG, "等待启动阶段超时: " + name);
+        }
+        return done;
+    }
+    
+    /**
+     * 记录连接到首次成功回复的时间，只记录第一次
+     */
+    private void recordFirstReply() {
+        long nanos = System.nanoTime() - connectedNanos;
+        if (firstReplyNanos.compareAndSet(0, nanos)) {
+            Log.d(TAG, "启动后首次回复 - 距连接: " + nanos / 1000000 + "ms");
+        }
+    }
+    
+    /**
+     * 档位变化：调整处理线程数和事件合并窗口
+     */
+    private void onGovernorLevelChanged(ThroughputGovernor.Level from, ThroughputGovernor.Level to) {
+        Log.d(TAG, "节流档位变化 - " + from + " -> " + to + ", 电量: " + governor.getBatteryPercent() +
+                "%, 充电: " + governor.isCharging() + ", 温度状态: " + governor.getThermalStatus());
+        metrics.counter("momo_governor_transitions_total", "节流档位切换次数",
+                "from", from.name().toLowerCase(Locale.ROOT), "to", to.name().toLowerCase(Locale.ROOT)).inc();
+        
+        // 线程池的核心线程数不能大于最大线程数，减少时先减核心线程数
+        int workers = Math.min(REPLY_THREADS, to.workers);
+        if (workers < executorService.getCorePoolSize()) {
+            executorService.setCorePoolSize(workers);
+            executorService.setMaximumPoolSize(workers);
+        } else {
+            executorService.setMaximumPoolSize(workers);
+            executorService.setCorePoolSize(workers);
+        }
+        
+        AccessibilityServiceInfo serviceInfo = getServiceInfo();
+        if (serviceInfo != null) {
+            serviceInfo.notificationTimeout = to.debounceMs;
+            setServiceInfo(serviceInfo);
+        }
+    }
+    
+    /**
+     * 按当前档位的回复间隔等待发送时机，多个处理线程依次排队
+     */
+    private void awaitReplySlot() throws InterruptedException {
+        long waitNanos = governor.reserveReplySlot(System.nanoTime());
+        if (waitNanos > 0) {
+            replyWaitHistogram.record(waitNanos / 1000);
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+    
+    /**
+     * 注册服务的指标：队列深度、日志大小、各阶段耗时，以及数据库和缓存的指标
+     */
+    private void registerMetrics() {
+        metrics.gauge("momo_reply_queue_depth", "等待处理的消息数", () -> executorService.getQueue().size());
+        metrics.gauge("momo_reply_active_workers", "正在处理消息的线程数", () -> executorService.getActiveCount());
+        metrics.gauge("momo_inbound_journal_bytes", "收到消息日志占用的字节数",
+                () -> inboundJournal == null ? 0 : inboundJournal.size());
+        for (MessageTrace.Stage stage : MessageTrace.Stage.values()) {
+            metrics.registerHistogram("momo_trace_stage_seconds", "消息处理各阶段耗时",
+                    traceRecorder.getStageHistogram(stage), MetricsRegistry.MICROS_BUCKETS,
+                    MetricsRegistry.MICROS_TO_SECONDS, "stage", stage.name().toLowerCase(Locale.ROOT));
+        }
+        metrics.registerHistogram("momo_trace_total_seconds", "从收到事件到处理结束的总耗时",
+                traceRecorder.getTotalHistogram(), MetricsRegistry.MICROS_BUCKETS, MetricsRegistry.MICROS_TO_SECONDS);
+        for (String stage : STARTUP_STAGES) {
+            metrics.gauge("momo_startup_stage_seconds", "本次连接各启动阶段的耗时，未完成时为NaN", () -> {
+                Long nanos = startupStageNanos.get(stage);
+                return nanos == null ? Double.NaN : nanos / 1e9;
+            }, "stage", stage);
+        }
+        for (ThroughputGovernor.Level level : ThroughputGovernor.Level.values()) {
+            metrics.gauge("momo_governor_state", "当前节流档位为1，其他档位为0",
+                    () -> governor.getLevel() == level ? 1 : 0, "level", level.name().toLowerCase(Locale.ROOT));
+        }
+        metrics.gauge("momo_governor_battery_percent", "电量百分比", governor::getBatteryPercent);
+        metrics.gauge("momo_governor_charging", "是否在充电", () -> governor.isCharging() ? 1 : 0);
+        metrics.gauge("momo_governor_thermal_status", "温度状态，取值同 PowerManager.THERMAL_STATUS_*",
+                governor::getThermalStatus);
+        metrics.gauge("momo_governor_background_allowed", "是否允许后台任务",
+                () -> governor.isBackgroundAllowed() ? 1 : 0);
+        metrics.gauge("momo_governor_workers", "当前档位的处理线程数", () -> executorService.getCorePoolSize());
+        metrics.gauge("momo_governor_debounce_seconds", "当前档位的事件合并窗口",
+                () -> governor.getLevel().debounceMs / 1e3);
+        metrics.gauge("momo_governor_reply_interval_seconds", "当前档位的回复最小间隔",
+                () -> governor.getLevel().replyIntervalMs / 1e3);
+        metrics.gauge("momo_hot_state_snapshot_bytes", "最近一次读取或写入的热状态快照大小", () -> hotStateBytes);
+        metrics.gauge("momo_hot_state_load_seconds", "本次连接读取热状态快照的耗时", () -> hotStateLoadNanos / 1e9);
+        metrics.gauge("momo_startup_first_reply_seconds", "本次连接到首次成功回复的时间，尚未回复时为NaN", () -> {
+            long nanos = firstReplyNanos.get();
+            return nanos == 0 ? Double.NaN : nanos / 1e9;
+        });
+        conversationManager.registerMetrics(metrics);
+    }
+    
+    /**
+     * 设置中开启时启动本机指标接口，只监听回环地址
+     */
+    private void startMetricsServer() {
+        SharedPreferences prefs = getSharedPreferences(MetricsHttpServer.PREFS_NAME, MODE_PRIVATE);
+        if (!prefs.getBoolean(MetricsHttpServer.KEY_HTTP_ENABLED, false)) {
+            return;
+        }
+        metricsHttpServer = new MetricsHttpServer(metrics,
+                prefs.getInt(MetricsHttpServer.KEY_HTTP_PORT, MetricsHttpServer.DEFAULT_PORT));
+        try {
+            metricsHttpServer.start();
+            Log.d(TAG, "指标接口已启动 - 端口: " + metricsHttpServer.getPort());
+        } catch (IOException e) {
+            Log.e(TAG, "启动指标接口失败: " + e.getMessage(), e);
+            metricsHttpServer = null;
+        }
+    }
+    
+    /**
+     * 设置中开启时开始录制事件，每次连接写一个新文件
+     */
+    private void startEventTrace() {
+        SharedPreferences prefs = getSharedPreferences(MetricsHttpServer.PREFS_NAME, MODE_PRIVATE);
+        if (!prefs.getBoolean(KEY_EVENT_TRACE_ENABLED, false)) {
+            return;
+        }
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        File file = new File(dir, "events-" +
+                new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".mmtr");
+        try {
+            eventTraceWriter = new EventTrace.Writer(new BufferedOutputStream(
+                    new FileOutputStream(file), EVENT_TRACE_BUFFER_BYTES), System.currentTimeMillis());
+            Log.d(TAG, "开始录制无障碍事件 - 文件: " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "创建事件录制文件失败: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 设置中开启时启动消息列表巡检
+     * 缓存中有对话记录的联系人（最近聊过）优先级更高
+     */
+    private void startInboxScanner() {
+        SharedPreferences prefs = getSharedPreferences(MetricsHttpServer.PREFS_NAME, MODE_PRIVATE);
+        if (!prefs.getBoolean(KEY_INBOX_SCAN_ENABLED, false)) {
+            return;
+        }
+        ConversationCache historyCache = conversationManager.getHistoryCache();
+        inboxScanner = new InboxScanner(new InboxScanner.Navigator() {
+            @Override
+            public boolean openChat(UiNode sessionItem) {
+                return openSessionItem(sessionItem);
+            }
+            
+            @Override
+            public boolean goBack() {
+                return performGlobalAction(GLOBAL_ACTION_BACK);
+            }
+        }, user -> historyCache.getConversationId(user) != null ? 1 : 0, INBOX_CHAT_BUDGET_MS);
+        
+        for (InboxScanner.Outcome outcome : InboxScanner.Outcome.values()) {
+            metrics.counter("momo_inbox_chats_served_total", "消息列表巡检处理的会话数，按结果区分",
+                    () -> inboxScanner.getOutcomeCount(outcome), "outcome", outcome.name().toLowerCase(Locale.ROOT));
+        }
+        metrics.gauge("momo_inbox_served_per_minute", "最近一分钟巡检处理的会话数",
+                () -> inboxScanner.getServedPerMinute(System.currentTimeMillis()));
+        metrics.gauge("momo_inbox_pending_chats", "等待巡检处理的未读会话数", () -> inboxScanner.getPendingCount());
+        metrics.gauge("momo_inbox_oldest_wait_seconds", "等待最久的未读会话已等待的时间",
+                () -> inboxScanner.getOldestWaitMillis(System.currentTimeMillis()) / 1e3);
+        metrics.registerHistogram("momo_inbox_wait_seconds", "未读会话从出现在列表到被点开的等待时间",
+                inboxScanner.getWaitHistogram(), MetricsRegistry.MICROS_BUCKETS, MetricsRegistry.MICROS_TO_SECONDS);
+        metrics.registerHistogram("momo_inbox_serve_seconds", "巡检时在每个会话中的停留时间",
+                inboxScanner.getServeHistogram(), MetricsRegistry.MICROS_BUCKETS, MetricsRegistry.MICROS_TO_SECONDS);
+        
+        mainHandler.postDelayed(inboxTick, INBOX_TICK_INTERVAL_MS);
+        Log.d(TAG, "消息列表巡检已开启");
+    }
+    
+    /**
+     * 点击消息列表中的会话条目，条目本身不可点击时点击最近的可点击父节点
+     */
+    private boolean openSessionItem(UiNode sessionItem) {
+        AccessibilityNodeInfo node = ((AccessibilityUiNode) sessionItem).getNode();
+        while (node != null && !node.isClickable()) {
+            node = node.getParent();
+        }
+        return node != null && node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
+    }
+    
+    /**
+     * 录制一个事件，界面变化事件同时录制当前的节点树
+     * 读取节点树需要逐个访问节点，录制期间事件分发阶段的耗时会明显变长
+     */
+    private void recordEvent(AccessibilityEvent event, int eventType, long eventNanos) {
+        AccessibilityNodeInfo rootNode = null;
+        if (eventType == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED ||
+                eventType == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+            rootNode = getRootInActiveWindow();
+        }
+        try {
+            eventTraceWriter.writeEvent(eventType, eventNanos, event.getText(),
+                    rootNode != null ? new AccessibilityUiNode(rootNode) : null);
+        } catch (IOException e) {
+            Log.e(TAG, "录制事件失败，停止录制: " + e.getMessage(), e);
+            closeEventTrace();
+        }
+    }
+    
+    private void closeEventTrace() {
+        if (eventTraceWriter == null) {
+            return;
+        }
+        try {
+            Log.d(TAG, "停止录制无障碍事件 - 事件数: " + eventTraceWriter.getEventCount() +
+                    ", 字节数: " + eventTraceWriter.getBytesWritten());
+            eventTraceWriter.close();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭事件录制文件失败: " + e.getMessage(), e);
+        }
+        eventTraceWriter = null;
+    }
+    
+    /**
+     * 执行一次数据保留任务，再归档冷对话，未完成的部分留到下次
+     * 先删除过期对话，避免把即将删除的对话归档；归档腾出的空间在下次保留任务中回收
+     */
+    private void runRetention() {
+        if (!governor.isBackgroundAllowed()) {
+            Log.d(TAG, "设备发热或电量不足，推迟数据保留任务 - 档位: " + governor.getLevel());
+            metrics.counter("momo_governor_deferred_jobs_total", "因发热或电量不足推迟的后台任务数",
+                    "job", "retention").inc();
+            return;
+        }
+        try {
+            RetentionEngine.Result result = retentionEngine.run(RETENTION_BUDGET_MS);
+            Log.d(TAG, "数据保留任务完成 - 删除行数: " + result.getDeletedRows() +
+                    ", 回收空间: " + result.reclaimedBytes / 1024 + "KB");
+            
+            ConversationArchiver.Result archived = conversationArchiver.run(ARCHIVE_BUDGET_MS);
+            Log.d(TAG, "冷对话归档完成 - 消息数: " + archived.archivedMessages +
+                    String.format(", 压缩比: %.2f", archived.getCompressionRatio()));
+            
+            // 保留任务可能删除缓存窗口中的消息，立即更新快照
+            writeHotState();
+        } catch (Exception e) {
+            // 异常不能抛出，否则定期任务会被取消
+            Log.e(TAG, "数据保留任务异常: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 重新处理日志中尚未回复的消息，日志的压缩见 compactInboundJournal
+     */
+    private void replayInboundJournal() {
+        List<InboundJournal.Entry> entries = inboundJournal.getPending(REPLAY_MAX_AGE_MS);
+        
+        for (InboundJournal.Entry entry : entries) {
+            Log.d(TAG, "补处理未完成的消息 - 用户: " + entry.userName + ", 内容: " + entry.message);
+            receivedCounter.inc();
+            // 聊天界面上仍显示这条消息时不再重复处理
+            updateMessageCache(entry.userName, entry.message);
+            MessageTrace trace = traceRecorder.start(entry.userName, System.nanoTime());
+            trace.begin(MessageTrace.Stage.QUEUE);
+            processMessageAsync(entry.userName, entry.message, entry.seq, entry.timestamp, trace);
+        }
+    }
+    
+    /**
+     * 后台启动任务：压缩收到消息日志，丢弃已完成和过期的记录
+     * 压缩要写新文件并同步磁盘，不放在连接时的关键阶段；期间的追加由日志自身的锁串行化
+     */
+    private void compactInboundJournal() {
+        try {
+            inboundJournal.compact(REPLAY_MAX_AGE_MS);
+        } catch (IOException e) {
+            Log.e(TAG, "压缩收到消息日志失败: " + e.getMessage(), e);
+        }
     }
     
     /**
@@ -75,8 +702,8 @@ public class MomoAccessibilityService extends AccessibilityService {
                 AccessibilityServiceInfo.FLAG_INCLUDE_NOT_IMPORTANT_VIEWS;
         // 只监听陌陌应用
         serviceInfo.packageNames = new String[]{MOMO_PACKAGE_NAME};
-        // 事件通知超时时间
-        serviceInfo.notificationTimeout = 100;
+        // 事件通知超时时间，同一窗口内的事件由系统合并，随节流档位调整
+        serviceInfo.notificationTimeout = governor.getLevel().debounceMs;
         // 可以检索窗口内容
         serviceInfo.canRetrieveWindowContent = true;
         
@@ -85,6 +712,7 @@ public class MomoAccessibilityService extends AccessibilityService {
     
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
+        long eventNanos = System.nanoTime();
         int eventType = event.getEventType();
         String packageName = event.getPackageName().toString();
         
@@ -92,6 +720,10 @@ public class MomoAccessibilityService extends AccessibilityService {
         if (!packageName.equals(MOMO_PACKAGE_NAME)) {
             return;
         }
+        eventCounter.inc();
+        if (eventTraceWriter != null) {
+            recordEvent(event, eventType, eventNanos);
+        }
         
         Log.d(TAG, "收到陌陌事件: " + eventTypeToString(eventType));
         
@@ -105,7 +737,7 @@ public class MomoAccessibilityService extends AccessibilityService {
             case AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED:
             case AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED:
                 // 处理聊天界面变化事件
-                handleChatEvent();
+                handleChatEvent(eventNanos);
                 break;
                 
             case AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED:
@@ -122,6 +754,7 @@ public class MomoAccessibilityService extends AccessibilityService {
     @Override
     public void onInterrupt() {
         Log.d(TAG, "陌陌无障碍服务已中断");
+        flushHotState(0);
         // 释放资源
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdown();
@@ -147,8 +780,10 @@ public class MomoAccessibilityService extends AccessibilityService {
     
     /**
      * 处理聊天界面事件
+     * @param eventNanos 收到事件时的 System.nanoTime()，用于链路耗时
      */
-    private void handleChatEvent() {
+    private void handleChatEvent(long eventNanos) {
+        long snapshotNanos = System.nanoTime();
         Log.d(TAG, "处理陌陌聊天界面事件");
         
         AccessibilityNodeInfo rootNode = getRootInActiveWindow();
@@ -157,168 +792,193 @@ public class MomoAccessibilityService extends AccessibilityService {
             return;
         }
         
-        // 1. 获取当前聊天用户
-        String currentUser = getCurrentChatUser(rootNode);
-        if (currentUser == null) {
-            Log.e(TAG, "无法获取当前聊天用户");
-            return;
-        }
-        Log.d(TAG, "当前聊天用户: " + currentUser);
-        
-        // 2. 获取聊天消息列表
-        List<AccessibilityNodeInfo> messageNodes = rootNode.findAccessibilityNodeInfosByViewId(MOMO_MESSAGE_TEXT_ID);
-        if (messageNodes == null || messageNodes.isEmpty()) {
-            Log.d(TAG, "未找到消息控件");
-            return;
+        // 开启巡检时先交给巡检：在消息列表时点开下一个未读会话
+        UiNode root = new AccessibilityUiNode(rootNode);
+        if (inboxScanner != null) {
+            inboxScanner.onScreen(root, System.currentTimeMillis());
         }
         
-        // 3. 处理最新的消息
-        AccessibilityNodeInfo latestMessageNode = messageNodes.get(messageNodes.size() - 1);
-        if (latestMessageNode != null && latestMessageNode.getText() != null) {
-            String latestMessage = latestMessageNode.getText().toString().trim();
-            
-            // 避免重复处理相同消息
-            if (isMessageProcessed(currentUser, latestMessage)) {
-                Log.d(TAG, "消息已处理，跳过: " + latestMessage);
-                return;
-            }
-            
-            // 4. 识别消息发送者
-            String sender = getMessageSender(latestMessageNode);
-            
-            // 5. 只处理对方发送的消息
-            if (!sender.equals("self")) {
-                Log.d(TAG, "收到消息 - 用户: " + currentUser + ", 发送者: " + sender + ", 内容: " + latestMessage);
-                
-                // 6. 异步处理消息，生成并发送回复
-                processMessageAsync(currentUser, latestMessage);
-                
-                // 7. 更新消息缓存
-                updateMessageCache(currentUser, latestMessage);
-            }
-        }
-    }
-    
-    /**
-     * 处理文本变化事件
-     */
-    private void handleTextChangedEvent(AccessibilityEvent event) {
-        Log.d(TAG, "处理文本变化事件");
-        // 可以用于监听输入框内容变化
-    }
-    
-    /**
-     * 获取当前聊天用户
-     */
-    private String getCurrentChatUser(AccessibilityNodeInfo rootNode) {
-        // 方法1：通过聊天标题栏获取
-        List<AccessibilityNodeInfo> titleNodes = rootNode.findAccessibilityNodeInfosByViewId(MOMO_CHAT_TITLE_ID);
-        if (titleNodes != null && !titleNodes.isEmpty()) {
-            AccessibilityNodeInfo titleNode = titleNodes.get(0);
-            if (titleNode != null && titleNode.getText() != null) {
-                return titleNode.getText().toString().trim();
-            }
+        // 识别新消息，新消息交给 onMessageReceived
+        switch (chatEventDetector.onChatEvent(root, eventNanos, snapshotNanos)) {
+            case NO_USER:
+                Log.e(TAG, "无法获取当前聊天用户");
+                break;
+            case NO_MESSAGE:
+                Log.d(TAG, "未找到消息控件");
+                break;
+            case DUPLICATE:
+                Log.d(TAG, "消息已处理，跳过: " + chatEventDetector.getLastMessage());
+                break;
+            default:
+                break;
         }
-        
-        // 方法2：通过聊天界面其他特征获取
-        // 这里可以添加备用方法，提高兼容性
-        
-        return null;
     }
     
     /**
-     * 获取消息发送者
-     * @return "self" 表示自己发送的消息，"other" 表示对方发送的消息
+     * 收到对方的新消息，在事件线程中调用
      */
-    private String getMessageSender(AccessibilityNodeInfo messageNode) {
-        // 方法1：通过消息节点的父控件特征判断
-        AccessibilityNodeInfo parent = messageNode.getParent();
-        if (parent != null) {
-            // 获取父控件的资源ID或其他特征
-            String parentResourceName = parent.getViewIdResourceName();
-            
-            // 通常，自己发送的消息和对方发送的消息会有不同的父控件ID
-            // 这里需要根据实际情况调整判断逻辑
-            if (parentResourceName != null) {
-                if (parentResourceName.contains("send") || parentResourceName.contains("right")) {
-                    return "self";
-                } else if (parentResourceName.contains("receive") || parentResourceName.contains("left")) {
-                    return "other";
-                }
-            }
-            
-            // 方法2：通过布局方向判断
-            // 自己发送的消息通常靠右，对方发送的消息通常靠左
-            // 可以通过获取父控件的boundsInParent或boundsInScreen来判断
+    private void onMessageReceived(String currentUser, String latestMessage, MessageTrace trace) {
+        Log.d(TAG, "收到消息 #" + trace.id + " - 用户: " + currentUser + ", 内容: " + latestMessage);
+        receivedCounter.inc();
+        if (inboxScanner != null) {
+            inboxScanner.onMessageReceived(currentUser, System.currentTimeMillis());
         }
         
-        // 默认返回other
-        return "other";
+        // 先写入日志，再异步处理消息，生成并发送回复
+        long seq = journalReceived(currentUser, latestMessage);
+        trace.begin(MessageTrace.Stage.QUEUE);
+        processMessageAsync(currentUser, latestMessage, seq, 0, trace);
     }
     
     /**
-     * 检查消息是否已处理
+     * 处理文本变化事件
      */
-    private boolean isMessageProcessed(String user, String message) {
-        String cachedMessage = lastMessageCache.get(user);
-        return cachedMessage != null && cachedMessage.equals(message);
+    private void handleTextChangedEvent(AccessibilityEvent event) {
+        Log.d(TAG, "处理文本变化事件");
+        // 可以用于监听输入框内容变化
     }
     
     /**
      * 更新消息缓存
      */
     private void updateMessageCache(String user, String message) {
-        lastMessageCache.put(user, message);
+        lastMessageCache.record(user, message);
     }
     
     /**
      * 异步处理消息，生成并发送回复
+     * @param seq 日志序号，没有日志时为0
+     * @param receivedAt 补处理时为日志记录的收到时间，新消息为0
+     * @param trace 处理链路，排队阶段已开始
      */
-    private void processMessageAsync(String user, String message) {
+    private void processMessageAsync(String user, String message, long seq, long receivedAt, MessageTrace trace) {
         executorService.execute(() -> {
+            trace.end(MessageTrace.Stage.QUEUE);
+            String outcome = "error";
             try {
-                // 1. 添加消息到对话历史
-                conversationManager.addMessage(user, message, false);
+                // 1. 添加消息到对话历史，补处理时消息可能在服务被杀死前已经写入
+                // 刚启动时先等待数据库打开
+                trace.begin(MessageTrace.Stage.HISTORY);
+                awaitStartup(storageReady, STORAGE_READY_TIMEOUT_MS, "storage");
+                if (receivedAt == 0 || !isMessageStored(user, message, receivedAt)) {
+                    conversationManager.addMessage(user, message, false);
+                }
                 
                 // 2. 获取对话历史
-                List<ConversationManager.Message> history = conversationManager.getConversationHistory(user);
+                List<ChatMessage> history = conversationManager.getConversationHistory(user);
+                trace.end(MessageTrace.Stage.HISTORY);
                 
-                // 3. 生成AI回复
-                String reply = aiReplyGenerator.generateReply(user, history);
+                // 3. 生成AI回复，刚启动时先等待预连接完成，复用已经握手的连接
+                awaitStartup(providerReady, PROVIDER_READY_TIMEOUT_MS, "provider");
+                String reply = aiReplyGenerator.generateReply(user, history, trace);
                 if (reply == null || reply.isEmpty()) {
                     Log.e(TAG, "AI生成回复失败");
+                    outcome = "no_reply";
                     return;
                 }
                 
-                // 4. 发送回复
-                sendReply(reply);
+                // 4. 按当前档位的回复间隔排队，再发送回复，未发送成功时日志记录保持未完成，下次重新连接时补发
+                awaitReplySlot();
+                trace.begin(MessageTrace.Stage.SEND);
+                boolean sent = sendReply(user, reply);
+                trace.end(MessageTrace.Stage.SEND);
+                if (!sent) {
+                    outcome = "send_failed";
+                    return;
+                }
+                journalCompleted(seq);
+                outcome = "sent";
+                recordFirstReply();
                 
                 // 5. 将回复添加到对话历史
                 conversationManager.addMessage(user, reply, true);
                 
             } catch (Exception e) {
                 Log.e(TAG, "处理消息异常: " + e.getMessage(), e);
+            } finally {
+                trace.finish(outcome);
+                if (inboxScanner != null) {
+                    // 回复流程结束后巡检返回消息列表，界面操作在主线程执行
+                    mainHandler.post(() -> inboxScanner.onReplyFinished(user, System.currentTimeMillis()));
+                }
+                metrics.counter("momo_messages_processed_total", "处理完成的消息数，按结果区分",
+                        "outcome", outcome).inc();
+                Log.d(TAG, "消息处理链路: " + trace);
             }
         });
     }
     
+    /**
+     * 对话历史中是否已有这条收到的消息
+     * @param since 只比较该时间之后写入的消息
+     */
+    private boolean isMessageStored(String user, String message, long since) {
+        for (ChatMessage stored : conversationManager.getConversationHistory(user)) {
+            if (stored.timestamp >= since && "other".equals(stored.sender) && message.equals(stored.content)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 记录收到的消息
+     * @return 日志序号，没有日志或写入失败时为0
+     */
+    private long journalReceived(String user, String message) {
+        if (inboundJournal == null) {
+            return 0;
+        }
+        try {
+            return inboundJournal.appendReceived(user, message);
+        } catch (IOException e) {
+            Log.e(TAG, "写入收到消息日志失败: " + e.getMessage(), e);
+            return 0;
+        }
+    }
+    
+    /**
+     * 记录消息已回复
+     * @param seq 日志序号，为0时忽略
+     */
+    private void journalCompleted(long seq) {
+        if (inboundJournal == null || seq == 0) {
+            return;
+        }
+        try {
+            inboundJournal.appendCompleted(seq);
+        } catch (IOException e) {
+            Log.e(TAG, "写入收到消息日志失败: " + e.getMessage(), e);
+        }
+    }
+    
     /**
      * 发送回复消息
+     * 只在当前聊天界面属于该用户时发送，避免生成回复期间切换了聊天、或补发时发给别人
+     * @param user 回复的用户
+     * @param replyContent 回复内容
+     * @return 是否发送成功
      */
-    public void sendReply(String replyContent) {
+    public boolean sendReply(String user, String replyContent) {
         Log.d(TAG, "发送回复: " + replyContent);
         
         AccessibilityNodeInfo rootNode = getRootInActiveWindow();
         if (rootNode == null) {
             Log.e(TAG, "根节点为空，无法发送回复");
-            return;
+            return false;
+        }
+        
+        String currentUser = ChatScreenParser.getCurrentChatUser(new AccessibilityUiNode(rootNode));
+        if (!user.equals(currentUser)) {
+            Log.e(TAG, "当前聊天用户不是 " + user + "，暂不发送回复");
+            return false;
         }
         
         // 1. 查找输入框
         List<AccessibilityNodeInfo> inputNodes = rootNode.findAccessibilityNodeInfosByViewId(MOMO_INPUT_ID);
         if (inputNodes == null || inputNodes.isEmpty()) {
             Log.e(TAG, "未找到输入框");
-            return;
+            return false;
         }
         
         AccessibilityNodeInfo inputNode = inputNodes.get(0);
@@ -333,14 +993,14 @@ public class MomoAccessibilityService extends AccessibilityService {
         
         if (!textSet) {
             Log.e(TAG, "设置回复内容失败");
-            return;
+            return false;
         }
         
         // 4. 查找发送按钮
         List<AccessibilityNodeInfo> sendNodes = rootNode.findAccessibilityNodeInfosByViewId(MOMO_SEND_BUTTON_ID);
         if (sendNodes == null || sendNodes.isEmpty()) {
             Log.e(TAG, "未找到发送按钮");
-            return;
+            return false;
         }
         
         // 5. 点击发送按钮
@@ -352,6 +1012,7 @@ public class MomoAccessibilityService extends AccessibilityService {
         } else {
             Log.e(TAG, "回复发送失败");
         }
+        return sent;
     }
     
     /**
@@ -399,6 +1060,35 @@ public class MomoAccessibilityService extends AccessibilityService {
             executorService.shutdown();
         }
         
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+        }
+        
+        if (powerStateMonitor != null) {
+            powerStateMonitor.stop();
+        }
+        
+        mainHandler.removeCallbacks(inboxTick);
+        
+        if (startupExecutor != null) {
+            startupExecutor.shutdownNow();
+        }
+        
+        if (metricsHttpServer != null) {
+            metricsHttpServer.stop();
+        }
+        
+        closeEventTrace();
+        flushHotState(HOT_STATE_FLUSH_TIMEOUT_MS);
+        
+        if (inboundJournal != null) {
+            try {
+                inboundJournal.close();
+            } catch (IOException e) {
+                Log.e(TAG, "关闭收到消息日志失败: " + e.getMessage(), e);
+            }
+        }
+        
         if (conversationManager != null) {
             conversationManager.close();
         }
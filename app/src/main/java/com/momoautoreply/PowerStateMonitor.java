@@ -0,0 +1,141 @@
+package com.momoautoreply;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * 设备电量和温度监听
+ * 功能：
+ * 1. 监听电池状态广播，读取电量、是否在充电和电池温度
+ * 2. Android 10 及以上监听系统温度状态，更早的版本由电池温度换算
+ * 3. 状态变化时和定期把最新状态交给 ThroughputGovernor，定期更新让降档的等待时间能到期
+ *
+ * 所有回调都在主线程执行。
+ */
+public class PowerStateMonitor {
+
+    private static final String TAG = "PowerStateMonitor";
+    // 没有新广播时重新评估档位的间隔
+    private static final long REEVALUATE_INTERVAL_MS = 30 * 1000;
+
+    private final Context context;
+    private final ThroughputGovernor governor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private int batteryPercent = 100;
+    private boolean charging = true;
+    private int batteryThermalStatus = ThroughputGovernor.THERMAL_NONE;
+    // 系统温度状态，不支持时为-1
+    private int systemThermalStatus = -1;
+    private boolean started;
+
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onBatteryChanged(intent);
+        }
+    };
+
+    private PowerManager.OnThermalStatusChangedListener thermalListener;
+
+    private final Runnable reevaluate = new Runnable() {
+        @Override
+        public void run() {
+            evaluate();
+            handler.postDelayed(this, REEVALUATE_INTERVAL_MS);
+        }
+    };
+
+    public PowerStateMonitor(Context context, ThroughputGovernor governor) {
+        this.context = context;
+        this.governor = governor;
+    }
+
+    /**
+     * 开始监听，立即按当前状态计算一次档位，在主线程调用
+     */
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        // 电池状态是粘性广播，注册时直接返回当前状态
+        Intent sticky = context.registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (sticky != null) {
+            readBattery(sticky);
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            if (powerManager != null) {
+                systemThermalStatus = powerManager.getCurrentThermalStatus();
+                thermalListener = status -> {
+                    systemThermalStatus = status;
+                    evaluate();
+                };
+                powerManager.addThermalStatusListener(context.getMainExecutor(), thermalListener);
+            }
+        }
+
+        evaluate();
+        handler.postDelayed(reevaluate, REEVALUATE_INTERVAL_MS);
+    }
+
+    /**
+     * 停止监听，在主线程调用
+     */
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        handler.removeCallbacks(reevaluate);
+        try {
+            context.unregisterReceiver(batteryReceiver);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "注销电池状态广播失败: " + e.getMessage(), e);
+        }
+        if (thermalListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            if (powerManager != null) {
+                powerManager.removeThermalStatusListener(thermalListener);
+            }
+            thermalListener = null;
+        }
+    }
+
+    private void onBatteryChanged(Intent intent) {
+        readBattery(intent);
+        evaluate();
+    }
+
+    private void readBattery(Intent intent) {
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level >= 0 && scale > 0) {
+            batteryPercent = level * 100 / scale;
+        }
+        int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0 ||
+                status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+        int temperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, Integer.MIN_VALUE);
+        if (temperature != Integer.MIN_VALUE) {
+            batteryThermalStatus = ThroughputGovernor.thermalFromBatteryTemperature(temperature);
+        }
+    }
+
+    private void evaluate() {
+        // 系统温度状态综合了CPU和机身温度，电池温度作为补充取较高者
+        int thermal = Math.max(systemThermalStatus, batteryThermalStatus);
+        governor.update(batteryPercent, charging, thermal, System.currentTimeMillis());
+    }
+}
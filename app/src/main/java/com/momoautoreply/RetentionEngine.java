@@ -0,0 +1,231 @@
+package com.momoautoreply;
+
+import android.util.Log;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * 对话数据保留引擎
+ * 功能：
+ * 1. 删除长时间未活跃的对话及其消息
+ * 2. 每个对话只保留最近N条消息
+ * 3. 删除后增量回收数据库空闲页；尚未开启增量回收的旧库在允许时做一次完整VACUUM
+ * 4. 统计每次运行回收的行数和空间
+ *
+ * 所有删除都是按批的集合操作，每批一个短事务，批与批之间释放数据库锁，
+ * 不会长时间阻塞消息读写。每次运行有时间预算，用完后保存进度，下次运行继续。
+ */
+public class RetentionEngine {
+
+    private static final String TAG = "RetentionEngine";
+
+    // 每批查找超出上限的对话数
+    private static final int TRIM_SCAN_SIZE = 64;
+    // 每批增量回收的页数
+    private static final int VACUUM_PAGES_PER_SLICE = 256;
+    // 两批之间让出数据库锁的时间
+    private static final long SLICE_PAUSE_MS = 5;
+
+    /**
+     * 保留策略
+     */
+    public static class Policy {
+        // 超过该时间未活跃的对话被删除，<=0 表示不按活跃时间清理
+        public long maxInactiveMs = 7L * 24 * 60 * 60 * 1000;
+        // 每个对话最多保留的消息数，<=0 表示不限
+        public int maxMessagesPerConversation = 500;
+        // 每个事务最多删除的行数
+        public int batchSize = 500;
+        // 删除后是否回收空闲页
+        public boolean vacuum = true;
+    }
+
+    /**
+     * 一次运行的结果
+     */
+    public static class Result {
+        public int expiredConversations;
+        public int expiredMessages;
+        public int trimmedMessages;
+        public long reclaimedBytes;
+        public int slices;
+        public long elapsedMs;
+        // 是否在时间预算内完成了全部工作
+        public boolean complete;
+
+        /**
+         * 删除的总行数
+         */
+        public long getDeletedRows() {
+            return expiredConversations + expiredMessages + trimmedMessages;
+        }
+
+        @Override
+        public String toString() {
+            return "过期对话: " + expiredConversations +
+                    ", 过期消息: " + expiredMessages +
+                    ", 裁剪消息: " + trimmedMessages +
+                    ", 回收空间: " + reclaimedBytes / 1024 + "KB" +
+                    ", 批次: " + slices +
+                    ", 耗时: " + elapsedMs + "ms" +
+                    (complete ? "" : "（未完成，下次继续）");
+        }
+    }
+
+    private final ConversationManager conversationManager;
+    private final Policy policy;
+
+    // 裁剪进度：下次从该对话ID之后继续扫描
+    private long trimCursor;
+    // 是否允许做完整VACUUM，默认不允许
+    private volatile BooleanSupplier fullVacuumGate = () -> false;
+
+    public RetentionEngine(ConversationManager conversationManager, Policy policy) {
+        this.conversationManager = conversationManager;
+        this.policy = policy;
+    }
+
+    /**
+     * 设置旧库是否可以做完整VACUUM，完整VACUUM期间数据库写入全部阻塞，通常只在充电时允许
+     * @param gate 每次回收空间前调用
+     */
+    public void setFullVacuumGate(BooleanSupplier gate) {
+        fullVacuumGate = gate;
+    }
+
+    /**
+     * 执行一次保留任务，不要在主线程调用
+     * @param budgetMs 时间预算（毫秒），Long.MAX_VALUE 表示不限
+     * @return 运行结果
+     */
+    public synchronized Result run(long budgetMs) {
+        Result result = new Result();
+        long start = System.currentTimeMillis();
+        Budget budget = new Budget(budgetMs);
+
+        try {
+            result.complete = deleteExpired(result, budget)
+                    && trimConversations(result, budget)
+                    && reclaimSpace(result, budget);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        result.elapsedMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "保留任务完成 - " + result);
+        return result;
+    }
+
+    /**
+     * 删除过期对话：先按批删除其消息，消息删空后再删除对话本身
+     * @return 是否完成
+     */
+    private boolean deleteExpired(Result result, Budget budget) throws InterruptedException {
+        if (policy.maxInactiveMs <= 0) {
+            return true;
+        }
+        long cutoffTime = System.currentTimeMillis() - policy.maxInactiveMs;
+
+        while (true) {
+            if (budget.exhausted()) {
+                return false;
+            }
+            int deleted = conversationManager.deleteExpiredMessages(cutoffTime, policy.batchSize);
+            result.expiredMessages += deleted;
+            result.slices++;
+            if (deleted < policy.batchSize) {
+                break;
+            }
+            pause();
+        }
+
+        result.expiredConversations += conversationManager.deleteExpiredConversations(cutoffTime);
+        result.slices++;
+        return true;
+    }
+
+    /**
+     * 按对话ID顺序扫描，把超出上限的对话裁剪到最近N条
+     * @return 是否完成
+     */
+    private boolean trimConversations(Result result, Budget budget) throws InterruptedException {
+        int cap = policy.maxMessagesPerConversation;
+        if (cap <= 0) {
+            return true;
+        }
+
+        while (true) {
+            if (budget.exhausted()) {
+                return false;
+            }
+            long[] conversationIds = conversationManager.findConversationsOverCap(trimCursor, cap, TRIM_SCAN_SIZE);
+            result.slices++;
+            if (conversationIds.length == 0) {
+                trimCursor = 0;
+                return true;
+            }
+
+            for (long conversationId : conversationIds) {
+                int deleted;
+                do {
+                    if (budget.exhausted()) {
+                        return false;
+                    }
+                    deleted = conversationManager.trimConversation(conversationId, cap, policy.batchSize);
+                    result.trimmedMessages += deleted;
+                    result.slices++;
+                    pause();
+                } while (deleted >= policy.batchSize);
+                trimCursor = conversationId;
+            }
+        }
+    }
+
+    /**
+     * 回收删除产生的空闲页，包括之前运行因预算用完而没回收的部分
+     * @return 是否完成
+     */
+    private boolean reclaimSpace(Result result, Budget budget) throws InterruptedException {
+        if (!policy.vacuum) {
+            return true;
+        }
+        if (fullVacuumGate.getAsBoolean()) {
+            result.reclaimedBytes += conversationManager.vacuumToIncremental();
+            result.slices++;
+        }
+
+        while (true) {
+            if (budget.exhausted()) {
+                return false;
+            }
+            long reclaimed = conversationManager.reclaimFreePages(VACUUM_PAGES_PER_SLICE);
+            result.reclaimedBytes += reclaimed;
+            result.slices++;
+            if (reclaimed == 0) {
+                return true;
+            }
+            pause();
+        }
+    }
+
+    private static void pause() throws InterruptedException {
+        Thread.sleep(SLICE_PAUSE_MS);
+    }
+
+    /**
+     * 时间预算
+     */
+    private static class Budget {
+        private final boolean unlimited;
+        private final long deadline;
+
+        Budget(long budgetMs) {
+            this.unlimited = budgetMs >= Long.MAX_VALUE / 1000000;
+            this.deadline = unlimited ? 0 : System.nanoTime() + budgetMs * 1000000;
+        }
+
+        boolean exhausted() {
+            return !unlimited && System.nanoTime() - deadline >= 0;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.momoautoreply;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 讯飞星火WebSocket接入
+ * 功能：
+ * 1. 维护一个已鉴权、已握手的WebSocket会话池，发消息时无需再握手
+ * 2. 缓存签名后的鉴权URL，在有效期内复用，避免每条消息都做HMAC
+ * 3. 通过 ReplyStreamListener 流式返回生成内容
+ * 4. 连接失效时透明重连
+ *
+ * 星火协议一个会话只承载一次问答，服务端在回答结束（status=2）后关闭连接，
+ * 而本端的 isOpen 看不到对端关闭，所以会话用完即关闭、不放回池中；
+ * 连接池只保存后台新建、刚完成握手的会话，请求到来时直接取用。
+ * 地址可配置为 ws:// 本地替身服务，便于离线测试。
+ */
+public class XunfeiSparkProvider {
+
+    private static final String TAG = "XunfeiSparkProvider";
+
+    // 星火服务端允许的时钟偏差为5分钟，签名提前1分钟刷新
+    private static final long SIGNATURE_TTL_MS = 4 * 60 * 1000;
+    // 空闲会话超过该时间不再复用，避免拿到被服务端悄悄关闭的连接
+    private static final long MAX_IDLE_MS = 30 * 1000;
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    /**
+     * 星火配置
+     */
+    public static class Config {
+        public String appId;
+        public String apiKey;
+        public String apiSecret;
+        public String apiUrl = "wss://spark-api.xf-yun.com/v3.5/chat";
+        public String domain = "generalv3.5";
+        public int poolSize = 2;
+        public int maxTokens = 100;
+        public double temperature = 0.7;
+    }
+
+    /**
+     * 已签名的鉴权地址
+     */
+    private static class SignedUri {
+        final URI uri;
+        final long expiresAt;
+
+        SignedUri(URI uri, long expiresAt) {
+            this.uri = uri;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * 池中的空闲会话
+     */
+    private static class PooledSession {
+        final SimpleWebSocket socket;
+        final long idleSince;
+
+        PooledSession(SimpleWebSocket socket) {
+            this.socket = socket;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private final Config config;
+    private final URI baseUri;
+    private final BlockingQueue<PooledSession> idleSessions;
+    private final ExecutorService refillExecutor;
+    private final AtomicBoolean refillScheduled = new AtomicBoolean(false);
+    private final Object signLock = new Object();
+
+    // 以apiSecret为密钥初始化好的HMAC实例，签名时直接复用
+    private Mac hmac;
+    private SignedUri signedUri;
+    private volatile boolean closed;
+
+    public XunfeiSparkProvider(Config config) {
+        this.config = config;
+        try {
+            this.baseUri = new URI(config.apiUrl);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("星火地址无效: " + config.apiUrl, e);
+        }
+        this.idleSessions = new ArrayBlockingQueue<>(Math.max(1, config.poolSize));
+        this.refillExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "xunfei-ws-refill");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 生成回复并流式回调，失败时由调用方通知监听器
+     * @param messages 对话消息（role/content）
+     * @param listener 流式监听器，可为null
+     * @return 完整回复
+     * @throws IOException 网络异常
+     * @throws JSONException 协议解析异常
+     */
+    public String generate(JSONArray messages, ReplyStreamListener listener) throws IOException, JSONException {
+        String request = buildRequest(messages).toString();
+
+        // 池中的会话可能已被服务端关闭；只要还没有向调用方输出内容，就换新连接重试一次
+        for (int attempt = 0; ; attempt++) {
+            boolean pooled = attempt == 0;
+            SimpleWebSocket socket = pooled ? acquire() : connect();
+            StreamState state = new StreamState();
+            String reply;
+            try {
+                socket.sendText(request);
+                reply = readReply(socket, state, listener);
+            } catch (IOException e) {
+                if (attempt == 0 && !state.emitted) {
+                    Log.w(TAG, "星火会话失效，重新连接: " + e.getMessage());
+                    continue;
+                }
+                throw e;
+            } finally {
+                // 服务端在回答结束后会关闭连接，不再复用；出错时（包括监听器抛出的运行时异常）同样关闭
+                socket.close();
+                scheduleRefill();
+            }
+            if (listener != null) {
+                listener.onComplete(reply);
+            }
+            return reply;
+        }
+    }
+
+    /**
+     * 单次请求的读取状态
+     */
+    private static class StreamState {
+        boolean emitted;
+    }
+
+    private String readReply(SimpleWebSocket socket, StreamState state, ReplyStreamListener listener)
+            throws IOException, JSONException {
+        StringBuilder reply = new StringBuilder();
+
+        while (true) {
+            String frame = socket.readText();
+            if (frame == null) {
+                throw new IOException("星火连接在回答结束前关闭");
+            }
+
+            JSONObject response = new JSONObject(frame);
+            JSONObject header = response.getJSONObject("header");
+            int code = header.getInt("code");
+            if (code != 0) {
+                throw new IOException("星火返回错误 " + code + ": " + header.optString("message"));
+            }
+
+            JSONObject payload = response.optJSONObject("payload");
+            if (payload != null) {
+                JSONArray texts = payload.getJSONObject("choices").getJSONArray("text");
+                for (int i = 0; i < texts.length(); i++) {
+                    String token = texts.getJSONObject(i).optString("content");
+                    if (!token.isEmpty()) {
+                        reply.append(token);
+                        state.emitted = true;
+                        if (listener != null) {
+                            listener.onToken(token);
+                        }
+                    }
+                }
+            }
+
+            // status=2 表示本轮回答结束
+            if (header.optInt("status") == 2) {
+                return reply.toString().trim();
+            }
+        }
+    }
+
+    private JSONObject buildRequest(JSONArray messages) throws JSONException {
+        JSONObject header = new JSONObject();
+        header.put("app_id", config.appId);
+
+        JSONObject chat = new JSONObject();
+        chat.put("domain", config.domain);
+        chat.put("temperature", config.temperature);
+        chat.put("max_tokens", config.maxTokens);
+        JSONObject parameter = new JSONObject();
+        parameter.put("chat", chat);
+
+        JSONObject message = new JSONObject();
+        message.put("text", messages);
+        JSONObject payload = new JSONObject();
+        payload.put("message", message);
+
+        JSONObject request = new JSONObject();
+        request.put("header", header);
+        request.put("parameter", parameter);
+        request.put("payload", payload);
+        return request;
+    }
+
+    /**
+     * 从池中取一个空闲会话，没有可用会话时新建
+     */
+    private SimpleWebSocket acquire() throws IOException {
+        PooledSession session;
+        long now = System.currentTimeMillis();
+        while ((session = idleSessions.poll()) != null) {
+            if (session.socket.isOpen() && now - session.idleSince < MAX_IDLE_MS) {
+                return session.socket;
+            }
+            session.socket.close();
+        }
+        return connect();
+    }
+
+    private SimpleWebSocket connect() throws IOException {
+        return SimpleWebSocket.connect(getSignedUri(), CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS);
+    }
+
+    /**
+     * 在后台把空闲会话补足到池大小
+     */
+    private void scheduleRefill() {
+        if (closed || !refillScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        refillExecutor.execute(() -> {
+            try {
+                while (!closed && idleSessions.remainingCapacity() > 0) {
+                    SimpleWebSocket socket = connect();
+                    if (!idleSessions.offer(new PooledSession(socket))) {
+                        socket.close();
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "预建星火会话失败: " + e.getMessage());
+            } finally {
+                refillScheduled.set(false);
+            }
+        });
+    }
+
+    /**
+     * 预先建立会话，服务启动时调用可省去首条消息的握手
+     */
+    public void warmUp() {
+        scheduleRefill();
+    }
+
+    /**
+     * 获取签名后的鉴权地址，有效期内直接复用
+     */
+    URI getSignedUri() throws IOException {
+        synchronized (signLock) {
+            long now = System.currentTimeMillis();
+            if (signedUri != null && now < signedUri.expiresAt) {
+                return signedUri.uri;
+            }
+
+            try {
+                if (hmac == null) {
+                    hmac = Mac.getInstance("HmacSHA256");
+                    hmac.init(new SecretKeySpec(config.apiSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+                }
+
+                SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+                format.setTimeZone(TimeZone.getTimeZone("GMT"));
+                String date = format.format(new Date(now));
+                String host = baseUri.getHost();
+                String path = baseUri.getRawPath();
+
+                String signatureOrigin = "host: " + host + "\n" +
+                        "date: " + date + "\n" +
+                        "GET " + path + " HTTP/1.1";
+                String signature = Base64.getEncoder().encodeToString(
+                        hmac.doFinal(signatureOrigin.getBytes(StandardCharsets.UTF_8)));
+
+                String authorizationOrigin = "api_key=\"" + config.apiKey + "\", " +
+                        "algorithm=\"hmac-sha256\", " +
+                        "headers=\"host date request-line\", " +
+                        "signature=\"" + signature + "\"";
+                String authorization = Base64.getEncoder().encodeToString(
+                        authorizationOrigin.getBytes(StandardCharsets.UTF_8));
+
+                URI uri = new URI(config.apiUrl +
+                        "?authorization=" + encode(authorization) +
+                        "&date=" + encode(date) +
+                        "&host=" + encode(host));
+                signedUri = new SignedUri(uri, now + SIGNATURE_TTL_MS);
+                return uri;
+
+            } catch (GeneralSecurityException | URISyntaxException e) {
+                throw new IOException("星火鉴权签名失败", e);
+            }
+        }
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    /**
+     * 关闭所有会话
+     */
+    public void close() {
+        closed = true;
+        refillExecutor.shutdownNow();
+        PooledSession session;
+        while ((session = idleSessions.poll()) != null) {
+            session.socket.close();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.momoautoreply;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 冷对话归档成压缩段，读取历史、翻页或收到新消息时整段恢复
+ * 每个用例都重新打开管理器再读，确认恢复走的是数据库里的归档段，而不是活跃对话缓存。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ConversationArchiveTest {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final long WAIT_MS = 3000;
+    private static final int SEGMENT_MESSAGES = 64;
+    private static final String[] PHRASES = {
+            "你好呀", "在吗", "刚下班，累死了", "周末一般去哪里玩？", "哈哈哈真的假的", "要不要一起去吃火锅？",
+            "我养了一只橘猫，特别能吃", "好呀好呀😊", "你说的那家我去过，人超级多，排了一个多小时的队"
+    };
+
+    private Context context;
+    private ConversationManager manager;
+    private long old;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(ConversationManager.DB_NAME);
+        manager = new ConversationManager(context);
+        old = System.currentTimeMillis() - 3 * DAY_MS;
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+        context.deleteDatabase(ConversationManager.DB_NAME);
+    }
+
+    @Test
+    public void archivesColdConversationsAndRestoresOnRead() throws Exception {
+        List<ChatMessage> red = importMessages("小红", 300, old);
+        importMessages("小刚", 20, System.currentTimeMillis());
+
+        ConversationArchiver.Result result = archive();
+        assertTrue(result.complete);
+        assertEquals(1, result.archivedConversations);
+        assertEquals(300, result.archivedMessages);
+        assertEquals((300 + SEGMENT_MESSAGES - 1) / SEGMENT_MESSAGES, result.segments);
+
+        // 报告的压缩比与归档表中实际的字节数一致；重复的聊天短句至少压缩到三分之一
+        SQLiteDatabase db = openReadOnly();
+        try {
+            Cursor cursor = db.rawQuery("SELECT SUM(raw_bytes), SUM(LENGTH(data)), SUM(message_count) " +
+                    "FROM message_segments", null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(result.rawBytes, cursor.getLong(0));
+                assertEquals(result.compressedBytes, cursor.getLong(1));
+                assertEquals(300, cursor.getLong(2));
+            } finally {
+                cursor.close();
+            }
+            assertEquals(20, DatabaseUtils.queryNumEntries(db, "messages"));
+            assertEquals(20, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM messages_fts", null));
+        } finally {
+            db.close();
+        }
+        assertEquals((double) result.rawBytes / result.compressedBytes, result.getCompressionRatio(), 1e-9);
+        assertTrue("压缩比 " + result.getCompressionRatio(), result.getCompressionRatio() > 3);
+
+        reopen();
+        assertMessages(red.subList(300 - ConversationManager.HISTORY_WINDOW_SIZE, 300),
+                manager.getConversationHistory("小红"));
+        assertRestored(320);
+        assertMessages(red, manager.getRecentMessages("小红", 1000, Long.MAX_VALUE, Long.MAX_VALUE));
+        // 恢复时重建了全文索引
+        int expectedHits = 0;
+        for (ChatMessage message : red) {
+            if (message.content.contains("橘猫")) {
+                expectedHits++;
+            }
+        }
+        int hits = 0;
+        for (ConversationManager.SearchResult hit : manager.searchMessages("橘猫", 1000)) {
+            if ("小红".equals(hit.userName)) {
+                hits++;
+            }
+        }
+        assertEquals(expectedHits, hits);
+    }
+
+    /**
+     * 翻页和写入新消息同样会先恢复归档
+     */
+    @Test
+    public void pagingAndNewMessagesRestoreFirst() throws Exception {
+        List<ChatMessage> red = importMessages("小红", 100, old);
+        List<ChatMessage> blue = importMessages("小蓝", 100, old);
+        assertEquals(2, archive().archivedConversations);
+
+        reopen();
+        List<ChatMessage> page = manager.getRecentMessages("小红", 30, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertMessages(red.subList(70, 100), page);
+
+        assertTrue(manager.addMessage("小蓝", "好久不见", false).get(WAIT_MS, TimeUnit.MILLISECONDS));
+        List<ChatMessage> history = manager.getRecentMessages("小蓝", 1000, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals(101, history.size());
+        assertMessages(blue, history.subList(0, 100));
+        assertEquals("好久不见", history.get(100).content);
+        assertRestored(201);
+    }
+
+    /**
+     * 损坏的段留在归档表中，其余的段照常恢复
+     */
+    @Test
+    public void corruptedSegmentStaysArchived() throws Exception {
+        List<ChatMessage> red = importMessages("小红", 3 * SEGMENT_MESSAGES, old);
+        assertEquals(3, archive().segments);
+        manager.close();
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(context.getDatabasePath(ConversationManager.DB_NAME).getPath(),
+                null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            db.execSQL("UPDATE message_segments SET data = X'0102030405' WHERE id = " +
+                    "(SELECT id FROM message_segments ORDER BY first_timestamp LIMIT 1 OFFSET 1)");
+        } finally {
+            db.close();
+        }
+
+        manager = new ConversationManager(context);
+        List<ChatMessage> restored = manager.getRecentMessages("小红", 1000, Long.MAX_VALUE, Long.MAX_VALUE);
+        List<ChatMessage> expected = new ArrayList<>(red.subList(0, SEGMENT_MESSAGES));
+        expected.addAll(red.subList(2 * SEGMENT_MESSAGES, 3 * SEGMENT_MESSAGES));
+        assertMessages(expected, restored);
+
+        SQLiteDatabase check = openReadOnly();
+        try {
+            assertEquals(1, DatabaseUtils.queryNumEntries(check, "message_segments"));
+            assertEquals(SEGMENT_MESSAGES, DatabaseUtils.longForQuery(check,
+                    "SELECT archived_messages FROM conversations WHERE user_name = '小红'", null));
+        } finally {
+            check.close();
+        }
+    }
+
+    private ConversationArchiver.Result archive() {
+        ConversationArchiver.Policy policy = new ConversationArchiver.Policy();
+        policy.coldAfterMs = DAY_MS;
+        policy.maxSegmentMessages = SEGMENT_MESSAGES;
+        return new ConversationArchiver(manager, policy).run(60000);
+    }
+
+    private void reopen() {
+        manager.close();
+        manager = new ConversationManager(context);
+    }
+
+    /**
+     * 归档表已清空，消息和索引行都回到了消息表
+     */
+    private void assertRestored(long messages) {
+        SQLiteDatabase db = openReadOnly();
+        try {
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, "message_segments"));
+            assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT SUM(archived_messages) FROM conversations", null));
+            assertEquals(messages, DatabaseUtils.queryNumEntries(db, "messages"));
+            assertEquals(messages, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM messages_fts", null));
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * 导入 count 条消息，最后一条的时间为 lastActive
+     * @return 导入的消息，ID按导入后的实际值填写
+     */
+    private List<ChatMessage> importMessages(String userName, int count, long lastActive) {
+        List<ConversationImporter.Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new ConversationImporter.Entry(userName, null, i % 3 == 0,
+                    PHRASES[i % PHRASES.length], lastActive - (count - 1 - i) * 1000L));
+        }
+        manager.importBatch(entries, "archive-test", count);
+        manager.clearImportCheckpoint("archive-test");
+        List<ChatMessage> imported = manager.getRecentMessages(userName, count, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals(count, imported.size());
+        return imported;
+    }
+
+    private SQLiteDatabase openReadOnly() {
+        return SQLiteDatabase.openDatabase(context.getDatabasePath(ConversationManager.DB_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+    }
+
+    private static void assertMessages(List<ChatMessage> expected, List<ChatMessage> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ChatMessage want = expected.get(i);
+            ChatMessage got = actual.get(i);
+            String where = "第 " + i + " 条";
+            assertEquals(where, want.id, got.id);
+            assertEquals(where, want.sender, got.sender);
+            assertEquals(where, want.content, got.content);
+            assertEquals(where, want.timestamp, got.timestamp);
+        }
+    }
+}
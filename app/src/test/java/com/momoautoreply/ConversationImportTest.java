@@ -0,0 +1,259 @@
+package com.momoautoreply;
+
+import android.content.Context;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 导出再导入到空库后对话和消息不变；导入中断后按断点续传，格式错误的行跳过
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ConversationImportTest {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final String IMPORT_NAME = "import-test";
+    // 需要转义的内容
+    private static final String[] CONTENTS = {
+            "在吗", "他说：\"周末见\"", "第一行\n第二行", "C:\\Users\\momo", "好呀😊", "", "\t缩进\u2028分隔"
+    };
+
+    private Context context;
+    private ConversationManager manager;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(ConversationManager.DB_NAME);
+        manager = new ConversationManager(context);
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+        context.deleteDatabase(ConversationManager.DB_NAME);
+    }
+
+    /**
+     * 包括已归档的对话；消息ID在新库重新分配，其余字段和顺序不变
+     */
+    @Test
+    public void exportThenImportRoundTrips() throws Exception {
+        long now = System.currentTimeMillis();
+        seed("小红", 120, now - 10 * DAY_MS, "你是小红的老同学");
+        seed("小明", 700, now - DAY_MS / 2, null);
+        seed("小刚", 3, now - DAY_MS / 4, "说话简短");
+        ConversationArchiver.Policy policy = new ConversationArchiver.Policy();
+        policy.coldAfterMs = 5 * DAY_MS;
+        assertEquals(1, new ConversationArchiver(manager, policy).run(60000).archivedConversations);
+
+        List<ConversationManager.ConversationSummary> summaries = readSummaries();
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        ConversationExporter.Result exportResult = new ConversationExporter(manager).export(exported);
+        assertEquals(3, exportResult.conversations);
+        assertEquals(823, exportResult.messages);
+        Map<String, List<ChatMessage>> messages = new LinkedHashMap<>();
+        for (ConversationManager.ConversationSummary summary : summaries) {
+            messages.put(summary.userName, readAll(summary.userName));
+        }
+
+        manager.close();
+        context.deleteDatabase(ConversationManager.DB_NAME);
+        manager = new ConversationManager(context);
+        ConversationImporter.Result result = new ConversationImporter(manager)
+                .importFrom(new ByteArrayInputStream(exported.toByteArray()), IMPORT_NAME);
+
+        assertTrue(result.complete);
+        assertEquals(823, result.messages);
+        assertEquals(0, result.malformedLines);
+        assertEquals(0, manager.readImportCheckpoint(IMPORT_NAME));
+        List<ConversationManager.ConversationSummary> imported = readSummaries();
+        assertEquals(summaries.size(), imported.size());
+        for (int i = 0; i < summaries.size(); i++) {
+            ConversationManager.ConversationSummary want = summaries.get(i);
+            ConversationManager.ConversationSummary got = imported.get(i);
+            assertEquals(want.userName, got.userName);
+            assertEquals(want.lastActive, got.lastActive);
+            assertEquals(want.roleSetting, got.roleSetting);
+            assertEquals(want.messageCount, got.messageCount);
+            assertMessages(messages.get(want.userName), readAll(want.userName));
+        }
+    }
+
+    /**
+     * 读取中途失败时已提交的批次保留，用同一任务名再导入一次从断点继续，不重复也不遗漏
+     * 断点之前和之后各有一行格式错误，各自只在读到它的那次导入中计数
+     */
+    @Test
+    public void resumesFromCheckpointAfterFailure() throws Exception {
+        Map<String, List<ChatMessage>> expected = new LinkedHashMap<>();
+        StringBuilder jsonl = new StringBuilder();
+        long base = System.currentTimeMillis() - DAY_MS;
+        String[] users = {"小红", "小明", "小刚"};
+        for (String user : users) {
+            expected.put(user, new ArrayList<>());
+            jsonl.append(new JSONObject().put("type", "conversation").put("user_name", user)
+                    .put("last_active", base + 10000000).put("role_setting", user + "的设定")).append('\n');
+        }
+        int lines = users.length;
+        for (int i = 0; i < 1800; i++) {
+            lines++;
+            if (lines == 300) {
+                jsonl.append("{\"type\":\"message\",\"user_name\":\"小红\",").append('\n');
+                continue;
+            }
+            if (lines == 1500) {
+                jsonl.append("not json at all").append('\n');
+                continue;
+            }
+            if (lines == 1600) {
+                jsonl.append(new JSONObject().put("type", "reaction").put("user_name", "小红")).append('\n');
+                continue;
+            }
+            if (lines == 1700) {
+                jsonl.append('\n');
+                continue;
+            }
+            String user = users[i % users.length];
+            boolean isSelf = i % 4 == 0;
+            String content = CONTENTS[i % CONTENTS.length] + "#" + i;
+            long timestamp = base + i * 1000L;
+            jsonl.append(new JSONObject().put("type", "message").put("user_name", user)
+                    .put("id", i + 1).put("sender", isSelf ? "self" : "other")
+                    .put("content", content).put("timestamp", timestamp)).append('\n');
+            expected.get(user).add(new ChatMessage("", isSelf ? "self" : "other", content, timestamp));
+        }
+        byte[] data = jsonl.toString().getBytes(StandardCharsets.UTF_8);
+
+        ConversationImporter importer = new ConversationImporter(manager);
+        ConversationImporter.Result first = importer.importFrom(new FailingInputStream(data, data.length * 2 / 3),
+                IMPORT_NAME);
+        assertFalse(first.complete);
+        assertEquals(0, first.resumedFromLine);
+        assertEquals(1, first.malformedLines);
+        long checkpoint = manager.readImportCheckpoint(IMPORT_NAME);
+        assertTrue("断点: " + checkpoint, checkpoint > 300 && checkpoint < 1500);
+        long committed = 0;
+        for (String user : users) {
+            committed += readAll(user).size();
+        }
+        assertEquals(first.messages, committed);
+
+        ConversationImporter.Result second = importer.importFrom(new ByteArrayInputStream(data), IMPORT_NAME);
+        assertTrue(second.complete);
+        assertEquals(checkpoint, second.resumedFromLine);
+        assertEquals(2, second.malformedLines);
+        assertEquals(0, manager.readImportCheckpoint(IMPORT_NAME));
+
+        long total = 0;
+        for (String user : users) {
+            List<ChatMessage> messages = readAll(user);
+            assertMessages(expected.get(user), messages);
+            total += messages.size();
+            assertEquals(user + "的设定", manager.getRoleSetting(user));
+        }
+        assertEquals(first.messages + second.messages, total);
+    }
+
+    /**
+     * 导入 count 条消息，最后一条的时间为 lastActive
+     */
+    private void seed(String userName, int count, long lastActive, String roleSetting) {
+        List<ConversationImporter.Entry> entries = new ArrayList<>(count + 1);
+        if (roleSetting != null) {
+            entries.add(new ConversationImporter.Entry(userName, roleSetting, false, null, lastActive - count * 1000L));
+        }
+        for (int i = 0; i < count; i++) {
+            entries.add(new ConversationImporter.Entry(userName, null, i % 3 == 0,
+                    CONTENTS[i % CONTENTS.length] + "#" + i, lastActive - (count - 1 - i) * 1000L));
+        }
+        manager.importBatch(entries, "seed", count);
+        manager.clearImportCheckpoint("seed");
+    }
+
+    private List<ConversationManager.ConversationSummary> readSummaries() {
+        List<ConversationManager.ConversationSummary> summaries = new ArrayList<>();
+        try (ConversationManager.ConversationSummaryIterator iterator = manager.openConversationSummaries()) {
+            while (iterator.hasNext()) {
+                summaries.add(iterator.next());
+            }
+        }
+        return summaries;
+    }
+
+    private List<ChatMessage> readAll(String userName) {
+        return manager.getRecentMessages(userName, 10000, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * 不比较ID，导入时重新分配
+     */
+    private static void assertMessages(List<ChatMessage> expected, List<ChatMessage> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ChatMessage want = expected.get(i);
+            ChatMessage got = actual.get(i);
+            String where = "第 " + i + " 条";
+            assertEquals(where, want.sender, got.sender);
+            assertEquals(where, want.content, got.content);
+            assertEquals(where, want.timestamp, got.timestamp);
+        }
+    }
+
+    /**
+     * 读到 failAt 字节时抛出 IOException，模拟文件读取中断
+     */
+    private static final class FailingInputStream extends InputStream {
+        private final byte[] data;
+        private final int failAt;
+        private int position;
+
+        FailingInputStream(byte[] data, int failAt) {
+            this.data = data;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= failAt) {
+                throw new IOException("读取中断");
+            }
+            return data[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (position >= failAt) {
+                throw new IOException("读取中断");
+            }
+            int count = Math.min(length, failAt - position);
+            System.arraycopy(data, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.momoautoreply;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 从版本1（UUID文本主键、文本发送方）升级到当前版本
+ * 10个用户轮流各发200条消息，时间戳递增，rowid与时间顺序一致。后台迁移每块500条，按rowid从新到旧：
+ * 第1块正好是每个用户最新的50条，第3块里有一条删除时会被触发器拦下的消息，用来模拟迁移中途失败。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ConversationMigrationTest {
+
+    private static final int USERS = 10;
+    private static final int MESSAGES = 2000;
+    // 落在第3块（第500～999条）中
+    private static final int FAULT_INDEX = 600;
+    private static final String FAULT_CONTENT = "故障点";
+    private static final long BASE_TIMESTAMP = 1717200000000L;
+    private static final long WAIT_MS = 10000;
+
+    private Context context;
+    private File dbFile;
+    private ConversationManager manager;
+    // 对话UUID -> 用户下标
+    private final Map<String, Integer> legacyConversations = new HashMap<>();
+    private final List<List<ChatMessage>> expected = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        dbFile = context.getDatabasePath(ConversationManager.DB_NAME);
+        dbFile.getParentFile().mkdirs();
+        ShadowLog.clear();
+        buildLegacyDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        if (manager != null) {
+            manager.close();
+        }
+        context.deleteDatabase(ConversationManager.DB_NAME);
+    }
+
+    /**
+     * 用户i最后活跃时间越早，升级后对话ID越大；最早一条是找不到对话的孤立消息
+     */
+    private void buildLegacyDatabase() {
+        try (LegacyDatabase legacy = LegacyDatabase.create(dbFile)) {
+            SQLiteDatabase db = legacy.getDatabase();
+            // 删除旧表中的故障消息时中止，模拟迁移一块时失败；触发器随表改名保留
+            db.execSQL("CREATE TABLE test_fault (armed INTEGER NOT NULL)");
+            db.execSQL("INSERT INTO test_fault (armed) VALUES (1)");
+            db.execSQL("CREATE TRIGGER test_fault_delete BEFORE DELETE ON messages " +
+                    "WHEN old.content = '" + FAULT_CONTENT + "' AND (SELECT armed FROM test_fault) = 1 " +
+                    "BEGIN SELECT RAISE(ABORT, '模拟迁移中断'); END");
+
+            db.beginTransaction();
+            try {
+                String[] conversationIds = new String[USERS];
+                for (int u = 0; u < USERS; u++) {
+                    conversationIds[u] = legacy.addConversation(user(u), BASE_TIMESTAMP + (USERS - u) * 1000L,
+                            u == 0 ? "" : "你是用户" + u + "的老朋友");
+                    legacyConversations.put(conversationIds[u], u);
+                    expected.add(new ArrayList<>());
+                }
+                assertEquals(1, legacy.addMessage(UUID.randomUUID().toString(), false, "孤立消息", BASE_TIMESTAMP));
+                for (int k = 0; k < MESSAGES; k++) {
+                    int u = k % USERS;
+                    boolean isSelf = k % 3 == 0;
+                    String content = k == FAULT_INDEX ? FAULT_CONTENT : "第" + k + "条，来自" + user(u) + "😀";
+                    long timestamp = BASE_TIMESTAMP + k * 1000L;
+                    long rowId = legacy.addMessage(conversationIds[u], isSelf, content, timestamp);
+                    assertEquals(k + 2, rowId);
+                    expected.get(u).add(new ChatMessage(String.valueOf(rowId), isSelf ? "self" : "other",
+                            content, timestamp));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    @Test
+    public void migratesInBackgroundAndResumesAfterFailure() throws Exception {
+        // 第1块迁移后停在第2块之前
+        CountDownLatch paused = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        AtomicInteger chunks = new AtomicInteger();
+        manager = open(() -> {
+            if (chunks.incrementAndGet() == 2) {
+                paused.countDown();
+                await(resume);
+            }
+            return true;
+        });
+        assertTrue(paused.await(WAIT_MS, TimeUnit.MILLISECONDS));
+
+        List<List<ChatMessage>> during = new ArrayList<>();
+        try (SQLiteDatabase db = openReadOnly()) {
+            assertEquals(500, count(db, "messages"));
+            assertEquals(MESSAGES + 1 - 500, count(db, "messages_v1"));
+            assertConversationIdMap(db);
+        }
+        for (int u = 0; u < USERS; u++) {
+            List<ChatMessage> history = manager.getConversationHistory(user(u));
+            assertMessages(lastWindow(u), history);
+            during.add(history);
+        }
+        assertRoleSettings();
+
+        // 第3块删除故障消息时中止，整块回滚
+        resume.countDown();
+        waitFor(() -> logged("后台升级异常"));
+        try (SQLiteDatabase db = openReadOnly()) {
+            assertEquals(1000, count(db, "messages"));
+            assertEquals(MESSAGES + 1 - 1000, count(db, "messages_v1"));
+            assertEquals(1002, DatabaseUtils.longForQuery(db, "SELECT MIN(id) FROM messages", null));
+            assertEquals(1001, DatabaseUtils.longForQuery(db, "SELECT MAX(rowid) FROM messages_v1", null));
+        }
+        for (int u = 0; u < USERS; u++) {
+            assertMessages(during.get(u), manager.getConversationHistory(user(u)));
+        }
+
+        // 重新打开后从剩余部分继续
+        SQLiteDatabase writer = SQLiteDatabase.openDatabase(dbFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            writer.execSQL("UPDATE test_fault SET armed = 0");
+        } finally {
+            writer.close();
+        }
+        manager.close();
+        manager = open(() -> true);
+        waitFor(() -> {
+            try (SQLiteDatabase db = openReadOnly()) {
+                return DatabaseUtils.longForQuery(db,
+                        "SELECT COUNT(*) FROM sqlite_master WHERE name = 'messages_v1'", null) == 0;
+            }
+        });
+
+        try (SQLiteDatabase db = openReadOnly()) {
+            assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master WHERE name IN " +
+                    "('conversations_v1', 'conversation_id_map')", null));
+            assertMigratedRows(db);
+        }
+        for (int u = 0; u < USERS; u++) {
+            assertMessages(during.get(u), manager.getConversationHistory(user(u)));
+            assertMessages(expected.get(u), readAllPages(user(u)));
+        }
+        assertRoleSettings();
+
+        // 新消息的ID接在旧消息的rowid之后
+        assertTrue(manager.addMessage(user(3), "迁移后的第一条", true).get(WAIT_MS, TimeUnit.MILLISECONDS));
+        List<ChatMessage> history = manager.getConversationHistory(user(3));
+        assertEquals(String.valueOf(MESSAGES + 2), history.get(history.size() - 1).id);
+    }
+
+    private ConversationManager open(BooleanSupplier gate) {
+        ConversationManager opened = new ConversationManager(context);
+        opened.setBackgroundGate(gate);
+        opened.open();
+        return opened;
+    }
+
+    /**
+     * 新对话ID按最后活跃时间从早到晚分配，映射表把每个UUID指向同一用户的新对话
+     */
+    private void assertConversationIdMap(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT m.legacy_id, m.id, c.user_name FROM conversation_id_map m " +
+                "JOIN conversations c ON c.id = m.id", null);
+        try {
+            assertEquals(USERS, cursor.getCount());
+            while (cursor.moveToNext()) {
+                Integer u = legacyConversations.get(cursor.getString(0));
+                assertTrue("未知的旧对话ID: " + cursor.getString(0), u != null);
+                assertEquals(USERS - u, cursor.getLong(1));
+                assertEquals(user(u), cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 每条消息保留rowid作为ID，发送方转为整数编码，孤立消息被丢弃
+     */
+    private void assertMigratedRows(SQLiteDatabase db) {
+        Map<Long, ChatMessage> byId = new HashMap<>();
+        Map<Long, Integer> owner = new HashMap<>();
+        for (int u = 0; u < USERS; u++) {
+            for (ChatMessage message : expected.get(u)) {
+                byId.put(Long.parseLong(message.id), message);
+                owner.put(Long.parseLong(message.id), u);
+            }
+        }
+        Cursor cursor = db.rawQuery("SELECT id, conversation_id, sender, content, timestamp FROM messages " +
+                "ORDER BY id", null);
+        try {
+            assertEquals(MESSAGES, cursor.getCount());
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                ChatMessage want = byId.get(id);
+                assertTrue("多出的消息: " + id, want != null);
+                assertEquals(USERS - owner.get(id), cursor.getLong(1));
+                assertEquals("self".equals(want.sender) ? 1 : 0, cursor.getInt(2));
+                assertEquals(want.content, cursor.getString(3));
+                assertEquals(want.timestamp, cursor.getLong(4));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertRoleSettings() {
+        assertEquals("", manager.getRoleSetting(user(0)));
+        for (int u = 1; u < USERS; u++) {
+            assertEquals("你是用户" + u + "的老朋友", manager.getRoleSetting(user(u)));
+        }
+    }
+
+    /**
+     * 用 getRecentMessages 从新到旧翻页读出全部消息
+     */
+    private List<ChatMessage> readAllPages(String userName) {
+        List<ChatMessage> all = new ArrayList<>();
+        long beforeTimestamp = Long.MAX_VALUE;
+        long beforeId = Long.MAX_VALUE;
+        while (true) {
+            List<ChatMessage> page = manager.getRecentMessages(userName, 30, beforeTimestamp, beforeId);
+            if (page.isEmpty()) {
+                return all;
+            }
+            all.addAll(0, page);
+            beforeTimestamp = page.get(0).timestamp;
+            beforeId = Long.parseLong(page.get(0).id);
+        }
+    }
+
+    private List<ChatMessage> lastWindow(int u) {
+        List<ChatMessage> messages = expected.get(u);
+        return messages.subList(messages.size() - ConversationManager.HISTORY_WINDOW_SIZE, messages.size());
+    }
+
+    private SQLiteDatabase openReadOnly() {
+        return SQLiteDatabase.openDatabase(dbFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+    }
+
+    private static long count(SQLiteDatabase db, String table) {
+        return DatabaseUtils.queryNumEntries(db, table);
+    }
+
+    private static boolean logged(String message) {
+        for (ShadowLog.LogItem item : ShadowLog.getLogsForTag("ConversationManager")) {
+            if (item.msg != null && item.msg.contains(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("等待超时");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static String user(int u) {
+        return "用户" + u;
+    }
+
+    private static void assertMessages(List<ChatMessage> expected, List<ChatMessage> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ChatMessage want = expected.get(i);
+            ChatMessage got = actual.get(i);
+            String where = "第 " + i + " 条";
+            assertEquals(where, want.id, got.id);
+            assertEquals(where, want.sender, got.sender);
+            assertEquals(where, want.content, got.content);
+            assertEquals(where, want.timestamp, got.timestamp);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.momoautoreply;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * searchMessages 与全文索引表的同步
+ * Robolectric 自带的 SQLite 没有编译FTS5，这里跑的是FTS4的回退路径；
+ * 换成带FTS5的环境时，模块检查按探测结果改为期望FTS5，其余断言不变。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ConversationSearchTest {
+
+    private static final long WAIT_MS = 3000;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private Context context;
+    private ConversationManager manager;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(ConversationManager.DB_NAME);
+        manager = new ConversationManager(context);
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+        context.deleteDatabase(ConversationManager.DB_NAME);
+    }
+
+    /**
+     * 按探测结果选择模块；探测用的临时表不会留在数据库里
+     */
+    @Test
+    public void indexModuleFollowsFts5Availability() {
+        manager.open();
+        String module = fts5Available() ? "fts5" : "fts4";
+        SQLiteDatabase db = openReadOnly();
+        try {
+            String sql = DatabaseUtils.stringForQuery(db,
+                    "SELECT sql FROM sqlite_master WHERE name = 'messages_fts'", null);
+            assertTrue(sql, sql.toLowerCase().contains("using " + module));
+            assertEquals(0, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM sqlite_master WHERE name LIKE 'fts5_probe%'", null));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void findsPhrasesNewestFirst() throws Exception {
+        add("小红", "周末一起去吃火锅吧", false);
+        add("小明", "火锅还是烧烤？", true);
+        add("小红", "今天晚上加班", false);
+        add("小刚", "我不吃辣的火锅", false);
+
+        List<ConversationManager.SearchResult> results = manager.searchMessages("火锅", 10);
+        assertEquals(3, results.size());
+        assertEquals("小刚", results.get(0).userName);
+        assertEquals("我不吃辣的【火锅】", results.get(0).snippet);
+        assertEquals("小明", results.get(1).userName);
+        assertEquals("self", results.get(1).message.sender);
+        assertEquals("小红", results.get(2).userName);
+        assertEquals("周末一起去吃火锅吧", results.get(2).message.content);
+
+        // 多个关键词同时出现，短语要求相邻
+        assertEquals(1, manager.searchMessages("周末 火锅", 10).size());
+        assertEquals(1, manager.searchMessages("晚上加班", 10).size());
+        assertEquals(0, manager.searchMessages("晚加", 10).size());
+        assertEquals(2, manager.searchMessages("火锅", 2).size());
+        assertTrue(manager.searchMessages("？！", 10).isEmpty());
+    }
+
+    /**
+     * 单字按前缀匹配，只能命中以该字开头的双字词
+     */
+    @Test
+    public void singleCharacterMatchesBigramPrefix() throws Exception {
+        add("小红", "吃饭了吗", false);
+        add("小明", "我想去吃", false);
+        add("小刚", "好吃", false);
+
+        List<ConversationManager.SearchResult> results = manager.searchMessages("吃", 10);
+        assertEquals(1, results.size());
+        assertEquals("【吃】饭了吗", results.get(0).snippet);
+    }
+
+    /**
+     * addMessage 和 importBatch 写入时同步建索引，删除对话和保留任务删除消息时由触发器同步删除
+     */
+    @Test
+    public void indexStaysInSyncWithMessages() throws Exception {
+        add("小红", "周末去爬山", false);
+        add("小明", "周末加班", false);
+        List<ConversationImporter.Entry> entries = new ArrayList<>();
+        long old = System.currentTimeMillis() - 30 * DAY_MS;
+        for (int i = 0; i < 20; i++) {
+            entries.add(new ConversationImporter.Entry("小刚", null, false, "周末第" + i + "次聚会", old + i));
+        }
+        manager.importBatch(entries, "search-test", entries.size());
+        manager.clearImportCheckpoint("search-test");
+        assertIndexMatchesMessages(22);
+        assertEquals(22, manager.searchMessages("周末", 100).size());
+
+        manager.deleteConversation("小红");
+        assertIndexMatchesMessages(21);
+        assertEquals(0, manager.searchMessages("爬山", 10).size());
+
+        manager.cleanupInactiveConversations(7 * DAY_MS);
+        assertIndexMatchesMessages(1);
+        List<ConversationManager.SearchResult> results = manager.searchMessages("周末", 100);
+        assertEquals(1, results.size());
+        assertEquals("小明", results.get(0).userName);
+    }
+
+    private void add(String userName, String content, boolean isSelf) throws Exception {
+        assertTrue(manager.addMessage(userName, content, isSelf).get(WAIT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 索引行与消息一一对应，没有残留的索引行
+     */
+    private void assertIndexMatchesMessages(long expected) {
+        SQLiteDatabase db = openReadOnly();
+        try {
+            assertEquals(expected, DatabaseUtils.queryNumEntries(db, "messages"));
+            assertEquals(expected, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM messages_fts", null));
+            assertEquals(0, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM messages_fts WHERE rowid NOT IN (SELECT id FROM messages)", null));
+        } finally {
+            db.close();
+        }
+    }
+
+    private SQLiteDatabase openReadOnly() {
+        return SQLiteDatabase.openDatabase(context.getDatabasePath(ConversationManager.DB_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+    }
+
+    private static boolean fts5Available() {
+        SQLiteDatabase probe = SQLiteDatabase.create(null);
+        try {
+            probe.execSQL("CREATE VIRTUAL TABLE probe USING fts5(content)");
+            return true;
+        } catch (SQLiteException e) {
+            return false;
+        } finally {
+            probe.close();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.momoautoreply;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 写入记录后损坏或截断日志文件，重新打开时只恢复截断点之前的记录，之后的追加在下次打开时仍能读到
+ * 另外覆盖压缩时临时文件的替换，以及空间不足时原地重写和扩大文件两条路径。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class InboundJournalTest {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private File dir;
+    private File file;
+    private InboundJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("inbound-journal").toFile();
+        file = new File(dir, "inbound.journal");
+        journal = new InboundJournal(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void reopenRestoresPendingEntriesAndNextSeq() throws IOException {
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, journal.appendReceived("用户" + i, "消息" + i));
+        }
+        journal.appendCompleted(2);
+        journal.appendCompleted(4);
+        // 重复完成和未知序号都不写记录
+        int size = journal.size();
+        journal.appendCompleted(2);
+        journal.appendCompleted(99);
+        assertEquals(size, journal.size());
+
+        reopen();
+        assertEquals(size, journal.size());
+        assertPending(new long[]{1, 3, 5});
+        InboundJournal.Entry entry = journal.getPending(DAY_MS).get(1);
+        assertEquals("用户3", entry.userName);
+        assertEquals("消息3", entry.message);
+        assertEquals(6, journal.appendReceived("用户6", "消息6"));
+    }
+
+    /**
+     * 最后一条记录只写了一部分：截在记录头中间或记录体中间
+     */
+    @Test
+    public void tornTailIsDropped() throws IOException {
+        for (int i = 1; i <= 3; i++) {
+            journal.appendReceived("小红", "第" + i + "条");
+        }
+        journal.close();
+        List<Integer> offsets = recordOffsets();
+        assertEquals(3, offsets.size());
+
+        for (int cut : new int[]{offsets.get(2) + 3, offsets.get(2) + InboundJournal.HEADER_BYTES + 5}) {
+            File torn = new File(dir, "torn-" + cut + ".journal");
+            Files.copy(file.toPath(), torn.toPath());
+            try (RandomAccessFile raf = new RandomAccessFile(torn, "rw")) {
+                raf.setLength(cut);
+            }
+            InboundJournal reopened = new InboundJournal(torn);
+            try {
+                assertEquals("截断于 " + cut, (int) offsets.get(2), reopened.size());
+                assertEquals(2, reopened.getPending(DAY_MS).size());
+                assertEquals(3, reopened.appendReceived("小红", "重发第3条"));
+            } finally {
+                reopened.close();
+            }
+            reopened = new InboundJournal(torn);
+            try {
+                List<InboundJournal.Entry> pending = reopened.getPending(DAY_MS);
+                assertEquals(3, pending.size());
+                assertEquals("重发第3条", pending.get(2).message);
+            } finally {
+                reopened.close();
+            }
+        }
+        journal = new InboundJournal(file);
+    }
+
+    /**
+     * 中间一条记录CRC不符时从它开始截断，后面完整的旧记录也丢弃；
+     * 截断后追加一条与损坏记录等长的记录，下次打开能读到它，而不会接着读出截断点之后的旧记录
+     */
+    @Test
+    public void crcMismatchTruncatesAndLaterAppendsSurvive() throws IOException {
+        journal.appendReceived("小红", "第1条");
+        journal.appendReceived("小红", "第2条");
+        journal.appendReceived("小红", "第3条");
+        journal.close();
+        List<Integer> offsets = recordOffsets();
+        corrupt(offsets.get(1) + InboundJournal.HEADER_BYTES + 10);
+
+        journal = new InboundJournal(file);
+        assertEquals((int) offsets.get(1), journal.size());
+        assertPending(new long[]{1});
+        // 截断点之后全部清零
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        for (int i = offsets.get(1); i < bytes.length; i++) {
+            assertEquals("偏移 " + i, 0, bytes[i]);
+        }
+
+        assertEquals(2, journal.appendReceived("小红", "第4条"));
+        assertEquals((int) offsets.get(2), journal.size());
+        reopen();
+        assertPending(new long[]{1, 2});
+        assertEquals("第4条", journal.getPending(DAY_MS).get(1).message);
+        assertEquals(3, journal.appendReceived("小红", "第5条"));
+    }
+
+    /**
+     * 压缩后只剩未完成的记录，临时文件已改名替换原日志
+     */
+    @Test
+    public void compactKeepsPendingAndReplacesFile() throws Exception {
+        for (int i = 1; i <= 100; i++) {
+            long seq = journal.appendReceived("用户" + (i % 7), "消息" + i);
+            if (i % 40 != 0) {
+                journal.appendCompleted(seq);
+            }
+        }
+        int before = journal.size();
+        journal.compact(DAY_MS);
+        assertTrue(journal.size() + " < " + before, journal.size() < before);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertPending(new long[]{40, 80});
+        assertEquals(101, journal.appendReceived("用户1", "压缩之后"));
+
+        int size = journal.size();
+        reopen();
+        assertEquals(size, journal.size());
+        assertPending(new long[]{40, 80, 101});
+
+        // 超过保留时间的未完成消息也丢弃
+        Thread.sleep(5);
+        journal.compact(0);
+        assertEquals(0, journal.size());
+        reopen();
+        assertTrue(journal.getPending(DAY_MS).isEmpty());
+    }
+
+    /**
+     * 已完成的记录占满文件时原地重写，文件大小不变
+     */
+    @Test
+    public void fullJournalRewritesWithoutGrowing() throws IOException {
+        // 每对记录约110字节，一共写满文件四次以上
+        for (int i = 0; i < 10000; i++) {
+            journal.appendCompleted(journal.appendReceived("小红", "刚下班，累死了，周末一般去哪里玩？"));
+        }
+        long last = journal.appendReceived("小红", "最后一条");
+        assertEquals(10001, last);
+        assertEquals(InboundJournal.INITIAL_CAPACITY, file.length());
+        assertTrue(journal.size() < InboundJournal.INITIAL_CAPACITY);
+
+        reopen();
+        assertPending(new long[]{last});
+        assertEquals(last + 1, journal.appendReceived("小红", "重新打开之后"));
+    }
+
+    /**
+     * 未完成的记录放不下时扩大文件，所有记录按原顺序保留
+     */
+    @Test
+    public void fullJournalGrowsWhenPendingDoNotFit() throws IOException {
+        String message = repeat("长消息", 4000);
+        int count = 3 * InboundJournal.INITIAL_CAPACITY / (message.length() * 3) + 1;
+        long[] seqs = new long[count];
+        for (int i = 0; i < count; i++) {
+            seqs[i] = journal.appendReceived("小红", message + i);
+        }
+        assertTrue("文件 " + file.length() + " 字节", file.length() > InboundJournal.INITIAL_CAPACITY);
+        assertTrue(journal.size() > InboundJournal.INITIAL_CAPACITY);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        reopen();
+        assertPending(seqs);
+        List<InboundJournal.Entry> pending = journal.getPending(DAY_MS);
+        for (int i = 0; i < count; i++) {
+            assertEquals("第 " + i + " 条", message + i, pending.get(i).message);
+        }
+        assertEquals(count + 1, journal.appendReceived("小红", "扩大之后"));
+    }
+
+    @Test
+    public void appendAfterCloseFails() throws IOException {
+        journal.close();
+        try {
+            journal.appendReceived("小红", "在吗");
+            fail("关闭后不能再追加");
+        } catch (IOException expected) {
+            // 日志已关闭
+        }
+        journal = new InboundJournal(file);
+    }
+
+    private void reopen() throws IOException {
+        journal.close();
+        journal = new InboundJournal(file);
+    }
+
+    private void assertPending(long[] expected) {
+        List<InboundJournal.Entry> pending = journal.getPending(DAY_MS);
+        assertEquals(expected.length, pending.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("第 " + i + " 条", expected[i], pending.get(i).seq);
+        }
+    }
+
+    /**
+     * 按记录头的长度逐条跳过，返回每条记录的起始偏移
+     */
+    private List<Integer> recordOffsets() throws IOException {
+        List<Integer> offsets = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int position = 0;
+            while (position + InboundJournal.HEADER_BYTES <= raf.length()) {
+                raf.seek(position);
+                int length = raf.readInt();
+                if (length <= 0) {
+                    break;
+                }
+                offsets.add(position);
+                position += InboundJournal.HEADER_BYTES + length;
+            }
+        }
+        return offsets;
+    }
+
+    private void corrupt(int offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            int value = raf.read();
+            raf.seek(offset);
+            raf.write(value ^ 0x5a);
+        }
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            out.append(text);
+        }
+        return out.toString();
+    }
+}
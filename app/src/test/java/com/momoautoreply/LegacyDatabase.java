@@ -0,0 +1,81 @@
+package com.momoautoreply;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.UUID;
+
+/**
+ * 按版本1的表结构建库：对话和消息都是UUID文本主键，发送方存为 "self"/"other"，
+ * 索引也与版本1相同。用于验证升级迁移，以及在基准测试中和当前表结构对比。
+ */
+final class LegacyDatabase implements Closeable {
+
+    private final SQLiteDatabase db;
+    private final SQLiteStatement insertConversation;
+    private final SQLiteStatement insertMessage;
+
+    private LegacyDatabase(SQLiteDatabase db) {
+        this.db = db;
+        insertConversation = db.compileStatement(
+                "INSERT INTO conversations (id, user_name, last_active, role_setting) VALUES (?, ?, ?, ?)");
+        insertMessage = db.compileStatement(
+                "INSERT INTO messages (id, conversation_id, sender, content, timestamp) VALUES (?, ?, ?, ?, ?)");
+    }
+
+    /**
+     * 删除已有的文件，新建版本1的空库
+     */
+    static LegacyDatabase create(File file) {
+        SQLiteDatabase.deleteDatabase(file);
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.execSQL("CREATE TABLE conversations (id TEXT PRIMARY KEY, user_name TEXT UNIQUE NOT NULL, " +
+                "last_active INTEGER NOT NULL, role_setting TEXT NOT NULL)");
+        db.execSQL("CREATE TABLE messages (id TEXT PRIMARY KEY, conversation_id TEXT NOT NULL, " +
+                "sender TEXT NOT NULL, content TEXT NOT NULL, timestamp INTEGER NOT NULL, " +
+                "FOREIGN KEY (conversation_id) REFERENCES conversations(id) ON DELETE CASCADE)");
+        db.execSQL("CREATE INDEX idx_conversations_user_name ON conversations(user_name)");
+        db.execSQL("CREATE INDEX idx_messages_conversation_id ON messages(conversation_id)");
+        db.execSQL("CREATE INDEX idx_messages_timestamp ON messages(timestamp)");
+        db.setVersion(1);
+        return new LegacyDatabase(db);
+    }
+
+    SQLiteDatabase getDatabase() {
+        return db;
+    }
+
+    /**
+     * @return 对话的UUID
+     */
+    String addConversation(String userName, long lastActive, String roleSetting) {
+        String id = UUID.randomUUID().toString();
+        insertConversation.bindString(1, id);
+        insertConversation.bindString(2, userName);
+        insertConversation.bindLong(3, lastActive);
+        insertConversation.bindString(4, roleSetting);
+        insertConversation.executeInsert();
+        return id;
+    }
+
+    /**
+     * @return 消息的rowid，升级后即新表中的消息ID
+     */
+    long addMessage(String conversationId, boolean isSelf, String content, long timestamp) {
+        insertMessage.bindString(1, UUID.randomUUID().toString());
+        insertMessage.bindString(2, conversationId);
+        insertMessage.bindString(3, isSelf ? "self" : "other");
+        insertMessage.bindString(4, content);
+        insertMessage.bindLong(5, timestamp);
+        return insertMessage.executeInsert();
+    }
+
+    @Override
+    public void close() {
+        insertConversation.close();
+        insertMessage.close();
+        db.close();
+    }
+}
@@ -0,0 +1,250 @@
+package com.momoautoreply;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AIReplyGenerator 负载和故障测试
+ * 功能：
+ * 1. 启动 MockLlmServer，把生成器的OpenAI接口地址指向它
+ * 2. N 个模拟对话并发，每个对话依次发送 M 条消息，经过真实的 generateReply / generateReplyStream
+ * 3. 分别在正常和注入故障（429、5xx、连接重置、慢速响应）的情况下运行普通和流式请求
+ * 4. 统计每次调用的耗时分位数、吞吐量、默认回复次数和流式失败次数，结果写成JSON
+ *
+ * 使用 Robolectric 提供 Context 和 SQLite，网络请求走真实的 HttpTransport 和本机回环连接。
+ * 默认跳过，运行方式：
+ * ./gradlew :app:testDebugUnitTest --tests '*LlmLoadHarness' -PllmLoadHarness=true
+ * 可用 -PllmLoadHarness.conversations=50 -PllmLoadHarness.messages=20 调整规模，
+ * 结果写入 app/build/llm-load-harness/results.json
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class LlmLoadHarness {
+
+    private static final long SEED = 20240601L;
+    private static final String MODEL_LABEL = "openai";
+
+    private static final String[] PHRASES = {
+            "你好呀", "在吗", "刚下班，累死了", "周末一般去哪里玩？", "哈哈哈真的假的", "我也是诶",
+            "你是哪里人啊？", "最近在追什么剧？", "要不要一起去吃火锅？", "我养了一只橘猫，特别能吃"
+    };
+
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private MockLlmServer server;
+    private AIReplyGenerator generator;
+    private int conversations;
+    private int messagesPerConversation;
+
+    @Test
+    public void run() throws Exception {
+        Assume.assumeTrue("未开启模型接口负载测试", Boolean.getBoolean("llmLoadHarness"));
+        conversations = Integer.getInteger("llmLoadHarness.conversations", 20);
+        messagesPerConversation = Integer.getInteger("llmLoadHarness.messages", 10);
+
+        Context context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(ConversationManager.DB_NAME);
+        server = new MockLlmServer();
+        generator = new AIReplyGenerator(context);
+        AIReplyGenerator.ModelConfig modelConfig = generator.getModelConfig();
+        modelConfig.openaiApiUrl = server.getUrl();
+        modelConfig.openaiApiKey = "mock";
+        modelConfig.openaiModel = "mock";
+        generator.setAIModel(AIReplyGenerator.AIModel.OPENAI);
+
+        JSONArray results = new JSONArray();
+        try {
+            // 正常情况：首字节延迟中位数200ms的长尾分布，每秒50个token
+            server.config.firstByteLatency = MockLlmServer.Latency.logNormal(200, 0.5);
+            server.config.tokensPerSecond = 50;
+            server.config.replyTokens = 15;
+            results.put(runScenario("baseline", false));
+            results.put(runScenario("baseline.stream", true));
+
+            // 故障注入：10% 429，5% 5xx，3% 连接重置，1% 慢速响应
+            server.config.rateLimitRate = 0.10;
+            server.config.serverErrorRate = 0.05;
+            server.config.resetRate = 0.03;
+            server.config.slowLorisRate = 0.01;
+            server.config.slowLorisByteIntervalMs = 20;
+            results.put(runScenario("chaos", false));
+            results.put(runScenario("chaos.stream", true));
+        } finally {
+            generator.close();
+            server.close();
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("seed", SEED);
+        report.put("conversations", conversations);
+        report.put("messagesPerConversation", messagesPerConversation);
+        report.put("javaVersion", System.getProperty("java.version"));
+        report.put("results", results);
+        writeReport(report);
+    }
+
+    /**
+     * 运行一个场景，每个对话一个线程，对话内的消息依次发送
+     * @param stream 是否使用流式接口
+     */
+    private JSONObject runScenario(String name, boolean stream) throws Exception {
+        server.stats.reset();
+        long fallbacksBefore = metrics.getCounterValue("momo_provider_fallbacks_total", "model", MODEL_LABEL);
+        long errorsBefore = metrics.getCounterValue("momo_provider_errors_total", "model", MODEL_LABEL);
+
+        Histogram latency = new Histogram();
+        Histogram firstToken = new Histogram();
+        AtomicLong streamErrors = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(conversations);
+        CountDownLatch done = new CountDownLatch(conversations);
+        long start = System.nanoTime();
+        for (int c = 0; c < conversations; c++) {
+            String user = "用户" + c;
+            Random random = new Random(SEED + c);
+            executor.execute(() -> {
+                try {
+                    runConversation(user, random, stream, latency, firstToken, streamErrors);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        long calls = (long) conversations * messagesPerConversation;
+        JSONObject result = new JSONObject();
+        result.put("scenario", name);
+        result.put("stream", stream);
+        result.put("calls", calls);
+        result.put("elapsedMs", elapsedNanos / 1e6);
+        result.put("callsPerSec", calls * 1e9 / Math.max(1, elapsedNanos));
+        result.put("p50Us", latency.getPercentile(0.50));
+        result.put("p95Us", latency.getPercentile(0.95));
+        result.put("p99Us", latency.getPercentile(0.99));
+        result.put("maxUs", latency.getMax());
+        if (stream) {
+            result.put("firstTokenP50Us", firstToken.getPercentile(0.50));
+            result.put("firstTokenP99Us", firstToken.getPercentile(0.99));
+            result.put("streamErrors", streamErrors.get());
+        } else {
+            result.put("fallbacks",
+                    metrics.getCounterValue("momo_provider_fallbacks_total", "model", MODEL_LABEL) - fallbacksBefore);
+            result.put("providerErrors",
+                    metrics.getCounterValue("momo_provider_errors_total", "model", MODEL_LABEL) - errorsBefore);
+        }
+        result.put("server", serverStats());
+        System.out.println("模型接口负载测试 - " + result);
+        return result;
+    }
+
+    private void runConversation(String user, Random random, boolean stream, Histogram latency,
+                                 Histogram firstToken, AtomicLong streamErrors) {
+        List<ChatMessage> history = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < messagesPerConversation; i++) {
+            history.add(new ChatMessage(user + "-" + i, "other", PHRASES[random.nextInt(PHRASES.length)], now + i));
+            long begin = System.nanoTime();
+            String reply;
+            if (stream) {
+                StreamResult listener = new StreamResult(begin);
+                generator.generateReplyStream(user, history, listener);
+                if (listener.error != null) {
+                    streamErrors.incrementAndGet();
+                }
+                if (listener.firstTokenNanos > 0) {
+                    firstToken.record((listener.firstTokenNanos - begin) / 1000);
+                }
+                reply = listener.reply;
+            } else {
+                reply = generator.generateReply(user, history);
+            }
+            latency.record((System.nanoTime() - begin) / 1000);
+            if (reply != null) {
+                history.add(new ChatMessage(user + "-r" + i, "self", reply, now + i));
+            }
+        }
+    }
+
+    /**
+     * 记录首个token的时间和结果，generateReplyStream 在调用线程中同步回调
+     */
+    private static class StreamResult implements ReplyStreamListener {
+        private final long startNanos;
+        long firstTokenNanos;
+        String reply;
+        Exception error;
+
+        StreamResult(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void onToken(String token) {
+            if (firstTokenNanos == 0) {
+                firstTokenNanos = Math.max(startNanos + 1, System.nanoTime());
+            }
+        }
+
+        @Override
+        public void onComplete(String fullReply) {
+            reply = fullReply;
+        }
+
+        @Override
+        public void onError(Exception e) {
+            error = e;
+        }
+    }
+
+    private JSONObject serverStats() throws JSONException {
+        MockLlmServer.Stats stats = server.stats;
+        JSONObject json = new JSONObject();
+        json.put("requests", stats.requests.get());
+        json.put("completed", stats.completed.get());
+        json.put("rateLimited", stats.rateLimited.get());
+        json.put("serverErrors", stats.serverErrors.get());
+        json.put("resets", stats.resets.get());
+        json.put("slowLoris", stats.slowLoris.get());
+        json.put("connections", stats.connections.get());
+        return json;
+    }
+
+    private static void writeReport(JSONObject report) throws IOException, JSONException {
+        File file = new File(System.getProperty("llmLoadHarness.output", "build/llm-load-harness/results.json"));
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(report.toString(2));
+        }
+        System.out.println("模型接口负载测试结果: " + file.getAbsolutePath());
+    }
+}
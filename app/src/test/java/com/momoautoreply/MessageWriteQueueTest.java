@@ -0,0 +1,265 @@
+package com.momoautoreply;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * MessageWriteQueue 的组提交、未落盘消息查询、失败传递和关闭行为
+ * 提交者可以被闸门挡住，让后续消息在队列中积压，从而确定每批的内容。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class MessageWriteQueueTest {
+
+    private static final long WAIT_MS = 3000;
+
+    private final List<List<Long>> batches = Collections.synchronizedList(new ArrayList<>());
+    // 第一批提交时等待该闸门打开
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final CountDownLatch firstBatchStarted = new CountDownLatch(1);
+    private volatile long failOnId = -1;
+    private MessageWriteQueue queue;
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        if (queue != null) {
+            queue.close(WAIT_MS);
+        }
+    }
+
+    private MessageWriteQueue start(int maxBatchSize, long maxDelayMs) {
+        queue = new MessageWriteQueue(batch -> {
+            firstBatchStarted.countDown();
+            gate.await();
+            List<Long> ids = new ArrayList<>();
+            for (MessageWriteQueue.PendingWrite write : batch) {
+                ids.add(write.id);
+            }
+            batches.add(ids);
+            for (MessageWriteQueue.PendingWrite write : batch) {
+                if (write.id == failOnId) {
+                    throw new IllegalStateException("磁盘已满");
+                }
+            }
+        }, maxBatchSize, maxDelayMs);
+        return queue;
+    }
+
+    /**
+     * 积压的消息按每批上限切分，保持提交顺序
+     */
+    @Test
+    public void batchesRespectMaxSize() throws Exception {
+        start(4, 1000);
+        List<MessageWriteQueue.PendingWrite> writes = new ArrayList<>();
+        writes.add(queue.submit(1, "小红", "第1条", false));
+        assertTrue(firstBatchStarted.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        for (long id = 2; id <= 11; id++) {
+            writes.add(queue.submit(id, "小红", "第" + id + "条", false));
+        }
+        assertEquals(10, queue.getQueueDepth());
+        gate.countDown();
+        awaitAll(writes);
+
+        assertEquals(Arrays.asList(Collections.singletonList(1L), Arrays.asList(2L, 3L, 4L, 5L),
+                Arrays.asList(6L, 7L, 8L, 9L), Arrays.asList(10L, 11L)), batches);
+        assertEquals(4, queue.getBatchSizeHistogram().getCount());
+        assertEquals(4, queue.getBatchSizeHistogram().getMax());
+        assertEquals(0, queue.getQueueDepth());
+    }
+
+    /**
+     * 攒批等待时间到了就提交，不等凑满一批
+     */
+    @Test
+    public void partialBatchCommitsAfterDelay() throws Exception {
+        gate.countDown();
+        start(64, 2);
+        MessageWriteQueue.PendingWrite write = queue.submit(1, "小红", "在吗", false);
+        assertTrue(write.getFuture().get(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList(Collections.singletonList(1L)), batches);
+    }
+
+    /**
+     * 未落盘的消息按用户和提交顺序可查，落盘后移除
+     */
+    @Test
+    public void pendingWritesAreVisibleUntilCommitted() throws Exception {
+        start(64, 1000);
+        MessageWriteQueue.PendingWrite first = queue.submit(1, "小红", "在吗", false);
+        assertTrue(firstBatchStarted.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        MessageWriteQueue.PendingWrite reply = queue.submit(2, "小红", "在的～", true);
+        MessageWriteQueue.PendingWrite other = queue.submit(3, "小明", "你好", false);
+        MessageWriteQueue.PendingWrite third = queue.submit(4, "小红", "周末去吃火锅？", false);
+
+        assertPending(queue.getPending("小红"), first, reply, third);
+        assertPending(queue.getPending("小明"), other);
+        assertTrue(queue.getPending("小刚").isEmpty());
+        assertTrue(reply.isSelf);
+        assertTrue(reply.timestamp > 0);
+
+        gate.countDown();
+        awaitAll(Arrays.asList(first, reply, other, third));
+        assertTrue(queue.getPending("小红").isEmpty());
+        assertTrue(queue.getPending("小明").isEmpty());
+    }
+
+    /**
+     * 提交失败时整批的Future以同一个异常完成，之后的批次不受影响
+     */
+    @Test
+    public void failureCompletesWholeBatchExceptionally() throws Exception {
+        failOnId = 3;
+        start(64, 1000);
+        MessageWriteQueue.PendingWrite first = queue.submit(1, "小红", "第1条", false);
+        assertTrue(firstBatchStarted.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        MessageWriteQueue.PendingWrite second = queue.submit(2, "小红", "第2条", false);
+        MessageWriteQueue.PendingWrite third = queue.submit(3, "小明", "第3条", false);
+        gate.countDown();
+
+        assertTrue(first.getFuture().get(WAIT_MS, TimeUnit.MILLISECONDS));
+        Throwable secondError = failure(second);
+        assertEquals("磁盘已满", secondError.getMessage());
+        assertSame(secondError, failure(third));
+        assertTrue(queue.getPending("小红").isEmpty());
+        assertTrue(queue.getPending("小明").isEmpty());
+
+        MessageWriteQueue.PendingWrite fourth = queue.submit(4, "小红", "第4条", false);
+        assertTrue(fourth.getFuture().get(WAIT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * close 等待已排队的消息写完，之后提交的消息立即失败
+     */
+    @Test
+    public void closeFlushesQueuedWrites() throws Exception {
+        start(2, 1000);
+        List<MessageWriteQueue.PendingWrite> writes = new ArrayList<>();
+        writes.add(queue.submit(1, "小红", "第1条", false));
+        assertTrue(firstBatchStarted.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        for (long id = 2; id <= 5; id++) {
+            writes.add(queue.submit(id, "小红", "第" + id + "条", false));
+        }
+        Thread closer = new Thread(() -> queue.close(WAIT_MS));
+        closer.start();
+        gate.countDown();
+        closer.join(WAIT_MS);
+        assertFalse(closer.isAlive());
+
+        for (MessageWriteQueue.PendingWrite write : writes) {
+            assertTrue(write.getFuture().isDone());
+            assertTrue(write.getFuture().get());
+        }
+        MessageWriteQueue.PendingWrite late = queue.submit(6, "小红", "第6条", false);
+        assertTrue(failure(late) instanceof IllegalStateException);
+        assertTrue(queue.getPending("小红").isEmpty());
+    }
+
+    /**
+     * 写线程在超时内没有写完时，仍在排队的消息以失败完成，不会一直挂起
+     */
+    @Test
+    public void closeTimeoutFailsQueuedWrites() throws Exception {
+        start(64, 1000);
+        MessageWriteQueue.PendingWrite inProgress = queue.submit(1, "小红", "第1条", false);
+        assertTrue(firstBatchStarted.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        MessageWriteQueue.PendingWrite queued = queue.submit(2, "小红", "第2条", false);
+
+        queue.close(50);
+        assertTrue(failure(queued) instanceof IllegalStateException);
+        assertPending(queue.getPending("小红"), inProgress);
+
+        gate.countDown();
+        assertTrue(inProgress.getFuture().get(WAIT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(queue.getPending("小红").isEmpty());
+    }
+
+    /**
+     * 与 close 并发提交的消息要么写入、要么失败，Future 都会完成
+     */
+    @Test
+    public void concurrentSubmitAndCloseCompleteEveryFuture() throws Exception {
+        gate.countDown();
+        for (int round = 0; round < 20; round++) {
+            start(8, 1);
+            List<MessageWriteQueue.PendingWrite> writes = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch go = new CountDownLatch(1);
+            List<Thread> submitters = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                String user = "用户" + t;
+                Thread thread = new Thread(() -> {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 200; i++) {
+                        writes.add(queue.submit(i, user, "消息" + i, false));
+                    }
+                });
+                thread.start();
+                submitters.add(thread);
+            }
+            go.countDown();
+            queue.close(WAIT_MS);
+            for (Thread thread : submitters) {
+                thread.join(WAIT_MS);
+            }
+
+            for (MessageWriteQueue.PendingWrite write : writes) {
+                try {
+                    write.getFuture().get(WAIT_MS, TimeUnit.MILLISECONDS);
+                } catch (ExecutionException expected) {
+                    assertTrue(expected.getCause() instanceof IllegalStateException);
+                } catch (TimeoutException e) {
+                    fail("第 " + round + " 轮有消息的Future没有完成: " + write.userName + " " + write.id);
+                }
+            }
+            for (int t = 0; t < 4; t++) {
+                assertTrue(queue.getPending("用户" + t).isEmpty());
+            }
+        }
+    }
+
+    private static void awaitAll(List<MessageWriteQueue.PendingWrite> writes) throws Exception {
+        for (MessageWriteQueue.PendingWrite write : writes) {
+            assertTrue(write.getFuture().get(WAIT_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static Throwable failure(MessageWriteQueue.PendingWrite write) throws Exception {
+        try {
+            write.getFuture().get(WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("消息 " + write.id + " 应写入失败");
+    }
+
+    private static void assertPending(List<MessageWriteQueue.PendingWrite> actual,
+                                      MessageWriteQueue.PendingWrite... expected) {
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(expected[i], actual.get(i));
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package com.momoautoreply;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本机模拟的OpenAI兼容 /v1/chat/completions 接口
+ * 功能：
+ * 1. 支持普通响应和SSE流式响应（请求体中 "stream":true），连接保持keep-alive
+ * 2. 首字节延迟按可配置的分布抽样，回复按设定的每秒token数生成
+ * 3. 按比例注入429、5xx、连接重置（RST）和慢速响应（逐字节缓慢发送）
+ * 4. 统计各类响应的次数
+ *
+ * 只监听回环地址，每个连接一个线程。配置字段都是volatile，运行中可以修改，用于分阶段的故障测试。
+ * 不依赖Android，可以嵌入任何JVM测试。
+ */
+public class MockLlmServer implements Closeable {
+
+    public static final String PATH = "/v1/chat/completions";
+
+    private static final String[] TOKENS = {
+            "哈哈", "是", "的", "呀", "，", "我", "也", "觉得", "挺", "好", "的", "～", "周末", "一起", "去",
+            "吃", "火锅", "吧", "！", "你", "呢", "？"
+    };
+
+    /**
+     * 延迟分布（毫秒）
+     */
+    public static final class Latency {
+        private final int kind;
+        private final double a;
+        private final double b;
+
+        private Latency(int kind, double a, double b) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        public static Latency fixed(long millis) {
+            return new Latency(0, millis, 0);
+        }
+
+        public static Latency uniform(long minMillis, long maxMillis) {
+            return new Latency(1, minMillis, maxMillis);
+        }
+
+        /**
+         * 对数正态分布，长尾接近真实的模型接口
+         * @param medianMillis 中位数
+         * @param sigma 对数的标准差，0.5左右时p99约为中位数的3倍
+         */
+        public static Latency logNormal(long medianMillis, double sigma) {
+            return new Latency(2, medianMillis, sigma);
+        }
+
+        long sample(Random random) {
+            switch (kind) {
+                case 1:
+                    return (long) (a + random.nextDouble() * (b - a));
+                case 2:
+                    return (long) (a * Math.exp(b * random.nextGaussian()));
+                default:
+                    return (long) a;
+            }
+        }
+    }
+
+    /**
+     * 服务端行为配置
+     */
+    public static class Config {
+        // 收到请求到开始响应的延迟
+        public volatile Latency firstByteLatency = Latency.fixed(0);
+        // 生成速度，0表示不限速
+        public volatile double tokensPerSecond = 0;
+        // 每个回复的token数
+        public volatile int replyTokens = 20;
+        // 各类故障的比例，按顺序抽样，互不重叠
+        public volatile double rateLimitRate;
+        public volatile double serverErrorRate;
+        public volatile double resetRate;
+        public volatile double slowLorisRate;
+        // 慢速响应时每个字节之间的间隔
+        public volatile long slowLorisByteIntervalMs = 50;
+
+        /**
+         * 清除全部故障注入
+         */
+        public void clearFaults() {
+            rateLimitRate = 0;
+            serverErrorRate = 0;
+            resetRate = 0;
+            slowLorisRate = 0;
+        }
+    }
+
+    /**
+     * 各类响应的次数
+     */
+    public static class Stats {
+        public final AtomicLong requests = new AtomicLong();
+        public final AtomicLong completed = new AtomicLong();
+        public final AtomicLong streamed = new AtomicLong();
+        public final AtomicLong rateLimited = new AtomicLong();
+        public final AtomicLong serverErrors = new AtomicLong();
+        public final AtomicLong resets = new AtomicLong();
+        public final AtomicLong slowLoris = new AtomicLong();
+        public final AtomicLong connections = new AtomicLong();
+
+        public void reset() {
+            requests.set(0);
+            completed.set(0);
+            streamed.set(0);
+            rateLimited.set(0);
+            serverErrors.set(0);
+            resets.set(0);
+            slowLoris.set(0);
+            connections.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests + ", completed=" + completed + ", streamed=" + streamed +
+                    ", rateLimited=" + rateLimited + ", serverErrors=" + serverErrors + ", resets=" + resets +
+                    ", slowLoris=" + slowLoris + ", connections=" + connections;
+        }
+    }
+
+    public final Config config = new Config();
+    public final Stats stats = new Stats();
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionPool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "mock-llm");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong nextId = new AtomicLong(1);
+    private volatile boolean running = true;
+
+    /**
+     * 在回环地址的随机端口上启动
+     */
+    public MockLlmServer() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        Thread acceptThread = new Thread(this::acceptLoop, "mock-llm-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * 接口地址，例如 http://127.0.0.1:12345/v1/chat/completions
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + PATH;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                stats.connections.incrementAndGet();
+                connectionPool.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("模拟模型接口接受连接失败: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理一个连接上的全部请求，直到对方关闭或注入了连接故障
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            while (running) {
+                Request request = readRequest(in);
+                if (request == null) {
+                    return;
+                }
+                if (!handle(s, request, out)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // 客户端断开或超时
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Request {
+        String method;
+        String path;
+        String body;
+        boolean keepAlive = true;
+    }
+
+    private static Request readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.isEmpty()) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 3) {
+            return null;
+        }
+        Request request = new Request();
+        request.method = parts[0];
+        request.path = parts[1];
+        int contentLength = 0;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            if (name.equals("content-length")) {
+                contentLength = Integer.parseInt(value);
+            } else if (name.equals("connection") && value.equalsIgnoreCase("close")) {
+                request.keepAlive = false;
+            }
+        }
+        byte[] body = new byte[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            int n = in.read(body, read, contentLength - read);
+            if (n < 0) {
+                return null;
+            }
+            read += n;
+        }
+        request.body = new String(body, StandardCharsets.UTF_8);
+        return request;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b < 0 && line.size() == 0) {
+            return null;
+        }
+        return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 处理一个请求
+     * @return 是否可以继续在这个连接上读取下一个请求
+     */
+    private boolean handle(Socket socket, Request request, OutputStream out)
+            throws IOException, InterruptedException {
+        if (!PATH.equals(request.path)) {
+            writeResponse(out, 404, "application/json", "{\"error\":{\"message\":\"not found\"}}", false);
+            return request.keepAlive;
+        }
+        if (!"POST".equals(request.method)) {
+            writeResponse(out, 405, "application/json", "{\"error\":{\"message\":\"method not allowed\"}}", false);
+            return request.keepAlive;
+        }
+        stats.requests.incrementAndGet();
+        Random random = ThreadLocalRandom.current();
+        Config c = config;
+
+        // 按顺序抽样故障类型
+        double roll = random.nextDouble();
+        if ((roll -= c.rateLimitRate) < 0) {
+            stats.rateLimited.incrementAndGet();
+            writeResponse(out, 429, "application/json",
+                    "{\"error\":{\"message\":\"Rate limit reached\",\"type\":\"rate_limit_exceeded\"}}", false);
+            return request.keepAlive;
+        }
+        if ((roll -= c.serverErrorRate) < 0) {
+            stats.serverErrors.incrementAndGet();
+            int code = random.nextBoolean() ? 500 : 503;
+            writeResponse(out, code, "application/json",
+                    "{\"error\":{\"message\":\"The server had an error\",\"type\":\"server_error\"}}", false);
+            return request.keepAlive;
+        }
+        if ((roll -= c.resetRate) < 0) {
+            stats.resets.incrementAndGet();
+            // SO_LINGER为0时关闭会发送RST，客户端读取时得到 connection reset
+            socket.setSoLinger(true, 0);
+            return false;
+        }
+        boolean slowLoris = (roll -= c.slowLorisRate) < 0;
+        if (slowLoris) {
+            stats.slowLoris.incrementAndGet();
+        }
+
+        Thread.sleep(Math.max(0, c.firstByteLatency.sample(random)));
+        boolean stream = request.body.contains("\"stream\":true");
+        long tokenIntervalMs = c.tokensPerSecond > 0 ? (long) (1000 / c.tokensPerSecond) : 0;
+        String id = "chatcmpl-mock-" + nextId.getAndIncrement();
+
+        if (stream) {
+            writeStream(out, id, c.replyTokens, tokenIntervalMs, slowLoris ? c.slowLorisByteIntervalMs : 0, random);
+            stats.streamed.incrementAndGet();
+        } else {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < c.replyTokens; i++) {
+                content.append(TOKENS[random.nextInt(TOKENS.length)]);
+            }
+            Thread.sleep(tokenIntervalMs * c.replyTokens);
+            String body = "{\"id\":\"" + id + "\",\"object\":\"chat.completion\",\"created\":" +
+                    System.currentTimeMillis() / 1000 + ",\"model\":\"mock\",\"choices\":[{\"index\":0," +
+                    "\"message\":{\"role\":\"assistant\",\"content\":\"" + content + "\"},\"finish_reason\":\"stop\"}]," +
+                    "\"usage\":{\"prompt_tokens\":" + request.body.length() / 2 + ",\"completion_tokens\":" +
+                    c.replyTokens + "}}";
+            if (slowLoris) {
+                writeSlowly(out, buildResponse(200, "application/json", body, false), c.slowLorisByteIntervalMs);
+            } else {
+                writeResponse(out, 200, "application/json", body, false);
+            }
+        }
+        stats.completed.incrementAndGet();
+        return request.keepAlive;
+    }
+
+    /**
+     * SSE流式响应，使用chunked编码以保持连接
+     */
+    private void writeStream(OutputStream out, String id, int tokens, long tokenIntervalMs, long slowIntervalMs,
+                             Random random) throws IOException, InterruptedException {
+        String head = "HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nCache-Control: no-cache\r\n" +
+                "Transfer-Encoding: chunked\r\nConnection: keep-alive\r\n\r\n";
+        write(out, head.getBytes(StandardCharsets.US_ASCII), slowIntervalMs);
+        for (int i = 0; i < tokens; i++) {
+            if (tokenIntervalMs > 0) {
+                Thread.sleep(tokenIntervalMs);
+            }
+            String event = "data: {\"id\":\"" + id + "\",\"object\":\"chat.completion.chunk\",\"choices\":[{" +
+                    "\"index\":0,\"delta\":{\"content\":\"" + TOKENS[random.nextInt(TOKENS.length)] + "\"}}]}\n\n";
+            writeChunk(out, event, slowIntervalMs);
+        }
+        writeChunk(out, "data: [DONE]\n\n", slowIntervalMs);
+        write(out, "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII), slowIntervalMs);
+    }
+
+    private static void writeChunk(OutputStream out, String data, long slowIntervalMs)
+            throws IOException, InterruptedException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        write(out, (Integer.toHexString(bytes.length) + "\r\n").getBytes(StandardCharsets.US_ASCII), slowIntervalMs);
+        write(out, bytes, slowIntervalMs);
+        write(out, "\r\n".getBytes(StandardCharsets.US_ASCII), slowIntervalMs);
+    }
+
+    private static void write(OutputStream out, byte[] bytes, long slowIntervalMs)
+            throws IOException, InterruptedException {
+        if (slowIntervalMs > 0) {
+            writeSlowly(out, bytes, slowIntervalMs);
+        } else {
+            out.write(bytes);
+            out.flush();
+        }
+    }
+
+    private static void writeSlowly(OutputStream out, byte[] bytes, long intervalMs)
+            throws IOException, InterruptedException {
+        for (byte b : bytes) {
+            out.write(b);
+            out.flush();
+            Thread.sleep(intervalMs);
+        }
+    }
+
+    private static void writeResponse(OutputStream out, int code, String contentType, String body, boolean close)
+            throws IOException {
+        out.write(buildResponse(code, contentType, body, close));
+        out.flush();
+    }
+
+    private static byte[] buildResponse(int code, String contentType, String body, boolean close) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + code + " " + reason(code) + "\r\nContent-Type: " + contentType +
+                "; charset=utf-8\r\nContent-Length: " + bytes.length + "\r\n" +
+                (code == 429 ? "Retry-After: 1\r\n" : "") +
+                "Connection: " + (close ? "close" : "keep-alive") + "\r\n\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] response = new byte[headBytes.length + bytes.length];
+        System.arraycopy(headBytes, 0, response, 0, headBytes.length);
+        System.arraycopy(bytes, 0, response, headBytes.length, bytes.length);
+        return response;
+    }
+
+    private static String reason(int code) {
+        switch (code) {
+            case 200: return "OK";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return "Unknown";
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("关闭模拟模型接口失败: " + e.getMessage());
+        }
+        connectionPool.shutdownNow();
+    }
+}
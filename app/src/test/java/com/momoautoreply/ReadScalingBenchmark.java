@@ -0,0 +1,263 @@
+package com.momoautoreply;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ConversationManager 读写并发压力测试
+ * 功能：
+ * 1. 导入合成数据集后，一个写线程持续调用 addMessage 并等待落盘
+ * 2. 同时 N 个读线程交替调用 getConversationHistory 和 getRecentMessages，N 依次取 1、2、4、8
+ * 3. 统计每个线程数下读操作的总吞吐量、每线程吞吐量和延迟分位数，以及同期的写入吞吐量
+ * 4. 检查读到的历史按时间有序、写入没有失败、读线程没有抛出异常，结果写成JSON
+ *
+ * 读操作不加写锁，理想情况下读吞吐量随线程数增长，写入吞吐量不随读线程数下降。
+ * 使用 Robolectric 的 SQLite，绝对数值与真机不同，用于同一环境下的前后对比。
+ * 默认跳过，运行方式：
+ * ./gradlew :app:testDebugUnitTest --tests '*ReadScalingBenchmark' -PreadScalingBenchmark=true
+ * 可用 -PreadScalingBenchmark.threads=1,2,4 和 -PreadScalingBenchmark.seconds=5 调整，
+ * 结果写入 app/build/read-scaling-benchmark/results.json
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ReadScalingBenchmark {
+
+    private static final long SEED = 20240601L;
+    private static final int CONTACTS = 200;
+    private static final int MESSAGES = 40000;
+    private static final int LOAD_BATCH = 5000;
+    // 每条分页读取的条数
+    private static final int PAGE_SIZE = 20;
+    // 每隔多少次读操作清空一次活跃对话缓存，让一部分历史读取落到数据库
+    private static final int CACHE_CLEAR_INTERVAL = 64;
+
+    private static final String[] PHRASES = {
+            "你好呀", "在吗", "刚下班，累死了", "周末一般去哪里玩？", "哈哈哈真的假的", "我也是诶",
+            "你是哪里人啊？", "最近在追什么剧？", "要不要一起去吃火锅？", "我养了一只橘猫，特别能吃"
+    };
+
+    private String[] userNames;
+
+    @Test
+    public void run() throws Exception {
+        Assume.assumeTrue("未开启读写并发压力测试", Boolean.getBoolean("readScalingBenchmark"));
+        long seconds = Long.getLong("readScalingBenchmark.seconds", 3);
+
+        Context context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(ConversationManager.DB_NAME);
+        userNames = new String[CONTACTS];
+        for (int i = 0; i < CONTACTS; i++) {
+            userNames[i] = "用户" + i;
+        }
+
+        ConversationManager manager = new ConversationManager(context);
+        JSONArray results = new JSONArray();
+        try {
+            load(manager);
+            for (String threads : System.getProperty("readScalingBenchmark.threads", "1,2,4,8").split(",")) {
+                results.put(runPhase(manager, Integer.parseInt(threads.trim()), TimeUnit.SECONDS.toNanos(seconds)));
+            }
+        } finally {
+            manager.close();
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("seed", SEED);
+        report.put("messages", MESSAGES);
+        report.put("contacts", CONTACTS);
+        report.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        report.put("results", results);
+        writeReport(report);
+    }
+
+    private void load(ConversationManager manager) {
+        Random random = new Random(SEED);
+        long now = System.currentTimeMillis();
+        List<ConversationImporter.Entry> batch = new ArrayList<>(LOAD_BATCH);
+        long line = 0;
+        for (int i = 0; i < MESSAGES; i++) {
+            batch.add(new ConversationImporter.Entry(userNames[random.nextInt(CONTACTS)], null, random.nextBoolean(),
+                    PHRASES[random.nextInt(PHRASES.length)], now - random.nextInt(30 * 24 * 60 * 60) * 1000L));
+            if (batch.size() >= LOAD_BATCH) {
+                line += batch.size();
+                manager.importBatch(batch, "read-scaling-benchmark", line);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            line += batch.size();
+            manager.importBatch(batch, "read-scaling-benchmark", line);
+        }
+        manager.clearImportCheckpoint("read-scaling-benchmark");
+    }
+
+    /**
+     * 一个写线程和 readers 个读线程同时运行 durationNanos
+     */
+    private JSONObject runPhase(ConversationManager manager, int readers, long durationNanos) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch ready = new CountDownLatch(readers + 1);
+        CountDownLatch go = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        Histogram readLatency = new Histogram();
+        long[] readOps = new long[readers];
+        AtomicLong written = new AtomicLong();
+        AtomicLong writeFailures = new AtomicLong();
+
+        Thread writer = new Thread(() -> {
+            Random random = new Random(SEED + readers);
+            List<Future<Boolean>> futures = new ArrayList<>();
+            try {
+                ready.countDown();
+                go.await();
+                while (running.get()) {
+                    futures.add(manager.addMessage(userNames[random.nextInt(CONTACTS)],
+                            PHRASES[random.nextInt(PHRASES.length)], random.nextBoolean()));
+                    // 每攒一批等待落盘，写入速度受数据库提交速度限制
+                    if (futures.size() >= 64) {
+                        awaitWrites(futures, written, writeFailures);
+                    }
+                }
+                awaitWrites(futures, written, writeFailures);
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        }, "stress-writer");
+
+        List<Thread> readerThreads = new ArrayList<>(readers);
+        for (int t = 0; t < readers; t++) {
+            int index = t;
+            readerThreads.add(new Thread(() -> {
+                Random random = new Random(SEED * 31 + index);
+                try {
+                    ready.countDown();
+                    go.await();
+                    long ops = 0;
+                    while (running.get()) {
+                        String user = userNames[random.nextInt(CONTACTS)];
+                        long begin = System.nanoTime();
+                        List<ChatMessage> messages = ops % 2 == 0
+                                ? manager.getConversationHistory(user)
+                                : manager.getRecentMessages(user, PAGE_SIZE, Long.MAX_VALUE, Long.MAX_VALUE);
+                        readLatency.record((System.nanoTime() - begin) / 1000);
+                        assertOrdered(messages);
+                        ops++;
+                        if (index == 0 && ops % CACHE_CLEAR_INTERVAL == 0) {
+                            manager.getHistoryCache().clear();
+                        }
+                    }
+                    readOps[index] = ops;
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }, "stress-reader-" + t));
+        }
+
+        writer.start();
+        for (Thread thread : readerThreads) {
+            thread.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        TimeUnit.NANOSECONDS.sleep(durationNanos);
+        running.set(false);
+        for (Thread thread : readerThreads) {
+            thread.join();
+        }
+        writer.join();
+        long elapsed = System.nanoTime() - start;
+
+        if (!errors.isEmpty()) {
+            throw new AssertionError("压力测试线程异常", errors.peek());
+        }
+        assertEquals(0, writeFailures.get());
+        assertTrue("写线程没有写入", written.get() > 0);
+
+        long totalReads = 0;
+        JSONArray perThread = new JSONArray();
+        for (long ops : readOps) {
+            totalReads += ops;
+            perThread.put(ops * 1e9 / elapsed);
+        }
+        JSONObject result = new JSONObject();
+        result.put("readerThreads", readers);
+        result.put("elapsedMs", elapsed / 1e6);
+        result.put("readOps", totalReads);
+        result.put("readOpsPerSec", totalReads * 1e9 / elapsed);
+        result.put("readOpsPerSecPerThread", perThread);
+        result.put("readP50Us", readLatency.getPercentile(0.50));
+        result.put("readP99Us", readLatency.getPercentile(0.99));
+        result.put("readMaxUs", readLatency.getMax());
+        result.put("writes", written.get());
+        result.put("writesPerSec", written.get() * 1e9 / elapsed);
+        System.out.println("读写并发压力测试 - " + result);
+        return result;
+    }
+
+    private static void awaitWrites(List<Future<Boolean>> futures, AtomicLong written, AtomicLong failures) {
+        for (Future<Boolean> future : futures) {
+            try {
+                if (Boolean.TRUE.equals(future.get())) {
+                    written.incrementAndGet();
+                } else {
+                    failures.incrementAndGet();
+                }
+            } catch (Exception e) {
+                failures.incrementAndGet();
+            }
+        }
+        futures.clear();
+    }
+
+    private static void assertOrdered(List<ChatMessage> messages) {
+        for (int i = 1; i < messages.size(); i++) {
+            if (messages.get(i).timestamp < messages.get(i - 1).timestamp) {
+                throw new AssertionError("历史消息没有按时间升序: " + messages.get(i - 1).timestamp + " > " +
+                        messages.get(i).timestamp);
+            }
+        }
+    }
+
+    private static void writeReport(JSONObject report) throws IOException, JSONException {
+        File file = new File(System.getProperty("readScalingBenchmark.output",
+                "build/read-scaling-benchmark/results.json"));
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(report.toString(2));
+        }
+        System.out.println("读写并发压力测试结果: " + file.getAbsolutePath());
+    }
+}
@@ -0,0 +1,161 @@
+package com.momoautoreply;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按批删除过期对话、裁剪超出上限的对话和时间预算
+ * 数据用 importBatch 写入，导入的对话沿用消息的时间作为最后活跃时间，可以直接造出过期的对话。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class RetentionEngineTest {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private Context context;
+    private ConversationManager manager;
+    private long now;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        context.deleteDatabase(ConversationManager.DB_NAME);
+        manager = new ConversationManager(context);
+        now = System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+        context.deleteDatabase(ConversationManager.DB_NAME);
+    }
+
+    /**
+     * 每批最多删 batchSize 条，消息删空后再删对话；活跃的对话不受影响
+     */
+    @Test
+    public void deletesExpiredInBatches() {
+        importMessages("小红", 700, now - 30 * DAY_MS);
+        importMessages("小明", 500, now - 20 * DAY_MS);
+        importMessages("小刚", 40, now - DAY_MS);
+
+        RetentionEngine.Result result = new RetentionEngine(manager, policy(7 * DAY_MS, 0, 500)).run(Long.MAX_VALUE);
+
+        assertTrue(result.complete);
+        assertEquals(1200, result.expiredMessages);
+        assertEquals(2, result.expiredConversations);
+        // 500 + 500 + 200 三批消息，一批对话
+        assertEquals(4, result.slices);
+        assertEquals(1, manager.getConversationCount());
+        assertTrue(manager.getConversationHistory("小红").isEmpty());
+        assertEquals(40, manager.getConversationHistory("小刚").size());
+    }
+
+    /**
+     * 删除过期消息只让这些用户的缓存失效，其他用户的窗口保留
+     */
+    @Test
+    public void expiredMessagesInvalidateOnlyAffectedUsers() {
+        importMessages("小红", 30, now - 30 * DAY_MS);
+        importMessages("小刚", 30, now - DAY_MS);
+        assertEquals(30, manager.getConversationHistory("小红").size());
+        assertEquals(30, manager.getConversationHistory("小刚").size());
+
+        // 只删消息、不删对话时，对话仍在但窗口必须重新加载
+        RetentionEngine.Policy policy = policy(7 * DAY_MS, 0, 20);
+        assertEquals(20, manager.deleteExpiredMessages(now - policy.maxInactiveMs, policy.batchSize));
+        assertNull(manager.getHistoryCache().getWindow("小红"));
+        assertNotNull(manager.getHistoryCache().getWindow("小刚"));
+        assertEquals(10, manager.getConversationHistory("小红").size());
+    }
+
+    /**
+     * 每个对话裁剪到最近 cap 条，裁剪也按批进行；只有被裁剪的用户的缓存失效
+     */
+    @Test
+    public void trimsToPerConversationCap() {
+        importMessages("小红", 30, now - DAY_MS);
+        importMessages("小明", 8, now - DAY_MS);
+        importMessages("小刚", 12, now - DAY_MS);
+        List<ChatMessage> before = manager.getConversationHistory("小红");
+        assertEquals(30, before.size());
+        assertEquals(8, manager.getConversationHistory("小明").size());
+
+        RetentionEngine.Result result = new RetentionEngine(manager, policy(0, 10, 8)).run(Long.MAX_VALUE);
+
+        assertTrue(result.complete);
+        // 小红 20 条分 8 + 8 + 4 三批，小刚 2 条一批
+        assertEquals(22, result.trimmedMessages);
+        assertEquals(0, result.expiredMessages);
+        assertNull(manager.getHistoryCache().getWindow("小红"));
+        assertNotNull(manager.getHistoryCache().getWindow("小明"));
+        List<ChatMessage> after = manager.getConversationHistory("小红");
+        assertEquals(10, after.size());
+        for (int i = 0; i < after.size(); i++) {
+            assertEquals(before.get(20 + i).id, after.get(i).id);
+        }
+        assertEquals(10, manager.getConversationHistory("小刚").size());
+    }
+
+    /**
+     * 预算用完时停下并报告未完成，下次运行从剩余部分继续
+     */
+    @Test
+    public void stopsWhenBudgetExhausted() {
+        importMessages("小红", 300, now - 30 * DAY_MS);
+        importMessages("小刚", 30, now - DAY_MS);
+        RetentionEngine engine = new RetentionEngine(manager, policy(7 * DAY_MS, 10, 100));
+
+        RetentionEngine.Result first = engine.run(0);
+        assertFalse(first.complete);
+        assertEquals(0, first.getDeletedRows());
+        assertEquals(0, first.slices);
+        assertEquals(300, manager.getRecentMessages("小红", 1000, Long.MAX_VALUE, Long.MAX_VALUE).size());
+
+        RetentionEngine.Result second = engine.run(Long.MAX_VALUE);
+        assertTrue(second.complete);
+        assertEquals(300, second.expiredMessages);
+        assertEquals(1, second.expiredConversations);
+        assertEquals(20, second.trimmedMessages);
+        assertEquals(10, manager.getConversationHistory("小刚").size());
+    }
+
+    private static RetentionEngine.Policy policy(long maxInactiveMs, int maxMessages, int batchSize) {
+        RetentionEngine.Policy policy = new RetentionEngine.Policy();
+        policy.maxInactiveMs = maxInactiveMs;
+        policy.maxMessagesPerConversation = maxMessages;
+        policy.batchSize = batchSize;
+        policy.vacuum = false;
+        return policy;
+    }
+
+    /**
+     * 导入 count 条消息，最后一条的时间为 lastActive，每条间隔一秒
+     */
+    private void importMessages(String userName, int count, long lastActive) {
+        List<ConversationImporter.Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new ConversationImporter.Entry(userName, null, i % 2 == 0,
+                    userName + "的第" + i + "条", lastActive - (count - 1 - i) * 1000L));
+        }
+        manager.importBatch(entries, "retention-test", count);
+        manager.clearImportCheckpoint("retention-test");
+    }
+}
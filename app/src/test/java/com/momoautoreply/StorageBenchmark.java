@@ -0,0 +1,745 @@
+package com.momoautoreply;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ConversationManager 存储基准测试
+ * 功能：
+ * 1. 按固定种子生成合成数据集（联系人数随规模增长，活跃度不均匀，最后活跃时间分布在最近90天）
+ * 2. 在 1万、10万、100万条消息的规模下分别测量 addMessage、getConversationHistory（冷/热）、
+ *    getRoleSetting、getAllConversations 和 cleanupInactiveConversations
+ * 3. 按每秒1000条的固定节奏写入，测量消息从入队到落盘的延迟和实际的批大小
+ * 4. 用每次调用都打开、关闭数据库的方式（长连接改造之前的做法）再测一遍 addMessage 和
+ *    getConversationHistory，与长连接、预编译语句和写入队列的结果对比
+ * 5. 用固定的一组关键词（双字词、多个关键词、单字前缀、没有命中的词）测量 searchMessages
+ * 6. 同一份数据分别按版本1（UUID文本主键）和当前的表结构建库，比较文件大小和读最近窗口的查询延迟，
+ *    并测量 ConversationManager 把版本1的库升级迁移完的耗时
+ * 7. 测量 InboundJournal 追加收到、完成记录的单次耗时（包括写满后重写的那几次）和重新打开时恢复的耗时，
+ *    与数据规模无关，只测一次
+ * 8. 结果写成JSON，便于比较表结构和缓存改动前后的差异
+ *
+ * 使用 Robolectric 的 SQLite，绝对数值与真机不同，用于同一环境下的前后对比。
+ * 默认跳过，运行方式：
+ * ./gradlew :app:testDebugUnitTest --tests '*StorageBenchmark' -PstorageBenchmark=true
+ * 可用 -PstorageBenchmark.scales=10000,100000 指定规模，结果写入 app/build/storage-benchmark/results.json
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class StorageBenchmark {
+
+    private static final long SEED = 20240601L;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    // 联系人最后活跃时间分布在最近90天内，清理超过60天不活跃的对话（约三分之一）
+    private static final int ACTIVE_DAYS = 90;
+    private static final long CLEANUP_INACTIVE_MS = 60 * DAY_MS;
+    // 每个联系人的消息分布在最后活跃时间之前的30天内
+    private static final long CONVERSATION_SPAN_MS = 30 * DAY_MS;
+    // 平均每个联系人的消息数，决定联系人数（至少100个）
+    private static final int MESSAGES_PER_CONTACT = 200;
+    private static final int MIN_CONTACTS = 100;
+    // 生成数据时每批导入的条数
+    private static final int LOAD_BATCH = 5000;
+
+    // 各操作的测量次数
+    private static final int ADD_MESSAGE_OPS = 2000;
+    private static final int HISTORY_OPS = 1000;
+    private static final int ROLE_SETTING_OPS = 5000;
+    private static final int WARMUP_OPS = 200;
+    // 按节奏写入的速率（条/秒）和时长对应的条数
+    private static final int PACED_RATE = 1000;
+    private static final int PACED_OPS = 3000;
+    // 每次调用都打开数据库的方式较慢，测量次数少一些
+    private static final int PER_CALL_OPS = 500;
+    private static final int SEARCH_OPS = 500;
+    private static final int SEARCH_LIMIT = 20;
+    // 收到、完成各追加这么多条，每条约100字节，会写满日志文件若干次
+    private static final int JOURNAL_OPS = 20000;
+    // 每隔这么多条留一条不完成，重新打开时有记录可恢复
+    private static final int JOURNAL_PENDING_EVERY = 50;
+
+    private static final String[] PHRASES = {
+            "你好呀", "在吗", "刚下班，累死了", "周末一般去哪里玩？", "哈哈哈真的假的", "我也是诶",
+            "你是哪里人啊？", "最近在追什么剧？", "要不要一起去吃火锅？", "我养了一只橘猫，特别能吃",
+            "做设计的，天天改稿", "下次有机会一起去", "好呀好呀😊", "看情况吧", "今天吃的麻辣烫[捂脸]",
+            "你说的那家我去过，人超级多，排了一个多小时的队才吃上，不过味道确实不错"
+    };
+    // 搜索关键词：常见双字词、需要相邻的短语、两个关键词同时出现、单字前缀、没有命中
+    private static final String[] SEARCH_QUERIES = {
+            "火锅", "橘猫", "排了一个多小时", "周末 火锅", "吃", "改稿", "火星"
+    };
+
+    private Context context;
+    private Random random;
+    private String[] userNames;
+
+    @Test
+    public void run() throws Exception {
+        Assume.assumeTrue("未开启存储基准测试", Boolean.getBoolean("storageBenchmark"));
+        context = RuntimeEnvironment.getApplication();
+
+        JSONArray results = new JSONArray();
+        for (String scale : System.getProperty("storageBenchmark.scales", "10000,100000,1000000").split(",")) {
+            runScale(Integer.parseInt(scale.trim()), results);
+        }
+        measureJournal(results);
+
+        JSONObject report = new JSONObject();
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("seed", SEED);
+        report.put("javaVersion", System.getProperty("java.version"));
+        report.put("results", results);
+        writeReport(report);
+    }
+
+    private void runScale(int messages, JSONArray results) throws Exception {
+        context.deleteDatabase(ConversationManager.DB_NAME);
+        random = new Random(SEED);
+        int contacts = Math.max(MIN_CONTACTS, messages / MESSAGES_PER_CONTACT);
+        userNames = new String[contacts];
+        for (int i = 0; i < contacts; i++) {
+            userNames[i] = "用户" + i;
+        }
+
+        ConversationManager manager = new ConversationManager(context);
+        try {
+            // 生成数据集
+            long start = System.nanoTime();
+            load(manager, messages, contacts);
+            long loadNanos = System.nanoTime() - start;
+            results.put(result(messages, contacts, "load", messages, loadNanos, null));
+            System.out.println("存储基准测试 - 规模: " + messages + ", 联系人: " + contacts +
+                    ", 生成耗时: " + loadNanos / 1000000 + "ms");
+
+            results.put(measureRoleSetting(manager, messages, contacts));
+            results.put(measureHistory(manager, messages, contacts, false));
+            results.put(measureHistory(manager, messages, contacts, true));
+            results.put(measureAddMessage(manager, messages, contacts));
+            results.put(measurePacedAddMessage(manager, messages, contacts));
+            // 管理器之后不再写入消息，旧方式插入的消息不会和它分配的ID冲突
+            results.put(measurePerCallAddMessage(messages, contacts));
+            results.put(measurePerCallHistory(messages, contacts));
+            results.put(measureAllConversations(manager, messages, contacts));
+            for (String query : SEARCH_QUERIES) {
+                results.put(measureSearch(manager, messages, contacts, query));
+            }
+            results.put(measureCleanup(manager, messages, contacts));
+        } finally {
+            manager.close();
+        }
+
+        measureSchemaVersions(messages, contacts, results);
+    }
+
+    /**
+     * 合成数据的接收方，先收到全部联系人，再按生成顺序收到消息
+     */
+    private interface DatasetSink {
+        /**
+         * @param roleSetting 角色设定，没有时为null
+         */
+        void conversation(int contact, long lastActive, String roleSetting);
+
+        void message(int contact, boolean isSelf, String content, long timestamp);
+    }
+
+    /**
+     * 生成合成数据集，同一种子生成的数据相同
+     * 联系人活跃度按平方分布，少数联系人占大部分消息；三分之一的联系人有角色设定
+     */
+    private void generate(Random random, int messages, int contacts, DatasetSink sink) {
+        long now = System.currentTimeMillis();
+        long[] lastActive = new long[contacts];
+        for (int i = 0; i < contacts; i++) {
+            lastActive[i] = now - (long) (random.nextDouble() * ACTIVE_DAYS * DAY_MS);
+            sink.conversation(i, lastActive[i], i % 3 == 0 ? "你是一个说话自然的年轻人，回复简短口语化。#" + i : null);
+        }
+        for (int i = 0; i < messages; i++) {
+            int contact = (int) (contacts * random.nextDouble() * random.nextDouble());
+            long timestamp = lastActive[contact] - (long) (random.nextDouble() * CONVERSATION_SPAN_MS);
+            sink.message(contact, random.nextBoolean(), randomMessage(random), timestamp);
+        }
+    }
+
+    /**
+     * 按批导入合成数据，不经过写入队列
+     */
+    private void load(ConversationManager manager, int messages, int contacts) {
+        List<ConversationImporter.Entry> batch = new ArrayList<>(LOAD_BATCH);
+        long[] line = {0};
+        generate(random, messages, contacts, new DatasetSink() {
+            @Override
+            public void conversation(int contact, long lastActive, String roleSetting) {
+                if (roleSetting != null) {
+                    batch.add(new ConversationImporter.Entry(userNames[contact], roleSetting,
+                            false, null, lastActive - CONVERSATION_SPAN_MS));
+                }
+            }
+
+            @Override
+            public void message(int contact, boolean isSelf, String content, long timestamp) {
+                batch.add(new ConversationImporter.Entry(userNames[contact], null, isSelf, content, timestamp));
+                if (batch.size() >= LOAD_BATCH) {
+                    line[0] += batch.size();
+                    manager.importBatch(batch, "storage-benchmark", line[0]);
+                    batch.clear();
+                }
+            }
+        });
+        if (!batch.isEmpty()) {
+            line[0] += batch.size();
+            manager.importBatch(batch, "storage-benchmark", line[0]);
+        }
+        manager.clearImportCheckpoint("storage-benchmark");
+    }
+
+    /**
+     * 用同一份合成数据分别按版本1和当前的表结构直接建库（只有对话表、消息表和各自的索引，不含全文索引和归档表），
+     * 比较文件大小和读某对话最近一个窗口的延迟，两边执行同一条SQL；
+     * 再把版本1的库交给 ConversationManager 打开，测量升级本身和后台迁移完所有消息的耗时
+     */
+    private void measureSchemaVersions(int messages, int contacts, JSONArray results) throws Exception {
+        File v1File = context.getDatabasePath("storage-benchmark-v1.db");
+        File v2File = context.getDatabasePath("storage-benchmark-v2.db");
+        try {
+            try (LegacyDatabase legacy = LegacyDatabase.create(v1File)) {
+                String[] conversationIds = new String[contacts];
+                fill(legacy.getDatabase(), messages, contacts, new DatasetSink() {
+                    @Override
+                    public void conversation(int contact, long lastActive, String roleSetting) {
+                        conversationIds[contact] = legacy.addConversation(userNames[contact], lastActive,
+                                roleSetting == null ? "" : roleSetting);
+                    }
+
+                    @Override
+                    public void message(int contact, boolean isSelf, String content, long timestamp) {
+                        legacy.addMessage(conversationIds[contact], isSelf, content, timestamp);
+                    }
+                });
+            }
+
+            SQLiteDatabase.deleteDatabase(v2File);
+            SQLiteDatabase v2 = SQLiteDatabase.openOrCreateDatabase(v2File, null);
+            try {
+                v2.execSQL("CREATE TABLE conversations (id INTEGER PRIMARY KEY, user_name TEXT UNIQUE NOT NULL, " +
+                        "last_active INTEGER NOT NULL, role_setting TEXT NOT NULL)");
+                v2.execSQL("CREATE TABLE messages (id INTEGER PRIMARY KEY, conversation_id INTEGER NOT NULL, " +
+                        "sender INTEGER NOT NULL, content TEXT NOT NULL, timestamp INTEGER NOT NULL, " +
+                        "FOREIGN KEY (conversation_id) REFERENCES conversations(id) ON DELETE CASCADE)");
+                v2.execSQL("CREATE INDEX idx_messages_conv_ts ON messages(conversation_id, timestamp)");
+                SQLiteStatement insertConversation = v2.compileStatement(
+                        "INSERT INTO conversations (id, user_name, last_active, role_setting) VALUES (?, ?, ?, ?)");
+                SQLiteStatement insertMessage = v2.compileStatement(
+                        "INSERT INTO messages (conversation_id, sender, content, timestamp) VALUES (?, ?, ?, ?)");
+                fill(v2, messages, contacts, new DatasetSink() {
+                    @Override
+                    public void conversation(int contact, long lastActive, String roleSetting) {
+                        insertConversation.bindLong(1, contact + 1);
+                        insertConversation.bindString(2, userNames[contact]);
+                        insertConversation.bindLong(3, lastActive);
+                        insertConversation.bindString(4, roleSetting == null ? "" : roleSetting);
+                        insertConversation.executeInsert();
+                    }
+
+                    @Override
+                    public void message(int contact, boolean isSelf, String content, long timestamp) {
+                        insertMessage.bindLong(1, contact + 1);
+                        insertMessage.bindLong(2, isSelf ? 1 : 0);
+                        insertMessage.bindString(3, content);
+                        insertMessage.bindLong(4, timestamp);
+                        insertMessage.executeInsert();
+                    }
+                });
+                insertConversation.close();
+                insertMessage.close();
+            } finally {
+                v2.close();
+            }
+
+            results.put(measureWindowQuery(v1File, messages, contacts, "schema.v1"));
+            results.put(measureWindowQuery(v2File, messages, contacts, "schema.v2"));
+            results.put(measureMigration(v1File, messages, contacts));
+        } finally {
+            SQLiteDatabase.deleteDatabase(v1File);
+            SQLiteDatabase.deleteDatabase(v2File);
+        }
+    }
+
+    /**
+     * 在一个事务里写入合成数据
+     */
+    private void fill(SQLiteDatabase db, int messages, int contacts, DatasetSink sink) {
+        db.beginTransaction();
+        try {
+            generate(new Random(SEED), messages, contacts, sink);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 文件大小和按用户名读最近 HISTORY_WINDOW_SIZE 条消息的延迟，两种表结构的用户序列相同
+     */
+    private JSONObject measureWindowQuery(File file, int messages, int contacts, String operation)
+            throws JSONException {
+        random = new Random(SEED);
+        Histogram latency = new Histogram();
+        long total = 0;
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            for (int i = 0; i < WARMUP_OPS + HISTORY_OPS; i++) {
+                String user = randomUser();
+                long begin = System.nanoTime();
+                Cursor cursor = db.rawQuery("SELECT id, sender, content, timestamp FROM messages " +
+                        "WHERE conversation_id = (SELECT id FROM conversations WHERE user_name = ?) " +
+                        "ORDER BY timestamp DESC LIMIT " + ConversationManager.HISTORY_WINDOW_SIZE,
+                        new String[]{user});
+                try {
+                    while (cursor.moveToNext()) {
+                        cursor.getString(2);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                long elapsed = System.nanoTime() - begin;
+                if (i >= WARMUP_OPS) {
+                    latency.record(elapsed / 1000);
+                    total += elapsed;
+                }
+            }
+        } finally {
+            db.close();
+        }
+        JSONObject result = result(messages, contacts, operation + ".window", HISTORY_OPS, total, latency);
+        result.put("fileBytes", file.length());
+        return result;
+    }
+
+    /**
+     * 把版本1的库复制为 ConversationManager 的数据库后打开，
+     * upgradeMs 是 onUpgrade 的耗时，elapsedMs 是直到旧消息表删除、消息全部迁移完的耗时
+     */
+    private JSONObject measureMigration(File v1File, int messages, int contacts) throws Exception {
+        context.deleteDatabase(ConversationManager.DB_NAME);
+        File target = context.getDatabasePath(ConversationManager.DB_NAME);
+        Files.copy(v1File.toPath(), target.toPath());
+
+        ConversationManager manager = new ConversationManager(context);
+        try {
+            long start = System.nanoTime();
+            manager.open();
+            long upgradeNanos = System.nanoTime() - start;
+            long migrated;
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(target.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            try {
+                while (DatabaseUtils.longForQuery(db,
+                        "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = 'messages_v1'", null) > 0) {
+                    Thread.sleep(50);
+                }
+                migrated = DatabaseUtils.queryNumEntries(db, "messages");
+            } finally {
+                db.close();
+            }
+            JSONObject result = result(messages, contacts, "migrateFromV1", migrated, System.nanoTime() - start, null);
+            result.put("upgradeMs", upgradeNanos / 1e6);
+            return result;
+        } finally {
+            manager.close();
+            context.deleteDatabase(ConversationManager.DB_NAME);
+        }
+    }
+
+    private JSONObject measureRoleSetting(ConversationManager manager, int messages, int contacts)
+            throws JSONException {
+        for (int i = 0; i < WARMUP_OPS; i++) {
+            manager.getRoleSetting(randomUser());
+        }
+        Histogram latency = new Histogram();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROLE_SETTING_OPS; i++) {
+            String user = randomUser();
+            long begin = System.nanoTime();
+            manager.getRoleSetting(user);
+            latency.record((System.nanoTime() - begin) / 1000);
+        }
+        return result(messages, contacts, "getRoleSetting", ROLE_SETTING_OPS, System.nanoTime() - start, latency);
+    }
+
+    /**
+     * @param warm false 时每次读取前清空活跃对话缓存，测量从数据库加载；true 时先读一次再测量
+     */
+    private JSONObject measureHistory(ConversationManager manager, int messages, int contacts, boolean warm)
+            throws JSONException {
+        Histogram latency = new Histogram();
+        long total = 0;
+        for (int i = 0; i < HISTORY_OPS; i++) {
+            String user = randomUser();
+            if (warm) {
+                manager.getConversationHistory(user);
+            } else {
+                manager.getHistoryCache().clear();
+            }
+            long begin = System.nanoTime();
+            manager.getConversationHistory(user);
+            long elapsed = System.nanoTime() - begin;
+            latency.record(elapsed / 1000);
+            total += elapsed;
+        }
+        return result(messages, contacts, warm ? "getConversationHistory.warm" : "getConversationHistory.cold",
+                HISTORY_OPS, total, latency);
+    }
+
+    /**
+     * 入队耗时按次记录，吞吐量按全部消息提交落盘的时间计算
+     */
+    private JSONObject measureAddMessage(ConversationManager manager, int messages, int contacts)
+            throws Exception {
+        Histogram latency = new Histogram();
+        List<Future<Boolean>> futures = new ArrayList<>(ADD_MESSAGE_OPS);
+        long start = System.nanoTime();
+        for (int i = 0; i < ADD_MESSAGE_OPS; i++) {
+            String user = randomUser();
+            String content = randomMessage();
+            boolean isSelf = random.nextBoolean();
+            long begin = System.nanoTime();
+            futures.add(manager.addMessage(user, content, isSelf));
+            latency.record((System.nanoTime() - begin) / 1000);
+        }
+        int failed = 0;
+        for (Future<Boolean> future : futures) {
+            if (!Boolean.TRUE.equals(future.get())) {
+                failed++;
+            }
+        }
+        JSONObject result = result(messages, contacts, "addMessage", ADD_MESSAGE_OPS, System.nanoTime() - start,
+                latency);
+        result.put("failed", failed);
+        result.put("commitP50Us", manager.getWriteCommitLatencyHistogram().getPercentile(0.50));
+        result.put("commitP99Us", manager.getWriteCommitLatencyHistogram().getPercentile(0.99));
+        result.put("batchSizeMean", manager.getWriteBatchSizeHistogram().getMean());
+        return result;
+    }
+
+    /**
+     * 按 PACED_RATE 的固定节奏入队，模拟持续的消息流而不是一次性灌满队列
+     * 延迟按每条消息从入队到 Future 完成计算；批大小和提交耗时只统计本场景新增的样本
+     */
+    private JSONObject measurePacedAddMessage(ConversationManager manager, int messages, int contacts)
+            throws Exception {
+        Histogram.Snapshot batchesBefore = new Histogram.Snapshot();
+        Histogram.Snapshot commitsBefore = new Histogram.Snapshot();
+        batchesBefore.capture(manager.getWriteBatchSizeHistogram());
+        commitsBefore.capture(manager.getWriteCommitLatencyHistogram());
+
+        Histogram latency = new Histogram();
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(PACED_OPS);
+        long interval = TimeUnit.SECONDS.toNanos(1) / PACED_RATE;
+        long start = System.nanoTime();
+        for (int i = 0; i < PACED_OPS; i++) {
+            long due = start + i * interval;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            String user = randomUser();
+            String content = randomMessage();
+            boolean isSelf = random.nextBoolean();
+            long begin = System.nanoTime();
+            // addMessage 返回的是写入队列中的 CompletableFuture，落盘时回调记录延迟
+            CompletableFuture<Boolean> future = (CompletableFuture<Boolean>) manager.addMessage(user, content, isSelf);
+            futures.add(future.whenComplete((ok, error) -> latency.record((System.nanoTime() - begin) / 1000)));
+        }
+        int failed = 0;
+        for (Future<Boolean> future : futures) {
+            try {
+                if (!Boolean.TRUE.equals(future.get())) {
+                    failed++;
+                }
+            } catch (Exception e) {
+                failed++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Histogram.Snapshot batchesAfter = new Histogram.Snapshot();
+        Histogram.Snapshot commitsAfter = new Histogram.Snapshot();
+        batchesAfter.capture(manager.getWriteBatchSizeHistogram());
+        commitsAfter.capture(manager.getWriteCommitLatencyHistogram());
+        JSONObject result = result(messages, contacts, "addMessage.paced" + PACED_RATE, PACED_OPS, elapsed, latency);
+        result.put("failed", failed);
+        result.put("batches", batchesAfter.getCountSince(batchesBefore));
+        result.put("batchSizeMean", batchesAfter.getMeanSince(batchesBefore));
+        result.put("commitP50Us", commitsAfter.getPercentileSince(commitsBefore, 0.50));
+        result.put("commitP99Us", commitsAfter.getPercentileSince(commitsBefore, 0.99));
+        return result;
+    }
+
+    /**
+     * 按长连接改造之前的方式写消息：每次调用打开数据库，自动提交地插入消息、更新活跃时间，再关闭
+     * 与 addMessage 的结果对比时，addMessage 的吞吐量包含等待落盘的时间
+     */
+    private JSONObject measurePerCallAddMessage(int messages, int contacts) throws JSONException {
+        String path = context.getDatabasePath(ConversationManager.DB_NAME).getPath();
+        Histogram latency = new Histogram();
+        long start = System.nanoTime();
+        for (int i = 0; i < PER_CALL_OPS; i++) {
+            String user = randomUser();
+            String content = randomMessage();
+            boolean isSelf = random.nextBoolean();
+            long begin = System.nanoTime();
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READWRITE);
+            try {
+                long conversationId = findOrCreateConversation(db, user);
+                long now = System.currentTimeMillis();
+                ContentValues values = new ContentValues();
+                values.put("conversation_id", conversationId);
+                values.put("sender", isSelf ? 1 : 0);
+                values.put("content", content);
+                values.put("timestamp", now);
+                db.insert("messages", null, values);
+                ContentValues touch = new ContentValues();
+                touch.put("last_active", now);
+                db.update("conversations", touch, "id = ?", new String[]{String.valueOf(conversationId)});
+            } finally {
+                db.close();
+            }
+            latency.record((System.nanoTime() - begin) / 1000);
+        }
+        return result(messages, contacts, "addMessage.perCallConnection", PER_CALL_OPS,
+                System.nanoTime() - start, latency);
+    }
+
+    /**
+     * 按长连接改造之前的方式读历史：每次调用打开数据库，查对话ID和最近的窗口，再关闭
+     * 查询与当前实现相同，与 getConversationHistory.cold 的差异即打开连接和不用缓存的开销
+     */
+    private JSONObject measurePerCallHistory(int messages, int contacts) throws JSONException {
+        String path = context.getDatabasePath(ConversationManager.DB_NAME).getPath();
+        Histogram latency = new Histogram();
+        long total = 0;
+        for (int i = 0; i < PER_CALL_OPS; i++) {
+            String user = randomUser();
+            long begin = System.nanoTime();
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+            try {
+                Cursor cursor = db.rawQuery("SELECT m.id, m.sender, m.content, m.timestamp FROM messages m " +
+                        "JOIN conversations c ON c.id = m.conversation_id WHERE c.user_name = ? " +
+                        "ORDER BY m.timestamp DESC LIMIT " + ConversationManager.HISTORY_WINDOW_SIZE,
+                        new String[]{user});
+                try {
+                    while (cursor.moveToNext()) {
+                        cursor.getString(2);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } finally {
+                db.close();
+            }
+            long elapsed = System.nanoTime() - begin;
+            latency.record(elapsed / 1000);
+            total += elapsed;
+        }
+        return result(messages, contacts, "getConversationHistory.perCallConnection", PER_CALL_OPS, total, latency);
+    }
+
+    private static long findOrCreateConversation(SQLiteDatabase db, String user) {
+        long id = DatabaseUtils.longForQuery(db, "SELECT IFNULL((SELECT id FROM conversations WHERE user_name = ?), 0)",
+                new String[]{user});
+        if (id > 0) {
+            return id;
+        }
+        ContentValues values = new ContentValues();
+        values.put("user_name", user);
+        values.put("last_active", System.currentTimeMillis());
+        values.put("role_setting", "");
+        return db.insert("conversations", null, values);
+    }
+
+    /**
+     * 读出全部对话和消息，数据量大时只测一次
+     */
+    private JSONObject measureAllConversations(ConversationManager manager, int messages, int contacts)
+            throws JSONException {
+        int ops = messages >= 1000000 ? 1 : 3;
+        Histogram latency = new Histogram();
+        long total = 0;
+        int loaded = 0;
+        for (int i = 0; i < ops; i++) {
+            long begin = System.nanoTime();
+            List<ConversationManager.Conversation> conversations = manager.getAllConversations();
+            long elapsed = System.nanoTime() - begin;
+            latency.record(elapsed / 1000);
+            total += elapsed;
+            loaded = 0;
+            for (ConversationManager.Conversation conversation : conversations) {
+                loaded += conversation.messages.size();
+            }
+        }
+        JSONObject result = result(messages, contacts, "getAllConversations", ops, total, latency);
+        result.put("loadedMessages", loaded);
+        return result;
+    }
+
+    /**
+     * 每次取最新的 SEARCH_LIMIT 条命中，hits 是最后一次返回的条数
+     */
+    private JSONObject measureSearch(ConversationManager manager, int messages, int contacts, String query)
+            throws JSONException {
+        for (int i = 0; i < WARMUP_OPS / 10; i++) {
+            manager.searchMessages(query, SEARCH_LIMIT);
+        }
+        Histogram latency = new Histogram();
+        long total = 0;
+        int hits = 0;
+        for (int i = 0; i < SEARCH_OPS; i++) {
+            long begin = System.nanoTime();
+            hits = manager.searchMessages(query, SEARCH_LIMIT).size();
+            long elapsed = System.nanoTime() - begin;
+            latency.record(elapsed / 1000);
+            total += elapsed;
+        }
+        JSONObject result = result(messages, contacts, "searchMessages", SEARCH_OPS, total, latency);
+        result.put("query", query);
+        result.put("hits", hits);
+        return result;
+    }
+
+    /**
+     * 按收到、完成交替追加，两种记录分别统计；写满文件时的重写计入触发它的那次追加
+     */
+    private void measureJournal(JSONArray results) throws Exception {
+        File file = new File(context.getFilesDir(), "storage-benchmark.journal");
+        file.delete();
+        random = new Random(SEED);
+        Histogram received = new Histogram();
+        Histogram completed = new Histogram();
+        long receivedTotal = 0;
+        long completedTotal = 0;
+        InboundJournal journal = new InboundJournal(file);
+        try {
+            for (int i = 0; i < WARMUP_OPS; i++) {
+                journal.appendCompleted(journal.appendReceived("用户" + i, randomMessage()));
+            }
+            for (int i = 0; i < JOURNAL_OPS; i++) {
+                String user = "用户" + random.nextInt(MIN_CONTACTS);
+                String content = randomMessage();
+                long begin = System.nanoTime();
+                long seq = journal.appendReceived(user, content);
+                long elapsed = System.nanoTime() - begin;
+                received.record(elapsed / 1000);
+                receivedTotal += elapsed;
+                if (i % JOURNAL_PENDING_EVERY == 0) {
+                    continue;
+                }
+                begin = System.nanoTime();
+                journal.appendCompleted(seq);
+                elapsed = System.nanoTime() - begin;
+                completed.record(elapsed / 1000);
+                completedTotal += elapsed;
+            }
+        } finally {
+            journal.close();
+        }
+        results.put(result(0, 0, "journal.appendReceived", JOURNAL_OPS, receivedTotal, received));
+        results.put(result(0, 0, "journal.appendCompleted", completed.getCount(), completedTotal, completed));
+
+        long begin = System.nanoTime();
+        journal = new InboundJournal(file);
+        try {
+            JSONObject result = result(0, 0, "journal.reopen", 1, System.nanoTime() - begin, null);
+            result.put("pending", journal.getPending(Long.MAX_VALUE).size());
+            result.put("journalBytes", journal.size());
+            result.put("fileBytes", file.length());
+            results.put(result);
+        } finally {
+            journal.close();
+            file.delete();
+        }
+    }
+
+    private JSONObject measureCleanup(ConversationManager manager, int messages, int contacts)
+            throws JSONException {
+        long begin = System.nanoTime();
+        RetentionEngine.Result cleanup = manager.cleanupInactiveConversations(CLEANUP_INACTIVE_MS);
+        JSONObject result = result(messages, contacts, "cleanupInactiveConversations", 1,
+                System.nanoTime() - begin, null);
+        result.put("deletedConversations", cleanup.expiredConversations);
+        result.put("deletedMessages", cleanup.expiredMessages);
+        return result;
+    }
+
+    private JSONObject result(int messages, int contacts, String operation, long ops, long elapsedNanos,
+                              Histogram latency) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("messages", messages);
+        result.put("contacts", contacts);
+        result.put("operation", operation);
+        result.put("ops", ops);
+        result.put("elapsedMs", elapsedNanos / 1e6);
+        result.put("opsPerSec", ops * 1e9 / Math.max(1, elapsedNanos));
+        if (latency != null) {
+            result.put("p50Us", latency.getPercentile(0.50));
+            result.put("p95Us", latency.getPercentile(0.95));
+            result.put("p99Us", latency.getPercentile(0.99));
+            result.put("maxUs", latency.getMax());
+        }
+        System.out.println("存储基准测试 - " + result);
+        return result;
+    }
+
+    private String randomUser() {
+        return userNames[(int) (userNames.length * random.nextDouble() * random.nextDouble())];
+    }
+
+    private String randomMessage() {
+        return randomMessage(random);
+    }
+
+    private static String randomMessage(Random random) {
+        String message = PHRASES[random.nextInt(PHRASES.length)];
+        return random.nextInt(4) == 0 ? message + "，" + PHRASES[random.nextInt(PHRASES.length)] : message;
+    }
+
+    private static void writeReport(JSONObject report) throws IOException, JSONException {
+        File file = new File(System.getProperty("storageBenchmark.output", "build/storage-benchmark/results.json"));
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(report.toString(2));
+        }
+        System.out.println("存储基准测试结果: " + file.getAbsolutePath());
+    }
+}
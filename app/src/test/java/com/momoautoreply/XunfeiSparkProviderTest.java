@@ -0,0 +1,277 @@
+package com.momoautoreply;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * XunfeiSparkProvider 测试：用本机WebSocket替身服务模拟星火的流式应答
+ * 替身服务每个请求分三帧返回内容，status=2 后按 closeAfterAnswer 决定是否关闭连接。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class XunfeiSparkProviderTest {
+
+    private static final String[] TOKENS = {"你好", "呀", "～"};
+    private static final long WAIT_MS = 3000;
+
+    private volatile boolean closeAfterAnswer = true;
+    private volatile int errorCode;
+    // 发送第一段内容后不发关闭帧直接断开
+    private volatile boolean dropMidStream;
+    private final List<JSONObject> requests = new ArrayList<>();
+
+    private LoopbackWebSocketServer server;
+    private XunfeiSparkProvider provider;
+
+    private void start(int poolSize) throws IOException {
+        server = new LoopbackWebSocketServer(this::answer).start();
+        XunfeiSparkProvider.Config config = new XunfeiSparkProvider.Config();
+        config.appId = "app";
+        config.apiKey = "key";
+        config.apiSecret = "secret";
+        config.apiUrl = server.uri("/v3.5/chat").toString();
+        config.poolSize = poolSize;
+        provider = new XunfeiSparkProvider(config);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (provider != null) {
+            provider.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void streamsTokensAndCompletes() throws Exception {
+        start(1);
+        RecordingListener listener = new RecordingListener();
+
+        String reply = provider.generate(messages("在吗"), listener);
+
+        assertEquals("你好呀～", reply);
+        assertEquals(Arrays.asList(TOKENS), listener.tokens);
+        assertEquals("你好呀～", listener.completed);
+        assertNull(listener.error);
+
+        JSONObject request = requests.get(0);
+        assertEquals("app", request.getJSONObject("header").getString("app_id"));
+        assertEquals("generalv3.5", request.getJSONObject("parameter").getJSONObject("chat").getString("domain"));
+        assertEquals("在吗", request.getJSONObject("payload").getJSONObject("message").getJSONArray("text")
+                .getJSONObject(0).getString("content"));
+        String uri = server.getConnections().get(0).getRequestUri();
+        assertTrue(uri, uri.startsWith("/v3.5/chat?authorization="));
+        assertTrue(uri, uri.contains("&date=") && uri.contains("&host="));
+    }
+
+    @Test
+    public void warmUpFillsPoolWithHandshakenSessions() throws Exception {
+        start(2);
+        provider.warmUp();
+        waitFor(() -> server.getHandshakeCount() == 2);
+
+        assertEquals("你好呀～", provider.generate(messages("在吗"), null));
+        // 用过的会话不放回池中，后台补建一个新会话
+        waitFor(() -> server.getHandshakeCount() == 3);
+        assertEquals(2, server.getOpenConnectionCount());
+    }
+
+    /**
+     * 即使服务端回答结束后没有关闭连接，用过的会话也不再复用，每个连接只承载一次问答
+     */
+    @Test
+    public void neverReusesSessionAfterAnswer() throws Exception {
+        closeAfterAnswer = false;
+        start(1);
+        provider.warmUp();
+        waitFor(() -> server.getHandshakeCount() == 1);
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("你好呀～", provider.generate(messages("第" + i + "条"), null));
+        }
+        waitFor(() -> server.getOpenConnectionCount() == 1);
+        int served = 0;
+        for (LoopbackWebSocketServer.Connection connection : server.getConnections()) {
+            assertTrue(connection.getMessageCount() <= 1);
+            served += connection.getMessageCount();
+        }
+        assertEquals(4, served);
+    }
+
+    @Test
+    public void reconnectsWhenPooledSessionWasDropped() throws Exception {
+        start(2);
+        provider.warmUp();
+        waitFor(() -> server.getHandshakeCount() == 2);
+        server.dropAll();
+        waitFor(() -> server.getOpenConnectionCount() == 0);
+
+        RecordingListener listener = new RecordingListener();
+        assertEquals("你好呀～", provider.generate(messages("在吗"), listener));
+        assertEquals(Arrays.asList(TOKENS), listener.tokens);
+        assertTrue(server.getHandshakeCount() >= 3);
+    }
+
+    @Test
+    public void doesNotRetryAfterTokensWereEmitted() throws Exception {
+        dropMidStream = true;
+        start(1);
+        RecordingListener listener = new RecordingListener();
+        try {
+            provider.generate(messages("在吗"), listener);
+            fail("回答中途断开应抛出异常");
+        } catch (IOException expected) {
+            // 已经输出了内容，不能换连接重试
+        }
+        assertEquals(Arrays.asList(TOKENS[0]), listener.tokens);
+        assertNull(listener.completed);
+        assertEquals(1, requests.size());
+    }
+
+    /**
+     * 监听器抛出运行时异常时也关闭连接，不泄漏会话
+     */
+    @Test
+    public void listenerExceptionClosesSocket() throws Exception {
+        closeAfterAnswer = false;
+        start(1);
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onToken(String token) {
+                throw new IllegalStateException("监听器异常");
+            }
+        };
+        try {
+            provider.generate(messages("在吗"), listener);
+            fail("监听器异常应抛出");
+        } catch (IllegalStateException expected) {
+            // 异常原样抛给调用方
+        }
+        LoopbackWebSocketServer.Connection first = server.getConnections().get(0);
+        waitFor(() -> !first.isOpen());
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void errorCodeFailsRequest() throws Exception {
+        errorCode = 10013;
+        start(1);
+        RecordingListener listener = new RecordingListener();
+        try {
+            provider.generate(messages("在吗"), listener);
+            fail("错误码应抛出异常");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("10013"));
+        }
+        assertTrue(listener.tokens.isEmpty());
+    }
+
+    @Test
+    public void reusesSignedUriWithinTtl() throws Exception {
+        start(1);
+        assertEquals(provider.getSignedUri(), provider.getSignedUri());
+    }
+
+    private void answer(LoopbackWebSocketServer.Connection connection, String text) throws IOException {
+        try {
+            synchronized (requests) {
+                requests.add(new JSONObject(text));
+            }
+            if (errorCode != 0) {
+                connection.sendText(frame(errorCode, 2, null).toString());
+                connection.sendClose();
+                return;
+            }
+            for (int i = 0; i < TOKENS.length; i++) {
+                connection.sendText(frame(0, i == TOKENS.length - 1 ? 2 : i == 0 ? 0 : 1, TOKENS[i]).toString());
+                if (dropMidStream) {
+                    connection.drop();
+                    return;
+                }
+            }
+            if (closeAfterAnswer) {
+                connection.sendClose();
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static JSONObject frame(int code, int status, String content) throws JSONException {
+        JSONObject header = new JSONObject();
+        header.put("code", code);
+        header.put("status", status);
+        if (code != 0) {
+            header.put("message", "AppIdNoAuthError");
+        }
+        JSONObject response = new JSONObject();
+        response.put("header", header);
+        if (content != null) {
+            JSONObject text = new JSONObject();
+            text.put("role", "assistant");
+            text.put("content", content);
+            JSONObject choices = new JSONObject();
+            choices.put("status", status);
+            choices.put("text", new JSONArray().put(text));
+            response.put("payload", new JSONObject().put("choices", choices));
+        }
+        return response;
+    }
+
+    private static JSONArray messages(String content) throws JSONException {
+        JSONObject message = new JSONObject();
+        message.put("role", "user");
+        message.put("content", content);
+        return new JSONArray().put(message);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("等待超时");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static class RecordingListener implements ReplyStreamListener {
+        final List<String> tokens = new ArrayList<>();
+        String completed;
+        Exception error;
+
+        @Override
+        public void onToken(String token) {
+            tokens.add(token);
+        }
+
+        @Override
+        public void onComplete(String fullReply) {
+            completed = fullReply;
+        }
+
+        @Override
+        public void onError(Exception e) {
+            error = e;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.momoautoreply.benchmarks;
+
+import com.momoautoreply.ChatCompletionCodec;
+import com.momoautoreply.PromptBuilder;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * 对话接口的请求编码和响应解码
+ * 响应样本按智谱/OpenAI兼容接口的实际格式构造
+ */
+@State(Scope.Benchmark)
+public class ChatCompletionCodecBenchmark {
+
+    private JSONArray messages;
+    private String response;
+    private String streamChunk;
+
+    @Setup
+    public void setup() throws JSONException {
+        messages = PromptBuilder.buildChatMessages(
+                PromptBuilder.buildPrompt(ChatCorpus.ROLE_SETTING, ChatCorpus.history(20, 7)));
+
+        String reply = ChatCorpus.message(new Random(11));
+        JSONObject message = new JSONObject().put("role", "assistant").put("content", reply);
+        JSONObject choice = new JSONObject().put("index", 0).put("finish_reason", "stop").put("message", message);
+        JSONObject usage = new JSONObject().put("prompt_tokens", 412).put("completion_tokens", 23)
+                .put("total_tokens", 435);
+        response = new JSONObject().put("id", "8576231975602931732").put("created", 1700000000)
+                .put("model", "glm-4").put("choices", new JSONArray().put(choice)).put("usage", usage).toString();
+
+        JSONObject delta = new JSONObject().put("role", "assistant").put("content", "哈哈");
+        streamChunk = new JSONObject().put("id", "8576231975602931732").put("created", 1700000000)
+                .put("model", "glm-4")
+                .put("choices", new JSONArray().put(new JSONObject().put("index", 0).put("delta", delta)))
+                .toString();
+    }
+
+    @Benchmark
+    public String encodeRequest() throws JSONException {
+        return ChatCompletionCodec.encodeRequest("glm-4", messages, 100, 0.7, false);
+    }
+
+    @Benchmark
+    public String decodeReply() throws JSONException {
+        return ChatCompletionCodec.decodeReply(response);
+    }
+
+    /**
+     * 流式响应每个增量解码一次，一条回复通常有十几到几十个增量
+     */
+    @Benchmark
+    public String decodeStreamToken() throws JSONException {
+        return ChatCompletionCodec.decodeStreamToken(streamChunk);
+    }
+}
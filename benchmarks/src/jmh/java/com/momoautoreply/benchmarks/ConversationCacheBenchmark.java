@@ -0,0 +1,75 @@
+package com.momoautoreply.benchmarks;
+
+import com.momoautoreply.ChatMessage;
+import com.momoautoreply.ConversationCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 活跃对话缓存：读取历史窗口（每条消息一次）和写入新消息
+ * 缓存参数与 ConversationManager 一致，预先载满 users 个对话
+ */
+@State(Scope.Benchmark)
+public class ConversationCacheBenchmark {
+
+    private static final int WINDOW_SIZE = 20;
+
+    @Param({"64", "512"})
+    public int users;
+
+    private ConversationCache cache;
+    private String[] userNames;
+    private ChatMessage[] messages;
+
+    /**
+     * 每个线程轮流访问不同用户
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setup() {
+        cache = new ConversationCache(1024, 8L * 1024 * 1024, WINDOW_SIZE);
+        userNames = new String[users];
+        for (int i = 0; i < users; i++) {
+            userNames[i] = ChatCorpus.userName(i);
+            long stamp = cache.loadStamp(userNames[i]);
+            cache.putWindow(userNames[i], String.valueOf(i), ChatCorpus.history(WINDOW_SIZE, i), stamp);
+        }
+        Random random = new Random(3);
+        messages = new ChatMessage[256];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new ChatMessage(String.valueOf(i), "other", ChatCorpus.message(random), i);
+        }
+    }
+
+    @Benchmark
+    public List<ChatMessage> getWindow(Cursor cursor) {
+        return cache.getWindow(userNames[cursor.next++ % users]);
+    }
+
+    @Benchmark
+    public void append(Cursor cursor) {
+        int i = cursor.next++;
+        cache.append(userNames[i % users], messages[i & (messages.length - 1)]);
+    }
+
+    /**
+     * 处理线程数与服务线程池一致时的并发读取
+     */
+    @Benchmark
+    @Threads(5)
+    public List<ChatMessage> getWindowContended(Cursor cursor) {
+        return cache.getWindow(userNames[cursor.next++ % users]);
+    }
+}
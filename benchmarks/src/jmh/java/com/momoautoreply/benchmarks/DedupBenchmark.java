@@ -0,0 +1,50 @@
+package com.momoautoreply.benchmarks;
+
+import com.momoautoreply.RecentMessageFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * 已处理消息过滤：聊天界面每次变化都会查询一次，多数查询命中（界面刷新但没有新消息）
+ * 查询用的字符串每次新建，与从界面节点读出的文本一样没有缓存哈希值
+ */
+@State(Scope.Benchmark)
+public class DedupBenchmark {
+
+    private static final int USERS = 200;
+
+    private RecentMessageFilter filter;
+    private String[] userNames;
+    private String[] lastMessages;
+    private int next;
+
+    @Setup
+    public void setup() {
+        filter = new RecentMessageFilter();
+        userNames = new String[USERS];
+        lastMessages = new String[USERS];
+        Random random = new Random(5);
+        for (int i = 0; i < USERS; i++) {
+            userNames[i] = ChatCorpus.userName(i);
+            lastMessages[i] = ChatCorpus.message(random);
+            filter.record(userNames[i], lastMessages[i]);
+        }
+    }
+
+    @Benchmark
+    public boolean processedHit() {
+        int i = next++ % USERS;
+        return filter.isProcessed(new String(userNames[i]), new String(lastMessages[i]));
+    }
+
+    @Benchmark
+    public boolean newMessage() {
+        int i = next++ % USERS;
+        return filter.isProcessed(new String(userNames[i]), new String(lastMessages[(i + 1) % USERS]));
+    }
+}
@@ -0,0 +1,52 @@
+package com.momoautoreply.benchmarks;
+
+import com.momoautoreply.ChatMessage;
+import com.momoautoreply.PromptBuilder;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * 构建提示：每条消息调用模型前执行一次
+ * historySize 对应对话历史窗口的常见大小
+ */
+@State(Scope.Benchmark)
+public class PromptBenchmark {
+
+    @Param({"10", "20", "50"})
+    public int historySize;
+
+    private List<ChatMessage> history;
+    private String prompt;
+
+    @Setup
+    public void setup() {
+        history = ChatCorpus.history(historySize, 42);
+        prompt = PromptBuilder.buildPrompt(ChatCorpus.ROLE_SETTING, history);
+    }
+
+    @Benchmark
+    public String buildPrompt() {
+        return PromptBuilder.buildPrompt(ChatCorpus.ROLE_SETTING, history);
+    }
+
+    @Benchmark
+    public JSONArray buildChatMessages() throws JSONException {
+        return PromptBuilder.buildChatMessages(prompt);
+    }
+
+    /**
+     * 发送请求前的完整过程：拼出提示，再还原为消息列表
+     */
+    @Benchmark
+    public JSONArray promptToChatMessages() throws JSONException {
+        return PromptBuilder.buildChatMessages(PromptBuilder.buildPrompt(ChatCorpus.ROLE_SETTING, history));
+    }
+}
@@ -0,0 +1,39 @@
+package com.momoautoreply.benchmarks;
+
+import com.momoautoreply.MessageSearchIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * 全文检索分词（每条写入的消息一次）和结果片段高亮
+ */
+@State(Scope.Benchmark)
+public class SearchIndexBenchmark {
+
+    private String[] messages;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(9);
+        messages = new String[256];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = ChatCorpus.message(random);
+        }
+    }
+
+    @Benchmark
+    public String tokenize() {
+        return MessageSearchIndex.tokenize(messages[next++ & (messages.length - 1)]);
+    }
+
+    @Benchmark
+    public String snippet() {
+        return MessageSearchIndex.snippet(messages[next++ & (messages.length - 1)], "火锅 周末", 40);
+    }
+}
@@ -0,0 +1,52 @@
+package com.momoautoreply.benchmarks;
+
+import com.momoautoreply.ChatMessage;
+import com.momoautoreply.MessageSegmentCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 冷对话归档段的压缩和解压，段大小与 ConversationArchiver 默认上限一致（256条）
+ */
+@State(Scope.Benchmark)
+public class SegmentCodecBenchmark {
+
+    private static final int SEGMENT_MESSAGES = 256;
+
+    private List<ChatMessage> history;
+    private byte[] compressed;
+    private int rawBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        history = ChatCorpus.history(SEGMENT_MESSAGES, 13);
+        MessageSegmentCodec.Builder builder = encode();
+        rawBytes = builder.getRawBytes();
+        compressed = builder.compress();
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return encode().compress();
+    }
+
+    @Benchmark
+    public List<MessageSegmentCodec.Record> decode() throws IOException {
+        return MessageSegmentCodec.decode(compressed, rawBytes);
+    }
+
+    private MessageSegmentCodec.Builder encode() throws IOException {
+        MessageSegmentCodec.Builder builder = new MessageSegmentCodec.Builder();
+        for (ChatMessage message : history) {
+            builder.add(new MessageSegmentCodec.Record(Long.parseLong(message.id),
+                    "self".equals(message.sender) ? 1 : 0, message.timestamp, message.content));
+        }
+        return builder;
+    }
+}
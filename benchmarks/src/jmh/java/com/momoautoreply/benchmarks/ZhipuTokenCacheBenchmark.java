@@ -0,0 +1,43 @@
+package com.momoautoreply.benchmarks;
+
+import com.momoautoreply.ZhipuTokenCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 智谱JWT令牌：每次请求获取一次令牌的开销
+ * 1. cached：有效期内直接返回缓存的令牌
+ * 2. signEachCall：每次都签名（HMAC已初始化），即没有缓存时的开销
+ * 3. initAndSignEachCall：每次新建Mac并签名，与每次请求都从API Key签发令牌的做法相同
+ */
+@State(Scope.Benchmark)
+public class ZhipuTokenCacheBenchmark {
+
+    private static final String API_KEY = "0f4e8c1d2b3a49c6a1e5f7d9b8c6a4e2.Xy9kLm3NpQ7rSt2uVw5z";
+
+    private ZhipuTokenCache cache;
+
+    @Setup
+    public void setup() {
+        cache = new ZhipuTokenCache(API_KEY);
+        cache.getToken();
+    }
+
+    @Benchmark
+    public String cached() {
+        return cache.getToken();
+    }
+
+    @Benchmark
+    public String signEachCall() {
+        return cache.sign(System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public String initAndSignEachCall() {
+        return new ZhipuTokenCache(API_KEY).sign(System.currentTimeMillis());
+    }
+}
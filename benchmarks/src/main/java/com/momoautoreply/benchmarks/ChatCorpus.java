@@ -0,0 +1,87 @@
+package com.momoautoreply.benchmarks;
+
+import com.momoautoreply.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准测试用的中文聊天语料
+ * 按固定种子从常见的开场、提问、回应和表情中拼出消息，长度分布接近真实私聊：
+ * 多数消息在20字以内，少数长消息有五六十字，夹杂数字、英文和表情。
+ */
+final class ChatCorpus {
+
+    static final String ROLE_SETTING = "你是一个性格开朗、说话自然的年轻人，正在陌陌上和新认识的朋友聊天。" +
+            "回复要简短口语化，一般不超过30个字，不要暴露自己是AI，不要使用书面语。";
+
+    private static final String[] OPENINGS = {
+            "你好呀", "在吗", "哈喽", "嗨", "晚上好", "早上好", "刚下班", "终于周末了", "hello", "在干嘛呢"
+    };
+    private static final String[] QUESTIONS = {
+            "你是哪里人啊？", "平时喜欢做什么？", "周末一般去哪里玩？", "你也喜欢看电影吗？",
+            "最近在追什么剧？", "你养宠物吗？", "今天吃的什么好吃的？", "你是做什么工作的？",
+            "要不要一起去吃火锅？", "这个周六有空吗？", "你觉得这家店怎么样？", "你喜欢猫还是狗？"
+    };
+    private static final String[] REPLIES = {
+            "哈哈哈真的假的", "我也是诶", "还好吧，就是有点累", "挺喜欢的", "好呀好呀", "看情况吧",
+            "我在成都，你呢", "最近在看《繁花》，挺好看的", "刚吃完麻辣烫，好撑", "周末一般宅家打游戏",
+            "我养了一只橘猫，特别能吃", "做设计的，天天改稿改到头秃", "下次有机会一起去",
+            "你说的那家我去过，人超级多，排了一个多小时的队才吃上，不过味道确实不错，推荐他们家的毛肚和鸭肠"
+    };
+    private static final String[] EMOJIS = {"😂", "🤣", "😊", "👍", "[微笑]", "[捂脸]", "~", "！", "。。。", ""};
+
+    private ChatCorpus() {
+    }
+
+    /**
+     * 生成一条消息
+     */
+    static String message(Random random) {
+        StringBuilder text = new StringBuilder();
+        int kind = random.nextInt(10);
+        if (kind < 2) {
+            text.append(OPENINGS[random.nextInt(OPENINGS.length)]);
+        } else if (kind < 5) {
+            text.append(QUESTIONS[random.nextInt(QUESTIONS.length)]);
+        } else {
+            text.append(REPLIES[random.nextInt(REPLIES.length)]);
+        }
+        if (random.nextInt(4) == 0) {
+            // 少数消息由两句拼成
+            text.append('，').append(REPLIES[random.nextInt(REPLIES.length)]);
+        }
+        if (random.nextInt(8) == 0) {
+            text.append(" 我电话是1").append(30 + random.nextInt(60)).append(random.nextInt(100000000));
+        }
+        text.append(EMOJIS[random.nextInt(EMOJIS.length)]);
+        return text.toString();
+    }
+
+    /**
+     * 生成一段对话历史，双方交替发言，时间间隔几秒到几分钟
+     * @param size 消息数
+     * @param seed 随机种子
+     */
+    static List<ChatMessage> history(int size, long seed) {
+        Random random = new Random(seed);
+        List<ChatMessage> history = new ArrayList<>(size);
+        long timestamp = 1700000000000L;
+        for (int i = 0; i < size; i++) {
+            timestamp += 2000 + random.nextInt(180000);
+            String sender = i % 2 == 0 ? "other" : "self";
+            history.add(new ChatMessage(String.valueOf(seed * 1000 + i), sender, message(random), timestamp));
+        }
+        return history;
+    }
+
+    /**
+     * 用户名，与陌陌昵称类似
+     */
+    static String userName(int index) {
+        String[] prefixes = {"小", "阿", "大", "老", ""};
+        String[] names = {"鱼", "七", "橙子", "晴天", "柚子", "木木", "Lucky", "安安", "奶茶", "星星"};
+        return prefixes[index % prefixes.length] + names[(index / prefixes.length) % names.length] + index;
+    }
+}
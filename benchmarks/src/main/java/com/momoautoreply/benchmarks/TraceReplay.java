@@ -0,0 +1,346 @@
+package com.momoautoreply.benchmarks;
+
+import com.momoautoreply.ChatEventDetector;
+import com.momoautoreply.ChatMessage;
+import com.momoautoreply.ChatScreenParser;
+import com.momoautoreply.ConversationCache;
+import com.momoautoreply.EventTrace;
+import com.momoautoreply.Histogram;
+import com.momoautoreply.MessageTrace;
+import com.momoautoreply.PromptBuilder;
+import com.momoautoreply.RecentMessageFilter;
+import com.momoautoreply.TraceRecorder;
+import com.momoautoreply.UiNodeSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无障碍事件离线回放
+ * 功能：
+ * 1. 读取服务录制的 EventTrace 文件，按录制时的间隔或尽可能快地回放
+ * 2. 界面变化事件交给与服务相同的 ChatEventDetector 识别新消息
+ * 3. 新消息经过排队、历史缓存、构建提示和模拟的模型调用，按阶段记录到独立的 TraceRecorder
+ * 4. 输出事件吞吐量、识别出的消息数和各阶段耗时分位数
+ * 5. 可以生成合成的录制文件，没有真机录制时用于冒烟测试
+ *
+ * 回放时节点都在内存中，界面读取阶段不含真机上跨进程读取节点的开销，只反映解析本身的耗时；
+ * 模型调用用固定延迟代替，不访问网络。
+ *
+ * 用法：
+ *   ./gradlew :benchmarks:replayTrace -Preplay.args="events.mmtr [--realtime] [--workers 5] [--provider-ms 0]"
+ *   ./gradlew :benchmarks:replayTrace -Preplay.args="--synthesize events.mmtr [--messages 2000]"
+ */
+public final class TraceReplay {
+
+    // 与 AccessibilityEvent 中的取值一致
+    static final int TYPE_VIEW_TEXT_CHANGED = 0x10;
+    static final int TYPE_WINDOW_STATE_CHANGED = 0x20;
+    static final int TYPE_NOTIFICATION_STATE_CHANGED = 0x40;
+    static final int TYPE_WINDOW_CONTENT_CHANGED = 0x800;
+
+    // 与 MomoAccessibilityService 的线程数和 ConversationManager 的缓存窗口一致
+    private static final int DEFAULT_WORKERS = 5;
+    private static final int HISTORY_WINDOW = 50;
+
+    private final boolean realtime;
+    private final int workers;
+    private final long providerMillis;
+
+    private final TraceRecorder traceRecorder = new TraceRecorder(1);
+    private final ConversationCache cache = new ConversationCache(256, 4 * 1024 * 1024, HISTORY_WINDOW);
+    private final AtomicLong messageIds = new AtomicLong();
+    private final Map<ChatEventDetector.Result, Long> results = new EnumMap<>(ChatEventDetector.Result.class);
+    private final Map<Integer, Long> eventTypes = new TreeMap<>();
+    private ExecutorService executor;
+
+    private TraceReplay(boolean realtime, int workers, long providerMillis) {
+        this.realtime = realtime;
+        this.workers = workers;
+        this.providerMillis = providerMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String file = null;
+        String synthesize = null;
+        boolean realtime = false;
+        int workers = DEFAULT_WORKERS;
+        long providerMillis = 0;
+        int messages = 2000;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--realtime":
+                    realtime = true;
+                    break;
+                case "--workers":
+                    workers = Integer.parseInt(args[++i]);
+                    break;
+                case "--provider-ms":
+                    providerMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--synthesize":
+                    synthesize = args[++i];
+                    break;
+                case "--messages":
+                    messages = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    file = args[i];
+                    break;
+            }
+        }
+
+        if (synthesize != null) {
+            synthesize(synthesize, messages);
+            return;
+        }
+        if (file == null) {
+            System.err.println("用法: TraceReplay <录制文件> [--realtime] [--workers N] [--provider-ms N]");
+            System.err.println("      TraceReplay --synthesize <录制文件> [--messages N]");
+            System.exit(2);
+        }
+        new TraceReplay(realtime, workers, providerMillis).run(file);
+    }
+
+    private void run(String file) throws IOException, InterruptedException {
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        ChatEventDetector detector = new ChatEventDetector(new RecentMessageFilter(), traceRecorder,
+                this::onMessageReceived);
+
+        long events = 0;
+        long nodes = 0;
+        long startNanos = System.nanoTime();
+        try (EventTrace.Reader reader = new EventTrace.Reader(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            EventTrace.Event event;
+            while ((event = reader.next()) != null) {
+                if (realtime) {
+                    long waitNanos = startNanos + event.offsetNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                }
+                long eventNanos = System.nanoTime();
+                events++;
+                eventTypes.merge(event.eventType, 1L, Long::sum);
+                if (event.root != null && (event.eventType == TYPE_WINDOW_CONTENT_CHANGED ||
+                        event.eventType == TYPE_WINDOW_STATE_CHANGED)) {
+                    nodes += event.root.countNodes();
+                    ChatEventDetector.Result result = detector.onChatEvent(event.root, eventNanos, System.nanoTime());
+                    results.merge(result, 1L, Long::sum);
+                }
+            }
+        }
+        long dispatchNanos = System.nanoTime() - startNanos;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        report(events, nodes, dispatchNanos, elapsedNanos);
+    }
+
+    /**
+     * 新消息的处理，与服务的处理顺序一致，模型调用和发送用固定延迟代替
+     */
+    private void onMessageReceived(String user, String message, MessageTrace trace) {
+        trace.begin(MessageTrace.Stage.QUEUE);
+        executor.execute(() -> {
+            trace.end(MessageTrace.Stage.QUEUE);
+            try {
+                trace.begin(MessageTrace.Stage.HISTORY);
+                List<ChatMessage> history = appendAndGetHistory(user,
+                        new ChatMessage(String.valueOf(messageIds.incrementAndGet()), "other", message,
+                                System.currentTimeMillis()));
+                trace.end(MessageTrace.Stage.HISTORY);
+
+                trace.begin(MessageTrace.Stage.PROMPT);
+                PromptBuilder.buildPrompt(ChatCorpus.ROLE_SETTING, history);
+                trace.end(MessageTrace.Stage.PROMPT);
+
+                trace.begin(MessageTrace.Stage.PROVIDER);
+                if (providerMillis > 0) {
+                    Thread.sleep(providerMillis);
+                }
+                trace.end(MessageTrace.Stage.PROVIDER);
+
+                appendAndGetHistory(user, new ChatMessage(String.valueOf(messageIds.incrementAndGet()), "self",
+                        "好呀", System.currentTimeMillis()));
+                trace.finish("sent");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                trace.finish("error");
+            }
+        });
+    }
+
+    private List<ChatMessage> appendAndGetHistory(String user, ChatMessage message) {
+        cache.append(user, message);
+        List<ChatMessage> window = cache.getWindow(user);
+        if (window == null) {
+            // 新用户，相当于从数据库加载到空的历史
+            cache.putWindow(user, user, Collections.singletonList(message), cache.loadStamp(user));
+            window = Collections.singletonList(message);
+        }
+        return window;
+    }
+
+    private void report(long events, long nodes, long dispatchNanos, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("回放方式: " + (realtime ? "按录制间隔" : "尽可能快") +
+                ", 处理线程: " + workers + ", 模拟模型调用: " + providerMillis + "ms");
+        System.out.printf(Locale.US, "事件数: %d, 耗时: %.3fs, 吞吐量: %.0f 事件/秒（分发 %.0f 事件/秒）%n",
+                events, seconds, events / seconds, events / (dispatchNanos / 1e9));
+        StringBuilder types = new StringBuilder("事件类型:");
+        for (Map.Entry<Integer, Long> entry : eventTypes.entrySet()) {
+            types.append(String.format(Locale.US, " 0x%x=%d", entry.getKey(), entry.getValue()));
+        }
+        System.out.println(types);
+        long chatEvents = 0;
+        for (long count : results.values()) {
+            chatEvents += count;
+        }
+        if (chatEvents > 0) {
+            System.out.printf(Locale.US, "界面事件: %d, 平均节点数: %.1f%n", chatEvents, (double) nodes / chatEvents);
+        }
+        System.out.println("识别结果: " + results);
+        System.out.println("识别出的消息数: " + traceRecorder.getCompletedCount());
+
+        System.out.println();
+        System.out.printf(Locale.US, "%-10s %10s %10s %10s %10s %10s%n", "阶段", "次数", "p50(us)", "p95(us)",
+                "p99(us)", "max(us)");
+        for (MessageTrace.Stage stage : MessageTrace.Stage.values()) {
+            printHistogram(stage.name().toLowerCase(Locale.ROOT), traceRecorder.getStageHistogram(stage));
+        }
+        printHistogram("total", traceRecorder.getTotalHistogram());
+    }
+
+    private static void printHistogram(String name, Histogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        System.out.printf(Locale.US, "%-10s %10d %10d %10d %10d %10d%n", name, histogram.getCount(),
+                histogram.getPercentile(0.50), histogram.getPercentile(0.95), histogram.getPercentile(0.99),
+                histogram.getMax());
+    }
+
+    /**
+     * 生成合成的录制文件
+     * 若干用户轮流聊天，每条对方消息之后界面会连续发出几次内容变化事件，
+     * 穿插自己发送的消息、通知和输入框文本变化，节点树结构与陌陌聊天界面类似。
+     * @param file 输出文件
+     * @param messages 对方消息数
+     */
+    static void synthesize(String file, int messages) throws IOException {
+        Random random = new Random(20240601L);
+        int userCount = 20;
+        List<List<String[]>> screens = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            screens.add(new ArrayList<>());
+        }
+
+        long nanos = 0;
+        long events = 0;
+        try (EventTrace.Writer writer = new EventTrace.Writer(
+                new BufferedOutputStream(new FileOutputStream(file), 64 * 1024), 1700000000000L)) {
+            int user = 0;
+            for (int m = 0; m < messages; m++) {
+                if (random.nextInt(5) == 0) {
+                    // 切换到另一个用户的聊天，先收到一条通知
+                    user = random.nextInt(userCount);
+                    nanos += 500_000_000L + random.nextInt(1_000_000_000);
+                    writer.writeEvent(TYPE_NOTIFICATION_STATE_CHANGED, nanos,
+                            Collections.<CharSequence>singletonList(ChatCorpus.userName(user) + ": " +
+                                    ChatCorpus.message(random)), null);
+                    nanos += 300_000_000L;
+                    writer.writeEvent(TYPE_WINDOW_STATE_CHANGED, nanos, null, buildScreen(user, screens.get(user)));
+                    events += 2;
+                }
+                List<String[]> screen = screens.get(user);
+
+                // 对方发来一条消息，界面连续刷新几次
+                screen.add(new String[]{"other", ChatCorpus.message(random)});
+                nanos += 200_000_000L + random.nextInt(2_000_000_000);
+                int refreshes = 1 + random.nextInt(4);
+                UiNodeSnapshot root = buildScreen(user, screen);
+                for (int r = 0; r < refreshes; r++) {
+                    nanos += 5_000_000L + random.nextInt(60_000_000);
+                    writer.writeEvent(TYPE_WINDOW_CONTENT_CHANGED, nanos, null, root);
+                    events++;
+                }
+
+                // 回复：输入框文本变化，之后界面显示自己发送的消息
+                nanos += 1_000_000_000L + random.nextInt(2_000_000_000);
+                String reply = ChatCorpus.message(random);
+                writer.writeEvent(TYPE_VIEW_TEXT_CHANGED, nanos, Collections.<CharSequence>singletonList(reply), null);
+                screen.add(new String[]{"self", reply});
+                nanos += 50_000_000L;
+                writer.writeEvent(TYPE_WINDOW_CONTENT_CHANGED, nanos, null, buildScreen(user, screen));
+                events += 2;
+            }
+            writer.flush();
+            System.out.printf(Locale.US, "已生成 %s - 事件数: %d, 对方消息数: %d, 字节数: %d%n",
+                    file, events, messages, writer.getBytesWritten());
+        }
+    }
+
+    /**
+     * 聊天界面节点树：标题栏、最近一屏消息（头像、时间和气泡）、输入框和发送按钮
+     */
+    private static UiNodeSnapshot buildScreen(int user, List<String[]> messages) {
+        String prefix = "com.immomo.momo:id/";
+        UiNodeSnapshot titleBar = node(prefix + "toolbar", null, 0, 80, 1080, 240,
+                node(prefix + "back", null, 0, 80, 120, 240),
+                node(ChatScreenParser.CHAT_TITLE_ID, ChatCorpus.userName(user), 120, 80, 900, 240),
+                node(prefix + "more", null, 960, 80, 1080, 240));
+
+        int visible = Math.min(messages.size(), 12);
+        UiNodeSnapshot[] rows = new UiNodeSnapshot[visible];
+        int top = 240;
+        for (int i = 0; i < visible; i++) {
+            String[] message = messages.get(messages.size() - visible + i);
+            boolean self = "self".equals(message[0]);
+            int bottom = top + 160;
+            UiNodeSnapshot bubble = node(prefix + (self ? "layout_right" : "layout_left"), null,
+                    self ? 300 : 140, top + 40, self ? 940 : 780, bottom,
+                    node(ChatScreenParser.MESSAGE_TEXT_ID, message[1], self ? 320 : 160, top + 50,
+                            self ? 920 : 760, bottom - 10));
+            rows[i] = node(prefix + "message_item", null, 0, top, 1080, bottom,
+                    node(prefix + "message_time", "12:" + (10 + i), 480, top, 600, top + 40),
+                    node(prefix + "user_avatar", null, self ? 960 : 20, top + 40, self ? 1060 : 120, top + 140),
+                    bubble);
+            top = bottom;
+        }
+        UiNodeSnapshot list = node(prefix + "message_list", null, 0, 240, 1080, 2100);
+        list.setChildren(rows);
+
+        UiNodeSnapshot inputBar = node(prefix + "input_bar", null, 0, 2100, 1080, 2280,
+                node(prefix + "chat_input", null, 20, 2120, 860, 2260),
+                node(prefix + "send_button", "发送", 880, 2120, 1060, 2260));
+        return node(null, null, 0, 0, 1080, 2340, titleBar, list, inputBar);
+    }
+
+    private static UiNodeSnapshot node(String viewId, String text, int left, int top, int right, int bottom,
+                                       UiNodeSnapshot... children) {
+        UiNodeSnapshot node = new UiNodeSnapshot(viewId, text, left, top, right, bottom);
+        if (children.length > 0) {
+            node.setChildren(children);
+        }
+        return node;
+    }
+}
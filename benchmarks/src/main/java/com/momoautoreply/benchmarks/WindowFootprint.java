@@ -0,0 +1,139 @@
+package com.momoautoreply.benchmarks;
+
+import com.momoautoreply.ChatMessage;
+import com.momoautoreply.MessageWindow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 最近消息窗口的常驻内存对比
+ * 按相同的语料分别构建：
+ * 1. 只有消息内容字符串（基线，两种表示都要保存）
+ * 2. 原来的表示：每个窗口一个 ArrayDeque<ChatMessage>，ID为数据库ID转成的字符串
+ * 3. MessageWindow：平行数组
+ * 每种表示构建后多次GC再读取堆占用，输出每1000条消息占用的字节数。
+ *
+ * 运行：./gradlew :benchmarks:windowFootprint -Pfootprint.args="2000 50"
+ * 参数：对话数（默认2000）、每个对话的消息数（默认50，与 ConversationManager.HISTORY_WINDOW_SIZE 一致）
+ */
+public final class WindowFootprint {
+
+    private static final long SEED = 20240701L;
+
+    // 测量期间持有构建的对象，避免被回收
+    private static volatile Object retained;
+
+    private WindowFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int conversations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int windowSize = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        long messages = (long) conversations * windowSize;
+
+        long contentBytes = measure(() -> buildContents(conversations, windowSize));
+        long dequeBytes = measure(() -> buildDeques(conversations, windowSize));
+        long compactBytes = measure(() -> buildWindows(conversations, windowSize));
+
+        System.out.println("对话数: " + conversations + ", 每个对话消息数: " + windowSize +
+                ", Java: " + System.getProperty("java.version"));
+        print("仅消息内容", contentBytes, 0, messages);
+        print("ArrayDeque<ChatMessage>", dequeBytes, contentBytes, messages);
+        print("MessageWindow", compactBytes, contentBytes, messages);
+        if (dequeBytes > 0) {
+            System.out.printf("MessageWindow / ArrayDeque: %.2f%n", (double) compactBytes / dequeBytes);
+        }
+    }
+
+    private static void print(String name, long bytes, long contentBytes, long messages) {
+        System.out.printf("%-24s 每1000条 %8.1f KB", name, bytes * 1000.0 / messages / 1024);
+        if (contentBytes > 0) {
+            System.out.printf("  除内容外 %8.1f KB", (bytes - contentBytes) * 1000.0 / messages / 1024);
+        }
+        System.out.println();
+    }
+
+    private interface Builder {
+        Object build();
+    }
+
+    /**
+     * 构建并持有对象，返回GC后增加的堆占用
+     */
+    private static long measure(Builder builder) {
+        long before = usedHeap();
+        retained = builder.build();
+        long after = usedHeap();
+        retained = null;
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Object buildContents(int conversations, int windowSize) {
+        List<String[]> result = new ArrayList<>(conversations);
+        for (int c = 0; c < conversations; c++) {
+            Random random = new Random(SEED + c);
+            String[] contents = new String[windowSize];
+            for (int i = 0; i < windowSize; i++) {
+                // 与 messages 消耗相同的随机数，得到相同的内容
+                random.nextInt(180000);
+                contents[i] = ChatCorpus.message(random);
+            }
+            result.add(contents);
+        }
+        return result;
+    }
+
+    private static Object buildDeques(int conversations, int windowSize) {
+        List<ArrayDeque<ChatMessage>> result = new ArrayList<>(conversations);
+        for (int c = 0; c < conversations; c++) {
+            ArrayDeque<ChatMessage> window = new ArrayDeque<>(windowSize);
+            for (ChatMessage message : messages(c, windowSize)) {
+                window.addLast(message);
+            }
+            result.add(window);
+        }
+        return result;
+    }
+
+    private static Object buildWindows(int conversations, int windowSize) {
+        List<MessageWindow> result = new ArrayList<>(conversations);
+        for (int c = 0; c < conversations; c++) {
+            MessageWindow window = new MessageWindow(windowSize);
+            window.addAll(messages(c, windowSize));
+            result.add(window);
+        }
+        return result;
+    }
+
+    /**
+     * 与从数据库加载的消息相同：ID是数字转成的字符串，发送方是常量字符串
+     */
+    private static List<ChatMessage> messages(int conversation, int windowSize) {
+        Random random = new Random(SEED + conversation);
+        List<ChatMessage> messages = new ArrayList<>(windowSize);
+        long id = 100000L + (long) conversation * windowSize;
+        long timestamp = 1700000000000L;
+        for (int i = 0; i < windowSize; i++) {
+            timestamp += 2000 + random.nextInt(180000);
+            messages.add(new ChatMessage(String.valueOf(id + i), i % 2 == 0 ? "other" : "self",
+                    ChatCorpus.message(random), timestamp));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,73 @@
+package com.momoautoreply;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * OpenAI兼容 chat/completions 接口的请求和响应编解码
+ * 功能：
+ * 1. 生成请求体
+ * 2. 解析完整响应中的回复内容
+ * 3. 解析流式响应（SSE data 行）中的增量内容
+ */
+public final class ChatCompletionCodec {
+
+    private ChatCompletionCodec() {
+    }
+
+    /**
+     * 生成请求体
+     * @param model 模型名称
+     * @param messages role/content 消息列表
+     * @param maxTokens 最大生成长度
+     * @param temperature 采样温度
+     * @param stream 是否流式返回
+     * @return JSON请求体
+     * @throws JSONException JSON异常
+     */
+    public static String encodeRequest(String model, JSONArray messages, int maxTokens, double temperature,
+                                       boolean stream) throws JSONException {
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("model", model);
+        requestBody.put("messages", messages);
+        requestBody.put("max_tokens", maxTokens);
+        requestBody.put("temperature", temperature);
+        if (stream) {
+            requestBody.put("stream", true);
+        }
+        return requestBody.toString();
+    }
+
+    /**
+     * 解析完整响应
+     * @param response 响应体
+     * @return 第一个候选的回复内容（去掉首尾空白），没有候选时为null
+     * @throws JSONException 响应格式不符
+     */
+    public static String decodeReply(String response) throws JSONException {
+        JSONObject responseJson = new JSONObject(response);
+        JSONArray choices = responseJson.getJSONArray("choices");
+        if (choices.length() > 0) {
+            JSONObject choice = choices.getJSONObject(0);
+            JSONObject message = choice.getJSONObject("message");
+            return message.getString("content").trim();
+        }
+        return null;
+    }
+
+    /**
+     * 解析一条流式响应
+     * @param data SSE data 行的内容
+     * @return 增量内容，没有内容时为空字符串
+     * @throws JSONException 响应格式不符
+     */
+    public static String decodeStreamToken(String data) throws JSONException {
+        JSONArray choices = new JSONObject(data).optJSONArray("choices");
+        if (choices != null && choices.length() > 0) {
+            JSONObject delta = choices.getJSONObject(0).optJSONObject("delta");
+            return delta != null ? delta.optString("content") : "";
+        }
+        return "";
+    }
+}
@@ -0,0 +1,119 @@
+package com.momoautoreply;
+
+/**
+ * 聊天界面新消息识别
+ * 功能：
+ * 1. 从聊天界面节点树中读取当前用户和最新消息
+ * 2. 跳过已处理的消息和自己发送的消息
+ * 3. 为新收到的消息开始处理链路，记录事件分发、界面读取和去重阶段，交给 Listener 继续处理
+ *
+ * 无障碍服务和事件回放共用。只在事件线程中使用，不做同步。
+ */
+public class ChatEventDetector {
+
+    /**
+     * 一次界面事件的识别结果
+     */
+    public enum Result {
+        // 不在聊天界面，读不到当前用户
+        NO_USER,
+        // 界面上没有消息
+        NO_MESSAGE,
+        // 已处理过的消息
+        DUPLICATE,
+        // 自己发送的消息
+        SELF,
+        // 新收到的对方消息，已交给 Listener
+        RECEIVED
+    }
+
+    /**
+     * 新消息的处理方
+     */
+    public interface Listener {
+        /**
+         * 收到一条新消息，在事件线程中调用
+         * @param trace 处理链路，已记录到去重阶段
+         */
+        void onMessageReceived(String user, String message, MessageTrace trace);
+    }
+
+    private final RecentMessageFilter messageFilter;
+    private final TraceRecorder traceRecorder;
+    private final Listener listener;
+
+    // 最近一次识别出的用户和消息，供调用方写日志
+    private String lastUser;
+    private String lastMessage;
+
+    /**
+     * @param messageFilter 已处理消息过滤，调用方也可以向其中记录消息，例如补处理的消息
+     */
+    public ChatEventDetector(RecentMessageFilter messageFilter, TraceRecorder traceRecorder, Listener listener) {
+        this.messageFilter = messageFilter;
+        this.traceRecorder = traceRecorder;
+        this.listener = listener;
+    }
+
+    /**
+     * 处理一次聊天界面事件
+     * @param root 当前窗口的根节点
+     * @param eventNanos 收到事件时的 System.nanoTime()
+     * @param snapshotNanos 开始读取界面时的 System.nanoTime()
+     * @return 识别结果
+     */
+    public Result onChatEvent(UiNode root, long eventNanos, long snapshotNanos) {
+        lastUser = null;
+        lastMessage = null;
+
+        // 1. 获取当前聊天用户
+        String currentUser = ChatScreenParser.getCurrentChatUser(root);
+        if (currentUser == null) {
+            return Result.NO_USER;
+        }
+        lastUser = currentUser;
+
+        // 2. 获取最新的消息
+        UiNode latestMessageNode = ChatScreenParser.getLatestMessageNode(root);
+        if (latestMessageNode == null || latestMessageNode.getText() == null) {
+            return Result.NO_MESSAGE;
+        }
+        String latestMessage = latestMessageNode.getText().toString().trim();
+        lastMessage = latestMessage;
+        long dedupNanos = System.nanoTime();
+
+        // 3. 避免重复处理相同消息
+        if (messageFilter.isProcessed(currentUser, latestMessage)) {
+            return Result.DUPLICATE;
+        }
+
+        // 4. 只处理对方发送的消息
+        if (ChatScreenParser.SENDER_SELF.equals(ChatScreenParser.getMessageSender(latestMessageNode))) {
+            return Result.SELF;
+        }
+
+        MessageTrace trace = traceRecorder.start(currentUser, eventNanos);
+        trace.record(MessageTrace.Stage.EVENT, eventNanos, snapshotNanos);
+        trace.record(MessageTrace.Stage.SNAPSHOT, snapshotNanos, dedupNanos);
+        trace.record(MessageTrace.Stage.DEDUP, dedupNanos, System.nanoTime());
+        listener.onMessageReceived(currentUser, latestMessage, trace);
+
+        // 5. 更新消息缓存
+        messageFilter.record(currentUser, latestMessage);
+        return Result.RECEIVED;
+    }
+
+    /**
+     * 最近一次事件识别出的用户，没有时为null
+     */
+    public String getLastUser() {
+        return lastUser;
+    }
+
+    /**
+     * 最近一次事件读到的最新消息，没有时为null
+     */
+    public String getLastMessage() {
+        return lastMessage;
+    }
+}
@@ -0,0 +1,19 @@
+package com.momoautoreply;
+
+/**
+ * 消息数据类
+ * sender 为 "self"（自己发送的回复）或 "other"（对方发送的消息）
+ */
+public class ChatMessage {
+    public String id;
+    public String sender;
+    public String content;
+    public long timestamp;
+
+    public ChatMessage(String id, String sender, String content, long timestamp) {
+        this.id = id;
+        this.sender = sender;
+        this.content = content;
+        this.timestamp = timestamp;
+    }
+}
@@ -0,0 +1,169 @@
+package com.momoautoreply;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 陌陌聊天界面解析
+ * 功能：
+ * 1. 从标题栏读取当前聊天用户
+ * 2. 找到最新的一条消息
+ * 3. 根据消息所在的父控件判断发送者
+ * 4. 从消息列表读取各会话的用户名和未读数
+ *
+ * 只依赖 UiNode，设备上的无障碍服务和JVM上的事件回放共用同一套解析逻辑。
+ */
+public final class ChatScreenParser {
+
+    // 陌陌聊天相关控件ID（需根据实际版本调整）
+    public static final String MESSAGE_TEXT_ID = "com.immomo.momo:id/message_text";
+    public static final String CHAT_TITLE_ID = "com.immomo.momo:id/chat_title";
+    // 消息列表（会话列表）相关控件ID
+    public static final String SESSION_LIST_ID = "com.immomo.momo:id/session_list";
+    public static final String SESSION_NAME_ID = "com.immomo.momo:id/session_name";
+    public static final String SESSION_UNREAD_ID = "com.immomo.momo:id/session_unread";
+
+    public static final String SENDER_SELF = "self";
+    public static final String SENDER_OTHER = "other";
+
+    /**
+     * 消息列表中的一个会话
+     */
+    public static class Session {
+        public final String userName;
+        // 未读数，只有红点没有数字时为1
+        public final int unread;
+        // 会话条目节点，点击进入聊天
+        public final UiNode item;
+
+        public Session(String userName, int unread, UiNode item) {
+            this.userName = userName;
+            this.unread = unread;
+            this.item = item;
+        }
+    }
+
+    private ChatScreenParser() {
+    }
+
+    /**
+     * 当前是否是消息列表界面
+     */
+    public static boolean isSessionList(UiNode root) {
+        List<UiNode> lists = root.findByViewId(SESSION_LIST_ID);
+        return lists != null && !lists.isEmpty();
+    }
+
+    /**
+     * 读取消息列表中当前可见的会话
+     * @return 按界面顺序排列的会话，不在消息列表界面时为空
+     */
+    public static List<Session> getSessions(UiNode root) {
+        List<UiNode> lists = root.findByViewId(SESSION_LIST_ID);
+        if (lists == null || lists.isEmpty() || lists.get(0) == null) {
+            return Collections.emptyList();
+        }
+        UiNode list = lists.get(0);
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < list.getChildCount(); i++) {
+            UiNode item = list.getChild(i);
+            if (item == null) {
+                continue;
+            }
+            List<UiNode> names = item.findByViewId(SESSION_NAME_ID);
+            if (names == null || names.isEmpty() || names.get(0) == null || names.get(0).getText() == null) {
+                continue;
+            }
+            String userName = names.get(0).getText().toString().trim();
+            List<UiNode> badges = item.findByViewId(SESSION_UNREAD_ID);
+            int unread = badges == null || badges.isEmpty() || badges.get(0) == null
+                    ? 0 : parseUnread(badges.get(0).getText());
+            sessions.add(new Session(userName, unread, item));
+        }
+        return sessions;
+    }
+
+    /**
+     * 解析未读角标，"99+" 按99计，只有红点没有数字时按1计
+     */
+    static int parseUnread(CharSequence badge) {
+        if (badge == null) {
+            return 1;
+        }
+        int value = 0;
+        boolean digits = false;
+        for (int i = 0; i < badge.length(); i++) {
+            char c = badge.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = Math.min(value * 10 + (c - '0'), 9999);
+                digits = true;
+            } else if (digits) {
+                break;
+            }
+        }
+        return digits ? value : 1;
+    }
+
+    /**
+     * 获取当前聊天用户
+     * @return 用户名，不在聊天界面时为null
+     */
+    public static String getCurrentChatUser(UiNode root) {
+        // 方法1：通过聊天标题栏获取
+        List<UiNode> titleNodes = root.findByViewId(CHAT_TITLE_ID);
+        if (titleNodes != null && !titleNodes.isEmpty()) {
+            UiNode titleNode = titleNodes.get(0);
+            if (titleNode != null && titleNode.getText() != null) {
+                return titleNode.getText().toString().trim();
+            }
+        }
+
+        // 方法2：通过聊天界面其他特征获取
+        // 这里可以添加备用方法，提高兼容性
+
+        return null;
+    }
+
+    /**
+     * 获取界面上最新的一条消息节点
+     * @return 消息节点，没有消息控件时为null
+     */
+    public static UiNode getLatestMessageNode(UiNode root) {
+        List<UiNode> messageNodes = root.findByViewId(MESSAGE_TEXT_ID);
+        if (messageNodes == null || messageNodes.isEmpty()) {
+            return null;
+        }
+        return messageNodes.get(messageNodes.size() - 1);
+    }
+
+    /**
+     * 获取消息发送者
+     * @return SENDER_SELF 表示自己发送的消息，SENDER_OTHER 表示对方发送的消息
+     */
+    public static String getMessageSender(UiNode messageNode) {
+        // 方法1：通过消息节点的父控件特征判断
+        UiNode parent = messageNode.getParent();
+        if (parent != null) {
+            // 获取父控件的资源ID或其他特征
+            String parentResourceName = parent.getViewId();
+
+            // 通常，自己发送的消息和对方发送的消息会有不同的父控件ID
+            // 这里需要根据实际情况调整判断逻辑
+            if (parentResourceName != null) {
+                if (parentResourceName.contains("send") || parentResourceName.contains("right")) {
+                    return SENDER_SELF;
+                } else if (parentResourceName.contains("receive") || parentResourceName.contains("left")) {
+                    return SENDER_OTHER;
+                }
+            }
+
+            // 方法2：通过布局方向判断
+            // 自己发送的消息通常靠右，对方发送的消息通常靠左
+            // 可以通过获取父控件的 getBounds 来判断
+        }
+
+        // 默认返回other
+        return SENDER_OTHER;
+    }
+}
@@ -0,0 +1,553 @@
+package com.momoautoreply;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * 活跃对话内存缓存
+ * 功能：
+ * 1. 缓存用户名到对话ID的映射
+ * 2. 为每个活跃对话保存最近N条消息的环形窗口，窗口用平行数组紧凑存储（见 MessageWindow）
+ * 3. 写入时同步更新（write-through），活跃用户读取历史无需访问数据库
+ * 4. 按内存占用和访问频率淘汰
+ * 5. 统计命中率、估算的常驻内存和锁等待时间
+ * 6. 缓存角色设定；可导出全部条目写入热状态快照，重新连接时从快照恢复
+ *
+ * 缓存按用户名分段，每段有自己的锁、容量和写入序号，不同用户的读写互不阻塞。
+ * 写入方需要在持有 getLock(userName) 的情况下完成"提交写入队列 + append"，
+ * 加载方在加载前取 loadStamp，两者配合保证窗口既不丢消息也不重复。
+ *
+ * 淘汰策略：某段超出条目数或内存上限时，从该段最久未访问的若干条目中
+ * 淘汰访问频率最低的一个；频率计数周期性减半，避免历史热点常驻。
+ */
+public class ConversationCache {
+
+    // 分段数
+    private static final int SEGMENT_COUNT = 16;
+    // 淘汰时从LRU尾部取样的条目数
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+
+    // 估算内存用的条目对象开销（字节），窗口的占用由 MessageWindow 估算
+    private static final int ENTRY_OVERHEAD = 160;
+
+    /**
+     * 缓存条目
+     */
+    private static class Entry {
+        String conversationId;
+        // 角色设定，为null表示未缓存
+        String roleSetting;
+        // 最近消息窗口，为null表示只缓存了对话ID
+        MessageWindow window;
+        int frequency;
+        long estimatedBytes;
+    }
+
+    /**
+     * 缓存分段，所有字段只在持有 lock 时访问
+     */
+    private static class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        // 写入序号，用于检测加载期间是否有并发写入
+        long writeSeq;
+        long residentBytes;
+        long hits;
+        long misses;
+        long evictions;
+        long accessesSinceAging;
+    }
+
+    /**
+     * 一个缓存条目的副本，用于写入和恢复热状态快照
+     */
+    public static class CachedConversation {
+        public final String userName;
+        // 对话ID，只缓存了角色设定时为null
+        public final String conversationId;
+        // 角色设定，未缓存时为null
+        public final String roleSetting;
+        // 按时间升序的最近消息，只缓存了对话ID时为null
+        public final List<ChatMessage> window;
+
+        public CachedConversation(String userName, String conversationId, String roleSetting,
+                                  List<ChatMessage> window) {
+            this.userName = userName;
+            this.conversationId = conversationId;
+            this.roleSetting = roleSetting;
+            this.window = window;
+        }
+    }
+
+    private final int maxEntriesPerSegment;
+    private final long maxBytesPerSegment;
+    private final int windowSize;
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    // 发生等待时的加锁耗时（微秒），未发生竞争的加锁不记录
+    private final Histogram lockWaitHistogram = new Histogram();
+
+    /**
+     * 构造函数
+     * @param maxEntries 最多缓存的对话数
+     * @param maxBytes 估算内存上限（字节）
+     * @param windowSize 每个对话保留的最近消息数
+     */
+    public ConversationCache(int maxEntries, long maxBytes, int windowSize) {
+        this.maxEntriesPerSegment = Math.max(1, maxEntries / SEGMENT_COUNT);
+        this.maxBytesPerSegment = Math.max(1, maxBytes / SEGMENT_COUNT);
+        this.windowSize = windowSize;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * 用户所在分段的锁，可重入
+     * 写入方持有该锁完成入队和 append，保证加载方的 putWindow 能检测到这次写入
+     * @param userName 用户名
+     * @return 锁
+     */
+    public Lock getLock(String userName) {
+        return segmentFor(userName).lock;
+    }
+
+    /**
+     * 获取缓存的最近消息窗口
+     * @param userName 用户名
+     * @return 只读的消息列表副本，未缓存时返回null
+     */
+    public List<ChatMessage> getWindow(String userName) {
+        Segment segment = lock(userName);
+        try {
+            Entry entry = segment.entries.get(userName);
+            if (entry == null || entry.window == null) {
+                segment.misses++;
+                return null;
+            }
+            segment.hits++;
+            touch(segment, entry);
+            return entry.window.copy();
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 获取缓存的对话ID
+     * @param userName 用户名
+     * @return 对话ID，未缓存时返回null
+     */
+    public String getConversationId(String userName) {
+        Segment segment = lock(userName);
+        try {
+            Entry entry = segment.entries.get(userName);
+            if (entry == null) {
+                return null;
+            }
+            touch(segment, entry);
+            return entry.conversationId;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 缓存对话ID
+     * 如果查询期间该用户有写入或被移除，放弃缓存，避免缓存已删除对话的ID
+     * @param userName 用户名
+     * @param conversationId 对话ID
+     * @param stamp 查询前 loadStamp 返回的序号
+     */
+    public void putConversationId(String userName, String conversationId, long stamp) {
+        Segment segment = lock(userName);
+        try {
+            if (segment.writeSeq != stamp) {
+                return;
+            }
+            Entry entry = segment.entries.get(userName);
+            if (entry == null) {
+                entry = new Entry();
+                segment.entries.put(userName, entry);
+            } else {
+                segment.residentBytes -= entry.estimatedBytes;
+            }
+            entry.conversationId = conversationId;
+            entry.estimatedBytes = estimateEntry(userName, entry);
+            segment.residentBytes += entry.estimatedBytes;
+            evictIfNeeded(segment, userName);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 获取缓存的角色设定
+     * @param userName 用户名
+     * @return 角色设定，未缓存时返回null
+     */
+    public String getRoleSetting(String userName) {
+        Segment segment = lock(userName);
+        try {
+            Entry entry = segment.entries.get(userName);
+            if (entry == null || entry.roleSetting == null) {
+                return null;
+            }
+            touch(segment, entry);
+            return entry.roleSetting;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 缓存从数据库查询的角色设定
+     * 如果查询期间该用户有写入或被移除，放弃缓存
+     * @param userName 用户名
+     * @param roleSetting 角色设定
+     * @param stamp 查询前 loadStamp 返回的序号
+     */
+    public void putRoleSetting(String userName, String roleSetting, long stamp) {
+        Segment segment = lock(userName);
+        try {
+            if (segment.writeSeq != stamp) {
+                return;
+            }
+            Entry entry = segment.entries.get(userName);
+            if (entry == null) {
+                entry = new Entry();
+                segment.entries.put(userName, entry);
+            } else {
+                segment.residentBytes -= entry.estimatedBytes;
+            }
+            entry.roleSetting = roleSetting;
+            entry.estimatedBytes = estimateEntry(userName, entry);
+            segment.residentBytes += entry.estimatedBytes;
+            evictIfNeeded(segment, userName);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 角色设定写入数据库后更新缓存（write-through），并推进写入序号
+     * @param userName 用户名
+     * @param roleSetting 新的角色设定
+     */
+    public void updateRoleSetting(String userName, String roleSetting) {
+        Segment segment = lock(userName);
+        try {
+            segment.writeSeq++;
+            Entry entry = segment.entries.get(userName);
+            if (entry == null) {
+                return;
+            }
+            segment.residentBytes -= entry.estimatedBytes;
+            entry.roleSetting = roleSetting;
+            entry.estimatedBytes = estimateEntry(userName, entry);
+            segment.residentBytes += entry.estimatedBytes;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 开始从数据库加载前获取写入序号
+     * @param userName 用户名
+     * @return 序号，传给 putWindow 或 putConversationId
+     */
+    public long loadStamp(String userName) {
+        Segment segment = lock(userName);
+        try {
+            return segment.writeSeq;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 缓存从数据库加载的最近消息窗口
+     * 如果加载期间该用户有新写入，放弃缓存，避免窗口缺少新消息
+     * @param userName 用户名
+     * @param conversationId 对话ID
+     * @param messages 按时间升序的最近消息
+     * @param stamp loadStamp 返回的序号
+     */
+    public void putWindow(String userName, String conversationId,
+                          List<ChatMessage> messages, long stamp) {
+        Segment segment = lock(userName);
+        try {
+            if (segment.writeSeq != stamp) {
+                return;
+            }
+
+            Entry entry = segment.entries.get(userName);
+            if (entry == null) {
+                entry = new Entry();
+                segment.entries.put(userName, entry);
+            } else {
+                segment.residentBytes -= entry.estimatedBytes;
+            }
+
+            entry.conversationId = conversationId;
+            entry.window = new MessageWindow(windowSize);
+            entry.window.addAll(messages);
+            entry.estimatedBytes = estimateEntry(userName, entry);
+            segment.residentBytes += entry.estimatedBytes;
+            touch(segment, entry);
+            evictIfNeeded(segment, userName);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 写入一条新消息（write-through），窗口满时丢弃最旧的一条
+     * 未缓存窗口的用户只推进写入序号
+     * @param userName 用户名
+     * @param message 消息
+     */
+    public void append(String userName, ChatMessage message) {
+        Segment segment = lock(userName);
+        try {
+            segment.writeSeq++;
+
+            Entry entry = segment.entries.get(userName);
+            if (entry == null || entry.window == null) {
+                return;
+            }
+            long before = entry.window.estimateBytes();
+            entry.window.add(message);
+            long added = entry.window.estimateBytes() - before;
+            entry.estimatedBytes += added;
+            segment.residentBytes += added;
+            evictIfNeeded(segment, userName);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 移除某个用户的缓存
+     */
+    public void invalidate(String userName) {
+        Segment segment = lock(userName);
+        try {
+            segment.writeSeq++;
+            Entry entry = segment.entries.remove(userName);
+            if (entry != null) {
+                segment.residentBytes -= entry.estimatedBytes;
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 清空缓存，逐段加锁
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            acquire(segment.lock);
+            try {
+                segment.writeSeq++;
+                segment.entries.clear();
+                segment.residentBytes = 0;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 导出全部缓存条目，逐段加锁复制
+     * 每段内按访问顺序排列，最近访问的在后
+     * @return 条目副本列表
+     */
+    public List<CachedConversation> snapshot() {
+        List<CachedConversation> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            acquire(segment.lock);
+            try {
+                for (Map.Entry<String, Entry> e : segment.entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    result.add(new CachedConversation(e.getKey(), entry.conversationId, entry.roleSetting,
+                            entry.window == null ? null : entry.window.copy()));
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 从热状态快照恢复一个条目，已缓存的条目不覆盖
+     * 如果恢复前该用户有写入或被移除，放弃恢复
+     * @param conversation 快照中的条目
+     * @param stamp 恢复前 loadStamp 返回的序号
+     * @return 是否恢复
+     */
+    public boolean restore(CachedConversation conversation, long stamp) {
+        String userName = conversation.userName;
+        Segment segment = lock(userName);
+        try {
+            if (segment.writeSeq != stamp || segment.entries.containsKey(userName)) {
+                return false;
+            }
+            Entry entry = new Entry();
+            entry.conversationId = conversation.conversationId;
+            entry.roleSetting = conversation.roleSetting;
+            if (conversation.window != null) {
+                entry.window = new MessageWindow(windowSize);
+                entry.window.addAll(conversation.window);
+            }
+            entry.estimatedBytes = estimateEntry(userName, entry);
+            segment.entries.put(userName, entry);
+            segment.residentBytes += entry.estimatedBytes;
+            evictIfNeeded(segment, userName);
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 命中率（0~1）
+     */
+    public double getHitRatio() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getHitCount() {
+        return sum(segment -> segment.hits);
+    }
+
+    public long getMissCount() {
+        return sum(segment -> segment.misses);
+    }
+
+    public long getEvictionCount() {
+        return sum(segment -> segment.evictions);
+    }
+
+    /**
+     * 估算的常驻内存（字节）
+     */
+    public long getResidentBytes() {
+        return sum(segment -> segment.residentBytes);
+    }
+
+    /**
+     * 缓存的对话数
+     */
+    public int size() {
+        return (int) sum(segment -> segment.entries.size());
+    }
+
+    /**
+     * 分段锁等待耗时直方图（微秒），只包含发生竞争的加锁
+     */
+    public Histogram getLockWaitHistogram() {
+        return lockWaitHistogram;
+    }
+
+    /**
+     * 逐段加锁累加统计值
+     */
+    private long sum(ToLongFunction<Segment> field) {
+        long total = 0;
+        for (Segment segment : segments) {
+            acquire(segment.lock);
+            try {
+                total += field.applyAsLong(segment);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return total;
+    }
+
+    private Segment segmentFor(String userName) {
+        return segments[(userName.hashCode() & 0x7fffffff) % SEGMENT_COUNT];
+    }
+
+    private Segment lock(String userName) {
+        Segment segment = segmentFor(userName);
+        acquire(segment.lock);
+        return segment;
+    }
+
+    private void acquire(ReentrantLock lock) {
+        if (lock.tryLock()) {
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        lockWaitHistogram.record((System.nanoTime() - start) / 1000);
+    }
+
+    private void touch(Segment segment, Entry entry) {
+        entry.frequency++;
+        // 访问次数达到段容量的10倍时频率减半
+        if (++segment.accessesSinceAging >= maxEntriesPerSegment * 10L) {
+            segment.accessesSinceAging = 0;
+            for (Entry e : segment.entries.values()) {
+                e.frequency >>= 1;
+            }
+        }
+    }
+
+    /**
+     * 超出段上限时淘汰，刚写入的条目不参与淘汰
+     */
+    private void evictIfNeeded(Segment segment, String protectedUser) {
+        while ((segment.entries.size() > maxEntriesPerSegment || segment.residentBytes > maxBytesPerSegment)
+                && segment.entries.size() > 1) {
+            String victim = null;
+            int victimFrequency = Integer.MAX_VALUE;
+            int sampled = 0;
+
+            // LinkedHashMap按访问顺序排列，头部是最久未访问的条目
+            Iterator<Map.Entry<String, Entry>> iterator = segment.entries.entrySet().iterator();
+            while (iterator.hasNext() && sampled < EVICTION_SAMPLE_SIZE) {
+                Map.Entry<String, Entry> candidate = iterator.next();
+                if (candidate.getKey().equals(protectedUser)) {
+                    continue;
+                }
+                sampled++;
+                if (candidate.getValue().frequency < victimFrequency) {
+                    victim = candidate.getKey();
+                    victimFrequency = candidate.getValue().frequency;
+                }
+            }
+
+            if (victim == null) {
+                return;
+            }
+            Entry removed = segment.entries.remove(victim);
+            segment.residentBytes -= removed.estimatedBytes;
+            segment.evictions++;
+        }
+    }
+
+    private long estimateEntry(String userName, Entry entry) {
+        long bytes = ENTRY_OVERHEAD + estimateString(userName) + estimateString(entry.conversationId) +
+                estimateString(entry.roleSetting);
+        if (entry.window != null) {
+            bytes += entry.window.estimateBytes();
+        }
+        return bytes;
+    }
+
+    private static long estimateString(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+}
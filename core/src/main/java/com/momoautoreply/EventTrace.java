@@ -0,0 +1,341 @@
+package com.momoautoreply;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 无障碍事件录制文件
+ * 功能：
+ * 1. Writer 把事件类型、时间和当时的界面节点树写入二进制文件
+ * 2. Reader 按顺序读出事件，节点树还原为 UiNodeSnapshot，用于在JVM上离线回放
+ *
+ * 文件格式：[int 魔数][byte 版本][long 开始时间（毫秒）]，之后是连续的事件记录：
+ * [byte 记录类型][变长 事件类型][变长 距上一事件的纳秒数][变长 文本数][文本...][byte 是否有节点树][节点树]。
+ * 节点树按先序写入，每个节点为 [控件ID引用][文本][左][上][宽][高][变长 子节点数]，
+ * 控件ID在文件内去重，首次出现时写入字符串，之后只写序号。
+ * 整数用7位一组的变长编码，位置可能为负，先做zigzag。文件可能在进程被杀死时截断，Reader 读到不完整的记录时视为结束。
+ */
+public final class EventTrace {
+
+    private static final int MAGIC = 0x4D4D4554;
+    private static final int VERSION = 1;
+    private static final int RECORD_EVENT = 1;
+    // 文件头：魔数、版本和开始时间
+    static final int HEADER_BYTES = 4 + 1 + 8;
+
+    // 单个节点树最多录制的节点数，超出部分的子节点不再写入
+    public static final int MAX_NODES = 4000;
+
+    private EventTrace() {
+    }
+
+    /**
+     * 录制的一个事件
+     */
+    public static class Event {
+        public final int eventType;
+        // 距第一个事件的纳秒数
+        public final long offsetNanos;
+        public final List<String> texts;
+        // 事件发生时的节点树，没有录制时为null
+        public final UiNodeSnapshot root;
+
+        Event(int eventType, long offsetNanos, List<String> texts, UiNodeSnapshot root) {
+            this.eventType = eventType;
+            this.offsetNanos = offsetNanos;
+            this.texts = texts;
+            this.root = root;
+        }
+    }
+
+    /**
+     * 录制文件写入器，同一时刻只能由一个线程写入
+     */
+    public static class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        private final Map<String, Integer> viewIds = new HashMap<>();
+        private final int[] bounds = new int[4];
+        private long lastNanos = -1;
+        private long eventCount;
+        private int nodeBudget;
+
+        /**
+         * @param out 输出流，调用方负责缓冲
+         * @param startTimeMillis 开始录制的时间
+         */
+        public Writer(OutputStream out, long startTimeMillis) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeLong(startTimeMillis);
+        }
+
+        /**
+         * 写入一个事件
+         * @param eventType 无障碍事件类型
+         * @param eventNanos 收到事件时的 System.nanoTime()
+         * @param texts 事件文本，例如通知内容，可以为null
+         * @param root 当时的根节点，不需要节点树时为null
+         */
+        public void writeEvent(int eventType, long eventNanos, List<CharSequence> texts, UiNode root)
+                throws IOException {
+            out.writeByte(RECORD_EVENT);
+            writeVarLong(eventType);
+            writeVarLong(lastNanos < 0 ? 0 : Math.max(0, eventNanos - lastNanos));
+            lastNanos = eventNanos;
+
+            int textCount = texts != null ? texts.size() : 0;
+            writeVarLong(textCount);
+            for (int i = 0; i < textCount; i++) {
+                CharSequence text = texts.get(i);
+                writeString(text != null ? text.toString() : "");
+            }
+
+            if (root == null) {
+                out.writeByte(0);
+            } else {
+                out.writeByte(1);
+                nodeBudget = MAX_NODES;
+                writeNode(root);
+            }
+            eventCount++;
+        }
+
+        private void writeNode(UiNode node) throws IOException {
+            nodeBudget--;
+            String viewId = node.getViewId();
+            if (viewId == null) {
+                writeVarLong(0);
+            } else {
+                Integer index = viewIds.get(viewId);
+                if (index != null) {
+                    writeVarLong(index);
+                } else {
+                    // 新的控件ID，序号从1开始，0表示没有
+                    int newIndex = viewIds.size() + 1;
+                    viewIds.put(viewId, newIndex);
+                    writeVarLong(newIndex);
+                    writeString(viewId);
+                }
+            }
+            CharSequence text = node.getText();
+            if (text == null) {
+                writeVarLong(0);
+            } else {
+                writeString(text.toString());
+            }
+            node.getBounds(bounds);
+            writeVarLong(zigzag(bounds[0]));
+            writeVarLong(zigzag(bounds[1]));
+            writeVarLong(zigzag(bounds[2] - bounds[0]));
+            writeVarLong(zigzag(bounds[3] - bounds[1]));
+
+            // 先取出子节点再写数量，读不到的子节点跳过
+            int childCount = nodeBudget > 0 ? node.getChildCount() : 0;
+            List<UiNode> children = new ArrayList<>(childCount);
+            for (int i = 0; i < childCount && children.size() < nodeBudget; i++) {
+                UiNode child = node.getChild(i);
+                if (child != null) {
+                    children.add(child);
+                }
+            }
+            writeVarLong(children.size());
+            for (UiNode child : children) {
+                if (nodeBudget > 0) {
+                    writeNode(child);
+                } else {
+                    writeEmptyNode();
+                }
+            }
+        }
+
+        private void writeEmptyNode() throws IOException {
+            // 控件ID、文本、位置和子节点数都为0
+            for (int i = 0; i < 7; i++) {
+                writeVarLong(0);
+            }
+        }
+
+        /**
+         * 字符串写为 [变长 UTF-8字节数+1][UTF-8]，0留给null
+         */
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1);
+            out.write(bytes);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        public long getEventCount() {
+            return eventCount;
+        }
+
+        /**
+         * 已写入的字节数
+         */
+        public long getBytesWritten() {
+            return out.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * 录制文件读取器
+     */
+    public static class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private final long startTimeMillis;
+        private final List<String> viewIds = new ArrayList<>();
+        private long offsetNanos;
+        private boolean first = true;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            if (this.in.readInt() != MAGIC) {
+                throw new IOException("不是无障碍事件录制文件");
+            }
+            int version = this.in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("不支持的录制文件版本: " + version);
+            }
+            this.startTimeMillis = this.in.readLong();
+        }
+
+        /**
+         * 开始录制的时间（毫秒）
+         */
+        public long getStartTimeMillis() {
+            return startTimeMillis;
+        }
+
+        /**
+         * 读取下一个事件
+         * @return 事件，文件结束或末尾记录不完整时为null
+         */
+        public Event next() throws IOException {
+            int recordType;
+            try {
+                recordType = in.readUnsignedByte();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (recordType != RECORD_EVENT) {
+                throw new IOException("未知的记录类型: " + recordType);
+            }
+            try {
+                int eventType = (int) readVarLong();
+                long delta = readVarLong();
+                offsetNanos = first ? 0 : offsetNanos + delta;
+                first = false;
+
+                int textCount = (int) readVarLong();
+                List<String> texts;
+                if (textCount == 0) {
+                    texts = Collections.emptyList();
+                } else {
+                    texts = new ArrayList<>(textCount);
+                    for (int i = 0; i < textCount; i++) {
+                        texts.add(readString());
+                    }
+                }
+
+                UiNodeSnapshot root = in.readUnsignedByte() != 0 ? readNode() : null;
+                return new Event(eventType, offsetNanos, texts, root);
+            } catch (EOFException e) {
+                // 进程被杀死时最后一条记录可能没有写完
+                return null;
+            }
+        }
+
+        private UiNodeSnapshot readNode() throws IOException {
+            int viewIdIndex = (int) readVarLong();
+            String viewId = null;
+            if (viewIdIndex > viewIds.size()) {
+                viewId = readString();
+                viewIds.add(viewId);
+            } else if (viewIdIndex > 0) {
+                viewId = viewIds.get(viewIdIndex - 1);
+            }
+            String text = readString();
+            int left = unzigzag(readVarLong());
+            int top = unzigzag(readVarLong());
+            int width = unzigzag(readVarLong());
+            int height = unzigzag(readVarLong());
+            UiNodeSnapshot node = new UiNodeSnapshot(viewId, text, left, top, left + width, top + height);
+
+            int childCount = (int) readVarLong();
+            if (childCount > 0) {
+                UiNodeSnapshot[] children = new UiNodeSnapshot[childCount];
+                for (int i = 0; i < childCount; i++) {
+                    children[i] = readNode();
+                }
+                node.setChildren(children);
+            }
+            return node;
+        }
+
+        private String readString() throws IOException {
+            int length = (int) readVarLong();
+            if (length == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("变长整数格式错误");
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzigzag(long value) {
+        int v = (int) value;
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
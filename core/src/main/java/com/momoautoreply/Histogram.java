@@ -0,0 +1,217 @@
+package com.momoautoreply;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁对数线性直方图
+ * 功能：
+ * 1. 记录非负整数样本（耗时、批大小等），记录时无锁、无分配
+ * 2. 每个2的幂区间再细分16个子桶，相对误差约6%
+ * 3. 查询计数、均值、最大值和任意分位数
+ * 4. 通过 Snapshot 计算两个时刻之间新增样本的分位数，不需要清空直方图
+ *
+ * 桶布局与HdrHistogram相同思路：小于32的值各占一个桶，
+ * 之后每个 [2^e, 2^(e+1)) 区间均分为16个桶，共960个桶覆盖全部long范围。
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * 记录一个样本，负数按0处理
+     * @param value 样本值
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(value);
+
+        long max;
+        while (value > (max = maxValue.get())) {
+            if (maxValue.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 样本数
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * 样本总和
+     */
+    public long getSum() {
+        return totalSum.get();
+    }
+
+    /**
+     * 最大样本
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * 平均值
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalSum.get() / count;
+    }
+
+    /**
+     * 分位数，返回所在桶的上界
+     * @param quantile 0~1之间，例如0.99
+     * @return 分位值，没有样本时返回0
+     */
+    public long getPercentile(double quantile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * 小于等于给定值的样本数（按桶统计，边界误差不超过一个子桶）
+     * @param value 上界
+     * @return 样本数
+     */
+    public long getCountAtOrBelow(long value) {
+        if (value < 0) {
+            return 0;
+        }
+        int last = bucketIndex(value);
+        long seen = 0;
+        for (int i = 0; i <= last; i++) {
+            seen += counts.get(i);
+        }
+        return seen;
+    }
+
+    /**
+     * 清空所有样本
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalSum.set(0);
+        maxValue.set(0);
+    }
+
+    /**
+     * 直方图某一时刻的副本，用于统计一段时间内新增的样本
+     * 副本对象可以反复采集，采集和查询都不分配内存
+     */
+    public static class Snapshot {
+        private final long[] counts = new long[BUCKET_COUNT];
+        private long totalCount;
+        private long totalSum;
+        private long maxValue;
+
+        /**
+         * 采集直方图当前的计数，覆盖之前的内容
+         * 采集期间仍在记录的样本可能只计入部分桶，误差不超过并发记录的样本数
+         */
+        public void capture(Histogram histogram) {
+            totalCount = histogram.totalCount.get();
+            totalSum = histogram.totalSum.get();
+            maxValue = histogram.maxValue.get();
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = histogram.counts.get(i);
+            }
+        }
+
+        /**
+         * 清空副本，相当于采集一个没有样本的直方图
+         */
+        public void clear() {
+            Arrays.fill(counts, 0);
+            totalCount = 0;
+            totalSum = 0;
+            maxValue = 0;
+        }
+
+        /**
+         * 相对更早副本新增的样本数
+         */
+        public long getCountSince(Snapshot earlier) {
+            return totalCount - earlier.totalCount;
+        }
+
+        /**
+         * 相对更早副本新增样本的平均值
+         */
+        public double getMeanSince(Snapshot earlier) {
+            long count = getCountSince(earlier);
+            return count <= 0 ? 0 : (double) (totalSum - earlier.totalSum) / count;
+        }
+
+        /**
+         * 相对更早副本新增样本的分位数，返回所在桶的上界
+         * @return 分位值，没有新增样本时返回0
+         */
+        public long getPercentileSince(Snapshot earlier, double quantile) {
+            long count = getCountSince(earlier);
+            if (count <= 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i] - earlier.counts[i];
+                if (seen >= target) {
+                    return Math.min(bucketUpperBound(i), maxValue);
+                }
+            }
+            return maxValue;
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift);
+        return (shift + 1) * SUB_BUCKET_COUNT + (subBucket - SUB_BUCKET_COUNT);
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        long upper = ((subBucket + 1) << shift) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
@@ -0,0 +1,261 @@
+package com.momoautoreply;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 热状态快照
+ * 保存服务重新连接时需要的内存状态：已处理消息过滤记录，以及活跃对话缓存中的
+ * 对话ID、角色设定和最近消息窗口，重新连接时直接恢复，不必从数据库重建。
+ *
+ * 文件格式：[int 魔数][byte 版本][long 写入时间（毫秒）][long 下一个消息ID][long 对话数]
+ * [变长 过滤记录数]{[用户名][消息]}[变长 缓存条目数]{[用户名][对话ID][角色设定][变长 窗口消息数+1][消息...]}[int CRC32]。
+ * 消息为 [变长 数字ID+1，非数字ID写0后跟字符串][byte 是否自己发送][变长 zigzag 与上一条的时间差][内容]。
+ * 字符串写为 [变长 UTF-8字节数+1][UTF-8]，0留给null。
+ *
+ * 写入时先写临时文件并同步到磁盘，再重命名覆盖，进程在写入中途被杀死也不会留下不完整的快照。
+ * 读取时内存映射整个文件并校验CRC。下一个消息ID和对话数是写入时数据库的状态标记，
+ * 由使用方与当前数据库比较，不一致说明快照之后数据库有变化，应改为从数据库重建。
+ */
+public final class HotStateSnapshot {
+
+    private static final int MAGIC = 0x4D4D4853;
+    private static final int VERSION = 1;
+
+    public final long createdAtMillis;
+    // 写入时数据库的下一个消息ID和对话数
+    public final long nextMessageId;
+    public final long conversationCount;
+    // 用户名 -> 最近处理的消息
+    public final Map<String, String> recentMessages;
+    public final List<ConversationCache.CachedConversation> conversations;
+
+    public HotStateSnapshot(long createdAtMillis, long nextMessageId, long conversationCount,
+                            Map<String, String> recentMessages,
+                            List<ConversationCache.CachedConversation> conversations) {
+        this.createdAtMillis = createdAtMillis;
+        this.nextMessageId = nextMessageId;
+        this.conversationCount = conversationCount;
+        this.recentMessages = recentMessages;
+        this.conversations = conversations;
+    }
+
+    /**
+     * 原子写入快照文件
+     * @param file 目标文件，同目录下的 .tmp 文件用作临时文件
+     * @return 写入的字节数
+     */
+    public long write(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(createdAtMillis);
+        out.writeLong(nextMessageId);
+        out.writeLong(conversationCount);
+
+        writeVarLong(out, recentMessages.size());
+        for (Map.Entry<String, String> entry : recentMessages.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+
+        writeVarLong(out, conversations.size());
+        for (ConversationCache.CachedConversation conversation : conversations) {
+            writeString(out, conversation.userName);
+            writeString(out, conversation.conversationId);
+            writeString(out, conversation.roleSetting);
+            if (conversation.window == null) {
+                writeVarLong(out, 0);
+                continue;
+            }
+            writeVarLong(out, conversation.window.size() + 1);
+            long lastTimestamp = 0;
+            for (ChatMessage message : conversation.window) {
+                writeMessageId(out, message.id);
+                out.writeByte("self".equals(message.sender) ? 1 : 0);
+                writeVarLong(out, zigzag(message.timestamp - lastTimestamp));
+                lastTimestamp = message.timestamp;
+                writeString(out, message.content);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp)) {
+            bytes.writeTo(fileOut);
+            fileOut.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("重命名快照文件失败: " + tmp);
+        }
+        return bytes.size();
+    }
+
+    /**
+     * 内存映射读取快照文件
+     * @param file 快照文件
+     * @return 快照
+     * @throws IOException 文件不存在、版本不符或内容损坏
+     */
+    public static HotStateSnapshot read(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int length = buffer.limit();
+        if (length < 4) {
+            throw new IOException("快照文件不完整: " + file);
+        }
+        ByteBuffer content = buffer.duplicate();
+        content.limit(length - 4);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if ((int) crc.getValue() != buffer.getInt(length - 4)) {
+            throw new IOException("快照文件校验失败: " + file);
+        }
+
+        buffer.limit(length - 4);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("不是快照文件: " + file);
+            }
+            int version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException("不支持的快照版本: " + version);
+            }
+            long createdAtMillis = buffer.getLong();
+            long nextMessageId = buffer.getLong();
+            long conversationCount = buffer.getLong();
+
+            int recentCount = (int) readVarLong(buffer);
+            Map<String, String> recentMessages = new HashMap<>(recentCount * 2);
+            for (int i = 0; i < recentCount; i++) {
+                recentMessages.put(readString(buffer), readString(buffer));
+            }
+
+            int cachedCount = (int) readVarLong(buffer);
+            List<ConversationCache.CachedConversation> conversations = new ArrayList<>(cachedCount);
+            for (int i = 0; i < cachedCount; i++) {
+                String userName = readString(buffer);
+                String conversationId = readString(buffer);
+                String roleSetting = readString(buffer);
+                int windowSize = (int) readVarLong(buffer);
+                List<ChatMessage> window = null;
+                if (windowSize > 0) {
+                    window = new ArrayList<>(windowSize - 1);
+                    long timestamp = 0;
+                    for (int j = 0; j < windowSize - 1; j++) {
+                        String id = readMessageId(buffer);
+                        String sender = buffer.get() == 1 ? "self" : "other";
+                        timestamp += unzigzag(readVarLong(buffer));
+                        window.add(new ChatMessage(id, sender, readString(buffer), timestamp));
+                    }
+                }
+                conversations.add(new ConversationCache.CachedConversation(
+                        userName, conversationId, roleSetting, window));
+            }
+            return new HotStateSnapshot(createdAtMillis, nextMessageId, conversationCount,
+                    recentMessages, conversations);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("快照文件格式错误: " + file, e);
+        }
+    }
+
+    /**
+     * 数据库分配的消息ID都是数字，写为变长整数；其他ID写为字符串
+     */
+    private static void writeMessageId(DataOutputStream out, String id) throws IOException {
+        long value = -1;
+        if (id != null && !id.isEmpty() && id.length() < 19 && Character.isDigit(id.charAt(0))) {
+            try {
+                value = Long.parseLong(id);
+            } catch (NumberFormatException e) {
+                value = -1;
+            }
+        }
+        if (value >= 0 && String.valueOf(value).equals(id)) {
+            writeVarLong(out, value + 1);
+        } else {
+            writeVarLong(out, 0);
+            writeString(out, id);
+        }
+    }
+
+    private static String readMessageId(ByteBuffer in) throws IOException {
+        long value = readVarLong(in);
+        return value == 0 ? readString(in) : String.valueOf(value - 1);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = (int) readVarLong(in);
+        if (length == 0) {
+            return null;
+        }
+        if (length - 1 > in.remaining()) {
+            throw new IOException("快照字符串长度错误");
+        }
+        byte[] bytes = new byte[length - 1];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
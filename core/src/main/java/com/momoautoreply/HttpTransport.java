@@ -0,0 +1,188 @@
+package com.momoautoreply;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 共享的HTTP传输层
+ * 功能：
+ * 1. 统一的JSON POST请求
+ * 2. SSE（text/event-stream）流式读取
+ * 3. 保证响应体被完整读取并关闭，使底层连接回到keep-alive连接池复用
+ * 4. 预先建立连接，启动时完成DNS、TCP和TLS握手
+ *
+ * HttpURLConnection在连接正常读完后会把socket放回进程级连接池，
+ * 所以所有模型请求都走这里，避免各自遗漏读取错误流导致连接无法复用。
+ */
+public class HttpTransport {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    private static final HttpTransport INSTANCE = new HttpTransport();
+
+    /**
+     * SSE事件回调
+     */
+    public interface EventListener {
+        /**
+         * 收到一个 data 字段
+         * @param data 事件数据
+         * @return false 表示不再需要后续事件
+         */
+        boolean onEvent(String data) throws IOException;
+    }
+
+    private HttpTransport() {
+        // keep-alive 连接池大小，默认只有5个
+        System.setProperty("http.keepAlive", "true");
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", "8");
+        }
+    }
+
+    public static HttpTransport getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 发送JSON请求并读取完整响应
+     * @param url 地址
+     * @param headers 额外请求头
+     * @param body 请求体
+     * @return 响应体
+     * @throws IOException 网络异常或非2xx响应
+     */
+    public String postJson(String url, Map<String, String> headers, String body) throws IOException {
+        HttpURLConnection connection = openPost(url, headers, "application/json", body);
+        try (InputStream in = responseStream(connection)) {
+            return readAll(in);
+        }
+    }
+
+    /**
+     * 发送JSON请求并按SSE读取流式响应
+     * @param url 地址
+     * @param headers 额外请求头
+     * @param body 请求体
+     * @param listener 事件回调
+     * @throws IOException 网络异常或非2xx响应
+     */
+    public void postJsonStream(String url, Map<String, String> headers, String body,
+                               EventListener listener) throws IOException {
+        HttpURLConnection connection = openPost(url, headers, "text/event-stream", body);
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(responseStream(connection), StandardCharsets.UTF_8))) {
+            String line;
+            boolean wantMore = true;
+            while ((line = reader.readLine()) != null) {
+                // 提前结束时也要把剩余内容读完，连接才能复用
+                if (wantMore && line.startsWith("data:")) {
+                    String data = line.substring(5).trim();
+                    if ("[DONE]".equals(data)) {
+                        wantMore = false;
+                    } else if (!data.isEmpty()) {
+                        wantMore = listener.onEvent(data);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 预先建立到某地址的连接
+     * 发送一个HEAD请求并读完响应，连接完成握手后留在keep-alive连接池中，下一个请求直接复用。
+     * 不关心响应状态码，接口地址对HEAD返回404或405也能起到预热的作用。
+     * @param url 地址
+     * @return 响应状态码
+     * @throws IOException 网络异常
+     */
+    public int preconnect(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestMethod("HEAD");
+        int code = connection.getResponseCode();
+        InputStream in = code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in != null) {
+            try (InputStream body = in) {
+                readAll(body);
+            }
+        }
+        return code;
+    }
+
+    private HttpURLConnection openPost(String url, Map<String, String> headers, String accept,
+                                       String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Accept", accept);
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        connection.setDoOutput(true);
+
+        byte[] input = body.getBytes(StandardCharsets.UTF_8);
+        connection.setFixedLengthStreamingMode(input.length);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(input, 0, input.length);
+        }
+        return connection;
+    }
+
+    /**
+     * 获取响应流，非2xx时读完错误流后抛出异常
+     */
+    private InputStream responseStream(HttpURLConnection connection) throws IOException {
+        int code = connection.getResponseCode();
+        if (code >= 200 && code < 300) {
+            return connection.getInputStream();
+        }
+
+        String error = "";
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream != null) {
+            try (InputStream in = errorStream) {
+                error = readAll(in);
+            }
+        }
+        throw new HttpStatusException(code, error);
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        StringBuilder response = new StringBuilder();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String responseLine;
+            while ((responseLine = br.readLine()) != null) {
+                response.append(responseLine.trim());
+            }
+        }
+        return response.toString();
+    }
+
+    /**
+     * 非2xx响应异常
+     */
+    public static class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int statusCode;
+
+        public HttpStatusException(int statusCode, String body) {
+            super("HTTP " + statusCode + ": " + body);
+            this.statusCode = statusCode;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.momoautoreply;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.ToIntFunction;
+
+/**
+ * 消息列表巡检
+ * 功能：
+ * 1. 在消息列表界面读取各会话的未读角标，有未读消息的会话进入优先队列
+ * 2. 按未读数、等待时间和联系人优先级依次点开会话，交给聊天界面的新消息识别和回复流程处理
+ * 3. 回复完成、进入后没有新消息或超过单个会话的时间预算后返回消息列表，再处理下一个
+ * 4. 统计每分钟处理的会话数、每个会话从出现未读到被点开的等待时间和停留时间
+ *
+ * 优先级：等待时间 + 未读数 × UNREAD_WEIGHT_MS + 联系人优先级 × PRIORITY_WEIGHT_MS，越大越先处理。
+ * 所有会话的等待时间以相同速度增长，所以队列按与时间无关的键排序即可。
+ *
+ * 界面操作通过 Navigator 完成，设备上由无障碍服务实现，回放和测试时可以替换。
+ * 所有方法加锁，界面事件、定时检查和处理线程的回复完成通知可以来自不同线程。
+ */
+public class InboxScanner {
+
+    // 一条未读消息相当于多等待的时间
+    private static final long UNREAD_WEIGHT_MS = 30 * 1000;
+    // 未读数超过该值按该值计算，避免刷屏的会话一直排在最前
+    private static final int MAX_WEIGHTED_UNREAD = 10;
+    // 联系人优先级每一级相当于多等待的时间
+    private static final long PRIORITY_WEIGHT_MS = 5 * 60 * 1000;
+    // 点击后等待聊天界面出现的最长时间
+    static final long OPEN_TIMEOUT_MS = 5000;
+    // 进入聊天后这段时间内没有识别到新消息，视为不需要回复
+    static final long SETTLE_MS = 3000;
+    // 返回后等待消息列表出现的时间，超时再返回一次
+    static final long BACK_TIMEOUT_MS = 3000;
+    private static final int MAX_BACK_ATTEMPTS = 2;
+    // 处理完的会话在这段时间内不再加入队列，等待消息列表刷新掉角标
+    static final long REVISIT_COOL_DOWN_MS = 15 * 1000;
+    // 统计每分钟处理数的时间窗口
+    private static final long RATE_WINDOW_MS = 60 * 1000;
+
+    /**
+     * 界面操作
+     */
+    public interface Navigator {
+        /**
+         * 点击消息列表中的会话条目
+         * @return 是否点击成功
+         */
+        boolean openChat(UiNode sessionItem);
+
+        /**
+         * 返回上一界面
+         * @return 是否执行成功
+         */
+        boolean goBack();
+    }
+
+    /**
+     * 一个会话的处理结果
+     */
+    public enum Outcome {
+        // 识别到新消息并完成回复流程
+        REPLIED,
+        // 进入后没有需要回复的新消息
+        NO_NEW_MESSAGE,
+        // 超过时间预算，回复可能仍在生成，未发送的回复留在收到消息日志中
+        TIMEOUT,
+        // 处理中途界面被切回消息列表
+        INTERRUPTED,
+        // 点击会话失败或聊天界面没有出现
+        OPEN_FAILED
+    }
+
+    private enum State {
+        // 在消息列表或其他界面，没有正在处理的会话
+        IDLE,
+        // 已点击会话，等待聊天界面出现
+        OPENING,
+        // 在聊天界面，等待回复完成
+        SERVING,
+        // 已返回，等待消息列表出现
+        RETURNING
+    }
+
+    /**
+     * 等待处理的会话
+     */
+    private static class Pending {
+        final String userName;
+        final long firstSeenMillis;
+        int unread;
+        int priority;
+        // 与时间无关的排序键，越大越先处理
+        long key;
+
+        Pending(String userName, long firstSeenMillis) {
+            this.userName = userName;
+            this.firstSeenMillis = firstSeenMillis;
+        }
+
+        void update(int unread, int priority) {
+            this.unread = unread;
+            this.priority = priority;
+            key = Math.min(unread, MAX_WEIGHTED_UNREAD) * UNREAD_WEIGHT_MS +
+                    priority * PRIORITY_WEIGHT_MS - firstSeenMillis;
+        }
+    }
+
+    private final Navigator navigator;
+    private final ToIntFunction<String> contactPriority;
+    private final long chatBudgetMs;
+
+    private final PriorityQueue<Pending> queue = new PriorityQueue<>(16, (a, b) -> Long.compare(b.key, a.key));
+    private final Map<String, Pending> pendingByUser = new HashMap<>();
+    // 最近处理完的会话 -> 处理完的时间
+    private final Map<String, Long> recentlyServed = new HashMap<>();
+
+    private State state = State.IDLE;
+    private long stateSinceMillis;
+    private int backAttempts;
+    // 正在处理的会话及其状态
+    private Pending current;
+    private long servingSinceMillis;
+    private boolean received;
+
+    // 统计
+    private final Histogram waitHistogram = new Histogram();
+    private final Histogram serveHistogram = new Histogram();
+    private final long[] outcomeCounts = new long[Outcome.values().length];
+    private final ArrayDeque<Long> servedTimes = new ArrayDeque<>();
+
+    /**
+     * @param navigator 界面操作
+     * @param contactPriority 联系人优先级，0为普通，越大越优先
+     * @param chatBudgetMs 单个会话的最长停留时间
+     */
+    public InboxScanner(Navigator navigator, ToIntFunction<String> contactPriority, long chatBudgetMs) {
+        this.navigator = navigator;
+        this.contactPriority = contactPriority;
+        this.chatBudgetMs = chatBudgetMs;
+    }
+
+    /**
+     * 界面变化：在消息列表时更新队列并点开下一个会话，在聊天界面时确认会话已打开
+     * @param root 当前窗口的根节点
+     * @param nowMillis 当前时间
+     */
+    public synchronized void onScreen(UiNode root, long nowMillis) {
+        if (ChatScreenParser.isSessionList(root)) {
+            onSessionList(ChatScreenParser.getSessions(root), nowMillis);
+            return;
+        }
+        if (state == State.OPENING && current.userName.equals(ChatScreenParser.getCurrentChatUser(root))) {
+            enterServing(nowMillis);
+        }
+    }
+
+    /**
+     * 聊天界面识别到新消息
+     */
+    public synchronized void onMessageReceived(String userName, long nowMillis) {
+        if (current == null || !current.userName.equals(userName)) {
+            return;
+        }
+        if (state == State.OPENING) {
+            enterServing(nowMillis);
+        }
+        if (state == State.SERVING) {
+            received = true;
+        }
+    }
+
+    /**
+     * 一条消息的回复流程结束（无论是否发送成功），只对本次进入后识别到的消息生效
+     */
+    public synchronized void onReplyFinished(String userName, long nowMillis) {
+        if (state == State.SERVING && received && current.userName.equals(userName)) {
+            finishAndReturn(Outcome.REPLIED, nowMillis);
+        }
+    }
+
+    /**
+     * 定期调用，处理打开超时、停留超时和返回超时
+     */
+    public synchronized void tick(long nowMillis) {
+        long elapsed = nowMillis - stateSinceMillis;
+        switch (state) {
+            case OPENING:
+                // 聊天界面没有出现，仍在消息列表，不执行返回
+                if (elapsed > OPEN_TIMEOUT_MS) {
+                    finish(Outcome.OPEN_FAILED, nowMillis);
+                    state = State.IDLE;
+                    stateSinceMillis = nowMillis;
+                }
+                break;
+            case SERVING:
+                if (elapsed > chatBudgetMs) {
+                    finishAndReturn(Outcome.TIMEOUT, nowMillis);
+                } else if (!received && elapsed > SETTLE_MS) {
+                    finishAndReturn(Outcome.NO_NEW_MESSAGE, nowMillis);
+                }
+                break;
+            case RETURNING:
+                if (elapsed > BACK_TIMEOUT_MS) {
+                    if (backAttempts < MAX_BACK_ATTEMPTS) {
+                        backAttempts++;
+                        navigator.goBack();
+                    } else {
+                        state = State.IDLE;
+                    }
+                    stateSinceMillis = nowMillis;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onSessionList(List<ChatScreenParser.Session> sessions, long nowMillis) {
+        for (ChatScreenParser.Session session : sessions) {
+            if (current != null && current.userName.equals(session.userName)) {
+                continue;
+            }
+            if (session.unread > 0) {
+                offer(session.userName, session.unread, nowMillis);
+            } else {
+                // 角标已消失，例如人工点开过
+                Pending pending = pendingByUser.remove(session.userName);
+                if (pending != null) {
+                    queue.remove(pending);
+                }
+            }
+        }
+
+        switch (state) {
+            case SERVING:
+                finish(Outcome.INTERRUPTED, nowMillis);
+                break;
+            case OPENING:
+                // 点击后聊天界面还没出现，等待超时
+                return;
+            default:
+                break;
+        }
+        state = State.IDLE;
+        stateSinceMillis = nowMillis;
+        openNext(sessions, nowMillis);
+    }
+
+    private void offer(String userName, int unread, long nowMillis) {
+        Long servedAt = recentlyServed.get(userName);
+        if (servedAt != null) {
+            if (nowMillis - servedAt < REVISIT_COOL_DOWN_MS) {
+                return;
+            }
+            recentlyServed.remove(userName);
+        }
+        Pending pending = pendingByUser.get(userName);
+        if (pending == null) {
+            pending = new Pending(userName, nowMillis);
+            pendingByUser.put(userName, pending);
+        } else {
+            queue.remove(pending);
+        }
+        pending.update(unread, contactPriority.applyAsInt(userName));
+        queue.add(pending);
+    }
+
+    /**
+     * 点开队列中优先级最高、且在当前列表中可见的会话
+     * 不可见的会话（已滚出屏幕）移出队列，再次出现在列表中时重新加入
+     */
+    private void openNext(List<ChatScreenParser.Session> sessions, long nowMillis) {
+        Pending next;
+        while ((next = queue.poll()) != null) {
+            pendingByUser.remove(next.userName);
+            UiNode item = findItem(sessions, next.userName);
+            if (item == null) {
+                continue;
+            }
+            current = next;
+            waitHistogram.record((nowMillis - next.firstSeenMillis) * 1000);
+            if (navigator.openChat(item)) {
+                state = State.OPENING;
+                stateSinceMillis = nowMillis;
+            } else {
+                finish(Outcome.OPEN_FAILED, nowMillis);
+            }
+            return;
+        }
+    }
+
+    private static UiNode findItem(List<ChatScreenParser.Session> sessions, String userName) {
+        for (ChatScreenParser.Session session : sessions) {
+            if (session.userName.equals(userName)) {
+                return session.item;
+            }
+        }
+        return null;
+    }
+
+    private void enterServing(long nowMillis) {
+        state = State.SERVING;
+        stateSinceMillis = nowMillis;
+        servingSinceMillis = nowMillis;
+        received = false;
+    }
+
+    private void finishAndReturn(Outcome outcome, long nowMillis) {
+        finish(outcome, nowMillis);
+        state = State.RETURNING;
+        stateSinceMillis = nowMillis;
+        backAttempts = 0;
+        navigator.goBack();
+    }
+
+    private void finish(Outcome outcome, long nowMillis) {
+        outcomeCounts[outcome.ordinal()]++;
+        recentlyServed.values().removeIf(servedAt -> nowMillis - servedAt >= REVISIT_COOL_DOWN_MS);
+        recentlyServed.put(current.userName, nowMillis);
+        if (outcome != Outcome.OPEN_FAILED) {
+            serveHistogram.record((nowMillis - servingSinceMillis) * 1000);
+            servedTimes.addLast(nowMillis);
+        }
+        current = null;
+        received = false;
+    }
+
+    /**
+     * 最近一分钟处理的会话数，不含打开失败的会话
+     */
+    public synchronized int getServedPerMinute(long nowMillis) {
+        while (!servedTimes.isEmpty() && nowMillis - servedTimes.peekFirst() > RATE_WINDOW_MS) {
+            servedTimes.pollFirst();
+        }
+        return servedTimes.size();
+    }
+
+    public synchronized long getOutcomeCount(Outcome outcome) {
+        return outcomeCounts[outcome.ordinal()];
+    }
+
+    /**
+     * 等待处理的会话数
+     */
+    public synchronized int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * 队列中等待最久的会话已等待的时间（毫秒），队列为空时为0
+     */
+    public synchronized long getOldestWaitMillis(long nowMillis) {
+        long oldest = 0;
+        for (Pending pending : queue) {
+            oldest = Math.max(oldest, nowMillis - pending.firstSeenMillis);
+        }
+        return oldest;
+    }
+
+    /**
+     * 从出现未读到被点开的等待时间直方图（微秒）
+     */
+    public Histogram getWaitHistogram() {
+        return waitHistogram;
+    }
+
+    /**
+     * 每个会话从进入聊天到返回的停留时间直方图（微秒）
+     */
+    public Histogram getServeHistogram() {
+        return serveHistogram;
+    }
+}
@@ -0,0 +1,198 @@
+package com.momoautoreply;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 消息全文检索的分词与摘要
+ * 功能：
+ * 1. 把消息内容转换为写入FTS表的分词文本
+ * 2. 把用户输入的关键词转换为FTS的MATCH表达式
+ * 3. 在原文中截取包含关键词的片段并高亮
+ *
+ * SQLite自带的分词器不切分中文，整句中文会被当成一个词。这里在写入前自行分词：
+ * 中日韩文字按相邻两字切分（"今天晚上" -> "今天 天晚 晚上"），其余字母数字按单词切分并转小写，
+ * 词之间用空格分隔，FTS5（unicode61）和FTS4（simple）都能直接按空格建索引。
+ * 查询时用同样的规则切分，并把一个关键词的所有分词组成短语，要求相邻出现。
+ * 单个汉字的关键词按前缀匹配，只能命中以该字开头的双字词。
+ */
+public final class MessageSearchIndex {
+
+    // 高亮标记
+    public static final String HIGHLIGHT_START = "【";
+    public static final String HIGHLIGHT_END = "】";
+
+    private static final String ELLIPSIS = "…";
+
+    private MessageSearchIndex() {
+    }
+
+    /**
+     * 生成写入FTS表的分词文本
+     * @param text 消息内容
+     * @return 空格分隔的分词
+     */
+    public static String tokenize(String text) {
+        StringBuilder out = new StringBuilder(text.length() * 3);
+        for (String token : tokens(text)) {
+            if (out.length() > 0) {
+                out.append(' ');
+            }
+            out.append(token);
+        }
+        return out.toString();
+    }
+
+    /**
+     * 把用户输入转换为MATCH表达式，多个关键词之间是"且"的关系
+     * @param query 用户输入，空白分隔多个关键词
+     * @return MATCH表达式，没有可检索的内容时返回null
+     */
+    public static String buildMatchQuery(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String term : splitTerms(query)) {
+            List<String> termTokens = tokens(term);
+            if (termTokens.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+
+            String first = termTokens.get(0);
+            if (termTokens.size() == 1 && first.codePointCount(0, first.length()) == 1
+                    && isCjk(first.codePointAt(0))) {
+                // 单个汉字不在索引中，按前缀匹配双字词
+                match.append(first).append('*');
+            } else {
+                // 分词只包含字母、数字和中日韩文字，放进引号不需要转义
+                match.append('"');
+                for (int i = 0; i < termTokens.size(); i++) {
+                    if (i > 0) {
+                        match.append(' ');
+                    }
+                    match.append(termTokens.get(i));
+                }
+                match.append('"');
+            }
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    /**
+     * 在原文中截取包含关键词的片段，并用【】标出所有关键词
+     * @param content 消息原文
+     * @param query 用户输入
+     * @param maxChars 片段最大长度（不含省略号和高亮标记）
+     * @return 高亮后的片段
+     */
+    public static String snippet(String content, String query, int maxChars) {
+        List<String> terms = splitTerms(query);
+
+        // 1. 以第一个命中的关键词为中心截取
+        int firstMatch = -1;
+        for (int i = 0; i < content.length() && firstMatch < 0; i++) {
+            if (matchLength(content, i, terms) > 0) {
+                firstMatch = i;
+            }
+        }
+        int start = firstMatch < 0 ? 0 : Math.max(0, firstMatch - maxChars / 3);
+        int end = Math.min(content.length(), start + maxChars);
+        start = Math.max(0, Math.min(start, end - maxChars));
+
+        // 2. 高亮片段内的所有关键词
+        StringBuilder out = new StringBuilder(end - start + 16);
+        if (start > 0) {
+            out.append(ELLIPSIS);
+        }
+        int i = start;
+        while (i < end) {
+            int length = matchLength(content, i, terms);
+            if (length > 0 && i + length <= end) {
+                out.append(HIGHLIGHT_START).append(content, i, i + length).append(HIGHLIGHT_END);
+                i += length;
+            } else {
+                out.append(content.charAt(i));
+                i++;
+            }
+        }
+        if (end < content.length()) {
+            out.append(ELLIPSIS);
+        }
+        return out.toString();
+    }
+
+    /**
+     * 从位置 offset 开始匹配的最长关键词长度，不区分大小写
+     */
+    private static int matchLength(String content, int offset, List<String> terms) {
+        int longest = 0;
+        for (String term : terms) {
+            if (term.length() > longest && content.regionMatches(true, offset, term, 0, term.length())) {
+                longest = term.length();
+            }
+        }
+        return longest;
+    }
+
+    private static List<String> splitTerms(String query) {
+        List<String> terms = new ArrayList<>();
+        for (String term : query.trim().split("\\s+")) {
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * 切分为分词：中日韩文字按相邻两字切分，单独一个字时保留单字；其他字母数字按单词切分
+     */
+    private static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        int previousCjk = -1;
+        int cjkRunLength = 0;
+
+        int i = 0;
+        while (i <= text.length()) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            i += i < text.length() ? Character.charCount(codePoint) : 1;
+
+            if (isCjk(codePoint)) {
+                if (word.length() > 0) {
+                    tokens.add(word.toString());
+                    word.setLength(0);
+                }
+                if (previousCjk >= 0) {
+                    tokens.add(new StringBuilder(4).appendCodePoint(previousCjk).appendCodePoint(codePoint).toString());
+                }
+                previousCjk = codePoint;
+                cjkRunLength++;
+                continue;
+            }
+
+            if (cjkRunLength == 1) {
+                tokens.add(new String(Character.toChars(previousCjk)));
+            }
+            previousCjk = -1;
+            cjkRunLength = 0;
+
+            if (Character.isLetterOrDigit(codePoint)) {
+                word.appendCodePoint(Character.toLowerCase(codePoint));
+            } else if (word.length() > 0) {
+                tokens.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
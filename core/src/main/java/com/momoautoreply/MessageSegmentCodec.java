@@ -0,0 +1,179 @@
+package com.momoautoreply;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 归档消息段的编解码
+ * 功能：
+ * 1. 把一组消息编码为带长度前缀的记录，整段用deflate压缩
+ * 2. 解压并还原消息
+ *
+ * 记录格式（大端）：[int 记录长度][long 消息ID][byte 发送方编码][long 时间戳][UTF-8 内容]，
+ * 记录长度不含自身的4个字节。同一段内的消息属于同一个对话，按时间升序排列。
+ */
+public class MessageSegmentCodec {
+
+    // 记录中除内容外的固定长度：ID + 发送方 + 时间戳
+    private static final int RECORD_HEADER_BYTES = 8 + 1 + 8;
+
+    /**
+     * 归档的一条消息
+     */
+    public static class Record {
+        public final long id;
+        public final int sender;
+        public final long timestamp;
+        public final String content;
+
+        public Record(long id, int sender, long timestamp, String content) {
+            this.id = id;
+            this.sender = sender;
+            this.timestamp = timestamp;
+            this.content = content;
+        }
+    }
+
+    /**
+     * 逐条写入消息的段编码器
+     */
+    public static class Builder {
+        private final ByteArrayOutputStream raw = new ByteArrayOutputStream(16 * 1024);
+        private final DataOutputStream out = new DataOutputStream(raw);
+        private int count;
+        private long minId;
+        private long maxId;
+        private long firstTimestamp;
+        private long lastTimestamp;
+
+        /**
+         * 追加一条消息，调用方保证按时间升序
+         */
+        public void add(Record record) throws IOException {
+            byte[] content = record.content.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(RECORD_HEADER_BYTES + content.length);
+            out.writeLong(record.id);
+            out.writeByte(record.sender);
+            out.writeLong(record.timestamp);
+            out.write(content);
+
+            if (count == 0) {
+                minId = record.id;
+                maxId = record.id;
+                firstTimestamp = record.timestamp;
+            }
+            minId = Math.min(minId, record.id);
+            maxId = Math.max(maxId, record.id);
+            lastTimestamp = record.timestamp;
+            count++;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * 未压缩的字节数
+         */
+        public int getRawBytes() {
+            return raw.size();
+        }
+
+        /**
+         * 段内最小消息ID，消息按时间排列，ID不一定单调
+         */
+        public long getMinId() {
+            return minId;
+        }
+
+        public long getMaxId() {
+            return maxId;
+        }
+
+        public long getFirstTimestamp() {
+            return firstTimestamp;
+        }
+
+        public long getLastTimestamp() {
+            return lastTimestamp;
+        }
+
+        /**
+         * 压缩整段
+         * @return 压缩后的数据
+         */
+        public byte[] compress() {
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                deflater.setInput(raw.toByteArray());
+                deflater.finish();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, raw.size() / 2));
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, length);
+                }
+                return compressed.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * 解压并解码一段消息
+     * @param data 压缩数据
+     * @param rawBytes 未压缩的字节数
+     * @return 消息，按写入顺序
+     * @throws IOException 数据损坏
+     */
+    public static List<Record> decode(byte[] data, int rawBytes) throws IOException {
+        byte[] raw = new byte[rawBytes];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            int offset = 0;
+            while (offset < rawBytes && !inflater.finished()) {
+                int length = inflater.inflate(raw, offset, rawBytes - offset);
+                if (length == 0 && inflater.needsInput()) {
+                    break;
+                }
+                offset += length;
+            }
+            if (offset != rawBytes) {
+                throw new IOException("归档段长度不符: " + offset + " != " + rawBytes);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("归档段解压失败", e);
+        } finally {
+            inflater.end();
+        }
+
+        List<Record> records = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+        int position = 0;
+        while (position < rawBytes) {
+            int recordLength = in.readInt();
+            if (recordLength < RECORD_HEADER_BYTES || position + 4 + recordLength > rawBytes) {
+                throw new IOException("归档记录长度无效: " + recordLength);
+            }
+            long id = in.readLong();
+            int sender = in.readByte();
+            long timestamp = in.readLong();
+            byte[] content = new byte[recordLength - RECORD_HEADER_BYTES];
+            in.readFully(content);
+            records.add(new Record(id, sender, timestamp, new String(content, StandardCharsets.UTF_8)));
+            position += 4 + recordLength;
+        }
+        return records;
+    }
+}
@@ -0,0 +1,150 @@
+package com.momoautoreply;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 一条收到消息的处理链路耗时
+ * 功能：
+ * 1. 按阶段记录从收到无障碍事件到发送回复的耗时
+ * 2. 完成后交给 TraceRecorder 汇总到各阶段直方图并保存到最近链路缓冲区
+ *
+ * 每个阶段只记录开始和结束的 System.nanoTime()，写入预先分配的数组，不加锁也不分配对象。
+ * 同一时刻只有一个线程写入：事件线程记录前几个阶段后把链路交给线程池，之后由处理线程继续记录。
+ */
+public class MessageTrace {
+
+    /**
+     * 处理阶段，按发生顺序
+     */
+    public enum Stage {
+        // 收到事件到开始处理聊天界面
+        EVENT("事件分发"),
+        // 读取聊天界面节点
+        SNAPSHOT("界面读取"),
+        // 去重和识别发送者
+        DEDUP("去重"),
+        // 在线程池中排队
+        QUEUE("排队"),
+        // 写入消息并加载对话历史
+        HISTORY("历史加载"),
+        // 读取角色设定并构建提示
+        PROMPT("构建提示"),
+        // 调用模型接口
+        PROVIDER("模型调用"),
+        // 发送回复
+        SEND("发送回复");
+
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final TraceRecorder recorder;
+    public final long id;
+    public final String userName;
+    // 收到事件的时间
+    public final long startNanos;
+    public final long startTimeMillis;
+
+    private final long[] stageBegin = new long[STAGES.length];
+    // 各阶段耗时（纳秒），未经过的阶段为-1
+    private final long[] stageNanos = new long[STAGES.length];
+    private volatile long endNanos;
+    private volatile String outcome;
+
+    MessageTrace(TraceRecorder recorder, long id, String userName, long startNanos) {
+        this.recorder = recorder;
+        this.id = id;
+        this.userName = userName;
+        this.startNanos = startNanos;
+        this.startTimeMillis = System.currentTimeMillis() - (System.nanoTime() - startNanos) / 1000000;
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] = -1;
+        }
+    }
+
+    /**
+     * 开始一个阶段
+     */
+    public void begin(Stage stage) {
+        stageBegin[stage.ordinal()] = System.nanoTime();
+    }
+
+    /**
+     * 结束一个阶段，与 begin 配对
+     */
+    public void end(Stage stage) {
+        stageNanos[stage.ordinal()] = System.nanoTime() - stageBegin[stage.ordinal()];
+    }
+
+    /**
+     * 记录一个已经结束的阶段，用于链路创建之前发生的阶段
+     * @param beginNanos 开始时的 System.nanoTime()
+     * @param endNanos 结束时的 System.nanoTime()
+     */
+    public void record(Stage stage, long beginNanos, long endNanos) {
+        stageNanos[stage.ordinal()] = endNanos - beginNanos;
+    }
+
+    /**
+     * 结束链路并提交给 TraceRecorder，只能调用一次
+     * @param outcome 处理结果，例如 "sent"、"no_reply"
+     */
+    public void finish(String outcome) {
+        this.endNanos = System.nanoTime();
+        this.outcome = outcome;
+        recorder.complete(this);
+    }
+
+    /**
+     * 某阶段耗时（纳秒），未经过时为-1
+     */
+    public long getStageNanos(Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * 总耗时（纳秒），未结束时为0
+     */
+    public long getTotalNanos() {
+        long end = endNanos;
+        return end == 0 ? 0 : end - startNanos;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(160);
+        out.append('#').append(id).append(' ')
+                .append(new SimpleDateFormat("HH:mm:ss.SSS", Locale.US).format(new Date(startTimeMillis)))
+                .append(' ').append(userName)
+                .append(" 总耗时: ").append(formatMillis(getTotalNanos()))
+                .append(" 结果: ").append(outcome).append(" [");
+        boolean first = true;
+        for (Stage stage : STAGES) {
+            long nanos = stageNanos[stage.ordinal()];
+            if (nanos < 0) {
+                continue;
+            }
+            if (!first) {
+                out.append(", ");
+            }
+            out.append(stage.label).append(' ').append(formatMillis(nanos));
+            first = false;
+        }
+        return out.append(']').toString();
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.US, "%.2fms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,224 @@
+package com.momoautoreply;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 紧凑的最近消息窗口
+ * 每条消息不再是一个 ChatMessage 对象，而是平行数组中的一格：
+ * long 消息ID、long 时间戳、byte 发送方和内容字符串的引用，满了以后环形覆盖最旧的一条。
+ * 数据库分配的消息ID都是数字，按 long 保存，不再为每条消息保存一个ID字符串；
+ * 非数字ID（只在测试和导入数据中出现）放在按需创建的旁路数组里。
+ * 数组按需从小容量翻倍增长到窗口大小，消息少的对话不占满整个窗口的空间。
+ *
+ * 不做同步，由 ConversationCache 在分段锁内访问；读取时用 copy 复制出只读的列表视图。
+ */
+public final class MessageWindow {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final byte SENDER_OTHER = 0;
+    private static final byte SENDER_SELF = 1;
+    // ids 中表示ID在 textIds 里的标记
+    private static final long TEXT_ID = -1;
+
+    // 估算内存用的对象开销（字节）：窗口对象、每个数组的对象头、字符串对象
+    private static final int WINDOW_OVERHEAD = 48;
+    private static final int ARRAY_OVERHEAD = 16;
+    private static final int STRING_OVERHEAD = 40;
+
+    private final int maxSize;
+    private long[] ids;
+    private long[] timestamps;
+    private byte[] senders;
+    private String[] contents;
+    // 非数字ID，没有时为null
+    private String[] textIds;
+    // 最旧一条所在的下标
+    private int head;
+    private int size;
+    private long contentBytes;
+
+    /**
+     * @param maxSize 最多保留的消息数
+     */
+    public MessageWindow(int maxSize) {
+        this(maxSize, Math.min(maxSize, INITIAL_CAPACITY));
+    }
+
+    private MessageWindow(int maxSize, int capacity) {
+        this.maxSize = Math.max(1, maxSize);
+        capacity = Math.max(1, capacity);
+        ids = new long[capacity];
+        timestamps = new long[capacity];
+        senders = new byte[capacity];
+        contents = new String[capacity];
+    }
+
+    /**
+     * 追加一条消息，窗口满时丢弃最旧的一条
+     */
+    public void add(ChatMessage message) {
+        int slot;
+        if (size == maxSize) {
+            slot = head;
+            contentBytes -= estimateString(contents[slot]);
+            head = (head + 1) % contents.length;
+        } else {
+            if (size == contents.length) {
+                grow();
+            }
+            slot = (head + size) % contents.length;
+            size++;
+        }
+
+        long id = parseId(message.id);
+        ids[slot] = id;
+        if (id == TEXT_ID) {
+            if (textIds == null) {
+                textIds = new String[contents.length];
+            }
+            textIds[slot] = message.id;
+        } else if (textIds != null) {
+            textIds[slot] = null;
+        }
+        timestamps[slot] = message.timestamp;
+        senders[slot] = "self".equals(message.sender) ? SENDER_SELF : SENDER_OTHER;
+        contents[slot] = message.content;
+        contentBytes += estimateString(message.content);
+    }
+
+    /**
+     * 追加多条消息，只保留最后 maxSize 条
+     */
+    public void addAll(List<ChatMessage> messages) {
+        for (int i = Math.max(0, messages.size() - maxSize); i < messages.size(); i++) {
+            add(messages.get(i));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 第 index 条消息（0为最旧），每次调用创建新的 ChatMessage
+     */
+    public ChatMessage get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        int slot = (head + index) % contents.length;
+        long id = ids[slot];
+        return new ChatMessage(id == TEXT_ID ? textIds[slot] : String.valueOf(id),
+                senders[slot] == SENDER_SELF ? "self" : "other", contents[slot], timestamps[slot]);
+    }
+
+    /**
+     * 复制当前内容，返回按时间升序的只读列表
+     * 复制的是紧凑数组，列表元素在读取时才创建，窗口之后的修改不影响返回的列表
+     */
+    public List<ChatMessage> copy() {
+        MessageWindow copy = new MessageWindow(maxSize, size);
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) % contents.length;
+            copy.ids[i] = ids[slot];
+            copy.timestamps[i] = timestamps[slot];
+            copy.senders[i] = senders[slot];
+            copy.contents[i] = contents[slot];
+            // ID为null时也标记为 TEXT_ID，同样需要旁路数组
+            if (ids[slot] == TEXT_ID) {
+                if (copy.textIds == null) {
+                    copy.textIds = new String[copy.contents.length];
+                }
+                copy.textIds[i] = textIds[slot];
+            }
+        }
+        copy.size = size;
+        copy.contentBytes = contentBytes;
+        return new ListView(copy);
+    }
+
+    /**
+     * 估算的内存占用（字节），包括数组和内容字符串
+     */
+    public long estimateBytes() {
+        long bytes = WINDOW_OVERHEAD + 4L * ARRAY_OVERHEAD + contentBytes +
+                (long) contents.length * (8 + 8 + 1 + 4);
+        if (textIds != null) {
+            bytes += ARRAY_OVERHEAD + 4L * textIds.length;
+            for (String id : textIds) {
+                bytes += estimateString(id);
+            }
+        }
+        return bytes;
+    }
+
+    private void grow() {
+        int capacity = Math.min(maxSize, contents.length * 2);
+        long[] newIds = new long[capacity];
+        long[] newTimestamps = new long[capacity];
+        byte[] newSenders = new byte[capacity];
+        String[] newContents = new String[capacity];
+        String[] newTextIds = textIds == null ? null : new String[capacity];
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) % contents.length;
+            newIds[i] = ids[slot];
+            newTimestamps[i] = timestamps[slot];
+            newSenders[i] = senders[slot];
+            newContents[i] = contents[slot];
+            if (newTextIds != null) {
+                newTextIds[i] = textIds[slot];
+            }
+        }
+        ids = newIds;
+        timestamps = newTimestamps;
+        senders = newSenders;
+        contents = newContents;
+        textIds = newTextIds;
+        head = 0;
+    }
+
+    /**
+     * 规范的非负十进制数字ID转为 long，其他ID返回 TEXT_ID
+     */
+    private static long parseId(String id) {
+        if (id == null || id.isEmpty() || id.length() > 18 || (id.charAt(0) == '0' && id.length() > 1)) {
+            return TEXT_ID;
+        }
+        long value = 0;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return TEXT_ID;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long estimateString(String value) {
+        return value == null ? 0 : STRING_OVERHEAD + 2L * value.length();
+    }
+
+    /**
+     * 窗口副本的只读列表视图
+     */
+    private static final class ListView extends AbstractList<ChatMessage> implements RandomAccess {
+        private final MessageWindow window;
+
+        ListView(MessageWindow window) {
+            this.window = window;
+        }
+
+        @Override
+        public ChatMessage get(int index) {
+            return window.get(index);
+        }
+
+        @Override
+        public int size() {
+            return window.size;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.momoautoreply;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 本机指标接口
+ * 功能：
+ * 1. 只监听回环地址，GET /metrics 返回Prometheus文本格式的指标
+ * 2. 单线程顺序处理请求，每个请求处理完即关闭连接
+ *
+ * 只依赖JDK，可以在JVM单元测试中直接启动并用本机HTTP请求验证。
+ * 采集设备上的指标可通过 adb forward tcp:9464 tcp:9464 转发到电脑。
+ */
+public class MetricsHttpServer {
+
+    // 设置项：是否开启指标接口，以及端口
+    public static final String PREFS_NAME = "metrics";
+    public static final String KEY_HTTP_ENABLED = "http_enabled";
+    public static final String KEY_HTTP_PORT = "http_port";
+    public static final int DEFAULT_PORT = 9464;
+
+    // 读取请求的超时时间
+    private static final int READ_TIMEOUT_MS = 2000;
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+    private final int requestedPort;
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+
+    /**
+     * @param registry 指标注册表
+     * @param port 端口，0表示由系统分配（用于测试）
+     */
+    public MetricsHttpServer(MetricsRegistry registry, int port) {
+        this.registry = registry;
+        this.requestedPort = port;
+    }
+
+    /**
+     * 开始监听
+     * @throws IOException 端口被占用等
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket(requestedPort, 4, InetAddress.getLoopbackAddress());
+        ServerSocket socket = serverSocket;
+        acceptThread = new Thread(() -> acceptLoop(socket), "metrics-http");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * 实际监听的端口，未启动时为-1
+     */
+    public synchronized int getPort() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    /**
+     * 停止监听
+     */
+    public synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // 关闭失败无需处理
+        }
+        serverSocket = null;
+        acceptThread = null;
+    }
+
+    private void acceptLoop(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            try (Socket client = socket.accept()) {
+                client.setSoTimeout(READ_TIMEOUT_MS);
+                handle(client);
+            } catch (SocketException e) {
+                // stop() 关闭了监听，或客户端断开
+            } catch (IOException e) {
+                // 单个请求失败不影响后续请求
+            }
+        }
+    }
+
+    private void handle(Socket client) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+        String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        // 读完请求头
+        String header;
+        while ((header = reader.readLine()) != null && !header.isEmpty()) {
+            // 不使用请求头
+        }
+
+        String[] parts = requestLine.split(" ");
+        String path = parts.length > 1 ? parts[1] : "";
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+
+        if (parts.length < 2 || !"GET".equals(parts[0])) {
+            respond(client.getOutputStream(), "405 Method Not Allowed", "只支持GET\n");
+        } else if ("/metrics".equals(path)) {
+            StringBuilder body = new StringBuilder(16 * 1024);
+            registry.writePrometheus(body);
+            respond(client.getOutputStream(), "200 OK", body.toString());
+        } else {
+            respond(client.getOutputStream(), "404 Not Found", "请访问 /metrics\n");
+        }
+    }
+
+    private static void respond(OutputStream out, String status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + "\r\n" +
+                "Content-Type: " + CONTENT_TYPE + "\r\n" +
+                "Content-Length: " + bytes.length + "\r\n" +
+                "Connection: close\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.flush();
+    }
+}
@@ -0,0 +1,305 @@
+package com.momoautoreply;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * 进程内指标注册表
+ * 功能：
+ * 1. 计数器（只增不减）、仪表（读取时回调取值）、直方图三类指标
+ * 2. 同名指标按标签区分，例如 momo_provider_errors_total{model="ZHIPU"}
+ * 3. 按Prometheus文本格式输出全部指标
+ *
+ * 更新指标不加锁：计数器基于 LongAdder，直方图复用 Histogram。
+ * 注册只在初始化时发生，使用并发Map，重复注册同一名称和标签返回同一个指标（仪表和外部直方图以最后一次为准）。
+ * 直方图样本按原始单位记录（例如微秒），输出时乘以 scale 换算成Prometheus约定的基本单位（秒）。
+ */
+public final class MetricsRegistry {
+
+    // 微秒直方图的输出分桶上界（微秒），对应 100us ~ 60s
+    public static final long[] MICROS_BUCKETS = {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000, 30000000, 60000000};
+    // 计数类直方图（批大小等）的输出分桶上界
+    public static final long[] COUNT_BUCKETS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+    // 微秒换算成秒
+    public static final double MICROS_TO_SECONDS = 1e-6;
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), HISTOGRAM("histogram");
+
+        final String text;
+
+        Type(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * 计数器
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * 带输出分桶的直方图
+     */
+    private static final class HistogramMetric {
+        final Histogram histogram;
+        final long[] buckets;
+        final double scale;
+
+        HistogramMetric(Histogram histogram, long[] buckets, double scale) {
+            this.histogram = histogram;
+            this.buckets = buckets;
+            this.scale = scale;
+        }
+    }
+
+    /**
+     * 同名指标的集合，按标签字符串区分
+     */
+    private static final class Family {
+        final String name;
+        final String help;
+        final Type type;
+        // 标签字符串（已转义，如 model="ZHIPU"）-> 指标，输出时按标签排序
+        final ConcurrentMap<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * 进程内共享的注册表
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 获取或创建计数器
+     * @param name 指标名，计数器按约定以 _total 结尾
+     * @param help 说明
+     * @param labels 标签，按 名称, 值, 名称, 值... 排列
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Type.COUNTER).series
+                .computeIfAbsent(labelString(labels), key -> new Counter());
+    }
+
+    /**
+     * 注册由其他组件自行累计的计数器，输出时调用 supplier 取当前值
+     */
+    public void counter(String name, String help, LongSupplier supplier, String... labels) {
+        family(name, help, Type.COUNTER).series.put(labelString(labels), supplier);
+    }
+
+    /**
+     * 注册仪表，输出时调用 supplier 取当前值
+     */
+    public void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        family(name, help, Type.GAUGE).series.put(labelString(labels), supplier);
+    }
+
+    /**
+     * 获取或创建直方图
+     * @param buckets 输出分桶上界（原始单位）
+     * @param scale 输出时乘以的换算系数
+     */
+    public Histogram histogram(String name, String help, long[] buckets, double scale, String... labels) {
+        HistogramMetric metric = (HistogramMetric) family(name, help, Type.HISTOGRAM).series
+                .computeIfAbsent(labelString(labels), key -> new HistogramMetric(new Histogram(), buckets, scale));
+        return metric.histogram;
+    }
+
+    /**
+     * 注册已有的直方图，例如写入队列自带的统计
+     */
+    public void registerHistogram(String name, String help, Histogram histogram, long[] buckets, double scale,
+                                  String... labels) {
+        family(name, help, Type.HISTOGRAM).series.put(labelString(labels),
+                new HistogramMetric(histogram, buckets, scale));
+    }
+
+    /**
+     * 读取计数器当前值，未注册时为0
+     */
+    public long getCounterValue(String name, String... labels) {
+        Object metric = find(name, Type.COUNTER, labels);
+        return metric == null ? 0 : counterValue(metric);
+    }
+
+    /**
+     * 同名计数器所有标签的合计，未注册时为0
+     */
+    public long getCounterTotal(String name) {
+        Family family = families.get(name);
+        if (family == null || family.type != Type.COUNTER) {
+            return 0;
+        }
+        long total = 0;
+        for (Object metric : family.series.values()) {
+            total += counterValue(metric);
+        }
+        return total;
+    }
+
+    /**
+     * 读取仪表当前值，未注册时为NaN
+     */
+    public double getGaugeValue(String name, String... labels) {
+        Object metric = find(name, Type.GAUGE, labels);
+        return metric == null ? Double.NaN : ((DoubleSupplier) metric).getAsDouble();
+    }
+
+    /**
+     * 查找直方图，未注册时为null
+     */
+    public Histogram getHistogram(String name, String... labels) {
+        Object metric = find(name, Type.HISTOGRAM, labels);
+        return metric == null ? null : ((HistogramMetric) metric).histogram;
+    }
+
+    private Object find(String name, Type type, String[] labels) {
+        Family family = families.get(name);
+        if (family == null || family.type != type) {
+            return null;
+        }
+        return family.series.get(labels.length == 0 ? "" : labelString(labels));
+    }
+
+    private static long counterValue(Object metric) {
+        return metric instanceof Counter ? ((Counter) metric).get() : ((LongSupplier) metric).getAsLong();
+    }
+
+    /**
+     * 按Prometheus文本格式（0.0.4）输出全部指标
+     * @param out 输出
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        Map<String, Family> sorted = new TreeMap<>(families);
+        for (Family family : sorted.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(escapeHelp(family.help)).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.text).append('\n');
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                switch (family.type) {
+                    case COUNTER:
+                        writeSample(out, family.name, labels, null, counterValue(metric));
+                        break;
+                    case GAUGE:
+                        writeSample(out, family.name, labels, null, ((DoubleSupplier) metric).getAsDouble());
+                        break;
+                    case HISTOGRAM:
+                        writeHistogram(out, family.name, labels, (HistogramMetric) metric);
+                        break;
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(Appendable out, String name, String labels, HistogramMetric metric)
+            throws IOException {
+        // 先取总数，分桶计数不超过总数，保证输出单调
+        long count = metric.histogram.getCount();
+        for (long bound : metric.buckets) {
+            long atOrBelow = Math.min(count, metric.histogram.getCountAtOrBelow(bound));
+            writeSample(out, name + "_bucket", labels, "le=\"" + formatBound(bound, metric.scale) + "\"", atOrBelow);
+        }
+        writeSample(out, name + "_bucket", labels, "le=\"+Inf\"", count);
+        writeSample(out, name + "_sum", labels, null, metric.histogram.getSum() * metric.scale);
+        writeSample(out, name + "_count", labels, null, count);
+    }
+
+    private static void writeSample(Appendable out, String name, String labels, String extraLabel, double value)
+            throws IOException {
+        out.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            out.append('{').append(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty()) {
+                    out.append(',');
+                }
+                out.append(extraLabel);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(formatNumber(value)).append('\n');
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("指标类型冲突: " + name);
+        }
+        return family;
+    }
+
+    private static String labelString(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("标签必须成对出现");
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return out.toString();
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    /**
+     * 分桶上界按十进制精确换算，避免 1e-4 输出成 9.999999999999999E-5
+     */
+    private static String formatBound(long bound, double scale) {
+        return BigDecimal.valueOf(bound).multiply(BigDecimal.valueOf(scale)).stripTrailingZeros().toPlainString();
+    }
+
+    private static String formatNumber(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
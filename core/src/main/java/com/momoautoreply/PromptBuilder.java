@@ -0,0 +1,83 @@
+package com.momoautoreply;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * 对话提示构建
+ * 功能：
+ * 1. 由角色设定和对话历史拼出文本提示
+ * 2. 把文本提示还原为 role/content 消息列表，供对话接口使用
+ *
+ * 提示格式：角色设定，空行，之后每条历史一行（"用户: " 或 "助手: " 开头），最后以 "助手: " 结尾。
+ */
+public final class PromptBuilder {
+
+    private static final String SELF_ROLE = "助手";
+    private static final String OTHER_ROLE = "用户";
+
+    private PromptBuilder() {
+    }
+
+    /**
+     * 构建对话提示
+     * @param roleSetting 角色设定
+     * @param history 对话历史
+     * @return 构建好的提示
+     */
+    public static String buildPrompt(String roleSetting, List<ChatMessage> history) {
+        StringBuilder prompt = new StringBuilder();
+
+        // 添加角色设定
+        prompt.append(roleSetting).append("\n\n");
+
+        // 添加对话历史
+        for (ChatMessage message : history) {
+            String role = message.sender.equals("self") ? SELF_ROLE : OTHER_ROLE;
+            prompt.append(role).append(": ").append(message.content).append("\n");
+        }
+
+        // 添加当前请求
+        prompt.append(SELF_ROLE).append(": ");
+
+        return prompt.toString();
+    }
+
+    /**
+     * 将对话提示还原为 role/content 消息列表
+     * @param prompt 提示
+     * @return 消息列表，第一条为系统角色设定
+     * @throws JSONException JSON异常
+     */
+    public static JSONArray buildChatMessages(String prompt) throws JSONException {
+        JSONArray messages = new JSONArray();
+
+        // 添加系统角色
+        JSONObject systemMessage = new JSONObject();
+        systemMessage.put("role", "system");
+        systemMessage.put("content", prompt.substring(0, prompt.indexOf("\n\n")));
+        messages.put(systemMessage);
+
+        // 添加对话历史
+        String[] lines = prompt.substring(prompt.indexOf("\n\n") + 2).split("\n");
+        for (String line : lines) {
+            if (line.contains(": ")) {
+                String[] parts = line.split(": ", 2);
+                if (parts.length == 2) {
+                    String role = parts[0].equals(OTHER_ROLE) ? "user" : "assistant";
+                    String content = parts[1];
+
+                    JSONObject message = new JSONObject();
+                    message.put("role", role);
+                    message.put("content", content);
+                    messages.put(message);
+                }
+            }
+        }
+
+        return messages;
+    }
+}
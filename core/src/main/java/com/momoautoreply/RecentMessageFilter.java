@@ -0,0 +1,56 @@
+package com.momoautoreply;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 已处理消息过滤
+ * 记录每个用户最近处理的一条消息，界面刷新时再次读到同一条消息则跳过。
+ * 判断和记录只在无障碍事件线程中进行；热状态快照在后台线程导出，所以使用并发Map。
+ */
+public class RecentMessageFilter {
+
+    // 用户名 -> 最近处理的消息
+    private final Map<String, String> lastMessages = new ConcurrentHashMap<>();
+
+    /**
+     * 是否已处理过该用户的这条消息
+     */
+    public boolean isProcessed(String user, String message) {
+        String cachedMessage = lastMessages.get(user);
+        return cachedMessage != null && cachedMessage.equals(message);
+    }
+
+    /**
+     * 记录该用户最近处理的消息
+     */
+    public void record(String user, String message) {
+        lastMessages.put(user, message);
+    }
+
+    /**
+     * 导出全部记录的副本，用于写入热状态快照
+     */
+    public Map<String, String> snapshot() {
+        return new HashMap<>(lastMessages);
+    }
+
+    /**
+     * 从热状态快照恢复记录，连接后已经记录的用户不覆盖
+     * @return 恢复的用户数
+     */
+    public int restore(Map<String, String> messages) {
+        int restored = 0;
+        for (Map.Entry<String, String> entry : messages.entrySet()) {
+            if (lastMessages.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    public int size() {
+        return lastMessages.size();
+    }
+}
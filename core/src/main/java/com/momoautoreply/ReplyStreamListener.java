@@ -0,0 +1,31 @@
+package com.momoautoreply;
+
+/**
+ * 流式回复监听器
+ * 功能：
+ * 1. 逐段接收模型生成的回复内容
+ * 2. 在生成完成时收到完整回复
+ * 3. 在生成失败时收到异常
+ *
+ * 所有AI模型的流式输出都通过该接口回调，回调可能发生在网络线程上。
+ */
+public interface ReplyStreamListener {
+
+    /**
+     * 收到一段新生成的内容
+     * @param token 增量内容
+     */
+    void onToken(String token);
+
+    /**
+     * 回复生成完成
+     * @param fullReply 完整回复内容
+     */
+    void onComplete(String fullReply);
+
+    /**
+     * 回复生成失败
+     * @param e 异常
+     */
+    void onError(Exception e);
+}
@@ -0,0 +1,351 @@
+package com.momoautoreply;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * 精简的WebSocket客户端（RFC 6455）
+ * 功能：
+ * 1. 支持 ws:// 和 wss:// 握手
+ * 2. 发送文本帧（客户端帧带掩码）
+ * 3. 读取文本消息，自动拼接分片、应答ping
+ *
+ * 只实现讯飞星火等文本协议需要的部分，不支持扩展和二进制消息。
+ * 同一时间只能有一个线程读、一个线程写。
+ */
+public class SimpleWebSocket {
+
+    private static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    // 单帧和拼接后单条消息的最大长度，超过时按读取失败处理，不按对端声明的长度分配内存
+    private static final int MAX_FRAME_BYTES = 1024 * 1024;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final byte[] maskKey = new byte[4];
+    private volatile boolean closed;
+
+    private SimpleWebSocket(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * 建立WebSocket连接并完成握手
+     * @param uri ws:// 或 wss:// 地址（可带查询参数）
+     * @param connectTimeoutMs 连接超时
+     * @param readTimeoutMs 读取超时
+     * @return 已握手的连接
+     * @throws IOException 连接或握手失败
+     */
+    public static SimpleWebSocket connect(URI uri, int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        String scheme = uri.getScheme();
+        boolean secure = "wss".equalsIgnoreCase(scheme);
+        if (!secure && !"ws".equalsIgnoreCase(scheme)) {
+            throw new IOException("不支持的协议: " + scheme);
+        }
+
+        String host = uri.getHost();
+        int port = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            socket.setSoTimeout(readTimeoutMs);
+            if (secure) {
+                // autoClose=true，关闭SSLSocket时同时关闭底层连接
+                SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                        .createSocket(socket, host, port, true);
+                socket = sslSocket;
+                // 校验证书主机名
+                SSLParameters parameters = sslSocket.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                sslSocket.setSSLParameters(parameters);
+                sslSocket.startHandshake();
+            }
+
+            SimpleWebSocket webSocket = new SimpleWebSocket(socket);
+            webSocket.handshake(uri, host, port, secure);
+            return webSocket;
+        } catch (IOException | RuntimeException e) {
+            // 连接、TLS握手或HTTP升级失败，关闭连接避免泄漏文件描述符
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // 忽略关闭异常
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 发送HTTP升级请求并校验响应
+     */
+    private void handshake(URI uri, String host, int port, boolean secure) throws IOException {
+        byte[] nonce = new byte[16];
+        RANDOM.nextBytes(nonce);
+        String key = Base64.getEncoder().encodeToString(nonce);
+
+        String path = uri.getRawPath();
+        if (path == null || path.isEmpty()) {
+            path = "/";
+        }
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        boolean defaultPort = port == (secure ? 443 : 80);
+
+        String request = "GET " + path + " HTTP/1.1\r\n" +
+                "Host: " + host + (defaultPort ? "" : ":" + port) + "\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: " + key + "\r\n" +
+                "Sec-WebSocket-Version: 13\r\n" +
+                "\r\n";
+        out.write(request.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        String statusLine = readHttpLine();
+        if (statusLine == null || !statusLine.contains(" 101")) {
+            throw new IOException("WebSocket握手失败: " + statusLine);
+        }
+
+        String accept = null;
+        String line;
+        while ((line = readHttpLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Accept")) {
+                accept = line.substring(colon + 1).trim();
+            }
+        }
+
+        if (!expectedAccept(key).equals(accept)) {
+            throw new IOException("WebSocket握手校验失败");
+        }
+    }
+
+    private static String expectedAccept(String key) throws IOException {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + WS_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1不可用", e);
+        }
+    }
+
+    private String readHttpLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r') {
+                    sb.setLength(len - 1);
+                }
+                return sb.toString();
+            }
+            sb.append((char) b);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    /**
+     * 发送文本消息
+     * @param text 文本内容
+     * @throws IOException 发送失败
+     */
+    public synchronized void sendText(String text) throws IOException {
+        sendFrame(OPCODE_TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private synchronized void sendFrame(int opcode, byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("WebSocket已关闭");
+        }
+
+        int length = payload.length;
+        byte[] header;
+        if (length < 126) {
+            header = new byte[2];
+            header[1] = (byte) (0x80 | length);
+        } else if (length <= 0xFFFF) {
+            header = new byte[4];
+            header[1] = (byte) (0x80 | 126);
+            header[2] = (byte) (length >>> 8);
+            header[3] = (byte) length;
+        } else {
+            header = new byte[10];
+            header[1] = (byte) (0x80 | 127);
+            for (int i = 0; i < 8; i++) {
+                header[9 - i] = (byte) ((long) length >>> (8 * i));
+            }
+        }
+        header[0] = (byte) (0x80 | opcode);
+
+        RANDOM.nextBytes(maskKey);
+        byte[] masked = new byte[length];
+        for (int i = 0; i < length; i++) {
+            masked[i] = (byte) (payload[i] ^ maskKey[i & 3]);
+        }
+
+        out.write(header);
+        out.write(maskKey);
+        out.write(masked);
+        out.flush();
+    }
+
+    /**
+     * 读取下一条文本消息，期间自动应答ping
+     * @return 文本消息，对端正常关闭时返回null
+     * @throws IOException 读取失败
+     */
+    public String readText() throws IOException {
+        ByteArrayOutputStream message = null;
+
+        while (true) {
+            int b0 = readByte();
+            int b1 = readByte();
+            boolean fin = (b0 & 0x80) != 0;
+            int opcode = b0 & 0x0F;
+            boolean masked = (b1 & 0x80) != 0;
+            long length = b1 & 0x7F;
+            if (length == 126) {
+                length = ((long) readByte() << 8) | readByte();
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | readByte();
+                }
+            }
+            // 64位长度的最高位被置位时为负数，同样拒绝
+            if (length < 0 || length > MAX_FRAME_BYTES) {
+                throw new IOException("WebSocket帧过大: " + Long.toUnsignedString(length));
+            }
+
+            byte[] mask = null;
+            if (masked) {
+                mask = new byte[4];
+                readFully(mask);
+            }
+            byte[] payload = new byte[(int) length];
+            readFully(payload);
+            if (mask != null) {
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+            }
+
+            switch (opcode) {
+                case OPCODE_PING:
+                    sendFrame(OPCODE_PONG, payload);
+                    break;
+                case OPCODE_PONG:
+                    break;
+                case OPCODE_CLOSE:
+                    if (!closed) {
+                        try {
+                            sendFrame(OPCODE_CLOSE, new byte[0]);
+                        } catch (IOException ignored) {
+                            // 对端已关闭，忽略
+                        }
+                    }
+                    closeQuietly();
+                    return null;
+                case OPCODE_TEXT:
+                case OPCODE_BINARY:
+                case OPCODE_CONTINUATION:
+                    if (message == null) {
+                        message = new ByteArrayOutputStream(payload.length);
+                    }
+                    if (message.size() + payload.length > MAX_FRAME_BYTES) {
+                        throw new IOException("WebSocket消息过大");
+                    }
+                    message.write(payload, 0, payload.length);
+                    if (fin) {
+                        return new String(message.toByteArray(), StandardCharsets.UTF_8);
+                    }
+                    break;
+                default:
+                    throw new IOException("未知的WebSocket操作码: " + opcode);
+            }
+        }
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("WebSocket连接已断开");
+        }
+        return b;
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int n = in.read(buffer, offset, buffer.length - offset);
+            if (n == -1) {
+                throw new EOFException("WebSocket连接已断开");
+            }
+            offset += n;
+        }
+    }
+
+    /**
+     * 连接是否仍可用
+     */
+    public boolean isOpen() {
+        return !closed && !socket.isClosed() && !socket.isInputShutdown();
+    }
+
+    /**
+     * 发送关闭帧并关闭连接
+     */
+    public void close() {
+        if (!closed) {
+            try {
+                sendFrame(OPCODE_CLOSE, new byte[0]);
+            } catch (IOException ignored) {
+                // 连接可能已断开，忽略
+            }
+        }
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // 忽略关闭异常
+        }
+    }
+}
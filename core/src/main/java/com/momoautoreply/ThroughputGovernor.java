@@ -0,0 +1,216 @@
+package com.momoautoreply;
+
+/**
+ * 按电量和温度调节处理速度
+ * 功能：
+ * 1. 根据电量、是否在充电和温度状态计算档位，档位越高处理越保守
+ * 2. 每个档位对应无障碍事件合并窗口、处理线程数、回复最小间隔，以及是否允许后台任务
+ * 3. 升档立即生效，降档需要条件持续满足一段时间，避免在阈值附近来回切换
+ * 4. 统计档位切换次数，档位变化时通知监听器
+ *
+ * 温度状态与 Android PowerManager.THERMAL_STATUS_* 的取值一致，系统不提供时可由电池温度换算。
+ * 不依赖 Android，调用方负责采集设备状态并应用档位的限制。
+ */
+public class ThroughputGovernor {
+
+    // 温度状态，与 PowerManager.THERMAL_STATUS_* 一致
+    public static final int THERMAL_NONE = 0;
+    public static final int THERMAL_LIGHT = 1;
+    public static final int THERMAL_MODERATE = 2;
+    public static final int THERMAL_SEVERE = 3;
+    public static final int THERMAL_CRITICAL = 4;
+
+    // 未充电时进入各档位的电量（百分比），离开时需高出 BATTERY_HYSTERESIS
+    private static final int BATTERY_THROTTLED = 30;
+    private static final int BATTERY_HOT = 15;
+    private static final int BATTERY_CRITICAL = 5;
+    private static final int BATTERY_HYSTERESIS = 5;
+    // 未充电时电量高于该值才允许后台任务
+    private static final int BACKGROUND_MIN_BATTERY = 50;
+    // 降档前条件需要持续的时间
+    static final long COOL_DOWN_MS = 2 * 60 * 1000;
+
+    /**
+     * 档位及其限制
+     */
+    public enum Level {
+        NORMAL(100, 5, 0),
+        THROTTLED(300, 3, 1000),
+        HOT(800, 2, 3000),
+        CRITICAL(1500, 1, 10000);
+
+        // 无障碍事件合并窗口（毫秒）
+        public final long debounceMs;
+        // 处理消息的线程数
+        public final int workers;
+        // 两次发送回复之间的最小间隔（毫秒）
+        public final long replyIntervalMs;
+
+        Level(long debounceMs, int workers, long replyIntervalMs) {
+            this.debounceMs = debounceMs;
+            this.workers = workers;
+            this.replyIntervalMs = replyIntervalMs;
+        }
+    }
+
+    /**
+     * 档位变化监听器
+     */
+    public interface Listener {
+        void onLevelChanged(Level from, Level to);
+    }
+
+    private final Listener listener;
+
+    private Level level = Level.NORMAL;
+    private boolean backgroundAllowed = true;
+    private int batteryPercent = 100;
+    private boolean charging = true;
+    private int thermalStatus = THERMAL_NONE;
+    // 开始满足降档条件的时间，不满足时为-1
+    private long coolingSinceMillis = -1;
+    private long transitions;
+    // 下一次可以发送回复的时间（纳秒）
+    private long nextReplyNanos;
+    private boolean nextReplyValid;
+
+    /**
+     * @param listener 档位变化监听器，在调用 update 的线程中回调，可以为null
+     */
+    public ThroughputGovernor(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 更新设备状态并重新计算档位
+     * @param batteryPercent 电量百分比
+     * @param charging 是否在充电
+     * @param thermalStatus 温度状态，见 THERMAL_*
+     * @param nowMillis 当前时间
+     * @return 更新后的档位
+     */
+    public Level update(int batteryPercent, boolean charging, int thermalStatus, long nowMillis) {
+        Level from;
+        Level to;
+        synchronized (this) {
+            this.batteryPercent = batteryPercent;
+            this.charging = charging;
+            this.thermalStatus = thermalStatus;
+            backgroundAllowed = thermalStatus < THERMAL_LIGHT && (charging || batteryPercent > BACKGROUND_MIN_BATTERY);
+
+            from = level;
+            Level target = targetLevel(0);
+            if (target.ordinal() > level.ordinal()) {
+                level = target;
+                coolingSinceMillis = -1;
+            } else if (target.ordinal() < level.ordinal()) {
+                // 降档时电量阈值加上回差，只降到回差后仍满足的档位
+                Level relaxed = targetLevel(BATTERY_HYSTERESIS);
+                if (relaxed.ordinal() >= level.ordinal()) {
+                    coolingSinceMillis = -1;
+                } else if (coolingSinceMillis < 0) {
+                    coolingSinceMillis = nowMillis;
+                } else if (nowMillis - coolingSinceMillis >= COOL_DOWN_MS) {
+                    level = relaxed;
+                    coolingSinceMillis = -1;
+                }
+            } else {
+                coolingSinceMillis = -1;
+            }
+            to = level;
+            if (from != to) {
+                transitions++;
+            }
+        }
+        if (from != to && listener != null) {
+            listener.onLevelChanged(from, to);
+        }
+        return to;
+    }
+
+    /**
+     * 预约下一次发送回复的时间，按当前档位的最小间隔排队
+     * @param nowNanos 当前时间（System.nanoTime）
+     * @return 发送前需要等待的纳秒数
+     */
+    public synchronized long reserveReplySlot(long nowNanos) {
+        long interval = level.replyIntervalMs * 1000000L;
+        long slot = nextReplyValid && nextReplyNanos - nowNanos > 0 ? nextReplyNanos : nowNanos;
+        nextReplyNanos = slot + interval;
+        nextReplyValid = true;
+        return slot - nowNanos;
+    }
+
+    /**
+     * 由电池温度换算温度状态，用于系统不提供温度状态的设备
+     * @param tenthsCelsius 电池温度（0.1摄氏度）
+     */
+    public static int thermalFromBatteryTemperature(int tenthsCelsius) {
+        if (tenthsCelsius >= 480) {
+            return THERMAL_CRITICAL;
+        }
+        if (tenthsCelsius >= 450) {
+            return THERMAL_SEVERE;
+        }
+        if (tenthsCelsius >= 420) {
+            return THERMAL_MODERATE;
+        }
+        if (tenthsCelsius >= 390) {
+            return THERMAL_LIGHT;
+        }
+        return THERMAL_NONE;
+    }
+
+    public synchronized Level getLevel() {
+        return level;
+    }
+
+    /**
+     * 是否允许后台任务（数据保留、归档、补建索引）
+     * 只在不发热、且在充电或电量充足时允许，与档位独立
+     */
+    public synchronized boolean isBackgroundAllowed() {
+        return backgroundAllowed;
+    }
+
+    public synchronized int getBatteryPercent() {
+        return batteryPercent;
+    }
+
+    public synchronized boolean isCharging() {
+        return charging;
+    }
+
+    public synchronized int getThermalStatus() {
+        return thermalStatus;
+    }
+
+    public synchronized long getTransitionCount() {
+        return transitions;
+    }
+
+    /**
+     * 按当前状态计算目标档位
+     * @param batteryMargin 电量阈值的额外余量，降档时使用回差
+     */
+    private Level targetLevel(int batteryMargin) {
+        int severity = 0;
+        if (thermalStatus >= THERMAL_CRITICAL) {
+            severity = 3;
+        } else if (thermalStatus >= THERMAL_SEVERE) {
+            severity = 2;
+        } else if (thermalStatus >= THERMAL_MODERATE) {
+            severity = 1;
+        }
+        if (!charging) {
+            if (batteryPercent <= BATTERY_CRITICAL + batteryMargin) {
+                severity = Math.max(severity, 3);
+            } else if (batteryPercent <= BATTERY_HOT + batteryMargin) {
+                severity = Math.max(severity, 2);
+            } else if (batteryPercent <= BATTERY_THROTTLED + batteryMargin) {
+                severity = Math.max(severity, 1);
+            }
+        }
+        return Level.values()[severity];
+    }
+}
@@ -0,0 +1,136 @@
+package com.momoautoreply;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 消息处理链路记录器
+ * 功能：
+ * 1. 为每条收到的消息创建 MessageTrace，分配链路ID
+ * 2. 按阶段汇总耗时直方图（微秒），以及总耗时直方图
+ * 3. 在固定大小的环形缓冲区中保存最近完成的链路
+ * 4. 把最近的链路导出为制表符分隔的文本，便于离线分析
+ *
+ * 进程内共享一个实例，服务记录、界面读取。记录和查询都不加锁。
+ */
+public class TraceRecorder {
+
+    // 保存的最近链路数
+    private static final int RECENT_CAPACITY = 256;
+
+    private static final TraceRecorder INSTANCE = new TraceRecorder(RECENT_CAPACITY);
+
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Histogram[] stageHistograms = new Histogram[MessageTrace.Stage.values().length];
+    private final Histogram totalHistogram = new Histogram();
+    private final AtomicReferenceArray<MessageTrace> recent;
+    // 已完成的链路数，同时是下一个写入的环形缓冲区位置
+    private final AtomicLong completed = new AtomicLong();
+
+    public TraceRecorder(int capacity) {
+        this.recent = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < stageHistograms.length; i++) {
+            stageHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * 进程内共享的记录器
+     */
+    public static TraceRecorder getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 开始一条链路
+     * @param userName 用户名
+     * @param startNanos 收到事件时的 System.nanoTime()
+     * @return 链路
+     */
+    public MessageTrace start(String userName, long startNanos) {
+        return new MessageTrace(this, nextId.getAndIncrement(), userName, startNanos);
+    }
+
+    void complete(MessageTrace trace) {
+        for (MessageTrace.Stage stage : MessageTrace.Stage.values()) {
+            long nanos = trace.getStageNanos(stage);
+            if (nanos >= 0) {
+                stageHistograms[stage.ordinal()].record(nanos / 1000);
+            }
+        }
+        totalHistogram.record(trace.getTotalNanos() / 1000);
+
+        long slot = completed.getAndIncrement();
+        recent.set((int) (slot % recent.length()), trace);
+    }
+
+    /**
+     * 某阶段的耗时直方图（微秒）
+     */
+    public Histogram getStageHistogram(MessageTrace.Stage stage) {
+        return stageHistograms[stage.ordinal()];
+    }
+
+    /**
+     * 从收到事件到处理结束的总耗时直方图（微秒）
+     */
+    public Histogram getTotalHistogram() {
+        return totalHistogram;
+    }
+
+    /**
+     * 已完成的链路总数
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * 最近完成的链路，最新的在前
+     */
+    public List<MessageTrace> getRecentTraces() {
+        long end = completed.get();
+        long start = Math.max(0, end - recent.length());
+        List<MessageTrace> traces = new ArrayList<>((int) (end - start));
+        for (long slot = end - 1; slot >= start; slot--) {
+            MessageTrace trace = recent.get((int) (slot % recent.length()));
+            if (trace != null) {
+                traces.add(trace);
+            }
+        }
+        return traces;
+    }
+
+    /**
+     * 导出最近完成的链路，最新的在前
+     * 第一行为列名，之后每行一条链路，各阶段耗时单位为微秒，未经过的阶段为-1
+     * @param out 输出
+     * @return 导出的链路数
+     */
+    public int writeRecentTraces(Appendable out) throws IOException {
+        out.append("id\tstart_time_ms\tuser\toutcome\ttotal_us");
+        for (MessageTrace.Stage stage : MessageTrace.Stage.values()) {
+            out.append('\t').append(stage.name().toLowerCase(Locale.ROOT)).append("_us");
+        }
+        out.append('\n');
+
+        List<MessageTrace> traces = getRecentTraces();
+        for (MessageTrace trace : traces) {
+            out.append(Long.toString(trace.id)).append('\t')
+                    .append(Long.toString(trace.startTimeMillis)).append('\t')
+                    .append(trace.userName.replace('\t', ' ').replace('\n', ' ')).append('\t')
+                    .append(trace.getOutcome()).append('\t')
+                    .append(Long.toString(trace.getTotalNanos() / 1000));
+            for (MessageTrace.Stage stage : MessageTrace.Stage.values()) {
+                long nanos = trace.getStageNanos(stage);
+                out.append('\t').append(Long.toString(nanos < 0 ? -1 : nanos / 1000));
+            }
+            out.append('\n');
+        }
+        return traces.size();
+    }
+}
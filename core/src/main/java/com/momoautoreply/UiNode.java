@@ -0,0 +1,44 @@
+package com.momoautoreply;
+
+import java.util.List;
+
+/**
+ * 界面节点
+ * 聊天界面解析只通过这个接口读取节点，设备上由 AccessibilityNodeInfo 包装实现，
+ * 回放时由事件录制文件中的 UiNodeSnapshot 实现。
+ */
+public interface UiNode {
+
+    /**
+     * 控件资源ID，例如 "com.immomo.momo:id/message_text"，没有时为null
+     */
+    String getViewId();
+
+    /**
+     * 节点文本，没有时为null
+     */
+    CharSequence getText();
+
+    /**
+     * 节点在屏幕上的位置
+     * @param out 长度为4的数组，依次写入左、上、右、下
+     */
+    void getBounds(int[] out);
+
+    /**
+     * 父节点，根节点返回null
+     */
+    UiNode getParent();
+
+    int getChildCount();
+
+    /**
+     * 子节点，无法读取时为null
+     */
+    UiNode getChild(int index);
+
+    /**
+     * 按控件资源ID查找子树中的节点，按界面顺序返回
+     */
+    List<UiNode> findByViewId(String viewId);
+}
@@ -0,0 +1,108 @@
+package com.momoautoreply;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 界面节点的内存副本
+ * 由 EventTrace.Reader 从录制文件还原，只保存聊天界面解析用到的控件ID、文本和位置。
+ * 创建后不再修改，可以在多个线程中读取。
+ */
+public class UiNodeSnapshot implements UiNode {
+
+    private static final UiNodeSnapshot[] NO_CHILDREN = new UiNodeSnapshot[0];
+
+    private final String viewId;
+    private final String text;
+    private final int left;
+    private final int top;
+    private final int right;
+    private final int bottom;
+    private UiNodeSnapshot parent;
+    private UiNodeSnapshot[] children = NO_CHILDREN;
+
+    public UiNodeSnapshot(String viewId, String text, int left, int top, int right, int bottom) {
+        this.viewId = viewId;
+        this.text = text;
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    /**
+     * 设置子节点，同时设置子节点的父节点，只在构建节点树时调用
+     */
+    public void setChildren(UiNodeSnapshot[] children) {
+        for (UiNodeSnapshot child : children) {
+            child.parent = this;
+        }
+        this.children = children;
+    }
+
+    @Override
+    public String getViewId() {
+        return viewId;
+    }
+
+    @Override
+    public CharSequence getText() {
+        return text;
+    }
+
+    @Override
+    public void getBounds(int[] out) {
+        out[0] = left;
+        out[1] = top;
+        out[2] = right;
+        out[3] = bottom;
+    }
+
+    @Override
+    public UiNode getParent() {
+        return parent;
+    }
+
+    @Override
+    public int getChildCount() {
+        return children.length;
+    }
+
+    @Override
+    public UiNode getChild(int index) {
+        return children[index];
+    }
+
+    @Override
+    public List<UiNode> findByViewId(String viewId) {
+        List<UiNode> result = null;
+        // 先序遍历，与界面顺序一致
+        ArrayList<UiNodeSnapshot> stack = new ArrayList<>();
+        stack.add(this);
+        while (!stack.isEmpty()) {
+            UiNodeSnapshot node = stack.remove(stack.size() - 1);
+            if (viewId.equals(node.viewId)) {
+                if (result == null) {
+                    result = new ArrayList<>();
+                }
+                result.add(node);
+            }
+            for (int i = node.children.length - 1; i >= 0; i--) {
+                stack.add(node.children[i]);
+            }
+        }
+        return result != null ? result : Collections.<UiNode>emptyList();
+    }
+
+    /**
+     * 子树中的节点数，包括自身
+     */
+    public int countNodes() {
+        int count = 1;
+        for (UiNodeSnapshot child : children) {
+            count += child.countNodes();
+        }
+        return count;
+    }
+}
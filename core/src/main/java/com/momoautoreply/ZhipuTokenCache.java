@@ -0,0 +1,121 @@
+package com.momoautoreply;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 智谱AI JWT鉴权令牌缓存
+ * 功能：
+ * 1. 按智谱要求用API Key（id.secret）签发HS256令牌
+ * 2. 在令牌有效期的大部分时间内复用，接近过期时才重新签名
+ * 3. 统计签名次数和耗时
+ *
+ * 低端机上每次请求都做一次HMAC+Base64会浪费CPU，这里只在过期前刷新。
+ */
+public class ZhipuTokenCache {
+
+    // 令牌有效期
+    private static final long TOKEN_TTL_MS = 30 * 60 * 1000;
+    // 有效期过去80%后刷新，留出时钟偏差和请求耗时的余量
+    private static final long REFRESH_AFTER_MS = TOKEN_TTL_MS * 4 / 5;
+
+    private static final byte[] HEADER = base64Url(
+            "{\"alg\":\"HS256\",\"sign_type\":\"SIGN\"}".getBytes(StandardCharsets.UTF_8));
+
+    private final String apiKeyId;
+    private final Mac mac;
+
+    private String cachedToken;
+    private long refreshAt;
+
+    private long signCount;
+    private long signNanos;
+
+    /**
+     * 构造函数
+     * @param apiKey 智谱API Key，格式为 id.secret
+     */
+    public ZhipuTokenCache(String apiKey) {
+        int dot = apiKey.indexOf('.');
+        if (dot <= 0 || dot == apiKey.length() - 1) {
+            throw new IllegalArgumentException("智谱API Key格式应为 id.secret");
+        }
+        this.apiKeyId = apiKey.substring(0, dot);
+        try {
+            this.mac = Mac.getInstance("HmacSHA256");
+            this.mac.init(new SecretKeySpec(
+                    apiKey.substring(dot + 1).getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256不可用", e);
+        }
+    }
+
+    /**
+     * 获取可用令牌，缓存未过期时直接返回
+     * @return JWT令牌
+     */
+    public synchronized String getToken() {
+        long now = System.currentTimeMillis();
+        if (cachedToken == null || now >= refreshAt) {
+            cachedToken = sign(now);
+            refreshAt = now + REFRESH_AFTER_MS;
+        }
+        return cachedToken;
+    }
+
+    /**
+     * 签发新令牌，不经过缓存
+     * @param now 当前时间（毫秒）
+     * @return JWT令牌
+     */
+    public synchronized String sign(long now) {
+        long start = System.nanoTime();
+
+        String payload = "{\"api_key\":\"" + apiKeyId + "\"," +
+                "\"exp\":" + (now + TOKEN_TTL_MS) + "," +
+                "\"timestamp\":" + now + "}";
+        byte[] payloadPart = base64Url(payload.getBytes(StandardCharsets.UTF_8));
+
+        byte[] signingInput = new byte[HEADER.length + 1 + payloadPart.length];
+        System.arraycopy(HEADER, 0, signingInput, 0, HEADER.length);
+        signingInput[HEADER.length] = '.';
+        System.arraycopy(payloadPart, 0, signingInput, HEADER.length + 1, payloadPart.length);
+
+        byte[] signature = base64Url(mac.doFinal(signingInput));
+        String token = new String(signingInput, StandardCharsets.US_ASCII) + "." +
+                new String(signature, StandardCharsets.US_ASCII);
+
+        signCount++;
+        signNanos += System.nanoTime() - start;
+        return token;
+    }
+
+    /**
+     * 使缓存失效，例如服务端返回401时
+     */
+    public synchronized void invalidate() {
+        cachedToken = null;
+    }
+
+    /**
+     * 累计签名次数
+     */
+    public synchronized long getSignCount() {
+        return signCount;
+    }
+
+    /**
+     * 累计签名耗时（纳秒）
+     */
+    public synchronized long getSignNanos() {
+        return signNanos;
+    }
+
+    private static byte[] base64Url(byte[] data) {
+        return Base64.getUrlEncoder().withoutPadding().encode(data);
+    }
+}
@@ -0,0 +1,180 @@
+package com.momoautoreply;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 写入的事件按原样读回，文件在任意位置截断时只丢掉不完整的最后一条记录
+ */
+public class EventTraceTest {
+
+    private static final long START_MILLIS = 1718000000000L;
+
+    @Test
+    public void roundTripsEventsAndNodeTrees() throws IOException {
+        byte[] bytes = record();
+        try (EventTrace.Reader reader = new EventTrace.Reader(new ByteArrayInputStream(bytes))) {
+            assertEquals(START_MILLIS, reader.getStartTimeMillis());
+
+            EventTrace.Event first = reader.next();
+            assertEquals(2048, first.eventType);
+            assertEquals(0, first.offsetNanos);
+            assertEquals(Arrays.asList("小红: 在吗", ""), first.texts);
+            assertTree(chatScreen("在吗"), first.root);
+
+            EventTrace.Event second = reader.next();
+            assertEquals(64, second.eventType);
+            assertEquals(1500000, second.offsetNanos);
+            assertTrue(second.texts.isEmpty());
+            assertNull(second.root);
+
+            EventTrace.Event third = reader.next();
+            assertEquals(2048, third.eventType);
+            // 时间倒退时差值按0处理
+            assertEquals(1500000, third.offsetNanos);
+            assertTree(chatScreen("周末一起去吃火锅？😀"), third.root);
+
+            assertNull(reader.next());
+            assertNull(reader.next());
+        }
+    }
+
+    /**
+     * 截断到记录头之后的任意长度，读出的都是完整事件的前缀，且不抛出异常
+     */
+    @Test
+    public void truncatedFileYieldsCompletePrefix() throws IOException {
+        byte[] bytes = record();
+        List<EventTrace.Event> all = readAll(bytes);
+        assertEquals(3, all.size());
+
+        int previous = 0;
+        for (int length = EventTrace.HEADER_BYTES; length <= bytes.length; length++) {
+            List<EventTrace.Event> events = readAll(Arrays.copyOf(bytes, length));
+            assertTrue("截断到 " + length + " 字节读出了 " + events.size() + " 个事件", events.size() >= previous);
+            for (int i = 0; i < events.size(); i++) {
+                assertEquals(all.get(i).eventType, events.get(i).eventType);
+                assertEquals(all.get(i).offsetNanos, events.get(i).offsetNanos);
+                assertEquals(all.get(i).texts, events.get(i).texts);
+                assertTree(all.get(i).root, events.get(i).root);
+            }
+            previous = events.size();
+        }
+        assertEquals(all.size(), previous);
+    }
+
+    @Test
+    public void truncatedHeaderIsRejected() throws IOException {
+        byte[] bytes = record();
+        for (int length = 0; length < EventTrace.HEADER_BYTES; length++) {
+            try {
+                new EventTrace.Reader(new ByteArrayInputStream(Arrays.copyOf(bytes, length)));
+                fail("截断到 " + length + " 字节的文件头应被拒绝");
+            } catch (IOException expected) {
+                // 文件头不完整
+            }
+        }
+    }
+
+    @Test
+    public void wrongMagicIsRejected() throws IOException {
+        byte[] bytes = record();
+        bytes[0] ^= 0x01;
+        try {
+            new EventTrace.Reader(new ByteArrayInputStream(bytes));
+            fail("魔数不符应被拒绝");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("不是无障碍事件录制文件"));
+        }
+    }
+
+    /**
+     * 超过节点上限的子节点不再写入，读回的节点数不超过上限
+     */
+    @Test
+    public void largeTreeIsCappedAtMaxNodes() throws IOException {
+        UiNodeSnapshot root = new UiNodeSnapshot("android:id/list", null, 0, 0, 1080, 2400);
+        UiNodeSnapshot[] children = new UiNodeSnapshot[EventTrace.MAX_NODES + 500];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = new UiNodeSnapshot("com.immomo.momo:id/message_text", "第" + i + "条", 0, i, 1080, i + 1);
+        }
+        root.setChildren(children);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EventTrace.Writer writer = new EventTrace.Writer(out, START_MILLIS)) {
+            writer.writeEvent(2048, 0, null, root);
+        }
+        List<EventTrace.Event> events = readAll(out.toByteArray());
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).root.countNodes() <= EventTrace.MAX_NODES);
+        assertEquals("第0条", events.get(0).root.getChild(0).getText().toString());
+    }
+
+    private static byte[] record() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (EventTrace.Writer writer = new EventTrace.Writer(out, START_MILLIS)) {
+            writer.writeEvent(2048, 5000000, Arrays.asList("小红: 在吗", null), chatScreen("在吗"));
+            writer.writeEvent(64, 6500000, Collections.emptyList(), null);
+            writer.writeEvent(2048, 6000000, null, chatScreen("周末一起去吃火锅？😀"));
+            assertEquals(3, writer.getEventCount());
+            writer.flush();
+            assertEquals(out.size(), writer.getBytesWritten());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 聊天界面：标题栏加两条消息，控件ID重复出现，位置可能为负
+     */
+    private static UiNodeSnapshot chatScreen(String lastMessage) {
+        UiNodeSnapshot root = new UiNodeSnapshot(null, null, 0, 0, 1080, 2400);
+        UiNodeSnapshot title = new UiNodeSnapshot("com.immomo.momo:id/title", "小红", 0, 0, 1080, 160);
+        UiNodeSnapshot list = new UiNodeSnapshot("android:id/list", null, 0, 160, 1080, 2200);
+        UiNodeSnapshot first = new UiNodeSnapshot("com.immomo.momo:id/message_text", "你好呀", 40, -120, 600, 40);
+        UiNodeSnapshot last = new UiNodeSnapshot("com.immomo.momo:id/message_text", lastMessage, 40, 200, 800, 320);
+        list.setChildren(new UiNodeSnapshot[]{first, last});
+        root.setChildren(new UiNodeSnapshot[]{title, list});
+        return root;
+    }
+
+    private static List<EventTrace.Event> readAll(byte[] bytes) throws IOException {
+        List<EventTrace.Event> events = new ArrayList<>();
+        try (EventTrace.Reader reader = new EventTrace.Reader(new ByteArrayInputStream(bytes))) {
+            EventTrace.Event event;
+            while ((event = reader.next()) != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private static void assertTree(UiNode expected, UiNode actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.getViewId(), actual.getViewId());
+        assertEquals(String.valueOf(expected.getText()), String.valueOf(actual.getText()));
+        int[] want = new int[4];
+        int[] got = new int[4];
+        expected.getBounds(want);
+        actual.getBounds(got);
+        assertEquals(Arrays.toString(want), Arrays.toString(got));
+        assertEquals(expected.getChildCount(), actual.getChildCount());
+        for (int i = 0; i < expected.getChildCount(); i++) {
+            assertTree(expected.getChild(i), actual.getChild(i));
+        }
+    }
+}
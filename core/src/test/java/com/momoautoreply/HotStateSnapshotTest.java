@@ -0,0 +1,174 @@
+package com.momoautoreply;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 写入后能读回相同的内容，损坏或不完整的文件在校验时被拒绝
+ */
+public class HotStateSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsAllFields() throws IOException {
+        File file = folder.newFile("hot_state.bin");
+        HotStateSnapshot written = sample();
+        long bytes = written.write(file);
+
+        assertEquals(file.length(), bytes);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        HotStateSnapshot read = HotStateSnapshot.read(file);
+        assertEquals(1718000000000L, read.createdAtMillis);
+        assertEquals(4321, read.nextMessageId);
+        assertEquals(17, read.conversationCount);
+        assertEquals(written.recentMessages, read.recentMessages);
+        assertEquals(written.conversations.size(), read.conversations.size());
+        for (int i = 0; i < written.conversations.size(); i++) {
+            assertConversation(written.conversations.get(i), read.conversations.get(i));
+        }
+    }
+
+    @Test
+    public void roundTripsEmptySnapshot() throws IOException {
+        File file = folder.newFile("hot_state.bin");
+        new HotStateSnapshot(0, 0, 0, new LinkedHashMap<>(), new ArrayList<>()).write(file);
+
+        HotStateSnapshot read = HotStateSnapshot.read(file);
+        assertTrue(read.recentMessages.isEmpty());
+        assertTrue(read.conversations.isEmpty());
+    }
+
+    @Test
+    public void overwritesPreviousSnapshot() throws IOException {
+        File file = folder.newFile("hot_state.bin");
+        sample().write(file);
+        new HotStateSnapshot(1, 2, 3, new LinkedHashMap<>(), new ArrayList<>()).write(file);
+
+        HotStateSnapshot read = HotStateSnapshot.read(file);
+        assertEquals(2, read.nextMessageId);
+        assertTrue(read.conversations.isEmpty());
+    }
+
+    /**
+     * 翻转任意一个字节都应被CRC拒绝
+     */
+    @Test
+    public void rejectsFlippedByte() throws IOException {
+        File file = folder.newFile("hot_state.bin");
+        long length = sample().write(file);
+
+        for (long offset = 0; offset < length; offset++) {
+            flip(file, offset);
+            try {
+                HotStateSnapshot.read(file);
+                fail("第 " + offset + " 字节损坏应被拒绝");
+            } catch (IOException expected) {
+                // 校验失败
+            }
+            flip(file, offset);
+        }
+        assertEquals(4321, HotStateSnapshot.read(file).nextMessageId);
+    }
+
+    /**
+     * 截断到任意长度都应被拒绝
+     */
+    @Test
+    public void rejectsTruncatedFile() throws IOException {
+        File file = folder.newFile("hot_state.bin");
+        File source = folder.newFile("source.bin");
+        long length = sample().write(source);
+
+        for (long size = 0; size < length; size++) {
+            copyPrefix(source, file, size);
+            try {
+                HotStateSnapshot.read(file);
+                fail("截断到 " + size + " 字节应被拒绝");
+            } catch (IOException expected) {
+                // 文件不完整
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void missingFileThrows() throws IOException {
+        HotStateSnapshot.read(new File(folder.getRoot(), "missing.bin"));
+    }
+
+    private static HotStateSnapshot sample() {
+        Map<String, String> recent = new LinkedHashMap<>();
+        recent.put("小红", "在吗");
+        recent.put("Alice", "周末一起去吃火锅？");
+
+        List<ConversationCache.CachedConversation> conversations = new ArrayList<>();
+        conversations.add(new ConversationCache.CachedConversation("小红", "conv-1", "温柔的朋友", Arrays.asList(
+                new ChatMessage("41", "other", "在吗", 1717999990000L),
+                new ChatMessage("42", "self", "在的～", 1717999995000L),
+                // 同一时间戳和非数字ID
+                new ChatMessage("pending-7", "other", "刚下班", 1717999995000L),
+                // 时间倒退时差为负数
+                new ChatMessage("40", "other", "😀", 1717999980000L))));
+        conversations.add(new ConversationCache.CachedConversation("Alice", "conv-2", null, new ArrayList<>()));
+        conversations.add(new ConversationCache.CachedConversation("Bob", null, "", null));
+        return new HotStateSnapshot(1718000000000L, 4321, 17, recent, conversations);
+    }
+
+    private static void assertConversation(ConversationCache.CachedConversation expected,
+                                           ConversationCache.CachedConversation actual) {
+        assertEquals(expected.userName, actual.userName);
+        assertEquals(expected.conversationId, actual.conversationId);
+        assertEquals(expected.roleSetting, actual.roleSetting);
+        if (expected.window == null) {
+            assertNull(actual.window);
+            return;
+        }
+        assertEquals(expected.window.size(), actual.window.size());
+        for (int i = 0; i < expected.window.size(); i++) {
+            ChatMessage want = expected.window.get(i);
+            ChatMessage got = actual.window.get(i);
+            assertEquals(want.id, got.id);
+            assertEquals(want.sender, got.sender);
+            assertEquals(want.content, got.content);
+            assertEquals(want.timestamp, got.timestamp);
+        }
+    }
+
+    private static void flip(File file, long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0x01);
+        }
+    }
+
+    private static void copyPrefix(File source, File target, long size) throws IOException {
+        byte[] bytes = new byte[(int) size];
+        try (RandomAccessFile in = new RandomAccessFile(source, "r")) {
+            in.readFully(bytes);
+        }
+        try (RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+            out.setLength(0);
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.momoautoreply;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 用合成的消息列表和聊天界面驱动巡检，检查点开顺序和每种退出方式
+ */
+public class InboxScannerTest {
+
+    private static final long CHAT_BUDGET_MS = 60 * 1000;
+
+    private final List<String> actions = new ArrayList<>();
+    private boolean openSucceeds = true;
+    private InboxScanner scanner;
+    private long now = 1000;
+
+    @Before
+    public void setUp() {
+        scanner = new InboxScanner(new InboxScanner.Navigator() {
+            @Override
+            public boolean openChat(UiNode sessionItem) {
+                actions.add("open " + sessionItem.findByViewId(ChatScreenParser.SESSION_NAME_ID).get(0).getText());
+                return openSucceeds;
+            }
+
+            @Override
+            public boolean goBack() {
+                actions.add("back");
+                return true;
+            }
+        }, userName -> userName.equals("星标") ? 1 : 0, CHAT_BUDGET_MS);
+    }
+
+    /**
+     * 联系人优先级最高的先点开，其次是未读多的，未读数超过上限按上限计算
+     */
+    @Test
+    public void opensByPriorityThenUnread() {
+        String[][] sessions = {{"小红", "2"}, {"刷屏", "99+"}, {"星标", "1"}, {"已读", null}};
+        scanner.onScreen(sessionList(sessions), now);
+        assertEquals(Arrays.asList("open 星标"), actions);
+        assertEquals(2, scanner.getPendingCount());
+
+        serveAndReply("星标");
+        scanner.onScreen(sessionList(new String[][]{{"小红", "2"}, {"刷屏", "99+"}, {"星标", null}}), now += 300);
+        serveAndReply("刷屏");
+        scanner.onScreen(sessionList(new String[][]{{"小红", "2"}, {"刷屏", null}}), now += 300);
+        assertEquals(Arrays.asList("open 星标", "back", "open 刷屏", "back", "open 小红"), actions);
+        assertEquals(2, scanner.getOutcomeCount(InboxScanner.Outcome.REPLIED));
+    }
+
+    /**
+     * 等待时间计入优先级：先出现的会话多等了超过一条未读的时间后，排在未读多一条的会话前面
+     */
+    @Test
+    public void waitingTimeRaisesPriority() {
+        assertEquals("open 早", nextAfterQueueing(31 * 1000));
+    }
+
+    @Test
+    public void unreadOutweighsShortWait() {
+        assertEquals("open 晚", nextAfterQueueing(29 * 1000));
+    }
+
+    /**
+     * 等待聊天界面出现期间，早（1条未读）先入队，gapMs 之后晚（2条未读）入队，返回处理完当前会话后点开的会话
+     */
+    private String nextAfterQueueing(long gapMs) {
+        scanner.onScreen(sessionList(new String[][]{{"星标", "1"}}), now);
+        scanner.onScreen(sessionList(new String[][]{{"星标", "1"}, {"早", "1"}}), now += 100);
+        scanner.onScreen(sessionList(new String[][]{{"星标", "1"}, {"早", "1"}, {"晚", "2"}}), now += gapMs);
+        assertEquals(2, scanner.getPendingCount());
+        assertEquals(gapMs, scanner.getOldestWaitMillis(now));
+
+        serveAndReply("星标");
+        scanner.onScreen(sessionList(new String[][]{{"星标", null}, {"早", "1"}, {"晚", "2"}}), now += 100);
+        assertEquals(Arrays.asList("open 星标", "back"), actions.subList(0, 2));
+        return actions.get(actions.size() - 1);
+    }
+
+    @Test
+    public void repliedSessionReturnsToList() {
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}}), now);
+        serveAndReply("小红");
+        assertEquals(Arrays.asList("open 小红", "back"), actions);
+        assertEquals(1, scanner.getOutcomeCount(InboxScanner.Outcome.REPLIED));
+        assertEquals(1, scanner.getServedPerMinute(now));
+        assertEquals(1, scanner.getServeHistogram().getCount());
+        assertEquals(1, scanner.getWaitHistogram().getCount());
+    }
+
+    /**
+     * 进入后没有识别到新消息，等待 SETTLE_MS 后返回
+     */
+    @Test
+    public void settlesWhenNoNewMessage() {
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}}), now);
+        scanner.onScreen(chatScreen("小红"), now += 200);
+        scanner.tick(now + InboxScanner.SETTLE_MS);
+        assertEquals(Arrays.asList("open 小红"), actions);
+
+        scanner.tick(now + InboxScanner.SETTLE_MS + 1);
+        assertEquals(Arrays.asList("open 小红", "back"), actions);
+        assertEquals(1, scanner.getOutcomeCount(InboxScanner.Outcome.NO_NEW_MESSAGE));
+    }
+
+    /**
+     * 识别到新消息后不再按 SETTLE_MS 返回，回复一直没完成时按时间预算返回
+     */
+    @Test
+    public void timesOutAfterBudgetWhileReplying() {
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}}), now);
+        scanner.onScreen(chatScreen("小红"), now += 200);
+        long entered = now;
+        scanner.onMessageReceived("小红", now += 100);
+        scanner.tick(entered + InboxScanner.SETTLE_MS * 2);
+        scanner.tick(entered + CHAT_BUDGET_MS);
+        assertEquals(Arrays.asList("open 小红"), actions);
+
+        scanner.tick(entered + CHAT_BUDGET_MS + 1);
+        assertEquals(Arrays.asList("open 小红", "back"), actions);
+        assertEquals(1, scanner.getOutcomeCount(InboxScanner.Outcome.TIMEOUT));
+        // 之后的回复完成通知不再生效
+        scanner.onReplyFinished("小红", entered + CHAT_BUDGET_MS + 2);
+        assertEquals(0, scanner.getOutcomeCount(InboxScanner.Outcome.REPLIED));
+    }
+
+    /**
+     * 进入前的回复完成和其他会话的通知不会让当前会话提前返回
+     */
+    @Test
+    public void ignoresUnrelatedReplyFinished() {
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}}), now);
+        scanner.onScreen(chatScreen("小红"), now += 200);
+        scanner.onReplyFinished("小红", now += 100);
+        scanner.onMessageReceived("小明", now += 100);
+        scanner.onReplyFinished("小明", now += 100);
+        assertEquals(Arrays.asList("open 小红"), actions);
+        assertEquals(0, scanner.getOutcomeCount(InboxScanner.Outcome.REPLIED));
+    }
+
+    /**
+     * 聊天界面识别到新消息也视为会话已打开
+     */
+    @Test
+    public void messageBeforeTitleEntersChat() {
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}}), now);
+        scanner.onMessageReceived("小红", now += 200);
+        scanner.onReplyFinished("小红", now += 1000);
+        assertEquals(Arrays.asList("open 小红", "back"), actions);
+        assertEquals(1, scanner.getOutcomeCount(InboxScanner.Outcome.REPLIED));
+    }
+
+    @Test
+    public void chatThatNeverOpensFails() {
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}, {"小明", "1"}}), now);
+        // 聊天界面没有出现时列表刷新不会点开下一个
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}, {"小明", "1"}}), now += 100);
+        scanner.tick(now + InboxScanner.OPEN_TIMEOUT_MS + 1);
+        assertEquals(1, scanner.getOutcomeCount(InboxScanner.Outcome.OPEN_FAILED));
+        assertEquals(Arrays.asList("open 小红"), actions);
+
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}, {"小明", "1"}}), now += InboxScanner.OPEN_TIMEOUT_MS + 100);
+        assertEquals(Arrays.asList("open 小红", "open 小明"), actions);
+    }
+
+    @Test
+    public void failedClickIsCounted() {
+        openSucceeds = false;
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}}), now);
+        assertEquals(1, scanner.getOutcomeCount(InboxScanner.Outcome.OPEN_FAILED));
+        assertEquals(0, scanner.getServedPerMinute(now));
+        assertEquals(0, scanner.getServeHistogram().getCount());
+    }
+
+    /**
+     * 返回后消息列表没有出现时再返回，最多 2 次
+     */
+    @Test
+    public void retriesBackThenGivesUp() {
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}}), now);
+        serveAndReply("小红");
+        long returned = now;
+        scanner.tick(returned + InboxScanner.BACK_TIMEOUT_MS + 1);
+        scanner.tick(returned + 2 * (InboxScanner.BACK_TIMEOUT_MS + 1));
+        scanner.tick(returned + 3 * (InboxScanner.BACK_TIMEOUT_MS + 1));
+        scanner.tick(returned + 4 * (InboxScanner.BACK_TIMEOUT_MS + 1));
+        assertEquals(Arrays.asList("open 小红", "back", "back", "back"), actions);
+    }
+
+    /**
+     * 处理完的会话在冷却时间内角标还在也不会再次点开
+     */
+    @Test
+    public void servedSessionCoolsDown() {
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}}), now);
+        serveAndReply("小红");
+        long served = now;
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}}), served + InboxScanner.REVISIT_COOL_DOWN_MS - 1);
+        assertEquals(0, scanner.getPendingCount());
+        assertEquals(Arrays.asList("open 小红", "back"), actions);
+
+        scanner.onScreen(sessionList(new String[][]{{"小红", "1"}}), served + InboxScanner.REVISIT_COOL_DOWN_MS);
+        assertEquals(Arrays.asList("open 小红", "back", "open 小红"), actions);
+    }
+
+    /**
+     * 角标消失或会话滚出屏幕时移出队列
+     */
+    @Test
+    public void clearedOrHiddenSessionsLeaveQueue() {
+        scanner.onScreen(sessionList(new String[][]{{"星标", "1"}, {"小红", "1"}, {"小明", "1"}}), now);
+        scanner.onScreen(chatScreen("星标"), now += 100);
+        scanner.onMessageReceived("星标", now += 100);
+        scanner.onReplyFinished("星标", now += 100);
+        assertEquals(2, scanner.getPendingCount());
+        assertEquals(300, scanner.getOldestWaitMillis(now));
+
+        // 小红 已读，小明 不在当前屏幕
+        scanner.onScreen(sessionList(new String[][]{{"小红", null}}), now += 100);
+        assertEquals(0, scanner.getPendingCount());
+        assertEquals(0, scanner.getOldestWaitMillis(now));
+        assertEquals(Arrays.asList("open 星标", "back"), actions);
+    }
+
+    private void serveAndReply(String userName) {
+        scanner.onScreen(chatScreen(userName), now += 500);
+        scanner.onMessageReceived(userName, now += 100);
+        scanner.onReplyFinished(userName, now += 2000);
+    }
+
+    private static UiNodeSnapshot sessionList(String[][] sessions) {
+        UiNodeSnapshot list = new UiNodeSnapshot(ChatScreenParser.SESSION_LIST_ID, null, 0, 200, 1080, 2200);
+        UiNodeSnapshot[] items = new UiNodeSnapshot[sessions.length];
+        for (int i = 0; i < sessions.length; i++) {
+            int top = 200 + i * 160;
+            UiNodeSnapshot name = new UiNodeSnapshot(ChatScreenParser.SESSION_NAME_ID, sessions[i][0],
+                    160, top, 800, top + 80);
+            UiNodeSnapshot item = new UiNodeSnapshot(null, null, 0, top, 1080, top + 160);
+            if (sessions[i][1] == null) {
+                item.setChildren(new UiNodeSnapshot[]{name});
+            } else {
+                item.setChildren(new UiNodeSnapshot[]{name, new UiNodeSnapshot(ChatScreenParser.SESSION_UNREAD_ID,
+                        sessions[i][1], 960, top, 1040, top + 60)});
+            }
+            items[i] = item;
+        }
+        list.setChildren(items);
+        UiNodeSnapshot root = new UiNodeSnapshot(null, null, 0, 0, 1080, 2400);
+        root.setChildren(new UiNodeSnapshot[]{list});
+        return root;
+    }
+
+    private static UiNodeSnapshot chatScreen(String userName) {
+        UiNodeSnapshot root = new UiNodeSnapshot(null, null, 0, 0, 1080, 2400);
+        root.setChildren(new UiNodeSnapshot[]{
+                new UiNodeSnapshot(ChatScreenParser.CHAT_TITLE_ID, userName, 0, 0, 1080, 160)});
+        return root;
+    }
+}
@@ -0,0 +1,106 @@
+package com.momoautoreply;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 中日韩文字按双字切分、MATCH表达式的短语和前缀，以及摘要的截取与高亮
+ */
+public class MessageSearchIndexTest {
+
+    @Test
+    public void tokenizeSplitsCjkIntoBigrams() {
+        assertEquals("今天 天晚 晚上", MessageSearchIndex.tokenize("今天晚上"));
+        assertEquals("こん んに にち ちは", MessageSearchIndex.tokenize("こんにちは"));
+        assertEquals("안녕", MessageSearchIndex.tokenize("안녕"));
+        // 扩展区汉字是代理对，按码点切分
+        assertEquals("𠀀𠀁", MessageSearchIndex.tokenize("𠀀𠀁"));
+    }
+
+    @Test
+    public void tokenizeKeepsSingleCjkAndLowercasesWords() {
+        assertEquals("hello 世界 abc123", MessageSearchIndex.tokenize("Hello世界 ABC123"));
+        assertEquals("iphone15 很好 好用", MessageSearchIndex.tokenize("iPhone15很好用"));
+        assertEquals("2024 年", MessageSearchIndex.tokenize("2024年"));
+        // 表情和标点都是分隔符，两侧的单字各自保留
+        assertEquals("好 的", MessageSearchIndex.tokenize("好😀的"));
+        assertEquals("我 爱 你们", MessageSearchIndex.tokenize("我，爱 你们！"));
+        assertEquals("", MessageSearchIndex.tokenize(""));
+        assertEquals("", MessageSearchIndex.tokenize("……？！ 😀"));
+    }
+
+    @Test
+    public void matchQueryUsesPhrasePerTerm() {
+        assertEquals("\"今天 天晚 晚上\"", MessageSearchIndex.buildMatchQuery("今天晚上"));
+        assertEquals("\"周末\" \"火锅\"", MessageSearchIndex.buildMatchQuery("  周末   火锅 "));
+        assertEquals("\"hello\"", MessageSearchIndex.buildMatchQuery("Hello"));
+        // 单个字母不是中日韩文字，仍按完整的词匹配
+        assertEquals("\"a\"", MessageSearchIndex.buildMatchQuery("a"));
+        assertEquals("\"iphone15 很好\"", MessageSearchIndex.buildMatchQuery("iPhone15很好"));
+    }
+
+    @Test
+    public void singleCjkCharacterBecomesPrefix() {
+        assertEquals("吃*", MessageSearchIndex.buildMatchQuery("吃"));
+        assertEquals("こ*", MessageSearchIndex.buildMatchQuery("こ"));
+        assertEquals("吃* \"火锅\"", MessageSearchIndex.buildMatchQuery("吃 火锅"));
+    }
+
+    /**
+     * 用户输入中的引号、括号和运算符在分词时被丢弃，不会改变MATCH表达式的结构
+     */
+    @Test
+    public void matchQueryDropsOperatorSyntax() {
+        assertEquals("\"or\" \"near x\" \"y\"", MessageSearchIndex.buildMatchQuery("\"OR\" NEAR(x) -y"));
+        assertEquals("\"a or b\"", MessageSearchIndex.buildMatchQuery("a\"OR\"b"));
+    }
+
+    @Test
+    public void matchQueryWithoutSearchableTextIsNull() {
+        assertNull(MessageSearchIndex.buildMatchQuery(""));
+        assertNull(MessageSearchIndex.buildMatchQuery("   "));
+        assertNull(MessageSearchIndex.buildMatchQuery("!!! ？？"));
+        assertNull(MessageSearchIndex.buildMatchQuery("😀"));
+    }
+
+    @Test
+    public void snippetHighlightsEveryTerm() {
+        assertEquals("我们【周末】去吃【火锅】吧，【周末】见",
+                MessageSearchIndex.snippet("我们周末去吃火锅吧，周末见", "周末 火锅", 40));
+        // 不区分大小写，高亮保留原文的大小写
+        assertEquals("I love 【Hotpot】", MessageSearchIndex.snippet("I love Hotpot", "hotpot", 40));
+        // 同一位置优先匹配较长的关键词
+        assertEquals("这家【火锅店】的【火锅】", MessageSearchIndex.snippet("这家火锅店的火锅", "火锅 火锅店", 40));
+    }
+
+    @Test
+    public void snippetCentersOnFirstMatch() {
+        String content = repeat("啊", 30) + "火锅" + repeat("啊", 30);
+        assertEquals("…啊啊啊啊【火锅】啊啊啊啊啊啊…", MessageSearchIndex.snippet(content, "火锅", 12));
+    }
+
+    @Test
+    public void snippetWithoutMatchStartsAtBeginning() {
+        assertEquals(repeat("啊", 10) + "…", MessageSearchIndex.snippet(repeat("啊", 20), "火锅", 10));
+        assertEquals("在吗", MessageSearchIndex.snippet("在吗", "火锅", 10));
+    }
+
+    /**
+     * 跨过片段末尾的关键词不高亮，不会输出半个高亮
+     */
+    @Test
+    public void snippetDoesNotHighlightTermCutAtEnd() {
+        String content = "火锅" + repeat("啊", 10) + "火锅";
+        assertEquals("【火锅】" + repeat("啊", 10) + "火…", MessageSearchIndex.snippet(content, "火锅", 13));
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            out.append(text);
+        }
+        return out.toString();
+    }
+}
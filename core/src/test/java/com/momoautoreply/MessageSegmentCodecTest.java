@@ -0,0 +1,161 @@
+package com.momoautoreply;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 归档段的往返编解码，以及长度前缀、压缩数据损坏时的报错
+ */
+public class MessageSegmentCodecTest {
+
+    private static final String[] CONTENTS = {
+            "在吗", "周末一起去吃火锅吧？😀", "", "OK", "你说的那家我去过，人超级多，排了一个多小时的队",
+            "こんにちは", "안녕하세요", "𠀀𠀁 扩展区汉字"
+    };
+
+    @Test
+    public void emptySegmentRoundTrips() throws IOException {
+        MessageSegmentCodec.Builder builder = new MessageSegmentCodec.Builder();
+        assertEquals(0, builder.getCount());
+        assertEquals(0, builder.getRawBytes());
+        assertTrue(MessageSegmentCodec.decode(builder.compress(), 0).isEmpty());
+    }
+
+    @Test
+    public void multipleRecordsRoundTrip() throws IOException {
+        List<MessageSegmentCodec.Record> records = new ArrayList<>();
+        long expectedRawBytes = 0;
+        for (int i = 0; i < 500; i++) {
+            String content = CONTENTS[i % CONTENTS.length] + (i % 3 == 0 ? "" : "#" + i);
+            // ID 不随时间单调，最小、最大ID要按实际值统计
+            records.add(new MessageSegmentCodec.Record(1000 + (i * 37) % 500, i % 2, 1717200000000L + i * 1000L,
+                    content));
+            expectedRawBytes += 4 + 8 + 1 + 8 + content.getBytes(StandardCharsets.UTF_8).length;
+        }
+        MessageSegmentCodec.Builder builder = build(records);
+
+        assertEquals(500, builder.getCount());
+        assertEquals(expectedRawBytes, builder.getRawBytes());
+        assertEquals(1000, builder.getMinId());
+        assertEquals(1499, builder.getMaxId());
+        assertEquals(1717200000000L, builder.getFirstTimestamp());
+        assertEquals(1717200000000L + 499 * 1000L, builder.getLastTimestamp());
+
+        byte[] data = builder.compress();
+        assertTrue("压缩后 " + data.length + " 字节", data.length < builder.getRawBytes() / 3);
+        assertRecords(records, MessageSegmentCodec.decode(data, builder.getRawBytes()));
+    }
+
+    /**
+     * 内容按UTF-8计长度，多字节字符和代理对都能原样还原
+     */
+    @Test
+    public void cjkAndEmojiContentRoundTrips() throws IOException {
+        List<MessageSegmentCodec.Record> records = new ArrayList<>();
+        for (int i = 0; i < CONTENTS.length; i++) {
+            records.add(new MessageSegmentCodec.Record(i + 1, 1, i, CONTENTS[i]));
+        }
+        MessageSegmentCodec.Builder builder = build(records);
+        assertRecords(records, MessageSegmentCodec.decode(builder.compress(), builder.getRawBytes()));
+    }
+
+    @Test
+    public void rejectsInvalidRecordLength() throws IOException {
+        // 短于固定头、超出段末尾、负数
+        for (int length : new int[]{16, 0, 100, -1}) {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(raw);
+            out.writeInt(length);
+            out.writeLong(1);
+            out.writeByte(0);
+            out.writeLong(2);
+            out.write("在吗".getBytes(StandardCharsets.UTF_8));
+            assertCorrupt(deflate(raw.toByteArray()), raw.size());
+        }
+    }
+
+    /**
+     * 调用方记录的未压缩长度与实际不符
+     */
+    @Test
+    public void rejectsRawLengthMismatch() throws IOException {
+        MessageSegmentCodec.Builder builder = build(Arrays.asList(
+                new MessageSegmentCodec.Record(1, 0, 1, "第一条"),
+                new MessageSegmentCodec.Record(2, 1, 2, "第二条")));
+        byte[] data = builder.compress();
+        assertCorrupt(data, builder.getRawBytes() + 1);
+        // 短了也不行：最后一条记录会越过段末尾
+        assertCorrupt(data, builder.getRawBytes() - 1);
+    }
+
+    @Test
+    public void rejectsCorruptedDeflateData() throws IOException {
+        List<MessageSegmentCodec.Record> records = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            records.add(new MessageSegmentCodec.Record(i, 0, i, CONTENTS[i % CONTENTS.length]));
+        }
+        MessageSegmentCodec.Builder builder = build(records);
+        byte[] data = builder.compress();
+
+        byte[] badHeader = data.clone();
+        badHeader[0] ^= 0x55;
+        assertCorrupt(badHeader, builder.getRawBytes());
+        assertCorrupt(Arrays.copyOf(data, data.length / 2), builder.getRawBytes());
+        assertCorrupt(new byte[]{1, 2, 3, 4, 5}, builder.getRawBytes());
+    }
+
+    private static MessageSegmentCodec.Builder build(List<MessageSegmentCodec.Record> records) throws IOException {
+        MessageSegmentCodec.Builder builder = new MessageSegmentCodec.Builder();
+        for (MessageSegmentCodec.Record record : records) {
+            builder.add(record);
+        }
+        return builder;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[raw.length + 64];
+            return Arrays.copyOf(buffer, deflater.deflate(buffer));
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void assertCorrupt(byte[] data, int rawBytes) {
+        try {
+            MessageSegmentCodec.decode(data, rawBytes);
+            fail("损坏的段应解码失败");
+        } catch (IOException expected) {
+            // 数据损坏
+        }
+    }
+
+    private static void assertRecords(List<MessageSegmentCodec.Record> expected,
+                                      List<MessageSegmentCodec.Record> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            MessageSegmentCodec.Record want = expected.get(i);
+            MessageSegmentCodec.Record got = actual.get(i);
+            String where = "第 " + i + " 条";
+            assertEquals(where, want.id, got.id);
+            assertEquals(where, want.sender, got.sender);
+            assertEquals(where, want.timestamp, got.timestamp);
+            assertEquals(where, want.content, got.content);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.momoautoreply;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 随机的追加序列与作为参照的 ArrayDeque 逐条比较
+ */
+public class MessageWindowTest {
+
+    // 覆盖数字ID、前导0、超长数字、文本ID和null
+    private static final String[] TEXT_IDS = {"pending-1", "007", "0", "1234567890123456789", "", null, "-5", "12a"};
+    private static final String[] CONTENTS = {"在吗", "你好呀～", "", null, "周末一起去吃火锅？😀"};
+
+    @Test
+    public void matchesReferenceDeque() {
+        Random random = new Random(7);
+        for (int maxSize : new int[]{1, 2, 7, 8, 9, 20, 64}) {
+            MessageWindow window = new MessageWindow(maxSize);
+            ArrayDeque<ChatMessage> reference = new ArrayDeque<>();
+            for (int i = 0; i < maxSize * 20; i++) {
+                if (random.nextInt(10) == 0) {
+                    List<ChatMessage> batch = new ArrayList<>();
+                    int count = random.nextInt(maxSize * 2 + 1);
+                    for (int j = 0; j < count; j++) {
+                        batch.add(randomMessage(random, i * 100 + j));
+                    }
+                    window.addAll(batch);
+                    for (ChatMessage message : batch) {
+                        append(reference, message, maxSize);
+                    }
+                } else {
+                    ChatMessage message = randomMessage(random, i);
+                    window.add(message);
+                    append(reference, message, maxSize);
+                }
+                assertSame(new ArrayList<>(reference), window);
+            }
+        }
+    }
+
+    /**
+     * copy 返回的列表不受之后追加的影响
+     */
+    @Test
+    public void copyIsIsolatedFromLaterWrites() {
+        Random random = new Random(13);
+        MessageWindow window = new MessageWindow(10);
+        ArrayDeque<ChatMessage> reference = new ArrayDeque<>();
+        List<List<ChatMessage>> copies = new ArrayList<>();
+        List<List<ChatMessage>> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ChatMessage message = randomMessage(random, i);
+            window.add(message);
+            append(reference, message, 10);
+            copies.add(window.copy());
+            expected.add(new ArrayList<>(reference));
+        }
+        for (int i = 0; i < copies.size(); i++) {
+            assertMessages(expected.get(i), copies.get(i));
+        }
+        try {
+            copies.get(0).add(message("1", "x", 0));
+            fail("副本应为只读");
+        } catch (UnsupportedOperationException expectedException) {
+            // 只读列表
+        }
+    }
+
+    @Test
+    public void nonPositiveSizeKeepsOneMessage() {
+        MessageWindow window = new MessageWindow(0);
+        window.add(message("1", "第一条", 1));
+        window.add(message("2", "第二条", 2));
+        assertEquals(1, window.size());
+        assertEquals("第二条", window.get(0).content);
+    }
+
+    @Test
+    public void getOutOfRangeThrows() {
+        MessageWindow window = new MessageWindow(4);
+        window.add(message("1", "在吗", 1));
+        for (int index : new int[]{-1, 1}) {
+            try {
+                window.get(index);
+                fail("下标 " + index + " 越界");
+            } catch (IndexOutOfBoundsException expected) {
+                // 越界
+            }
+        }
+    }
+
+    /**
+     * 反复覆盖后的内存估算与只装入最终内容的窗口一致，内容字节数不会累积误差
+     */
+    @Test
+    public void estimateDoesNotDriftAfterOverwrites() {
+        Random random = new Random(19);
+        int maxSize = 16;
+        MessageWindow window = new MessageWindow(maxSize);
+        MessageWindow fresh = new MessageWindow(maxSize);
+        window.add(message("pending-0", "x", 0));
+        fresh.add(message("pending-0", "x", 0));
+        List<ChatMessage> all = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ChatMessage message = randomMessage(random, i);
+            window.add(message);
+            all.add(message);
+        }
+        fresh.addAll(all);
+        assertSame(all.subList(all.size() - maxSize, all.size()), fresh);
+        assertEquals(fresh.estimateBytes(), window.estimateBytes());
+
+        MessageWindow small = new MessageWindow(maxSize);
+        small.add(message("1", "在吗", 1));
+        assertTrue(small.estimateBytes() < window.estimateBytes());
+    }
+
+    private static void append(ArrayDeque<ChatMessage> reference, ChatMessage message, int maxSize) {
+        reference.addLast(message);
+        while (reference.size() > maxSize) {
+            reference.removeFirst();
+        }
+    }
+
+    private static ChatMessage randomMessage(Random random, long index) {
+        String id = random.nextInt(4) == 0 ? TEXT_IDS[random.nextInt(TEXT_IDS.length)]
+                : String.valueOf(random.nextInt(3) == 0 ? Long.MAX_VALUE / 1000 - index : index);
+        String sender = random.nextBoolean() ? "self" : "other";
+        String content = random.nextInt(3) == 0 ? CONTENTS[random.nextInt(CONTENTS.length)] : "消息" + index;
+        long timestamp = random.nextInt(5) == 0 ? -random.nextInt(1000) : 1718000000000L + index;
+        return new ChatMessage(id, sender, content, timestamp);
+    }
+
+    private static ChatMessage message(String id, String content, long timestamp) {
+        return new ChatMessage(id, "other", content, timestamp);
+    }
+
+    private static void assertSame(List<ChatMessage> expected, MessageWindow window) {
+        assertEquals(expected.size(), window.size());
+        List<ChatMessage> actual = new ArrayList<>(window.size());
+        for (int i = 0; i < window.size(); i++) {
+            actual.add(window.get(i));
+        }
+        assertMessages(expected, actual);
+        assertMessages(expected, window.copy());
+    }
+
+    private static void assertMessages(List<ChatMessage> expected, List<ChatMessage> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            ChatMessage want = expected.get(i);
+            ChatMessage got = actual.get(i);
+            String where = "第 " + i + " 条";
+            assertEquals(where, want.id, got.id);
+            assertEquals(where, want.sender, got.sender);
+            assertEquals(where, want.content, got.content);
+            assertEquals(where, want.timestamp, got.timestamp);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.momoautoreply;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MetricsHttpServer 测试：在系统分配的端口上启动，用本机HTTP请求抓取指标
+ */
+public class MetricsHttpServerTest {
+
+    private MetricsRegistry registry;
+    private MetricsHttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        registry = new MetricsRegistry();
+        server = new MetricsHttpServer(registry, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void listensOnAssignedPort() {
+        assertTrue(server.getPort() > 0);
+    }
+
+    @Test
+    public void metricsUseExpositionFormat() throws IOException {
+        registry.counter("momo_messages_total", "收到的消息数", "source", "chat").add(3);
+        registry.gauge("momo_queue_depth", "队列长度", () -> 2.5);
+
+        HttpURLConnection connection = open("/metrics");
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+        String body = read(connection.getInputStream());
+
+        assertTrue(body.contains("# HELP momo_messages_total 收到的消息数\n"));
+        assertTrue(body.contains("# TYPE momo_messages_total counter\n"));
+        assertTrue(body.contains("momo_messages_total{source=\"chat\"} 3\n"));
+        assertTrue(body.contains("# TYPE momo_queue_depth gauge\n"));
+        assertTrue(body.contains("momo_queue_depth 2.5\n"));
+        // 按指标名排序输出
+        assertTrue(body.indexOf("momo_messages_total") < body.indexOf("momo_queue_depth"));
+    }
+
+    @Test
+    public void histogramIsScaledToSeconds() throws IOException {
+        Histogram latency = registry.histogram("momo_reply_seconds", "回复耗时", MetricsRegistry.MICROS_BUCKETS,
+                MetricsRegistry.MICROS_TO_SECONDS, "model", "ZHIPU");
+        latency.record(200);
+        latency.record(3000);
+
+        HttpURLConnection connection = open("/metrics");
+        assertEquals(200, connection.getResponseCode());
+        String body = read(connection.getInputStream());
+
+        assertTrue(body.contains("# TYPE momo_reply_seconds histogram\n"));
+        assertTrue(body.contains("momo_reply_seconds_bucket{model=\"ZHIPU\",le=\"0.0001\"} 0\n"));
+        assertTrue(body.contains("momo_reply_seconds_bucket{model=\"ZHIPU\",le=\"0.00025\"} 1\n"));
+        assertTrue(body.contains("momo_reply_seconds_bucket{model=\"ZHIPU\",le=\"0.0025\"} 1\n"));
+        assertTrue(body.contains("momo_reply_seconds_bucket{model=\"ZHIPU\",le=\"0.005\"} 2\n"));
+        assertTrue(body.contains("momo_reply_seconds_bucket{model=\"ZHIPU\",le=\"60\"} 2\n"));
+        assertTrue(body.contains("momo_reply_seconds_bucket{model=\"ZHIPU\",le=\"+Inf\"} 2\n"));
+        assertEquals(0.0032, sample(body, "momo_reply_seconds_sum{model=\"ZHIPU\"}"), 1e-12);
+        assertTrue(body.contains("momo_reply_seconds_count{model=\"ZHIPU\"} 2\n"));
+    }
+
+    @Test
+    public void queryStringIsIgnored() throws IOException {
+        assertEquals(200, open("/metrics?name=momo").getResponseCode());
+    }
+
+    @Test
+    public void otherPathsReturnNotFound() throws IOException {
+        assertEquals(404, open("/").getResponseCode());
+        assertEquals(404, open("/metrics/extra").getResponseCode());
+    }
+
+    @Test
+    public void otherMethodsReturnMethodNotAllowed() throws IOException {
+        HttpURLConnection connection = open("/metrics");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write("x".getBytes(StandardCharsets.US_ASCII));
+        }
+        assertEquals(405, connection.getResponseCode());
+
+        HttpURLConnection head = open("/metrics");
+        head.setRequestMethod("HEAD");
+        assertEquals(405, head.getResponseCode());
+    }
+
+    @Test
+    public void survivesMalformedRequest() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.getOutputStream().write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            socket.shutdownOutput();
+            read(socket.getInputStream());
+        }
+        assertEquals(200, open("/metrics").getResponseCode());
+    }
+
+    @Test
+    public void stopReleasesPort() throws IOException {
+        server.stop();
+        assertEquals(-1, server.getPort());
+        server.start();
+        assertEquals(200, open("/metrics").getResponseCode());
+    }
+
+    /**
+     * 读取一个样本的值
+     */
+    private static double sample(String body, String series) {
+        for (String line : body.split("\n")) {
+            if (line.startsWith(series + " ")) {
+                return Double.parseDouble(line.substring(series.length() + 1));
+            }
+        }
+        throw new AssertionError("没有样本: " + series);
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(2000);
+        connection.setReadTimeout(2000);
+        return connection;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.momoautoreply;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * SimpleWebSocket 测试：连接本机替身服务，按星火的方式流式应答后关闭连接
+ */
+public class SimpleWebSocketTest {
+
+    private static final int TIMEOUT_MS = 2000;
+
+    private LoopbackWebSocketServer server;
+    private URI uri;
+
+    @Before
+    public void setUp() throws IOException {
+        // 每个请求应答三条消息，最后一条 status=2 后关闭连接
+        server = new LoopbackWebSocketServer((connection, text) -> {
+            connection.sendText("{\"status\":0,\"content\":\"" + text + "-1\"}");
+            connection.sendText("{\"status\":1,\"content\":\"" + text + "-2\"}");
+            connection.sendText("{\"status\":2,\"content\":\"" + text + "-3\"}");
+            connection.sendClose();
+        }).start();
+        uri = server.uri("/v3.5/chat?authorization=abc");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void handshakeSendsPathAndQuery() throws IOException {
+        SimpleWebSocket socket = SimpleWebSocket.connect(uri, TIMEOUT_MS, TIMEOUT_MS);
+        try {
+            assertTrue(socket.isOpen());
+            assertEquals(1, server.getHandshakeCount());
+            assertEquals("/v3.5/chat?authorization=abc", server.getConnections().get(0).getRequestUri());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void streamsMessagesUntilServerCloses() throws IOException {
+        SimpleWebSocket socket = SimpleWebSocket.connect(uri, TIMEOUT_MS, TIMEOUT_MS);
+        socket.sendText("你好");
+
+        assertEquals("{\"status\":0,\"content\":\"你好-1\"}", socket.readText());
+        assertEquals("{\"status\":1,\"content\":\"你好-2\"}", socket.readText());
+        assertEquals("{\"status\":2,\"content\":\"你好-3\"}", socket.readText());
+        // 服务端在最后一条之后发送关闭帧
+        assertNull(socket.readText());
+        assertFalse(socket.isOpen());
+        try {
+            socket.sendText("再来");
+            fail("关闭后不能再发送");
+        } catch (IOException expected) {
+            // 已关闭
+        }
+    }
+
+    @Test
+    public void reconnectsAfterServerClose() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            SimpleWebSocket socket = SimpleWebSocket.connect(uri, TIMEOUT_MS, TIMEOUT_MS);
+            socket.sendText("第" + i + "轮");
+            assertEquals("{\"status\":0,\"content\":\"第" + i + "轮-1\"}", socket.readText());
+            socket.readText();
+            socket.readText();
+            assertNull(socket.readText());
+        }
+        assertEquals(3, server.getHandshakeCount());
+        for (LoopbackWebSocketServer.Connection connection : server.getConnections()) {
+            assertEquals(1, connection.getMessageCount());
+        }
+    }
+
+    @Test
+    public void droppedConnectionFailsRead() throws IOException {
+        SimpleWebSocket socket = SimpleWebSocket.connect(uri, TIMEOUT_MS, TIMEOUT_MS);
+        server.dropAll();
+        try {
+            socket.readText();
+            fail("连接断开后读取应失败");
+        } catch (IOException expected) {
+            // 没有关闭帧的断开按读取失败处理
+        } finally {
+            socket.close();
+        }
+        assertFalse(socket.isOpen());
+    }
+
+    @Test
+    public void reassemblesFragmentsAndAnswersPing() throws IOException {
+        LoopbackWebSocketServer fragmenting = new LoopbackWebSocketServer((connection, text) -> {
+            connection.sendPing("心跳".getBytes(StandardCharsets.UTF_8));
+            connection.sendFragmentedText(text + text, 5);
+        }).start();
+        try {
+            SimpleWebSocket socket = SimpleWebSocket.connect(fragmenting.uri("/"), TIMEOUT_MS, TIMEOUT_MS);
+            try {
+                socket.sendText("分片消息");
+                assertEquals("分片消息分片消息", socket.readText());
+                // pong 在读取消息的过程中发出，服务端收到后才会处理下一条
+                socket.sendText("x");
+                assertEquals("xx", socket.readText());
+                assertArrayEquals("心跳".getBytes(StandardCharsets.UTF_8),
+                        fragmenting.getConnections().get(0).getLastPong());
+            } finally {
+                socket.close();
+            }
+        } finally {
+            fragmenting.close();
+        }
+    }
+
+    @Test
+    public void rejectsOversizedFrame() throws IOException {
+        LoopbackWebSocketServer oversized = new LoopbackWebSocketServer(
+                (connection, text) -> connection.sendOversizedHeader(Integer.MAX_VALUE)).start();
+        try {
+            SimpleWebSocket socket = SimpleWebSocket.connect(oversized.uri("/"), TIMEOUT_MS, TIMEOUT_MS);
+            try {
+                socket.sendText("x");
+                socket.readText();
+                fail("超过长度上限的帧应被拒绝");
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().contains("帧过大"));
+            } finally {
+                socket.close();
+            }
+        } finally {
+            oversized.close();
+        }
+    }
+
+    /**
+     * 64位长度最高位置位时按无符号数是超大帧，不能当作负数长度分配数组
+     */
+    @Test
+    public void rejectsNegativeFrameLength() throws IOException {
+        LoopbackWebSocketServer negative = new LoopbackWebSocketServer(
+                (connection, text) -> connection.sendOversizedHeader(Long.MIN_VALUE | 5)).start();
+        try {
+            SimpleWebSocket socket = SimpleWebSocket.connect(negative.uri("/"), TIMEOUT_MS, TIMEOUT_MS);
+            try {
+                socket.sendText("x");
+                socket.readText();
+                fail("长度最高位置位的帧应被拒绝");
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().contains("帧过大"));
+            } finally {
+                socket.close();
+            }
+        } finally {
+            negative.close();
+        }
+    }
+
+    @Test
+    public void failedHandshakeThrows() {
+        server.rejectHandshakes = true;
+        try {
+            SimpleWebSocket.connect(uri, TIMEOUT_MS, TIMEOUT_MS);
+            fail("握手被拒绝时应抛出异常");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("握手失败"));
+        }
+        assertEquals(1, server.getRejectedCount());
+        assertEquals(0, server.getHandshakeCount());
+    }
+
+    /**
+     * 连接或握手失败时关闭连接，反复重连不会泄漏文件描述符（只在有 /proc/self/fd 的系统上检查）
+     */
+    @Test
+    public void failedConnectsDoNotLeakSockets() throws IOException {
+        File fdDir = new File("/proc/self/fd");
+        Assume.assumeTrue(fdDir.isDirectory());
+        server.rejectHandshakes = true;
+        URI refused;
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            refused = URI.create("ws://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" +
+                    closed.getLocalPort() + "/");
+        }
+
+        int before = openFileCount(fdDir);
+        for (int i = 0; i < 50; i++) {
+            for (URI target : new URI[]{uri, refused}) {
+                try {
+                    SimpleWebSocket.connect(target, TIMEOUT_MS, TIMEOUT_MS);
+                    fail("连接应失败: " + target);
+                } catch (IOException expected) {
+                    // 每次都失败
+                }
+            }
+        }
+        int after = openFileCount(fdDir);
+        assertTrue("打开的文件数从 " + before + " 增加到 " + after, after < before + 10);
+    }
+
+    @Test
+    public void unsupportedSchemeIsRejected() {
+        try {
+            SimpleWebSocket.connect(URI.create("http://127.0.0.1:" + server.getPort() + "/"), TIMEOUT_MS, TIMEOUT_MS);
+            fail("只支持 ws:// 和 wss://");
+        } catch (IOException expected) {
+            assertEquals(0, server.getHandshakeCount());
+        }
+    }
+
+    private static int openFileCount(File fdDir) {
+        String[] files = fdDir.list();
+        return files == null ? 0 : files.length;
+    }
+}
@@ -0,0 +1,194 @@
+package com.momoautoreply;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 升档立即生效，降档需要回差并持续一段时间，回复按当前档位的间隔排队
+ */
+public class ThroughputGovernorTest {
+
+    private static final long MS = 1000000L;
+
+    private final List<String> changes = new ArrayList<>();
+    private ThroughputGovernor governor;
+
+    @Before
+    public void setUp() {
+        governor = new ThroughputGovernor((from, to) -> changes.add(from + "->" + to));
+    }
+
+    @Test
+    public void startsNormal() {
+        assertEquals(ThroughputGovernor.Level.NORMAL, governor.getLevel());
+        assertEquals(ThroughputGovernor.Level.NORMAL, update(100, true, ThroughputGovernor.THERMAL_NONE, 0));
+        assertTrue(changes.isEmpty());
+        assertEquals(0, governor.getTransitionCount());
+    }
+
+    @Test
+    public void escalatesImmediately() {
+        assertEquals(ThroughputGovernor.Level.THROTTLED, update(30, false, ThroughputGovernor.THERMAL_NONE, 0));
+        assertEquals(ThroughputGovernor.Level.HOT, update(30, false, ThroughputGovernor.THERMAL_SEVERE, 1));
+        assertEquals(ThroughputGovernor.Level.CRITICAL, update(5, false, ThroughputGovernor.THERMAL_NONE, 2));
+        assertEquals(3, governor.getTransitionCount());
+        assertEquals("[NORMAL->THROTTLED, THROTTLED->HOT, HOT->CRITICAL]", changes.toString());
+    }
+
+    @Test
+    public void chargingIgnoresBattery() {
+        assertEquals(ThroughputGovernor.Level.NORMAL, update(3, true, ThroughputGovernor.THERMAL_NONE, 0));
+        assertEquals(ThroughputGovernor.Level.THROTTLED, update(3, true, ThroughputGovernor.THERMAL_MODERATE, 1));
+    }
+
+    /**
+     * 电量回到阈值以上但在回差以内时保持原档位，不会在阈值附近来回切换
+     */
+    @Test
+    public void staysWithinHysteresisBand() {
+        update(30, false, ThroughputGovernor.THERMAL_NONE, 0);
+        for (int i = 0; i < 10; i++) {
+            int battery = i % 2 == 0 ? 31 : 29;
+            long now = (i + 1) * ThroughputGovernor.COOL_DOWN_MS;
+            assertEquals(ThroughputGovernor.Level.THROTTLED, update(battery, false, ThroughputGovernor.THERMAL_NONE, now));
+        }
+        assertEquals(1, governor.getTransitionCount());
+    }
+
+    @Test
+    public void relaxesAfterCoolDown() {
+        update(30, false, ThroughputGovernor.THERMAL_NONE, 0);
+        assertEquals(ThroughputGovernor.Level.THROTTLED, update(36, false, ThroughputGovernor.THERMAL_NONE, 1000));
+        assertEquals(ThroughputGovernor.Level.THROTTLED,
+                update(36, false, ThroughputGovernor.THERMAL_NONE, 1000 + ThroughputGovernor.COOL_DOWN_MS - 1));
+        assertEquals(ThroughputGovernor.Level.NORMAL,
+                update(36, false, ThroughputGovernor.THERMAL_NONE, 1000 + ThroughputGovernor.COOL_DOWN_MS));
+        assertEquals("[NORMAL->THROTTLED, THROTTLED->NORMAL]", changes.toString());
+    }
+
+    /**
+     * 降档条件中断后重新计时
+     */
+    @Test
+    public void coolDownRestartsWhenInterrupted() {
+        update(30, false, ThroughputGovernor.THERMAL_NONE, 0);
+        update(40, false, ThroughputGovernor.THERMAL_NONE, 1000);
+        update(33, false, ThroughputGovernor.THERMAL_NONE, 1000 + ThroughputGovernor.COOL_DOWN_MS / 2);
+        update(40, false, ThroughputGovernor.THERMAL_NONE, 1000 + ThroughputGovernor.COOL_DOWN_MS / 2 + 1);
+        assertEquals(ThroughputGovernor.Level.THROTTLED,
+                update(40, false, ThroughputGovernor.THERMAL_NONE, 1000 + ThroughputGovernor.COOL_DOWN_MS));
+        assertEquals(ThroughputGovernor.Level.NORMAL,
+                update(40, false, ThroughputGovernor.THERMAL_NONE, 1000 + ThroughputGovernor.COOL_DOWN_MS * 3 / 2 + 1));
+    }
+
+    /**
+     * 从高档位降档时只降到加上回差后仍满足的档位
+     */
+    @Test
+    public void relaxesOnlyToLevelOutsideHysteresis() {
+        assertEquals(ThroughputGovernor.Level.CRITICAL, update(18, false, ThroughputGovernor.THERMAL_CRITICAL, 0));
+        update(18, false, ThroughputGovernor.THERMAL_NONE, 1000);
+        // 18% 高于 15% 但在回差以内，只能降到 HOT
+        assertEquals(ThroughputGovernor.Level.HOT,
+                update(18, false, ThroughputGovernor.THERMAL_NONE, 1000 + ThroughputGovernor.COOL_DOWN_MS));
+        update(18, false, ThroughputGovernor.THERMAL_NONE, 2000 + ThroughputGovernor.COOL_DOWN_MS);
+        assertEquals(ThroughputGovernor.Level.HOT,
+                update(18, false, ThroughputGovernor.THERMAL_NONE, 2000 + ThroughputGovernor.COOL_DOWN_MS * 3));
+    }
+
+    @Test
+    public void escalationCancelsCoolDown() {
+        update(30, false, ThroughputGovernor.THERMAL_NONE, 0);
+        update(50, false, ThroughputGovernor.THERMAL_NONE, 1000);
+        assertEquals(ThroughputGovernor.Level.HOT, update(50, false, ThroughputGovernor.THERMAL_SEVERE, 2000));
+        update(50, false, ThroughputGovernor.THERMAL_NONE, 3000);
+        assertEquals(ThroughputGovernor.Level.HOT,
+                update(50, false, ThroughputGovernor.THERMAL_NONE, 1000 + ThroughputGovernor.COOL_DOWN_MS));
+        assertEquals(ThroughputGovernor.Level.NORMAL,
+                update(50, false, ThroughputGovernor.THERMAL_NONE, 3000 + ThroughputGovernor.COOL_DOWN_MS));
+    }
+
+    @Test
+    public void backgroundNeedsCoolDeviceAndPower() {
+        update(100, true, ThroughputGovernor.THERMAL_NONE, 0);
+        assertTrue(governor.isBackgroundAllowed());
+        update(51, false, ThroughputGovernor.THERMAL_NONE, 1);
+        assertTrue(governor.isBackgroundAllowed());
+        update(50, false, ThroughputGovernor.THERMAL_NONE, 2);
+        assertFalse(governor.isBackgroundAllowed());
+        update(100, true, ThroughputGovernor.THERMAL_LIGHT, 3);
+        assertFalse(governor.isBackgroundAllowed());
+        // 轻微发热不影响档位
+        assertEquals(ThroughputGovernor.Level.NORMAL, governor.getLevel());
+    }
+
+    @Test
+    public void normalLevelDoesNotPaceReplies() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, governor.reserveReplySlot(1000));
+        }
+    }
+
+    /**
+     * 同时预约的回复按档位间隔依次排队，空闲超过间隔后不再等待
+     */
+    @Test
+    public void pacesRepliesByLevelInterval() {
+        update(25, false, ThroughputGovernor.THERMAL_NONE, 0);
+        long interval = ThroughputGovernor.Level.THROTTLED.replyIntervalMs * MS;
+        long now = 5000 * MS;
+
+        assertEquals(0, governor.reserveReplySlot(now));
+        assertEquals(interval, governor.reserveReplySlot(now));
+        assertEquals(2 * interval, governor.reserveReplySlot(now));
+        // 过了一半间隔再预约，排在第三个之后
+        assertEquals(3 * interval - interval / 2, governor.reserveReplySlot(now + interval / 2));
+
+        assertEquals(0, governor.reserveReplySlot(now + 10 * interval));
+        assertEquals(interval - 1, governor.reserveReplySlot(now + 10 * interval + 1));
+    }
+
+    @Test
+    public void pacingFollowsCurrentLevel() {
+        update(25, false, ThroughputGovernor.THERMAL_NONE, 0);
+        long now = 0;
+        assertEquals(0, governor.reserveReplySlot(now));
+        update(25, false, ThroughputGovernor.THERMAL_CRITICAL, 1);
+        // 已排好的时间不变，之后的间隔按新档位计算
+        assertEquals(ThroughputGovernor.Level.THROTTLED.replyIntervalMs * MS, governor.reserveReplySlot(now));
+        assertEquals((ThroughputGovernor.Level.THROTTLED.replyIntervalMs
+                + ThroughputGovernor.Level.CRITICAL.replyIntervalMs) * MS, governor.reserveReplySlot(now));
+    }
+
+    /**
+     * 纳秒时间可能为负数或回绕，排队只比较差值
+     */
+    @Test
+    public void pacingHandlesNanoTimeWraparound() {
+        update(25, false, ThroughputGovernor.THERMAL_NONE, 0);
+        long interval = ThroughputGovernor.Level.THROTTLED.replyIntervalMs * MS;
+        long now = Long.MAX_VALUE - interval / 2;
+        assertEquals(0, governor.reserveReplySlot(now));
+        assertEquals(interval - 1, governor.reserveReplySlot(now + 1));
+    }
+
+    @Test
+    public void thermalFromBatteryTemperatureThresholds() {
+        assertEquals(ThroughputGovernor.THERMAL_NONE, ThroughputGovernor.thermalFromBatteryTemperature(389));
+        assertEquals(ThroughputGovernor.THERMAL_LIGHT, ThroughputGovernor.thermalFromBatteryTemperature(390));
+        assertEquals(ThroughputGovernor.THERMAL_MODERATE, ThroughputGovernor.thermalFromBatteryTemperature(420));
+        assertEquals(ThroughputGovernor.THERMAL_SEVERE, ThroughputGovernor.thermalFromBatteryTemperature(450));
+        assertEquals(ThroughputGovernor.THERMAL_CRITICAL, ThroughputGovernor.thermalFromBatteryTemperature(480));
+    }
+
+    private ThroughputGovernor.Level update(int battery, boolean charging, int thermal, long nowMillis) {
+        return governor.update(battery, charging, thermal, nowMillis);
+    }
+}
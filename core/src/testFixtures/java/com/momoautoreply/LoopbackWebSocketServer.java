@@ -0,0 +1,428 @@
+package com.momoautoreply;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本机的WebSocket替身服务（RFC 6455 服务端的最小实现）
+ * 功能：
+ * 1. 只监听回环地址，完成HTTP升级握手，记录每个连接的请求地址
+ * 2. 收到客户端的文本消息时交给 Handler，由测试决定如何应答
+ * 3. 可以发送分片文本、ping、关闭帧，或不发关闭帧直接断开，模拟服务端的各种行为
+ * 4. 可以拒绝握手，用于测试连接失败的处理
+ *
+ * 每个连接一个线程，客户端帧必须带掩码。用于在JVM测试中代替讯飞星火等WebSocket接口。
+ */
+public class LoopbackWebSocketServer implements Closeable {
+
+    private static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    /**
+     * 处理客户端消息，在连接线程中调用
+     */
+    public interface Handler {
+        void onText(Connection connection, String text) throws IOException;
+    }
+
+    /**
+     * 一个已握手的连接
+     */
+    public static final class Connection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final String requestUri;
+        private final AtomicInteger messages = new AtomicInteger();
+        private volatile boolean open = true;
+        private volatile byte[] lastPong;
+
+        Connection(Socket socket, InputStream in, OutputStream out, String requestUri) {
+            this.socket = socket;
+            this.in = in;
+            this.out = out;
+            this.requestUri = requestUri;
+        }
+
+        /**
+         * 握手请求中的路径和查询参数
+         */
+        public String getRequestUri() {
+            return requestUri;
+        }
+
+        /**
+         * 在该连接上收到的文本消息数
+         */
+        public int getMessageCount() {
+            return messages.get();
+        }
+
+        /**
+         * 连接是否仍未断开
+         */
+        public boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * 最近一次收到的pong内容，没有时为null
+         */
+        public byte[] getLastPong() {
+            return lastPong;
+        }
+
+        public void sendText(String text) throws IOException {
+            sendFrame(true, OPCODE_TEXT, text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * 把文本拆成多个分片发送
+         * @param fragmentBytes 每个分片的字节数
+         */
+        public void sendFragmentedText(String text, int fragmentBytes) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            int offset = 0;
+            do {
+                int end = Math.min(bytes.length, offset + fragmentBytes);
+                byte[] fragment = new byte[end - offset];
+                System.arraycopy(bytes, offset, fragment, 0, fragment.length);
+                sendFrame(end == bytes.length, offset == 0 ? OPCODE_TEXT : OPCODE_CONTINUATION, fragment);
+                offset = end;
+            } while (offset < bytes.length);
+        }
+
+        public void sendPing(byte[] payload) throws IOException {
+            sendFrame(true, OPCODE_PING, payload);
+        }
+
+        /**
+         * 只发送帧头，声明一个很长的文本帧，用于测试客户端的长度上限
+         */
+        public void sendOversizedHeader(long length) throws IOException {
+            byte[] header = new byte[10];
+            header[0] = (byte) (0x80 | OPCODE_TEXT);
+            header[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                header[9 - i] = (byte) (length >>> (8 * i));
+            }
+            synchronized (this) {
+                out.write(header);
+                out.flush();
+            }
+        }
+
+        /**
+         * 发送关闭帧并断开，与星火在回答结束后的行为一致
+         */
+        public void sendClose() throws IOException {
+            try {
+                sendFrame(true, OPCODE_CLOSE, new byte[0]);
+            } finally {
+                drop();
+            }
+        }
+
+        /**
+         * 不发关闭帧直接断开，模拟网络中断或服务端悄悄回收连接
+         */
+        public void drop() {
+            open = false;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // 忽略关闭异常
+            }
+        }
+
+        private synchronized void sendFrame(boolean fin, int opcode, byte[] payload) throws IOException {
+            int length = payload.length;
+            byte[] header;
+            if (length < 126) {
+                header = new byte[]{0, (byte) length};
+            } else if (length <= 0xFFFF) {
+                header = new byte[]{0, 126, (byte) (length >>> 8), (byte) length};
+            } else {
+                header = new byte[10];
+                header[1] = 127;
+                for (int i = 0; i < 8; i++) {
+                    header[9 - i] = (byte) ((long) length >>> (8 * i));
+                }
+            }
+            header[0] = (byte) ((fin ? 0x80 : 0) | opcode);
+            out.write(header);
+            out.write(payload);
+            out.flush();
+        }
+
+        /**
+         * 读取客户端消息直到连接断开
+         */
+        void serve(Handler handler) throws IOException {
+            ByteArrayOutputStream message = null;
+            while (open) {
+                int b0 = readByte();
+                int b1 = readByte();
+                if ((b1 & 0x80) == 0) {
+                    throw new IOException("客户端帧没有掩码");
+                }
+                boolean fin = (b0 & 0x80) != 0;
+                int opcode = b0 & 0x0F;
+                long length = b1 & 0x7F;
+                if (length == 126) {
+                    length = ((long) readByte() << 8) | readByte();
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | readByte();
+                    }
+                }
+                byte[] mask = new byte[4];
+                readFully(mask);
+                byte[] payload = new byte[(int) length];
+                readFully(payload);
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+
+                switch (opcode) {
+                    case OPCODE_CLOSE:
+                        sendClose();
+                        return;
+                    case OPCODE_PING:
+                        sendFrame(true, OPCODE_PONG, payload);
+                        break;
+                    case OPCODE_PONG:
+                        lastPong = payload;
+                        break;
+                    default:
+                        if (message == null) {
+                            message = new ByteArrayOutputStream();
+                        }
+                        message.write(payload, 0, payload.length);
+                        if (fin) {
+                            messages.incrementAndGet();
+                            handler.onText(this, new String(message.toByteArray(), StandardCharsets.UTF_8));
+                            message = null;
+                        }
+                        break;
+                }
+            }
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            return b;
+        }
+
+        private void readFully(byte[] buffer) throws IOException {
+            int offset = 0;
+            while (offset < buffer.length) {
+                int n = in.read(buffer, offset, buffer.length - offset);
+                if (n == -1) {
+                    throw new EOFException();
+                }
+                offset += n;
+            }
+        }
+    }
+
+    private final Handler handler;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final AtomicInteger handshakes = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private ServerSocket serverSocket;
+
+    // 为true时以403拒绝握手
+    public volatile boolean rejectHandshakes;
+
+    public LoopbackWebSocketServer(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 在系统分配的端口上开始监听
+     */
+    public LoopbackWebSocketServer start() throws IOException {
+        serverSocket = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+        Thread acceptThread = new Thread(this::acceptLoop, "loopback-ws-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        return this;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 指向本服务的 ws:// 地址
+     * @param path 路径，例如 /v3.5/chat
+     */
+    public URI uri(String path) {
+        return URI.create("ws://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + getPort() + path);
+    }
+
+    /**
+     * 完成握手的连接数
+     */
+    public int getHandshakeCount() {
+        return handshakes.get();
+    }
+
+    /**
+     * 被拒绝的握手数
+     */
+    public int getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * 按握手顺序排列的全部连接（包括已断开的）
+     */
+    public List<Connection> getConnections() {
+        return new ArrayList<>(connections);
+    }
+
+    /**
+     * 仍未断开的连接数
+     */
+    public int getOpenConnectionCount() {
+        int open = 0;
+        for (Connection connection : connections) {
+            if (connection.isOpen()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * 不发关闭帧断开所有连接
+     */
+    public void dropAll() {
+        for (Connection connection : connections) {
+            connection.drop();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        dropAll();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread thread = new Thread(() -> handle(socket), "loopback-ws-conn");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void handle(Socket socket) {
+        Connection connection = null;
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            String requestLine = readLine(in);
+            String key = null;
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+                    key = line.substring(colon + 1).trim();
+                }
+            }
+            if (requestLine == null || !requestLine.startsWith("GET ") || key == null || rejectHandshakes) {
+                rejected.incrementAndGet();
+                out.write("HTTP/1.1 403 Forbidden\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                        .getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                return;
+            }
+
+            // 先登记连接再应答，客户端握手返回时即可查询到
+            connection = new Connection(socket, in, out, requestLine.split(" ")[1]);
+            connections.add(connection);
+            handshakes.incrementAndGet();
+            out.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                    "Upgrade: websocket\r\n" +
+                    "Connection: Upgrade\r\n" +
+                    "Sec-WebSocket-Accept: " + accept(key) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            connection.serve(handler);
+        } catch (IOException e) {
+            // 客户端断开或测试主动断开
+        } finally {
+            if (connection != null) {
+                connection.drop();
+            } else {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // 忽略关闭异常
+                }
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r') {
+                    sb.setLength(len - 1);
+                }
+                return sb.toString();
+            }
+            sb.append((char) b);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private static String accept(String key) throws IOException {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(
+                    sha1.digest((key + WS_GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1不可用", e);
+        }
+    }
+}